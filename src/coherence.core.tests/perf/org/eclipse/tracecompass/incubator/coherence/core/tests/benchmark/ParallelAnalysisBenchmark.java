@@ -0,0 +1,149 @@
+package org.eclipse.tracecompass.incubator.coherence.core.tests.benchmark;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.test.performance.Dimension;
+import org.eclipse.test.performance.Performance;
+import org.eclipse.test.performance.PerformanceMeter;
+import org.eclipse.tracecompass.incubator.coherence.core.module.XmlUtils;
+import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlScenarioObserver;
+import org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider.XmlPatternAnalysis;
+import org.eclipse.tracecompass.incubator.coherence.core.tests.Activator;
+import org.eclipse.tracecompass.incubator.trace.lostevents.core.trace.LostEventsTrace;
+import org.eclipse.tracecompass.tmf.analysis.xml.core.module.TmfXmlStrings;
+import org.eclipse.tracecompass.tmf.analysis.xml.core.tests.stateprovider.XmlModuleTestBase;
+import org.eclipse.tracecompass.tmf.core.event.TmfEvent;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfAnalysisException;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfTraceException;
+import org.eclipse.tracecompass.tmf.core.signal.TmfTraceOpenedSignal;
+import org.eclipse.tracecompass.tmf.core.tests.shared.TmfTestHelper;
+import org.eclipse.tracecompass.tmf.core.trace.TmfTraceManager;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Compare the time of the coherence analysis with the fsms handled by the
+ * thread reading the trace, with each fsm handled by its own thread, and with
+ * the scenarios of each fsm split in shards, the threads modifying the state
+ * system through its synchronized view
+ */
+public class ParallelAnalysisBenchmark {
+
+    /**
+     * Test test ID for kernel analysis benchmarks
+     */
+    public static final String TEST_ID = "org.eclipse.tracecompass#Coherence checking#";
+    private static final String TEST_BUILD = "Running Coherence Analysis (%s) Using %s";
+
+    private static final int LOOP_COUNT = 25;
+    private static final int WARMUP_COUNT = 10;
+    private static final int[] SHARD_COUNTS = { 2, 4, 8 };
+
+    private static final String fTrace = "/home/mmartin/Master/Traces/trace-sched-switch-delete100-109-with-lost/Sansfil-Securise-Etudiants-Lassonde-241-79.polymtl.ca/kernel/"; // FIXME
+    private static final String fXMLAnalysisFile = "testfiles/kernel_analysis_from_fsm.xml";
+
+    /**
+     * Run all benchmarks
+     */
+    @Test
+    public void runAllBenchmarks() {
+        runOneBenchmark(String.format(TEST_BUILD, fTrace, "one thread"), false, 1);
+        runOneBenchmark(String.format(TEST_BUILD, fTrace, "one thread per fsm"), true, 1);
+        for (int shards : SHARD_COUNTS) {
+            runOneBenchmark(String.format(TEST_BUILD, fTrace, shards + " shards per fsm"), true, shards);
+        }
+    }
+
+    private static void runOneBenchmark(String testName, boolean parallelFsms, int shards) {
+        Performance perf = Performance.getDefault();
+        PerformanceMeter pm = perf.createPerformanceMeter(TEST_ID + testName);
+        perf.tagAsSummary(pm, "Execution graph " + testName, Dimension.CPU_TIME);
+
+        for (int i = 0; i < LOOP_COUNT; i++) {
+            LostEventsTrace trace = null;
+            XmlPatternAnalysis module = null;
+            try {
+                trace = new LostEventsTrace();
+                trace.initTrace(null, fTrace, TmfEvent.class, "benchmark_trace", LostEventsTrace.ID);
+                trace.traceOpened(new TmfTraceOpenedSignal(null, trace, null));
+                module = createModule(trace);
+                module.getStateSystemModule().setParallelFsms(parallelFsms);
+                module.getStateSystemModule().setScenarioShards(shards);
+
+                // Don't take the first runs into account --> warmup time
+                if (i < WARMUP_COUNT) {
+                    TmfTestHelper.executeAnalysis(module);
+                } else {
+                    pm.start();
+                    TmfTestHelper.executeAnalysis(module);
+                    pm.stop();
+                }
+
+                /*
+                 * Delete the supplementary files, so that the next iteration
+                 * rebuilds the state system.
+                 */
+                File suppDir = new File(TmfTraceManager.getSupplementaryFileDir(trace));
+                for (File file : suppDir.listFiles()) {
+                    file.delete();
+                }
+            } catch (TmfTraceException e) {
+                fail(e.getMessage());
+            } catch (TmfAnalysisException e) {
+                fail(e.getMessage());
+            } catch (ParserConfigurationException e) {
+                fail(e.getMessage());
+            } catch (SAXException e) {
+                fail(e.getMessage());
+            } catch (IOException e) {
+                fail(e.getMessage());
+            } finally {
+                if (module != null) {
+                    module.dispose();
+                }
+                if (trace != null) {
+                    trace.dispose();
+                }
+            }
+        }
+        pm.commit();
+    }
+
+    private static XmlPatternAnalysis createModule(LostEventsTrace trace) throws ParserConfigurationException, SAXException, IOException, TmfAnalysisException {
+        IPath path = Activator.getAbsoluteFilePath(fXMLAnalysisFile);
+
+        // Get XML document
+        Document doc = XmlUtils.getDocumentFromFile(path.toFile());
+        assertNotNull(doc);
+
+        /* get State Providers modules */
+        NodeList stateproviderNodes = doc.getElementsByTagName(TmfXmlStrings.PATTERN);
+
+        Element node = (Element) stateproviderNodes.item(0);
+        assertNotNull(node);
+
+        // Create module
+        XmlPatternAnalysis module = new XmlPatternAnalysis(true);
+        module.setXmlFile(path.toFile().toPath());
+        module.setName(XmlModuleTestBase.getName(node));
+
+        String moduleId = node.getAttribute(TmfXmlStrings.ID);
+        assertNotNull(moduleId);
+        module.setId(moduleId);
+
+        module.setTrace(trace);
+
+        module.getStateSystemModule().changeCoherenceAlgorithm(TmfXmlScenarioObserver.ALGO1);
+        return module;
+    }
+}
@@ -0,0 +1,288 @@
+package org.eclipse.tracecompass.incubator.coherence.core.tests.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.test.performance.Dimension;
+import org.eclipse.test.performance.Performance;
+import org.eclipse.test.performance.PerformanceMeter;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlFsm;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlPatternEventHandler;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlShortestPaths;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlState;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlStateTransition;
+import org.eclipse.tracecompass.incubator.coherence.core.module.XmlUtils;
+import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlFsmTransition;
+import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlScenarioObserver;
+import org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider.XmlPatternAnalysis;
+import org.eclipse.tracecompass.incubator.coherence.core.tests.Activator;
+import org.eclipse.tracecompass.incubator.trace.lostevents.core.trace.LostEventsTrace;
+import org.eclipse.tracecompass.tmf.analysis.xml.core.module.TmfXmlStrings;
+import org.eclipse.tracecompass.tmf.analysis.xml.core.tests.stateprovider.XmlModuleTestBase;
+import org.eclipse.tracecompass.tmf.core.event.TmfEvent;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfAnalysisException;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfTraceException;
+import org.eclipse.tracecompass.tmf.core.signal.TmfTraceOpenedSignal;
+import org.eclipse.tracecompass.tmf.core.tests.shared.TmfTestHelper;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Compare the shortest path engine used to infer the missing transitions with
+ * the list-based implementation it replaced, on the fsms of the kernel
+ * analysis, with the statistics of a trace
+ */
+public class ShortestPathBenchmark {
+
+    /**
+     * Test test ID for kernel analysis benchmarks
+     */
+    public static final String TEST_ID = "org.eclipse.tracecompass#Coherence checking#";
+    private static final String TEST_PATH = "Shortest Paths (%s) Using %s";
+
+    private static final int LOOP_COUNT = 25;
+    private static final int WARMUP_COUNT = 10;
+    private static final int QUERY_ROUNDS = 100;
+
+    private static final String fTrace = "/home/mmartin/Master/Traces/trace-sched-switch-delete100-109-with-lost/Sansfil-Securise-Etudiants-Lassonde-241-79.polymtl.ca/kernel/"; // FIXME
+    private static final String fXMLAnalysisFile = "testfiles/kernel_analysis_from_fsm.xml";
+
+    private interface PathMethod {
+        List<TmfXmlFsmTransition> compute(TmfXmlFsm fsm, String start, String target);
+    }
+
+    private PathMethod list = (fsm, start, target) -> computeWithList(fsm, getPrevStatesForState(fsm), start, target);
+
+    private PathMethod heap = (fsm, start, target) -> {
+        TmfXmlShortestPaths paths = fsm.getShortestPaths();
+        return paths.compute(fsm.getStateIndex(start), fsm.getStateIndex(target), null, fsm.getTransitionsCounters());
+    };
+
+    private static final Map<TmfXmlFsm, Map<String, Set<TmfXmlFsmTransition>>> fPrevStates = new HashMap<>();
+
+    /**
+     * Run all benchmarks
+     */
+    @Test
+    public void runAllBenchmarks() {
+        LostEventsTrace trace = null;
+        XmlPatternAnalysis module = null;
+        try {
+            trace = new LostEventsTrace();
+            trace.initTrace(null, fTrace, TmfEvent.class, "benchmark_trace", LostEventsTrace.ID);
+            trace.traceOpened(new TmfTraceOpenedSignal(null, trace, null));
+            module = createModule(trace);
+            TmfTestHelper.executeAnalysis(module);
+
+            TmfXmlPatternEventHandler handler = module.getStateSystemModule().getStateProvider().getEventHandler();
+            assertNotNull(handler);
+            Collection<TmfXmlFsm> fsms = handler.getFsmMap().values();
+
+            /* Both implementations must find paths of the same cost */
+            for (TmfXmlFsm fsm : fsms) {
+                for (String start : getStateIds(fsm)) {
+                    for (String target : getStateIds(fsm)) {
+                        assertEquals(start + " -> " + target,
+                                getCost(fsm, list.compute(fsm, start, target)),
+                                getCost(fsm, heap.compute(fsm, start, target)), 1e-3);
+                    }
+                }
+            }
+
+            runOneBenchmark(fsms, String.format(TEST_PATH, fTrace, "sorted list"), list, Dimension.CPU_TIME);
+            runOneBenchmark(fsms, String.format(TEST_PATH, fTrace, "indexed heap"), heap, Dimension.CPU_TIME);
+
+        } catch (TmfTraceException e) {
+            fail(e.getMessage());
+        } catch (TmfAnalysisException e) {
+            fail(e.getMessage());
+        } catch (ParserConfigurationException e) {
+            fail(e.getMessage());
+        } catch (SAXException e) {
+            fail(e.getMessage());
+        } catch (IOException e) {
+            fail(e.getMessage());
+        } finally {
+            if (module != null) {
+                module.dispose();
+            }
+            if (trace != null) {
+                trace.dispose();
+            }
+        }
+    }
+
+    private static XmlPatternAnalysis createModule(LostEventsTrace trace) throws ParserConfigurationException, SAXException, IOException, TmfAnalysisException {
+        IPath path = Activator.getAbsoluteFilePath(fXMLAnalysisFile);
+
+        // Get XML document
+        Document doc = XmlUtils.getDocumentFromFile(path.toFile());
+        assertNotNull(doc);
+
+        /* get State Providers modules */
+        NodeList stateproviderNodes = doc.getElementsByTagName(TmfXmlStrings.PATTERN);
+
+        Element node = (Element) stateproviderNodes.item(0);
+        assertNotNull(node);
+
+        // Create module
+        XmlPatternAnalysis module = new XmlPatternAnalysis(true);
+        module.setXmlFile(path.toFile().toPath());
+        module.setName(XmlModuleTestBase.getName(node));
+
+        String moduleId = node.getAttribute(TmfXmlStrings.ID);
+        assertNotNull(moduleId);
+        module.setId(moduleId);
+
+        module.setTrace(trace);
+
+        module.getStateSystemModule().changeCoherenceAlgorithm(TmfXmlScenarioObserver.ALGO1); // the transitions counters are needed
+        return module;
+    }
+
+    private static void runOneBenchmark(Collection<TmfXmlFsm> fsms, String testName, PathMethod method, Dimension dimension) {
+        Performance perf = Performance.getDefault();
+        PerformanceMeter pm = perf.createPerformanceMeter(TEST_ID + testName);
+        perf.tagAsSummary(pm, "Execution graph " + testName, dimension);
+
+        for (int i = 0; i < LOOP_COUNT; i++) {
+            // Don't take the first runs into account --> warmup time
+            if (i >= WARMUP_COUNT) {
+                pm.start();
+            }
+            for (int round = 0; round < QUERY_ROUNDS; round++) {
+                for (TmfXmlFsm fsm : fsms) {
+                    for (String start : getStateIds(fsm)) {
+                        for (String target : getStateIds(fsm)) {
+                            method.compute(fsm, start, target);
+                        }
+                    }
+                }
+            }
+            if (i >= WARMUP_COUNT) {
+                pm.stop();
+            }
+        }
+        pm.commit();
+    }
+
+    private static List<String> getStateIds(TmfXmlFsm fsm) {
+        List<String> ids = new ArrayList<>();
+        for (TmfXmlState state : fsm.getStatesMap().values()) {
+            ids.add(state.getId());
+        }
+        return ids;
+    }
+
+    private static float getCost(TmfXmlFsm fsm, List<TmfXmlFsmTransition> path) {
+        float cost = 0f;
+        for (TmfXmlFsmTransition transition : path) {
+            long weight = fsm.getTransitionCounter(transition);
+            cost += 1f / (float) ((weight == 0) ? 1 : weight);
+        }
+        return cost;
+    }
+
+    /**
+     * Build the transitions entering each state, as the fsm does when it is
+     * created
+     */
+    private static Map<String, Set<TmfXmlFsmTransition>> getPrevStatesForState(TmfXmlFsm fsm) {
+        Map<String, Set<TmfXmlFsmTransition>> prevStatesForState = fPrevStates.get(fsm);
+        if (prevStatesForState != null) {
+            return prevStatesForState;
+        }
+        prevStatesForState = new HashMap<>();
+        for (TmfXmlState state : fsm.getStatesMap().values()) {
+            prevStatesForState.computeIfAbsent(state.getId(), id -> new HashSet<>());
+            for (TmfXmlStateTransition transition : state.getTransitionList()) {
+                for (Pattern eventPattern : transition.getAcceptedEvents()) {
+                    prevStatesForState.computeIfAbsent(transition.getTarget(), id -> new HashSet<>())
+                            .add(new TmfXmlFsmTransition(transition, state, eventPattern));
+                }
+            }
+        }
+        fPrevStates.put(fsm, prevStatesForState);
+        return prevStatesForState;
+    }
+
+    /**
+     * The implementation replaced by {@link TmfXmlShortestPaths}: Dijkstra's
+     * algorithm on a list of unvisited states sorted at each step, with the
+     * global statistics only
+     */
+    private static List<TmfXmlFsmTransition> computeWithList(TmfXmlFsm fsm, Map<String, Set<TmfXmlFsmTransition>> prevStatesForState,
+            String start, String target) {
+        Float INFINITY = Float.POSITIVE_INFINITY;
+        String current = start;
+        Map<String, Float> distances = new HashMap<>();
+        List<String> unvisited = new ArrayList<>();
+        Comparator<String> compUnvisited = new Comparator<String>() {
+
+            @Override
+            public int compare(String o1, String o2) {
+                if (distances.get(o1) == distances.get(o2)) {
+                    return 0;
+                }
+                return (distances.get(o1) <= distances.get(o2)) ? -1 : 1;
+            }
+        };
+        Map<String, TmfXmlFsmTransition> prev = new HashMap<>();
+        for (TmfXmlState state : fsm.getStatesMap().values()) {
+            distances.put(state.getId(), INFINITY);
+            unvisited.add(state.getId());
+            prev.put(state.getId(), TmfXmlFsmTransition.UNDEFINED);
+        }
+        distances.put(current, 0f);
+
+        while (unvisited.contains(target)) {
+            float currentDist = distances.get(current);
+            Set<TmfXmlFsmTransition> neighbors = prevStatesForState.get(current);
+            for (TmfXmlFsmTransition neighborTransition : neighbors) {
+                String neighbor = neighborTransition.from().getId();
+                long weight = fsm.getTransitionCounter(neighborTransition);
+                if (weight == 0) {
+                    weight = 1;
+                }
+                float newDist = currentDist + (1f / (float) weight);
+                if (distances.get(neighbor) > newDist) {
+                    distances.put(neighbor, newDist);
+                    prev.put(neighbor, neighborTransition);
+                }
+            }
+            unvisited.remove(current);
+            unvisited.sort(compUnvisited);
+            if (!unvisited.isEmpty()) {
+                current = unvisited.get(0);
+            }
+        }
+
+        Stack<TmfXmlFsmTransition> transitions = new Stack<>();
+        String node = target;
+        while (!prev.get(node).equals(TmfXmlFsmTransition.UNDEFINED)) {
+            TmfXmlFsmTransition transition = prev.get(node);
+            transitions.push(transition);
+            node = transition.to().getTarget();
+        }
+        return transitions;
+    }
+}
@@ -0,0 +1,205 @@
+package org.eclipse.tracecompass.incubator.coherence.core.tests.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.test.performance.Dimension;
+import org.eclipse.test.performance.Performance;
+import org.eclipse.test.performance.PerformanceMeter;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlFsm;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlPatternEventHandler;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlScenario;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlTransitionCounters;
+import org.eclipse.tracecompass.incubator.coherence.core.module.XmlUtils;
+import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlFsmTransition;
+import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlScenarioObserver;
+import org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider.XmlPatternAnalysis;
+import org.eclipse.tracecompass.incubator.coherence.core.tests.Activator;
+import org.eclipse.tracecompass.incubator.trace.lostevents.core.trace.LostEventsTrace;
+import org.eclipse.tracecompass.tmf.analysis.xml.core.module.TmfXmlStrings;
+import org.eclipse.tracecompass.tmf.analysis.xml.core.tests.stateprovider.XmlModuleTestBase;
+import org.eclipse.tracecompass.tmf.core.event.TmfEvent;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfAnalysisException;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfTraceException;
+import org.eclipse.tracecompass.tmf.core.signal.TmfTraceOpenedSignal;
+import org.eclipse.tracecompass.tmf.core.tests.shared.TmfTestHelper;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Compare the memory used by the transition counters of the scenarios, stored
+ * in {@link TmfXmlTransitionCounters}, with the maps of boxed counters keyed by
+ * transition they replaced. The counters are the ones of the kernel analysis
+ * at the end of a trace.
+ */
+public class TransitionCountersBenchmark {
+
+    /**
+     * Test test ID for kernel analysis benchmarks
+     */
+    public static final String TEST_ID = "org.eclipse.tracecompass#Coherence checking#";
+    private static final String TEST_MEMORY = "Transition Counters Memory (%s) Using %s";
+
+    private static final int LOOP_COUNT = 25;
+    private static final int WARMUP_COUNT = 10;
+    /* Copies of the counters kept at the same time, so the difference is above the noise of the heap */
+    private static final int COPIES = 20;
+
+    private static final String fTrace = "/home/mmartin/Master/Traces/trace-sched-switch-delete100-109-with-lost/Sansfil-Securise-Etudiants-Lassonde-241-79.polymtl.ca/kernel/"; // FIXME
+    private static final String fXMLAnalysisFile = "testfiles/kernel_analysis_from_fsm.xml";
+
+    private interface CopyMethod {
+        Object copy(TmfXmlFsm fsm, TmfXmlTransitionCounters counters);
+    }
+
+    /* The former representation */
+    private CopyMethod map = (fsm, counters) -> {
+        Map<TmfXmlFsmTransition, Long> copy = new HashMap<>();
+        long[] values = counters.snapshot();
+        for (int id = 0; id < values.length; id++) {
+            TmfXmlFsmTransition transition = fsm.getFsmTransition(id);
+            if (values[id] != 0 && transition != null) {
+                copy.put(transition, values[id]);
+            }
+        }
+        return copy;
+    };
+
+    private CopyMethod arrays = (fsm, counters) -> {
+        TmfXmlTransitionCounters copy = new TmfXmlTransitionCounters();
+        copy.addAll(counters);
+        return copy;
+    };
+
+    /**
+     * Run all benchmarks
+     */
+    @Test
+    public void runAllBenchmarks() {
+        LostEventsTrace trace = null;
+        XmlPatternAnalysis module = null;
+        try {
+            trace = new LostEventsTrace();
+            trace.initTrace(null, fTrace, TmfEvent.class, "benchmark_trace", LostEventsTrace.ID);
+            trace.traceOpened(new TmfTraceOpenedSignal(null, trace, null));
+            module = createModule(trace);
+            TmfTestHelper.executeAnalysis(module);
+
+            TmfXmlPatternEventHandler handler = module.getStateSystemModule().getStateProvider().getEventHandler();
+            assertNotNull(handler);
+            List<TmfXmlFsm> fsms = new ArrayList<>();
+            List<TmfXmlTransitionCounters> counters = new ArrayList<>();
+            long footprint = 0;
+            for (TmfXmlFsm fsm : handler.getFsmMap().values()) {
+                for (TmfXmlScenario scenario : fsm.getActiveScenariosList().values()) {
+                    if (scenario instanceof TmfXmlScenarioObserver) {
+                        TmfXmlTransitionCounters scenarioCounters = ((TmfXmlScenarioObserver) scenario).getTransitionsCounters();
+                        fsms.add(fsm);
+                        counters.add(scenarioCounters);
+                        footprint += scenarioCounters.getFootprint();
+                    }
+                }
+            }
+            assertFalse(counters.isEmpty());
+
+            /* The copies keep the values of the counters */
+            for (int i = 0; i < counters.size(); i++) {
+                TmfXmlTransitionCounters copy = (TmfXmlTransitionCounters) arrays.copy(fsms.get(i), counters.get(i));
+                long[] expected = counters.get(i).snapshot();
+                for (int id = 0; id < expected.length; id++) {
+                    assertEquals(expected[id], copy.get(id));
+                }
+            }
+            System.out.println(String.format("%d scenarios, estimated footprint of their counters: %d bytes", counters.size(), footprint)); //$NON-NLS-1$
+
+            runOneBenchmark(fsms, counters, String.format(TEST_MEMORY, fTrace, "boxed map"), map);
+            runOneBenchmark(fsms, counters, String.format(TEST_MEMORY, fTrace, "primitive arrays"), arrays);
+
+        } catch (TmfTraceException e) {
+            fail(e.getMessage());
+        } catch (TmfAnalysisException e) {
+            fail(e.getMessage());
+        } catch (ParserConfigurationException e) {
+            fail(e.getMessage());
+        } catch (SAXException e) {
+            fail(e.getMessage());
+        } catch (IOException e) {
+            fail(e.getMessage());
+        } finally {
+            if (module != null) {
+                module.dispose();
+            }
+            if (trace != null) {
+                trace.dispose();
+            }
+        }
+    }
+
+    private static XmlPatternAnalysis createModule(LostEventsTrace trace) throws ParserConfigurationException, SAXException, IOException, TmfAnalysisException {
+        IPath path = Activator.getAbsoluteFilePath(fXMLAnalysisFile);
+
+        // Get XML document
+        Document doc = XmlUtils.getDocumentFromFile(path.toFile());
+        assertNotNull(doc);
+
+        /* get State Providers modules */
+        NodeList stateproviderNodes = doc.getElementsByTagName(TmfXmlStrings.PATTERN);
+
+        Element node = (Element) stateproviderNodes.item(0);
+        assertNotNull(node);
+
+        // Create module
+        XmlPatternAnalysis module = new XmlPatternAnalysis(true);
+        module.setXmlFile(path.toFile().toPath());
+        module.setName(XmlModuleTestBase.getName(node));
+
+        String moduleId = node.getAttribute(TmfXmlStrings.ID);
+        assertNotNull(moduleId);
+        module.setId(moduleId);
+
+        module.setTrace(trace);
+
+        module.getStateSystemModule().changeCoherenceAlgorithm(TmfXmlScenarioObserver.ALGO1); // the transitions counters are needed
+        return module;
+    }
+
+    private static void runOneBenchmark(List<TmfXmlFsm> fsms, List<TmfXmlTransitionCounters> counters, String testName, CopyMethod method) {
+        Performance perf = Performance.getDefault();
+        PerformanceMeter pm = perf.createPerformanceMeter(TEST_ID + testName);
+        perf.tagAsSummary(pm, "Execution graph " + testName, Dimension.USED_JAVA_HEAP);
+
+        for (int i = 0; i < LOOP_COUNT; i++) {
+            List<Object> copies = new ArrayList<>(COPIES * counters.size());
+            // Don't take the first runs into account --> warmup time
+            if (i >= WARMUP_COUNT) {
+                System.gc();
+                pm.start();
+            }
+            for (int copy = 0; copy < COPIES; copy++) {
+                for (int j = 0; j < counters.size(); j++) {
+                    copies.add(method.copy(fsms.get(j), counters.get(j)));
+                }
+            }
+            if (i >= WARMUP_COUNT) {
+                System.gc();
+                pm.stop();
+            }
+            assertEquals(COPIES * counters.size(), copies.size());
+        }
+        pm.commit();
+    }
+}
@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfInferredEvent;
+import org.eclipse.tracecompass.incubator.coherence.core.segment.TmfXmlInferredEventSegment;
+import org.eclipse.tracecompass.incubator.coherence.core.trace.InferenceTrace;
+import org.eclipse.tracecompass.lttng2.kernel.core.trace.LttngKernelTrace;
+import org.eclipse.tracecompass.testtraces.ctf.CtfTestTrace;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfTraceException;
+import org.eclipse.tracecompass.tmf.core.signal.TmfTraceRangeUpdatedSignal;
+import org.eclipse.tracecompass.tmf.core.timestamp.TmfTimestamp;
+import org.eclipse.tracecompass.tmf.core.trace.ITmfContext;
+import org.eclipse.tracecompass.tmf.core.trace.TmfTraceManager;
+import org.eclipse.tracecompass.tmf.ctf.core.event.CtfTmfEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the ranks and the seeks of an {@link InferenceTrace}: the inferred
+ * events are merged with the events of the parent trace, each one after the
+ * events of the parent trace at its timestamp.
+ *
+ * @author mmartin
+ */
+public class InferenceTraceTest {
+
+    private static final @NonNull CtfTestTrace TEST_TRACE = CtfTestTrace.KERNEL;
+    private static final @NonNull String INFERRED_NAME = "inferred_test";
+    /* Number of events of the parent trace checked */
+    private static final int PARENT_EVENTS = 500;
+    /* Indexes of the events of the parent trace after which events are inferred */
+    private static final int[] INFERRED_AFTER = { 0, 10, 11, 11, 200, 450 };
+
+    private LttngKernelTrace fParent;
+    private InferenceTrace fTrace;
+    private List<ITmfEvent> fParentEvents;
+    /* The expected events of the inference trace: the parent events, or null for the inferred ones */
+    private List<ITmfEvent> fExpected;
+    private List<Long> fExpectedTimes;
+
+    /**
+     * Open the parent trace and its overlay
+     *
+     * @throws IOException
+     *             If the test trace cannot be found
+     * @throws TmfTraceException
+     *             If a trace cannot be opened
+     */
+    @Before
+    public void setUp() throws IOException, TmfTraceException {
+        LttngKernelTrace parent = new LttngKernelTrace();
+        String path = FileLocator.toFileURL(TEST_TRACE.getTraceURL()).getPath();
+        parent.initTrace(null, path, CtfTmfEvent.class);
+        parent.indexTrace(true);
+        fParent = parent;
+
+        fParentEvents = new ArrayList<>();
+        ITmfContext context = parent.seekEvent(0L);
+        for (int i = 0; i < PARENT_EVENTS; i++) {
+            ITmfEvent event = parent.getNext(context);
+            assertNotNull(event);
+            fParentEvents.add(event);
+        }
+        context.dispose();
+
+        /* Infer events at the timestamps of some parent events: they go after them */
+        List<TmfInferredEvent> inferredEvents = new ArrayList<>();
+        fExpected = new ArrayList<>();
+        fExpectedTimes = new ArrayList<>();
+        int localRank = 1;
+        int groupStart = 0;
+        for (int i = 0; i < PARENT_EVENTS; i++) {
+            ITmfEvent event = fParentEvents.get(i);
+            if (i > 0 && !fParentEvents.get(i - 1).getTimestamp().equals(event.getTimestamp())) {
+                groupStart = i;
+            }
+            fExpected.add(event);
+            fExpectedTimes.add(event.getTimestamp().toNanos());
+            /* The inferred events go after the last parent event at their timestamp */
+            boolean nextSameTime = (i + 1 < PARENT_EVENTS) && fParentEvents.get(i + 1).getTimestamp().equals(event.getTimestamp());
+            for (int after : INFERRED_AFTER) {
+                if (after >= groupStart && after <= i && !nextSameTime) {
+                    long time = event.getTimestamp().toNanos();
+                    TmfXmlInferredEventSegment segment = new TmfXmlInferredEventSegment(time, time, time, localRank++,
+                            INFERRED_NAME, 0, new String[0], new Object[0][]);
+                    inferredEvents.add(TmfInferredEvent.create(parent, segment));
+                    fExpected.add(null);
+                    fExpectedTimes.add(time);
+                }
+            }
+        }
+        fTrace = new InferenceTrace(parent, inferredEvents);
+    }
+
+    /**
+     * Dispose the traces
+     */
+    @After
+    public void cleanUp() {
+        fTrace.dispose();
+        fParent.dispose();
+    }
+
+    private void assertExpected(int rank, ITmfEvent event) {
+        assertNotNull(event);
+        assertEquals(rank, event.getRank());
+        assertEquals(fExpectedTimes.get(rank).longValue(), event.getTimestamp().toNanos());
+        ITmfEvent expected = fExpected.get(rank);
+        if (expected == null) {
+            assertEquals(INFERRED_NAME, event.getName());
+        } else {
+            assertEquals(expected.getName(), event.getName());
+            assertEquals(expected.getContent(), event.getContent());
+        }
+    }
+
+    /**
+     * The events are read in order, with their ranks
+     */
+    @Test
+    public void testRead() {
+        ITmfContext context = fTrace.seekEvent(0L);
+        for (int rank = 0; rank < fExpected.size(); rank++) {
+            assertEquals(rank, context.getRank());
+            assertExpected(rank, fTrace.getNext(context));
+        }
+        context.dispose();
+    }
+
+    /**
+     * Every rank, inferred event or event of the parent trace, can be seeked
+     */
+    @Test
+    public void testSeekRank() {
+        /* In reverse order, so the ranks of the inferred events are not known from a previous read */
+        for (int rank = fExpected.size() - 1; rank >= 0; rank--) {
+            ITmfContext context = fTrace.seekEvent(rank);
+            assertEquals(rank, context.getRank());
+            assertExpected(rank, fTrace.getNext(context));
+            context.dispose();
+        }
+    }
+
+    /**
+     * A seek to a timestamp goes to the first event at that timestamp, the
+     * inferred events being after the events of the parent trace
+     */
+    @Test
+    public void testSeekTimestamp() {
+        for (int rank = 0; rank < fExpected.size(); rank++) {
+            long time = fExpectedTimes.get(rank);
+            if (rank > 0 && fExpectedTimes.get(rank - 1) == time) {
+                continue;
+            }
+            ITmfContext context = fTrace.seekEvent(TmfTimestamp.fromNanos(time));
+            assertEquals(rank, context.getRank());
+            assertExpected(rank, fTrace.getNext(context));
+            context.dispose();
+        }
+    }
+
+    /**
+     * Each context has its own cursor in the inferred events, the contexts can
+     * be read alternately
+     */
+    @Test
+    public void testInterleavedContexts() {
+        ITmfContext first = fTrace.seekEvent(0L);
+        int secondStart = fExpected.size() / 2;
+        ITmfContext second = fTrace.seekEvent(secondStart);
+        for (int i = 0; i + secondStart < fExpected.size(); i++) {
+            assertExpected(i, fTrace.getNext(first));
+            assertExpected(i + secondStart, fTrace.getNext(second));
+        }
+        first.dispose();
+        second.dispose();
+    }
+
+    /**
+     * The overlay can be opened on a trace without inferred events
+     */
+    @Test
+    public void testNoInferredEvents() {
+        InferenceTrace trace = null;
+        try {
+            trace = new InferenceTrace(fParent, new ArrayList<>());
+            ITmfContext context = trace.seekEvent(100L);
+            ITmfEvent event = trace.getNext(context);
+            assertNotNull(event);
+            assertEquals(100, event.getRank());
+            assertEquals(fParentEvents.get(100).getTimestamp(), event.getTimestamp());
+            context.dispose();
+        } catch (TmfTraceException e) {
+            fail(e.getMessage());
+        } finally {
+            if (trace != null) {
+                trace.dispose();
+            }
+        }
+    }
+
+    /**
+     * The number of events is the one of the parent trace plus the inferred
+     * events, without reading the overlay
+     */
+    @Test
+    public void testRangeUpdated() {
+        int inferredCount = 0;
+        for (ITmfEvent event : fExpected) {
+            if (event == null) {
+                inferredCount++;
+            }
+        }
+        fTrace.traceRangeUpdated(new TmfTraceRangeUpdatedSignal(this, fTrace, fParent.getTimeRange()));
+        assertEquals(fParent.getNbEvents() + inferredCount, fTrace.getNbEvents());
+        assertEquals(fParent.getStartTime(), fTrace.getStartTime());
+        assertEquals(fParent.getEndTime(), fTrace.getEndTime());
+    }
+
+    /**
+     * The supplementary files of the overlay are deleted when it is disposed
+     *
+     * @throws TmfTraceException
+     *             If the overlay cannot be opened
+     * @throws IOException
+     *             If the file of an analysis cannot be written
+     */
+    @Test
+    public void testDisposeDeletesSupplementaryFiles() throws TmfTraceException, IOException {
+        InferenceTrace trace = new InferenceTrace(fParent, new ArrayList<>());
+        File directory = new File(TmfTraceManager.getSupplementaryFileDir(trace));
+        /* The result of an analysis of the overlay */
+        directory.mkdirs();
+        assertTrue(new File(directory, "analysis.ht").createNewFile());
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        assertTrue(files.length > 0);
+        trace.dispose();
+        files = directory.listFiles();
+        assertTrue(files == null || files.length == 0);
+        /* The parent trace keeps its own */
+        assertFalse(directory.equals(new File(TmfTraceManager.getSupplementaryFileDir(fParent))));
+    }
+
+    /**
+     * The files left by an overlay that was not disposed are not reused by the
+     * next overlay of the trace
+     *
+     * @throws TmfTraceException
+     *             If the overlay cannot be opened
+     * @throws IOException
+     *             If the file of an analysis cannot be written
+     */
+    @Test
+    public void testLeftoverSupplementaryFilesDeleted() throws TmfTraceException, IOException {
+        InferenceTrace trace = new InferenceTrace(fParent, new ArrayList<>());
+        File directory = new File(TmfTraceManager.getSupplementaryFileDir(trace));
+        File leftover = new File(directory, "analysis.ht");
+        directory.mkdirs();
+        assertTrue(leftover.createNewFile());
+        InferenceTrace next = new InferenceTrace(fParent, new ArrayList<>());
+        assertFalse(leftover.exists());
+        next.dispose();
+        trace.dispose();
+    }
+}
@@ -0,0 +1,203 @@
+package org.eclipse.tracecompass.incubator.coherence.core.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.incubator.coherence.core.model.ITmfXmlCondition;
+import org.eclipse.tracecompass.incubator.coherence.core.model.ITmfXmlModelFactory;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlCompiledCondition;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlCondition;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlEventTypes;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlLocation;
+import org.eclipse.tracecompass.incubator.coherence.core.module.IXmlStateSystemContainer;
+import org.eclipse.tracecompass.incubator.coherence.core.readwrite.TmfXmlReadWriteModelFactory;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
+import org.eclipse.tracecompass.statesystem.core.StateSystemFactory;
+import org.eclipse.tracecompass.statesystem.core.backend.StateHistoryBackendFactory;
+import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEventField;
+import org.eclipse.tracecompass.tmf.core.event.TmfEvent;
+import org.eclipse.tracecompass.tmf.core.event.TmfEventField;
+import org.eclipse.tracecompass.tmf.core.event.TmfEventType;
+import org.eclipse.tracecompass.tmf.core.timestamp.TmfTimestamp;
+import org.eclipse.tracecompass.tmf.tests.stubs.trace.TmfTraceStub;
+import org.junit.After;
+import org.junit.Before;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+/**
+ * Differential test of the compiled conditions: every condition must give the
+ * same result as the interpreted {@link TmfXmlCondition} it is compiled from.
+ *
+ * @author mmartin
+ */
+public class TmfXmlCompiledConditionTest {
+
+    private static final String[] CONDITIONS = {
+            /* Event field compared with a constant */
+            "<condition><field name=\"tid\" /><stateValue type=\"long\" value=\"3\" /></condition>",
+            "<condition><field name=\"tid\" /><stateValue type=\"int\" value=\"3\" /></condition>",
+            "<condition operator=\"gt\"><field name=\"tid\" /><stateValue type=\"long\" value=\"3\" /></condition>",
+            "<condition operator=\"le\"><field name=\"cpu\" /><stateValue type=\"long\" value=\"1\" /></condition>",
+            "<condition operator=\"ne\"><field name=\"comm\" /><stateValue type=\"string\" value=\"bash\" /></condition>",
+            "<condition operator=\"lt\"><field name=\"comm\" /><stateValue type=\"string\" value=\"ls\" /></condition>",
+            /* Event field compared with another field */
+            "<condition><field name=\"tid\" /><stateValue type=\"eventField\" value=\"prev_tid\" /></condition>",
+            "<condition operator=\"ge\"><field name=\"cpu\" /><stateValue type=\"eventField\" value=\"prev_tid\" /></condition>",
+            /* Fields that are not in the event content */
+            "<condition><field name=\"missing\" /><stateValue type=\"long\" value=\"3\" /></condition>",
+            "<condition operator=\"gt\"><field name=\"TIMESTAMP\" /><stateValue type=\"long\" value=\"15\" /></condition>",
+            /* Forced type, handled by the interpreter */
+            "<condition><field name=\"tid\" /><stateValue type=\"int\" value=\"3\" forcedType=\"int\" /></condition>",
+            /* State attribute compared with a constant or a field */
+            "<condition><stateAttribute type=\"constant\" value=\"Threads\" /><stateAttribute type=\"constant\" value=\"Status\" /><stateValue type=\"int\" value=\"2\" /></condition>",
+            "<condition operator=\"lt\"><stateAttribute type=\"constant\" value=\"Threads\" /><stateAttribute type=\"constant\" value=\"Status\" /><stateValue type=\"long\" value=\"2\" /></condition>",
+            "<condition><stateAttribute type=\"constant\" value=\"Threads\" /><stateAttribute type=\"constant\" value=\"Status\" /><stateValue type=\"eventField\" value=\"cpu\" /></condition>",
+            "<condition><stateAttribute type=\"constant\" value=\"Threads\" /><stateAttribute type=\"constant\" value=\"Name\" /><stateValue type=\"string\" value=\"bash\" /></condition>",
+            "<condition><stateAttribute type=\"constant\" value=\"Unset\" /><stateValue type=\"null\" /></condition>",
+            "<condition><stateAttribute type=\"constant\" value=\"Unset\" /><stateValue type=\"eventField\" value=\"tid\" /></condition>",
+            /* State attribute depending on the event, handled by the interpreter */
+            "<condition><stateAttribute type=\"constant\" value=\"Threads\" /><stateAttribute type=\"eventField\" value=\"tid\" /><stateValue type=\"int\" value=\"2\" /></condition>",
+            /* Equality of two values */
+            "<condition><stateValue type=\"eventField\" value=\"tid\" /><stateValue type=\"long\" value=\"3\" /></condition>",
+            "<condition><stateValue type=\"eventField\" value=\"tid\" /><stateValue type=\"int\" value=\"3\" /></condition>",
+            "<condition><stateValue type=\"eventField\" value=\"tid\" /><stateValue type=\"eventField\" value=\"prev_tid\" /></condition>",
+            "<condition><stateValue type=\"eventField\" value=\"cpu\" /><stateValue type=\"eventField\" value=\"tid\" /></condition>",
+            "<condition><stateValue type=\"string\" value=\"bash\" /><stateValue type=\"eventField\" value=\"comm\" /></condition>",
+            /* Condition trees */
+            "<and><condition><field name=\"tid\" /><stateValue type=\"long\" value=\"3\" /></condition>"
+                    + "<condition><field name=\"comm\" /><stateValue type=\"string\" value=\"bash\" /></condition></and>",
+            "<or><condition><field name=\"tid\" /><stateValue type=\"long\" value=\"3\" /></condition>"
+                    + "<condition><stateAttribute type=\"constant\" value=\"Threads\" /><stateAttribute type=\"constant\" value=\"Status\" /><stateValue type=\"int\" value=\"2\" /></condition></or>",
+            "<not><condition><field name=\"cpu\" /><stateValue type=\"long\" value=\"0\" /></condition></not>",
+            "<and><not><or><condition><field name=\"tid\" /><stateValue type=\"long\" value=\"4\" /></condition>"
+                    + "<condition><field name=\"missing\" /><stateValue type=\"null\" /></condition></or></not>"
+                    + "<condition operator=\"ge\"><field name=\"cpu\" /><stateValue type=\"long\" value=\"1\" /></condition></and>",
+    };
+
+    private final TmfTraceStub fTrace = new TmfTraceStub();
+    private ITmfStateSystemBuilder fSs;
+    private IXmlStateSystemContainer fContainer;
+
+    /**
+     * Create the state system used by the conditions
+     */
+    @Before
+    public void setUp() {
+        ITmfStateSystemBuilder ss = StateSystemFactory.newStateSystem(StateHistoryBackendFactory.createInMemoryBackend("test", 0)); //$NON-NLS-1$
+        fSs = ss;
+        TmfXmlEventTypes eventTypes = new TmfXmlEventTypes();
+        fContainer = new IXmlStateSystemContainer() {
+            @Override
+            public String getAttributeValue(String name) {
+                return name;
+            }
+
+            @Override
+            public ITmfStateSystem getStateSystem() {
+                return ss;
+            }
+
+            @Override
+            public @NonNull Iterable<@NonNull TmfXmlLocation> getLocations() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public @NonNull TmfXmlEventTypes getEventTypes() {
+                return eventTypes;
+            }
+        };
+    }
+
+    /**
+     * Dispose of the test objects
+     */
+    @After
+    public void tearDown() {
+        fSs.dispose();
+        fTrace.dispose();
+    }
+
+    /**
+     * Compare the compiled and interpreted results of every condition, for
+     * every event and state of the state system
+     *
+     * @throws Exception
+     *             If a condition cannot be parsed
+     */
+    @org.junit.Test
+    public void testCompiledMatchesInterpreted() throws Exception {
+        ITmfXmlModelFactory factory = TmfXmlReadWriteModelFactory.getInstance();
+        List<TmfXmlCondition> conditions = new ArrayList<>();
+        for (String xml : CONDITIONS) {
+            conditions.add(factory.createCondition(parse(xml), fContainer));
+        }
+        List<ITmfXmlCondition> compiled = new ArrayList<>();
+        for (TmfXmlCondition condition : conditions) {
+            compiled.add(TmfXmlCompiledCondition.compile(condition));
+        }
+
+        List<ITmfEvent> events = Arrays.asList(
+                createEvent(10, 3L, 3L, 1L, "bash"), //$NON-NLS-1$
+                createEvent(20, 4L, 3L, 0L, "ls"), //$NON-NLS-1$
+                createEvent(30, 2L, 2L, 2L, "bash"), //$NON-NLS-1$
+                createEvent(40, 3, 3L, 1, "cat")); //$NON-NLS-1$
+
+        int statusQuark = fSs.getQuarkAbsoluteAndAdd("Threads", "Status"); //$NON-NLS-1$ //$NON-NLS-2$
+        int nameQuark = fSs.getQuarkAbsoluteAndAdd("Threads", "Name"); //$NON-NLS-1$ //$NON-NLS-2$
+
+        /* Without any value in the state system */
+        checkAll(conditions, compiled, events);
+
+        fSs.updateOngoingState(TmfStateValue.newValueInt(2), statusQuark);
+        fSs.updateOngoingState(TmfStateValue.newValueString("bash"), nameQuark); //$NON-NLS-1$
+        checkAll(conditions, compiled, events);
+
+        fSs.updateOngoingState(TmfStateValue.newValueLong(1), statusQuark);
+        fSs.updateOngoingState(TmfStateValue.newValueString("ls"), nameQuark); //$NON-NLS-1$
+        checkAll(conditions, compiled, events);
+    }
+
+    private static void checkAll(List<TmfXmlCondition> conditions, List<ITmfXmlCondition> compiled, List<ITmfEvent> events) {
+        for (int i = 0; i < conditions.size(); i++) {
+            for (ITmfEvent event : events) {
+                boolean expected = conditions.get(i).test(event, null);
+                assertEquals(CONDITIONS[i] + " on " + event.getContent(), expected, compiled.get(i).test(event, null)); //$NON-NLS-1$
+            }
+        }
+    }
+
+    private ITmfEvent createEvent(long time, Object tid, Object prevTid, Object cpu, String comm) {
+        TmfEventField[] fields = new TmfEventField[] {
+                new TmfEventField("tid", tid, null), //$NON-NLS-1$
+                new TmfEventField("prev_tid", prevTid, null), //$NON-NLS-1$
+                new TmfEventField("cpu", cpu, null), //$NON-NLS-1$
+                new TmfEventField("comm", comm, null) //$NON-NLS-1$
+        };
+        ITmfEventField content = new TmfEventField(ITmfEventField.ROOT_FIELD_ID, null, fields);
+        return new TmfEvent(fTrace, time, TmfTimestamp.fromNanos(time), new TmfEventType("event", content), content); //$NON-NLS-1$
+    }
+
+    private static Element parse(String xml) throws ParserConfigurationException, SAXException, IOException {
+        Element element = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))).getDocumentElement();
+        assertNotNull(element);
+        return element;
+    }
+}
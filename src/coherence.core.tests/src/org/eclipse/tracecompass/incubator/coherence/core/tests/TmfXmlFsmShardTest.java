@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.analysis.os.linux.core.tests.stubs.trace.TmfXmlKernelTraceStub;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfInferredEvent;
+import org.eclipse.tracecompass.incubator.coherence.core.module.XmlUtils;
+import org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider.XmlPatternAnalysis;
+import org.eclipse.tracecompass.internal.lttng2.kernel.core.trace.layout.LttngEventLayout;
+import org.eclipse.tracecompass.tmf.analysis.xml.core.module.TmfXmlStrings;
+import org.eclipse.tracecompass.tmf.analysis.xml.core.tests.stateprovider.XmlModuleTestBase;
+import org.eclipse.tracecompass.tmf.core.event.TmfEvent;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfAnalysisException;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfTraceException;
+import org.eclipse.tracecompass.tmf.core.signal.TmfTraceOpenedSignal;
+import org.eclipse.tracecompass.tmf.core.trace.TmfTrace;
+import org.eclipse.tracecompass.tmf.core.trace.TmfTraceManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+/**
+ * Test the handling of the scenarios of an fsm by several shards, and of the
+ * fsms by their own threads. The inferences must be the same as the ones of
+ * the sequential handling, whatever the number of threads.
+ *
+ * @author mmartin
+ */
+public class TmfXmlFsmShardTest {
+
+    private static final @NonNull String TEST_TRACE = "test_traces/testTrace.xml";
+    private static final @NonNull String TEST_ANALYSIS = "testfiles/simple_fsm.xml";
+
+    private final List<XmlPatternAnalysis> fModules = new ArrayList<>();
+
+    private TmfXmlKernelTraceStub fTrace;
+
+    /**
+     * Initialize the trace
+     */
+    @Before
+    public void setUp() {
+        fTrace = openTrace();
+    }
+
+    /**
+     * Dispose the modules and the traces
+     */
+    @After
+    public void cleanUp() {
+        for (XmlPatternAnalysis module : fModules) {
+            module.dispose();
+        }
+        fTrace.dispose();
+    }
+
+    private TmfXmlKernelTraceStub openTrace() {
+        TmfXmlKernelTraceStub trace = new TmfXmlKernelTraceStub();
+        trace.setKernelEventLayout(LttngEventLayout.getInstance());
+        IPath filePath = Activator.getAbsoluteFilePath(TEST_TRACE);
+        IStatus status = trace.validate(null, filePath.toOSString());
+        if (!status.isOK()) {
+            fail(status.getException().getMessage());
+        }
+        try {
+            trace.initTrace(null, filePath.toOSString(), TmfEvent.class);
+        } catch (TmfTraceException e) {
+            fail(e.getMessage());
+        }
+        ((TmfTrace) trace).traceOpened(new TmfTraceOpenedSignal(this, trace, null));
+        return trace;
+    }
+
+    /**
+     * Run the analysis on the test trace and get its inferences
+     *
+     * @param parallelFsms
+     *            True to handle each fsm in its own thread
+     * @param shards
+     *            The number of shards of each fsm
+     * @return The inferred events
+     */
+    private List<TmfInferredEvent> runAnalysis(boolean parallelFsms, int shards) {
+        /* Start from an empty analysis each time */
+        for (XmlPatternAnalysis previous : fModules) {
+            previous.dispose();
+        }
+        fModules.clear();
+        File suppDir = new File(TmfTraceManager.getSupplementaryFileDir(fTrace));
+        for (File file : suppDir.listFiles()) {
+            file.delete();
+        }
+        try {
+            IPath path = Activator.getAbsoluteFilePath(TEST_ANALYSIS);
+            Document doc = XmlUtils.getDocumentFromFile(path.toFile());
+            assertNotNull(doc);
+
+            Element node = (Element) doc.getElementsByTagName(TmfXmlStrings.PATTERN).item(0);
+            assertNotNull(node);
+
+            XmlPatternAnalysis module = new XmlPatternAnalysis(true);
+            fModules.add(module);
+            module.setXmlFile(path.toFile().toPath());
+            module.setName(XmlModuleTestBase.getName(node));
+            String moduleId = node.getAttribute(TmfXmlStrings.ID);
+            assertNotNull(moduleId);
+            module.setId(moduleId);
+            module.getStateSystemModule().setParallelFsms(parallelFsms);
+            module.getStateSystemModule().setScenarioShards(shards);
+
+            module.setTrace(fTrace);
+            module.schedule();
+            module.waitForCompletion();
+
+            return new ArrayList<>(module.getStateSystemModule().getStateProvider().getInferredEvents());
+        } catch (ParserConfigurationException | SAXException | IOException | TmfAnalysisException e) {
+            fail(e.getMessage());
+        }
+        throw new IllegalStateException();
+    }
+
+    private static void assertSameInferences(List<TmfInferredEvent> expected, List<TmfInferredEvent> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            TmfInferredEvent expectedEvent = expected.get(i);
+            TmfInferredEvent actualEvent = actual.get(i);
+            assertEquals(expectedEvent.getName(), actualEvent.getName());
+            assertEquals(expectedEvent.getTimestamp(), actualEvent.getTimestamp());
+            assertEquals(expectedEvent.getContent(), actualEvent.getContent());
+        }
+    }
+
+    /**
+     * The scenarios of the fsm are split in several shards. The scenario
+     * started on each cpu must be handled by its own shard, the events
+     * starting them being handled by all the shards at once.
+     */
+    @Test
+    public void testShards() {
+        List<TmfInferredEvent> sequential = runAnalysis(false, 1);
+        assertEquals(1, sequential.size());
+
+        assertSameInferences(sequential, runAnalysis(false, 2));
+        assertSameInferences(sequential, runAnalysis(false, 3));
+    }
+
+    /**
+     * More shards than scenarios: some shards never own a scenario but still
+     * take part to the barriers.
+     */
+    @Test
+    public void testMoreShardsThanScenarios() {
+        List<TmfInferredEvent> sequential = runAnalysis(false, 1);
+        assertSameInferences(sequential, runAnalysis(false, 8));
+    }
+
+    /**
+     * Each fsm in its own thread, with and without shards. The lost events
+     * seen by the observers must start the checking of the events following
+     * them only.
+     */
+    @Test
+    public void testParallelFsms() {
+        List<TmfInferredEvent> sequential = runAnalysis(false, 1);
+
+        assertSameInferences(sequential, runAnalysis(true, 1));
+        assertSameInferences(sequential, runAnalysis(true, 2));
+    }
+}
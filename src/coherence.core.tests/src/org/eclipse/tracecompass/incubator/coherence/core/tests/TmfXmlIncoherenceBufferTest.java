@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.analysis.os.linux.core.tests.stubs.trace.TmfXmlKernelTraceStub;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlEventTypes;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlIncoherenceBuffer;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlIncoherenceBuffer.EventStamp;
+import org.eclipse.tracecompass.internal.lttng2.kernel.core.trace.layout.LttngEventLayout;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.event.TmfEvent;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfTraceException;
+import org.eclipse.tracecompass.tmf.core.signal.TmfTraceOpenedSignal;
+import org.eclipse.tracecompass.tmf.core.trace.ITmfContext;
+import org.eclipse.tracecompass.tmf.core.trace.TmfTrace;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the records of the incoherences, kept in memory or spilled to a file,
+ * and the events read again from the trace
+ *
+ * @author mmartin
+ */
+public class TmfXmlIncoherenceBufferTest {
+
+    private static final @NonNull String TEST_TRACE = "test_traces/testTrace.xml";
+    private static final int RECORDS = 3 * TmfXmlIncoherenceBuffer.SEGMENT_RECORDS + 17;
+
+    private TmfXmlIncoherenceBuffer fBuffer;
+    private Path fDirectory;
+
+    /**
+     * Create the buffer and the directory of its spill file
+     *
+     * @throws IOException
+     *             If the directory cannot be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        fBuffer = new TmfXmlIncoherenceBuffer();
+        fDirectory = Files.createTempDirectory("incoherences");
+    }
+
+    /**
+     * Dispose the buffer and delete the directory
+     *
+     * @throws IOException
+     *             If the directory cannot be deleted
+     */
+    @After
+    public void cleanUp() throws IOException {
+        fBuffer.dispose();
+        File[] files = fDirectory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        Files.delete(fDirectory);
+    }
+
+    private static int[] transitions(int i) {
+        int[] ids = new int[i % 4];
+        for (int j = 0; j < ids.length; j++) {
+            ids[j] = i + j;
+        }
+        return ids;
+    }
+
+    private void fill() {
+        for (int i = 0; i < RECORDS; i++) {
+            EventStamp event = new EventStamp(10L * i, i, i % 7, i % 3);
+            EventStamp prevEvent = (i % 5 == 0) ? null : new EventStamp(10L * i - 1, i - 1, i % 11, i % 2);
+            int[] ids = transitions(i);
+            /* Extra IDs after the count must be ignored */
+            int[] padded = new int[ids.length + 2];
+            System.arraycopy(ids, 0, padded, 0, ids.length);
+            assertEquals(i, fBuffer.append(event, prevEvent, 1000L + i, i % 13, padded, ids.length));
+        }
+    }
+
+    private void check() {
+        assertEquals(RECORDS, fBuffer.size());
+        for (int i = 0; i < RECORDS; i++) {
+            EventStamp event = fBuffer.getEvent(i);
+            assertEquals(10L * i, event.getTime());
+            assertEquals(i, event.getRank());
+            assertEquals(i % 7, event.getTypeId());
+            assertEquals(i % 3, event.getCpu());
+            assertEquals(10L * i, fBuffer.getTime(i));
+
+            EventStamp prevEvent = fBuffer.getPrevEvent(i);
+            if (i % 5 == 0) {
+                assertNull(prevEvent);
+                assertEquals(TmfXmlIncoherenceBuffer.NO_TIME, fBuffer.getPrevTime(i));
+            } else {
+                assertNotNull(prevEvent);
+                assertEquals(10L * i - 1, prevEvent.getTime());
+                assertEquals(i - 1, prevEvent.getRank());
+                assertEquals(i % 11, prevEvent.getTypeId());
+                assertEquals(i % 2, prevEvent.getCpu());
+                assertEquals(10L * i - 1, fBuffer.getPrevTime(i));
+            }
+
+            assertEquals(1000L + i, fBuffer.getScenarioKey(i));
+            assertEquals(i % 13, fBuffer.getStateIndex(i));
+            assertArrayEquals(transitions(i), fBuffer.getTransitionIds(i));
+        }
+    }
+
+    /**
+     * The records are kept in memory without a spill directory
+     */
+    @Test
+    public void testInMemory() {
+        fill();
+        check();
+        assertEquals(0, fBuffer.getSpilledCount());
+    }
+
+    /**
+     * The full segments past the threshold are written to the spill file and
+     * read back through its mapping, the partial last segment stays in memory
+     */
+    @Test
+    public void testSpill() {
+        fBuffer.setSpill(fDirectory, TmfXmlIncoherenceBuffer.SEGMENT_RECORDS);
+        fill();
+        assertEquals(2 * TmfXmlIncoherenceBuffer.SEGMENT_RECORDS, fBuffer.getSpilledCount());
+        File[] files = fDirectory.toFile().listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        check();
+        /* Read again, through the same mapping */
+        check();
+
+        fBuffer.dispose();
+        assertEquals(0, fBuffer.size());
+        files = fDirectory.toFile().listFiles();
+        assertNotNull(files);
+        assertEquals(0, files.length);
+    }
+
+    /**
+     * The records read while segments are still being spilled see the
+     * segments written since the last read
+     */
+    @Test
+    public void testSpillWhileReading() {
+        fBuffer.setSpill(fDirectory, 0);
+        int records = 0;
+        for (int segment = 0; segment < 3; segment++) {
+            for (int i = 0; i < TmfXmlIncoherenceBuffer.SEGMENT_RECORDS; i++) {
+                fBuffer.append(new EventStamp(records, records, 0, 0), null, records, 0, new int[] { records }, 1);
+                records++;
+            }
+            for (int i = 0; i < records; i++) {
+                assertEquals(i, fBuffer.getTime(i));
+                assertArrayEquals(new int[] { i }, fBuffer.getTransitionIds(i));
+            }
+        }
+        assertEquals(records, fBuffer.getSpilledCount());
+    }
+
+    /**
+     * The events of the stamps are read again from the trace, by rank or by
+     * timestamp when the rank is not known or not valid
+     */
+    @Test
+    public void testReadEvent() {
+        TmfXmlKernelTraceStub trace = new TmfXmlKernelTraceStub();
+        trace.setKernelEventLayout(LttngEventLayout.getInstance());
+        IPath filePath = Activator.getAbsoluteFilePath(TEST_TRACE);
+        IStatus status = trace.validate(null, filePath.toOSString());
+        if (!status.isOK()) {
+            fail(status.getException().getMessage());
+        }
+        try {
+            trace.initTrace(null, filePath.toOSString(), TmfEvent.class);
+        } catch (TmfTraceException e) {
+            fail(e.getMessage());
+        }
+        ((TmfTrace) trace).traceOpened(new TmfTraceOpenedSignal(this, trace, null));
+        try {
+            List<ITmfEvent> events = new ArrayList<>();
+            ITmfContext context = trace.seekEvent(0L);
+            ITmfEvent event = trace.getNext(context);
+            while (event != null) {
+                events.add(event);
+                event = trace.getNext(context);
+            }
+            context.dispose();
+            assertTrue(events.size() > 1);
+
+            TmfXmlEventTypes eventTypes = new TmfXmlEventTypes();
+            fBuffer.setTrace(trace, eventTypes);
+            for (ITmfEvent expected : events) {
+                EventStamp stamp = EventStamp.of(expected, eventTypes.getId(expected));
+                assertSameEvent(expected, fBuffer.readEvent(stamp));
+
+                EventStamp noRank = new EventStamp(stamp.getTime(), ITmfContext.UNKNOWN_RANK, stamp.getTypeId(), stamp.getCpu());
+                assertSameEvent(expected, fBuffer.readEvent(noRank));
+
+                EventStamp wrongRank = new EventStamp(stamp.getTime(), stamp.getRank() + 1, stamp.getTypeId(), stamp.getCpu());
+                assertSameEvent(expected, fBuffer.readEvent(wrongRank));
+            }
+
+            /* No event at this time */
+            ITmfEvent first = events.get(0);
+            EventStamp missing = new EventStamp(first.getTimestamp().toNanos() + 1, ITmfContext.UNKNOWN_RANK, 0, 0);
+            assertNull(fBuffer.readEvent(missing));
+            assertNull(fBuffer.readEvent(null));
+        } finally {
+            trace.dispose();
+        }
+    }
+
+    private static void assertSameEvent(ITmfEvent expected, ITmfEvent actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getContent(), actual.getContent());
+    }
+}
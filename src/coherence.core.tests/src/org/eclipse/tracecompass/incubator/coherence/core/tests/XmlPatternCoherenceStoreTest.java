@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.analysis.os.linux.core.tests.stubs.trace.TmfXmlKernelTraceStub;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfInferredEvent;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlFsm;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlIncoherenceBuffer;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlIncoherenceBuffer.EventStamp;
+import org.eclipse.tracecompass.incubator.coherence.core.module.XmlUtils;
+import org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider.XmlPatternAnalysis;
+import org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider.XmlPatternCoherenceStore;
+import org.eclipse.tracecompass.incubator.coherence.core.segment.TmfXmlIncoherenceSegment;
+import org.eclipse.tracecompass.incubator.coherence.core.segment.TmfXmlInferredEventSegment;
+import org.eclipse.tracecompass.internal.lttng2.kernel.core.trace.layout.LttngEventLayout;
+import org.eclipse.tracecompass.segmentstore.core.ISegmentStore;
+import org.eclipse.tracecompass.tmf.analysis.xml.core.module.TmfXmlStrings;
+import org.eclipse.tracecompass.tmf.analysis.xml.core.tests.stateprovider.XmlModuleTestBase;
+import org.eclipse.tracecompass.tmf.core.event.TmfEvent;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfAnalysisException;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfTraceException;
+import org.eclipse.tracecompass.tmf.core.signal.TmfTraceOpenedSignal;
+import org.eclipse.tracecompass.tmf.core.trace.TmfTrace;
+import org.eclipse.tracecompass.tmf.core.trace.TmfTraceManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+/**
+ * Test the incoherences and the inferred events saved in the segment stores
+ * of a pattern analysis, and read back from their files
+ *
+ * @author mmartin
+ */
+public class XmlPatternCoherenceStoreTest {
+
+    private static final @NonNull String TEST_TRACE = "test_traces/testTrace.xml";
+    private static final @NonNull String TEST_ANALYSIS = "testfiles/simple_fsm.xml";
+    private static final @NonNull String STORE_ID = "store.test";
+
+    private TmfXmlKernelTraceStub fTrace;
+    private XmlPatternAnalysis fModule;
+    private Path fDirectory;
+
+    /**
+     * Run the analysis on the test trace
+     *
+     * @throws IOException
+     *             If the directory of the stores cannot be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        TmfXmlKernelTraceStub trace = new TmfXmlKernelTraceStub();
+        trace.setKernelEventLayout(LttngEventLayout.getInstance());
+        IPath filePath = Activator.getAbsoluteFilePath(TEST_TRACE);
+        IStatus status = trace.validate(null, filePath.toOSString());
+        if (!status.isOK()) {
+            fail(status.getException().getMessage());
+        }
+        try {
+            trace.initTrace(null, filePath.toOSString(), TmfEvent.class);
+        } catch (TmfTraceException e) {
+            fail(e.getMessage());
+        }
+        File suppDir = new File(TmfTraceManager.getSupplementaryFileDir(trace));
+        for (File file : suppDir.listFiles()) {
+            file.delete();
+        }
+        ((TmfTrace) trace).traceOpened(new TmfTraceOpenedSignal(this, trace, null));
+        fTrace = trace;
+
+        try {
+            IPath path = Activator.getAbsoluteFilePath(TEST_ANALYSIS);
+            Document doc = XmlUtils.getDocumentFromFile(path.toFile());
+            assertNotNull(doc);
+            Element node = (Element) doc.getElementsByTagName(TmfXmlStrings.PATTERN).item(0);
+            assertNotNull(node);
+
+            XmlPatternAnalysis module = new XmlPatternAnalysis(true);
+            module.setXmlFile(path.toFile().toPath());
+            module.setName(XmlModuleTestBase.getName(node));
+            String moduleId = node.getAttribute(TmfXmlStrings.ID);
+            assertNotNull(moduleId);
+            module.setId(moduleId);
+            module.setTrace(trace);
+            module.schedule();
+            module.waitForCompletion();
+            fModule = module;
+        } catch (ParserConfigurationException | SAXException | TmfAnalysisException e) {
+            fail(e.getMessage());
+        }
+
+        fDirectory = Files.createTempDirectory("coherence");
+    }
+
+    /**
+     * Dispose the module and the trace, delete the stores
+     *
+     * @throws IOException
+     *             If the directory of the stores cannot be deleted
+     */
+    @After
+    public void cleanUp() throws IOException {
+        fModule.dispose();
+        fTrace.dispose();
+        File[] files = fDirectory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        Files.delete(fDirectory);
+    }
+
+    private Collection<TmfXmlFsm> getFsms() {
+        return fModule.getStateSystemModule().getStateProvider().getEventHandler().getFsmMap().values();
+    }
+
+    /**
+     * The incoherences of the fsms are written by start time and read back
+     * from the file, by the same store and by a new one
+     */
+    @Test
+    public void testIncoherences() {
+        Collection<TmfXmlFsm> fsms = getFsms();
+        Map<String, TmfXmlFsm> fsmsById = new HashMap<>();
+        int expectedCount = 0;
+        for (TmfXmlFsm fsm : fsms) {
+            fsmsById.put(fsm.getId(), fsm);
+            expectedCount += fsm.getIncoherenceBuffer().size();
+        }
+        assertTrue(expectedCount > 0);
+
+        XmlPatternCoherenceStore store = new XmlPatternCoherenceStore(fDirectory, STORE_ID);
+        assertFalse(store.hasIncoherences());
+        store.writeIncoherences(fsms);
+        assertTrue(store.hasIncoherences());
+        checkIncoherences(store.getIncoherences(), fsmsById, expectedCount);
+        store.dispose();
+
+        /* Opened again from the file */
+        XmlPatternCoherenceStore reopened = new XmlPatternCoherenceStore(fDirectory, STORE_ID);
+        assertTrue(reopened.hasIncoherences());
+        checkIncoherences(reopened.getIncoherences(), fsmsById, expectedCount);
+
+        reopened.delete();
+        assertFalse(reopened.hasIncoherences());
+    }
+
+    private static void checkIncoherences(ISegmentStore<TmfXmlIncoherenceSegment> segments, Map<String, TmfXmlFsm> fsmsById, int expectedCount) {
+        assertNotNull(segments);
+        assertEquals(expectedCount, segments.size());
+        for (TmfXmlIncoherenceSegment segment : segments) {
+            TmfXmlFsm fsm = fsmsById.get(segment.getFsmId());
+            assertNotNull(fsm);
+            /* Find the record of the segment in the buffer of its fsm */
+            TmfXmlIncoherenceBuffer buffer = fsm.getIncoherenceBuffer();
+            boolean found = false;
+            for (int i = 0; i < buffer.size() && !found; i++) {
+                EventStamp event = buffer.getEvent(i);
+                if (buffer.getScenarioKey(i) != segment.getScenarioKey() || event.getTime() != segment.getEnd()) {
+                    continue;
+                }
+                found = true;
+                EventStamp savedEvent = segment.getEvent(fsm.getEventTypes());
+                assertEquals(event.getRank(), savedEvent.getRank());
+                assertEquals(event.getTypeId(), savedEvent.getTypeId());
+                assertEquals(event.getCpu(), savedEvent.getCpu());
+                assertEquals(fsm.getStateId(buffer.getStateIndex(i)), segment.getStateName());
+                EventStamp prevEvent = buffer.getPrevEvent(i);
+                EventStamp savedPrevEvent = segment.getPrevEvent(fsm.getEventTypes());
+                if (prevEvent == null) {
+                    assertEquals(null, savedPrevEvent);
+                    assertEquals(event.getTime(), segment.getStart());
+                } else {
+                    assertNotNull(savedPrevEvent);
+                    assertEquals(prevEvent.getTime(), savedPrevEvent.getTime());
+                    assertEquals(prevEvent.getTypeId(), savedPrevEvent.getTypeId());
+                    assertEquals(prevEvent.getTime(), segment.getStart());
+                }
+            }
+            assertTrue(found);
+        }
+    }
+
+    /**
+     * The inferred events are written and read back with their content
+     */
+    @Test
+    public void testInferredEvents() {
+        List<TmfInferredEvent> events = new ArrayList<>(fModule.getStateSystemModule().getInferredEvents());
+        assertFalse(events.isEmpty());
+
+        XmlPatternCoherenceStore store = new XmlPatternCoherenceStore(fDirectory, STORE_ID);
+        store.writeInferredEvents(events);
+        store.dispose();
+
+        XmlPatternCoherenceStore reopened = new XmlPatternCoherenceStore(fDirectory, STORE_ID);
+        assertTrue(reopened.hasInferredEvents());
+        ISegmentStore<TmfXmlInferredEventSegment> segments = reopened.getInferredEvents();
+        assertNotNull(segments);
+        assertEquals(events.size(), segments.size());
+        List<TmfInferredEvent> readEvents = new ArrayList<>();
+        for (TmfXmlInferredEventSegment segment : segments) {
+            readEvents.add(TmfInferredEvent.create(fTrace, segment));
+        }
+        for (TmfInferredEvent event : events) {
+            boolean found = false;
+            for (TmfInferredEvent readEvent : readEvents) {
+                if (readEvent.getTimestamp().equals(event.getTimestamp()) && readEvent.getName().equals(event.getName())) {
+                    assertEquals(event.getContent(), readEvent.getContent());
+                    assertEquals(event.getLocalRank(), readEvent.getLocalRank());
+                    found = true;
+                }
+            }
+            assertTrue(found);
+        }
+        reopened.delete();
+    }
+}
@@ -2,6 +2,7 @@ package org.eclipse.tracecompass.incubator.coherence.core.model;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -20,6 +21,7 @@ import org.eclipse.tracecompass.incubator.coherence.core.newmodel.FsmStateIncohe
 import org.eclipse.tracecompass.incubator.coherence.core.newmodel.MultipleInference;
 import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlFsmTransition;
 import org.eclipse.tracecompass.incubator.coherence.core.readwrite.TmfXmlReadWriteStateValue;
+import org.eclipse.tracecompass.incubator.coherence.core.segment.TmfXmlInferredEventSegment;
 import org.eclipse.tracecompass.internal.analysis.os.linux.core.kernel.Attributes;
 import org.eclipse.tracecompass.internal.tmf.analysis.xml.core.module.IXmlStateSystemContainer;
 import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
@@ -33,7 +35,6 @@ import org.eclipse.tracecompass.tmf.core.event.ITmfEventType;
 import org.eclipse.tracecompass.tmf.core.event.TmfEvent;
 import org.eclipse.tracecompass.tmf.core.event.TmfEventField;
 import org.eclipse.tracecompass.tmf.core.event.TmfEventType;
-import org.eclipse.tracecompass.tmf.core.event.aspect.TmfCpuAspect;
 import org.eclipse.tracecompass.tmf.core.timestamp.ITmfTimestamp;
 import org.eclipse.tracecompass.tmf.core.timestamp.TmfTimestamp;
 import org.eclipse.tracecompass.tmf.core.trace.ITmfContext;
@@ -72,6 +73,8 @@ public class TmfInferredEvent extends TmfEvent {
 	 * 				The trace
 	 * @param incoherence
 	 * 				The incoherence for which we want to make inferences
+	 * @param incoherentEvent
+	 * 				The incoherent event of the incoherence, read once from the trace for all its inferred events
 	 * @param inferredTransition
 	 * 				The inferred transition associated with the event
 	 * @param localRank
@@ -90,6 +93,7 @@ public class TmfInferredEvent extends TmfEvent {
 	 */
 	public static TmfInferredEvent create(ITmfTrace trace, 
 			FsmStateIncoherence incoherence, 
+			ITmfEvent incoherentEvent, 
 			TmfXmlFsmTransition inferredTransition, 
 			long localRank, 
 			int nbInferred, 
@@ -97,22 +101,22 @@ public class TmfInferredEvent extends TmfEvent {
 			ITmfStateSystem stateSystem, 
 			TmfXmlScenarioInfo scenarioInfo) {
 		
-		ITmfTimestamp tsStart = incoherence.getPrevEvent() == null ? trace.getStartTime() : incoherence.getPrevEvent().getTimestamp();
-		ITmfTimestamp tsEnd = incoherence.getIncoherentEvent().getTimestamp();
+		ITmfTimestamp prevTs = incoherence.getPrevTimestamp();
+		ITmfTimestamp tsStart = prevTs == null ? trace.getStartTime() : prevTs;
+		ITmfTimestamp tsEnd = incoherence.getIncoherentTimestamp();
 		// set the timestamp to be in the middle of the possible interval + some factor given the local rank
 		ITmfTimestamp ts = TmfTimestamp.create(
 				tsStart.getValue() + ((tsEnd.getValue() - tsStart.getValue()) / (nbInferred + 1)) * localRank, 
 				tsStart.getScale());
-		Integer cpu = TmfTraceUtils.resolveIntEventAspectOfClassForEvent(incoherence.getIncoherentEvent().getTrace(),
-                TmfCpuAspect.class, incoherence.getIncoherentEvent());
-        if (cpu == null) {
+		int cpu = TmfXmlEventAspects.getCpu(incoherentEvent);
+        if (cpu == TmfXmlEventAspects.NO_VALUE) {
         	cpu = IEventDefinition.UNKNOWN_CPU;
         }
         
         IKernelAnalysisEventLayout layout = ((IKernelTrace) trace).getKernelEventLayout();
         
         SetMultimap<String, TmfEventField> contentCandidates = findContent(inferredTransition, testMap, stateSystem, 
-        		incoherence.getIncoherentEvent(), scenarioInfo, layout);
+        		incoherentEvent, scenarioInfo, layout);
         boolean multi = false;
         List<TmfEventField> fields = new ArrayList<>();
         Map<ITmfEventField, MultipleInference> multiValues = new HashMap<>();
@@ -135,6 +139,77 @@ public class TmfInferredEvent extends TmfEvent {
 		return new TmfInferredEvent(trace, ITmfContext.UNKNOWN_RANK, localRank, ts, tsStart, tsEnd, type, content, cpu, multi, multiValues, layout);
 	}
 
+	/**
+	 * Instantiate an inferred event saved in the supplementary files of the trace
+	 *
+	 * @param trace
+	 * 				The trace
+	 * @param segment
+	 * 				The saved event
+	 * @return
+	 * 				The inferred event
+	 */
+	public static TmfInferredEvent create(ITmfTrace trace, TmfXmlInferredEventSegment segment) {
+		boolean multi = false;
+		String[] fieldNames = segment.getFieldNames();
+		TmfEventField[] fields = new TmfEventField[fieldNames.length];
+		Map<ITmfEventField, MultipleInference> multiValues = new HashMap<>();
+		for (int i = 0; i < fieldNames.length; i++) {
+			Object[] values = segment.getFieldValues(i);
+			if (values.length > 1) {
+				List<TmfEventField> candidateFields = new ArrayList<>();
+				for (Object value : values) {
+					candidateFields.add(new TmfEventField(fieldNames[i], value, null));
+				}
+				fields[i] = new TmfEventField(fieldNames[i], MULTI_VALUE, null);
+				multi = true;
+				multiValues.put(fields[i], new MultipleInference(candidateFields));
+			}
+			else {
+				fields[i] = new TmfEventField(fieldNames[i], (values.length == 0) ? null : values[0], null);
+			}
+		}
+		TmfEventField content = new TmfEventField(ITmfEventField.ROOT_FIELD_ID, null, fields);
+		TmfEventType type = new CtfTmfEventType(segment.getName(), content);
+		IKernelAnalysisEventLayout layout = ((IKernelTrace) trace).getKernelEventLayout();
+		return new TmfInferredEvent(trace, ITmfContext.UNKNOWN_RANK, segment.getLocalRank(), TmfTimestamp.fromNanos(segment.getTime()),
+				TmfTimestamp.fromNanos(segment.getStart()), TmfTimestamp.fromNanos(segment.getEnd()), type, content,
+				segment.getCpu(), multi, multiValues, layout);
+	}
+
+	/**
+	 * Get the segment to save this event in the supplementary files of the trace.
+	 * The choices of the user among multiple values are not kept.
+	 *
+	 * @return
+	 * 				The segment
+	 */
+	public TmfXmlInferredEventSegment toSegment() {
+		/* The content without the fields computed when it is read */
+		Collection<? extends ITmfEventField> fields = super.getContent().getFields();
+		String[] fieldNames = new String[fields.size()];
+		Object[][] fieldValues = new Object[fields.size()][];
+		int i = 0;
+		for (ITmfEventField field : fields) {
+			fieldNames[i] = field.getName();
+			MultipleInference inference = fIsMulti ? fMultiValues.get(field) : null;
+			if (inference != null) {
+				List<TmfEventField> possibilities = inference.getPossibilites();
+				Object[] values = new Object[possibilities.size()];
+				for (int j = 0; j < values.length; j++) {
+					values[j] = possibilities.get(j).getValue();
+				}
+				fieldValues[i] = values;
+			}
+			else {
+				fieldValues[i] = new Object[] { field.getValue() };
+			}
+			i++;
+		}
+		return new TmfXmlInferredEventSegment(fStart.toNanos(), fEnd.toNanos(), getTimestamp().toNanos(), fLocalRank,
+				getName(), fCpu, fieldNames, fieldValues);
+	}
+
 	/**
 	 * Compute the content of an inferred event, given the associated inferred transition
 	 * 
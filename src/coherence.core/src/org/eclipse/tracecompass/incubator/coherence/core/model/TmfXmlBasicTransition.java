@@ -10,7 +10,6 @@ package org.eclipse.tracecompass.incubator.coherence.core.model;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -31,29 +30,31 @@ public class TmfXmlBasicTransition {
     private static final Pattern WILDCARD_PATTERN = Pattern.compile("\\*"); //$NON-NLS-1$
 
     private final List<String> fCond;
+    private final String fCondition;
     private final List<Pattern> fAcceptedEvents;
+    private final List<String> fLiteralEvents;
+    private final TmfXmlEventTypeSet fAcceptedTypes;
 
 
     public List<Pattern> getAcceptedEvents() {
 		return fAcceptedEvents;
 	}
+
+    /**
+     * Get the accepted event names that do not contain a wildcard
+     *
+     * @return The list of literal event names
+     */
+    public List<String> getLiteralEvents() {
+        return fLiteralEvents;
+    }
     
     /**
      * Concatenate every individual condition to form a single string
      * @return
      */
     public String getCondition() {
-    	String cond = "";
-    	Iterator<String> it = fCond.iterator();
-    	while (it.hasNext()) {
-    		String str = it.next();
-    		cond += str;
-    		if (it.hasNext()) {
-    			cond += ":";
-    		}
-    		
-    	}
-		return cond;
+		return fCondition;
 	}
 
 	/**
@@ -61,18 +62,26 @@ public class TmfXmlBasicTransition {
      *
      * @param element
      *            the XML basic transition element
+     * @param eventTypes
+     *            The registry of the event types of the analysis
      */
-    public TmfXmlBasicTransition(Element element) {
+    public TmfXmlBasicTransition(Element element, TmfXmlEventTypes eventTypes) {
         final @NonNull String events = element.getAttribute(TmfXmlStrings.EVENT);
         fAcceptedEvents = new ArrayList<>();
+        fLiteralEvents = new ArrayList<>();
         if (!events.isEmpty()) {
             for (String eventName : Arrays.asList(events.split(TmfXmlStrings.OR_SEPARATOR))) {
                 String name = WILDCARD_PATTERN.matcher(eventName).replaceAll(".*"); //$NON-NLS-1$
                 fAcceptedEvents.add(Pattern.compile(name));
+                if (name.equals(eventName)) {
+                    fLiteralEvents.add(eventName);
+                }
             }
         }
+        fAcceptedTypes = new TmfXmlEventTypeSet(this::acceptsEvent, eventTypes);
         final @NonNull String conditions = element.getAttribute(TmfXmlStrings.COND);
         fCond = conditions.isEmpty() ? new ArrayList<>() : Arrays.asList(conditions.split(TmfXmlStrings.AND_SEPARATOR));
+        fCondition = String.join(":", fCond); //$NON-NLS-1$
     }
 
     /**
@@ -80,17 +89,34 @@ public class TmfXmlBasicTransition {
      *
      * @param event
      *            The active event
+     * @param typeId
+     *            The ID of the type of the event
      * @param scenarioInfo
      *            The active scenario details.
      * @param tests
      *            The map of test in the XML file
      * @return true if the transition is validate false if not
      */
-    public boolean test(ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo, Map<String, TmfXmlTransitionValidator> tests) {
-        if (!validateEvent(event)) {
+    public boolean test(ITmfEvent event, int typeId, @Nullable TmfXmlScenarioInfo scenarioInfo, Map<String, TmfXmlTransitionValidator> tests) {
+        if (!acceptsEvent(typeId)) {
             return false;
         }
+        return testConditions(event, scenarioInfo, tests);
+    }
 
+    /**
+     * Validate only the conditions of this transition, the event name being
+     * already known to be accepted
+     *
+     * @param event
+     *            The active event
+     * @param scenarioInfo
+     *            The active scenario details.
+     * @param tests
+     *            The map of test in the XML file
+     * @return true if every condition is validated, false if not
+     */
+    public boolean testConditions(ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo, Map<String, TmfXmlTransitionValidator> tests) {
         for (String cond : fCond) {
             TmfXmlTransitionValidator test = tests.get(cond);
             if (test == null) {
@@ -103,9 +129,25 @@ public class TmfXmlBasicTransition {
         return true;
     }
 
-    private boolean validateEvent(ITmfEvent event) {
-        String eventName = event.getName();
+    /**
+     * Validate an event type with the accepted events of this transition
+     *
+     * @param typeId
+     *            The ID of the event type, in the registry of the analysis
+     * @return true if the event type is accepted, false if not
+     */
+    public boolean acceptsEvent(int typeId) {
+        return fAcceptedEvents.isEmpty() || fAcceptedTypes.contains(typeId);
+    }
 
+    /**
+     * Validate an event name with the accepted events of this transition
+     *
+     * @param eventName
+     *            The name of the event
+     * @return true if the event name is accepted, false if not
+     */
+    public boolean acceptsEvent(String eventName) {
         if (fAcceptedEvents.isEmpty()) {
             return true;
         }
@@ -0,0 +1,452 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.incubator.coherence.core.Activator;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlStateAttribute.StateAttributeType;
+import org.eclipse.tracecompass.incubator.coherence.core.module.IXmlStateSystemContainer;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
+import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
+import org.eclipse.tracecompass.statesystem.core.statevalue.ITmfStateValue;
+import org.eclipse.tracecompass.tmf.analysis.xml.core.module.TmfXmlUtils;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEventField;
+
+/**
+ * Compiled form of a {@link TmfXmlCondition} tree. The common shapes of
+ * conditions are turned into specialized predicates that compare the event
+ * fields and constants as primitive values and that resolve the constant state
+ * attribute paths only once. The other conditions, and the cases a predicate
+ * cannot handle for a given event, are delegated to the interpreted
+ * {@link TmfXmlCondition}, so the result is always the same.
+ *
+ * @author mmartin
+ */
+public abstract class TmfXmlCompiledCondition implements ITmfXmlCondition {
+
+    /* Returned by the comparisons that have to be done by the interpreter */
+    private static final int UNCOMPARABLE = Integer.MIN_VALUE;
+
+    /**
+     * Compile a condition
+     *
+     * @param condition
+     *            The condition to compile
+     * @return The compiled condition. Conditions that are not
+     *         {@link TmfXmlCondition} are returned as is.
+     */
+    public static ITmfXmlCondition compile(ITmfXmlCondition condition) {
+        if (!(condition instanceof TmfXmlCondition)) {
+            return condition;
+        }
+        TmfXmlCondition xmlCondition = (TmfXmlCondition) condition;
+        if (xmlCondition.isDataCondition()) {
+            return compileData(xmlCondition);
+        }
+        List<TmfXmlCondition> children = xmlCondition.getChildren();
+        if (children.isEmpty()) {
+            return new Interpreted(xmlCondition);
+        }
+        ITmfXmlCondition[] compiled = new ITmfXmlCondition[children.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = compile(children.get(i));
+        }
+        switch (xmlCondition.getOperator()) {
+        case AND:
+            return new And(compiled);
+        case OR:
+            return new Or(compiled);
+        case NOT:
+            return new Not(compiled[0]);
+        case NONE:
+        default:
+            return new Interpreted(xmlCondition);
+        }
+    }
+
+    private static ITmfXmlCondition compileData(TmfXmlCondition condition) {
+        List<ITmfXmlStateValue> values = condition.getStateValues();
+        for (ITmfXmlStateValue value : values) {
+            if (!(value instanceof TmfXmlStateValue)) {
+                return new Interpreted(condition);
+            }
+        }
+        if (values.size() == 2) {
+            Operand left = Operand.create((TmfXmlStateValue) values.get(0));
+            Operand right = Operand.create((TmfXmlStateValue) values.get(1));
+            if (left == null || right == null) {
+                return new Interpreted(condition);
+            }
+            return new ValuesEqual(condition, left, right);
+        }
+        TmfXmlStateValue value = (TmfXmlStateValue) values.get(0);
+        Operand expected = Operand.create(value);
+        if (expected == null) {
+            return new Interpreted(condition);
+        }
+        List<ITmfXmlStateAttribute> path = value.getAttributes();
+        if (path.isEmpty()) {
+            String fieldName = value.getEventField();
+            if (fieldName == null || value.getForcedType() != ITmfStateValue.Type.NULL) {
+                return new Interpreted(condition);
+            }
+            return new FieldCompare(condition, fieldName, expected);
+        }
+        for (ITmfXmlStateAttribute attribute : path) {
+            if (!isConstant(attribute)) {
+                return new Interpreted(condition);
+            }
+        }
+        return new StateCompare(condition, path, expected);
+    }
+
+    /*
+     * A constant attribute resolves to the same quark for every event and
+     * scenario, unless it refers to the scenario with a '#' name
+     */
+    private static boolean isConstant(ITmfXmlStateAttribute attribute) {
+        if (!(attribute instanceof TmfXmlStateAttribute)) {
+            return false;
+        }
+        TmfXmlStateAttribute xmlAttribute = (TmfXmlStateAttribute) attribute;
+        String name = xmlAttribute.getName();
+        return xmlAttribute.getType() == StateAttributeType.CONSTANT && name != null && !name.startsWith("#"); //$NON-NLS-1$
+    }
+
+    /**
+     * Compare a raw event field value with a state value, like
+     * {@link ITmfStateValue#compareTo} would do once the field is converted to
+     * a state value
+     *
+     * @return The sign of the comparison, or {@link #UNCOMPARABLE} if the
+     *         types cannot be compared here
+     */
+    private static int compareField(Object field, ITmfStateValue value) {
+        switch (value.getType()) {
+        case INTEGER:
+            if (field instanceof Long || field instanceof Integer) {
+                return Long.compare(((Number) field).longValue(), value.unboxInt());
+            }
+            break;
+        case LONG:
+            if (field instanceof Long || field instanceof Integer) {
+                return Long.compare(((Number) field).longValue(), value.unboxLong());
+            }
+            break;
+        case STRING:
+            if (field instanceof String) {
+                return Integer.signum(((String) field).compareTo(value.unboxStr()));
+            }
+            break;
+        case DOUBLE:
+        case NULL:
+        case CUSTOM:
+        default:
+            break;
+        }
+        return UNCOMPARABLE;
+    }
+
+    /**
+     * Compare two raw event field values, like {@link ITmfStateValue#compareTo}
+     * would do once they are converted to state values
+     *
+     * @return The sign of the comparison, or {@link #UNCOMPARABLE} if the
+     *         types cannot be compared here
+     */
+    private static int compareFields(Object field, Object other) {
+        if ((field instanceof Long || field instanceof Integer) && (other instanceof Long || other instanceof Integer)) {
+            return Long.compare(((Number) field).longValue(), ((Number) other).longValue());
+        }
+        if (field instanceof String && other instanceof String) {
+            return Integer.signum(((String) field).compareTo((String) other));
+        }
+        return UNCOMPARABLE;
+    }
+
+    private static @Nullable Object getRawField(ITmfEvent event, String fieldName) {
+        ITmfEventField field = event.getContent().getField(fieldName);
+        return field == null ? null : field.getValue();
+    }
+
+    /**
+     * One side of a comparison: either a constant or the value of an event
+     * field
+     */
+    private static final class Operand {
+        private final @Nullable ITmfStateValue fConstant;
+        private final @Nullable String fFieldName;
+
+        private Operand(@Nullable ITmfStateValue constant, @Nullable String fieldName) {
+            fConstant = constant;
+            fFieldName = fieldName;
+        }
+
+        public static @Nullable Operand create(TmfXmlStateValue value) {
+            ITmfStateValue constant = value.getConstantValue();
+            if (constant != null) {
+                return new Operand(constant, null);
+            }
+            String fieldName = value.getValueFieldName();
+            if (fieldName != null) {
+                return new Operand(null, fieldName);
+            }
+            return null;
+        }
+    }
+
+    /** Conjunction of conditions, stopping at the first false one */
+    private static final class And extends TmfXmlCompiledCondition {
+        private final ITmfXmlCondition[] fChildren;
+
+        public And(ITmfXmlCondition[] children) {
+            fChildren = children;
+        }
+
+        @Override
+        public boolean test(ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo) {
+            for (ITmfXmlCondition child : fChildren) {
+                if (!child.test(event, scenarioInfo)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Disjunction of conditions, stopping at the first true one */
+    private static final class Or extends TmfXmlCompiledCondition {
+        private final ITmfXmlCondition[] fChildren;
+
+        public Or(ITmfXmlCondition[] children) {
+            fChildren = children;
+        }
+
+        @Override
+        public boolean test(ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo) {
+            for (ITmfXmlCondition child : fChildren) {
+                if (child.test(event, scenarioInfo)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Not extends TmfXmlCompiledCondition {
+        private final ITmfXmlCondition fChild;
+
+        public Not(ITmfXmlCondition child) {
+            fChild = child;
+        }
+
+        @Override
+        public boolean test(ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo) {
+            return !fChild.test(event, scenarioInfo);
+        }
+    }
+
+    /** Condition that could not be compiled */
+    private static final class Interpreted extends TmfXmlCompiledCondition {
+        private final TmfXmlCondition fCondition;
+
+        public Interpreted(TmfXmlCondition condition) {
+            fCondition = condition;
+        }
+
+        @Override
+        public boolean test(ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo) {
+            return fCondition.test(event, scenarioInfo);
+        }
+    }
+
+    /** Comparison of an event field with a constant or another field */
+    private static final class FieldCompare extends TmfXmlCompiledCondition {
+        private final TmfXmlCondition fCondition;
+        private final String fFieldName;
+        private final Operand fExpected;
+
+        public FieldCompare(TmfXmlCondition condition, String fieldName, Operand expected) {
+            fCondition = condition;
+            fFieldName = fieldName;
+            fExpected = expected;
+        }
+
+        @Override
+        public boolean test(ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo) {
+            Object field = getRawField(event, fFieldName);
+            ITmfStateValue constant = fExpected.fConstant;
+            String expectedName = fExpected.fFieldName;
+            if (field != null && constant != null) {
+                int comparison = compareField(field, constant);
+                if (comparison != UNCOMPARABLE) {
+                    return fCondition.matches(comparison);
+                }
+            } else if (field != null && expectedName != null) {
+                Object expected = getRawField(event, expectedName);
+                if (expected != null) {
+                    int comparison = compareFields(field, expected);
+                    if (comparison != UNCOMPARABLE) {
+                        return fCondition.matches(comparison);
+                    }
+                }
+            }
+            /* Special fields, aspects and other types */
+            return fCondition.test(event, scenarioInfo);
+        }
+    }
+
+    /**
+     * Comparison of the ongoing value of a constant state attribute with a
+     * constant or an event field. The quark is resolved the first time the
+     * condition is tested.
+     */
+    private static final class StateCompare extends TmfXmlCompiledCondition {
+        private final TmfXmlCondition fCondition;
+        private final List<ITmfXmlStateAttribute> fPath;
+        private final Operand fExpected;
+        private volatile @Nullable ResolvedQuark fQuark = null;
+
+        public StateCompare(TmfXmlCondition condition, List<ITmfXmlStateAttribute> path, Operand expected) {
+            fCondition = condition;
+            fPath = path;
+            fExpected = expected;
+        }
+
+        @Override
+        public boolean test(ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo) {
+            IXmlStateSystemContainer container = fCondition.getContainer();
+            ITmfStateSystem ss = container.getStateSystem();
+            if (ss == null) {
+                return fCondition.test(event, scenarioInfo);
+            }
+            ResolvedQuark resolved = fQuark;
+            if (resolved == null || resolved.fSs != ss) {
+                int quark = IXmlStateSystemContainer.ROOT_QUARK;
+                for (ITmfXmlStateAttribute attribute : fPath) {
+                    quark = attribute.getAttributeQuark(event, quark, scenarioInfo);
+                    if (quark == IXmlStateSystemContainer.ERROR_QUARK) {
+                        return fCondition.test(event, scenarioInfo);
+                    }
+                }
+                resolved = new ResolvedQuark(ss, quark);
+                fQuark = resolved;
+            }
+            try {
+                ITmfStateValue state = queryOngoingState(ss, resolved.fQuark);
+                ITmfStateValue constant = fExpected.fConstant;
+                if (constant != null) {
+                    return fCondition.matches(state.compareTo(constant));
+                }
+                Object field = getRawField(event, checkFieldName(fExpected.fFieldName));
+                if (field != null) {
+                    int comparison = compareField(field, state);
+                    if (comparison != UNCOMPARABLE) {
+                        return fCondition.matches(-comparison);
+                    }
+                    ITmfStateValue fieldValue = TmfXmlUtils.newTmfStateValueFromObjectWithForcedType(field, ITmfStateValue.Type.NULL);
+                    return fCondition.matches(state.compareTo(fieldValue));
+                }
+            } catch (AttributeNotFoundException e) {
+                Activator.logError("Attribute not found", e); //$NON-NLS-1$
+                return false;
+            }
+            return fCondition.test(event, scenarioInfo);
+        }
+
+        private static ITmfStateValue queryOngoingState(ITmfStateSystem ss, int quark) throws AttributeNotFoundException {
+            return ss.queryOngoingState(quark);
+        }
+
+        private static String checkFieldName(@Nullable String fieldName) {
+            if (fieldName == null) {
+                throw new IllegalStateException("The operand is neither a constant nor a field"); //$NON-NLS-1$
+            }
+            return fieldName;
+        }
+    }
+
+    private static final class ResolvedQuark {
+        private final ITmfStateSystem fSs;
+        private final int fQuark;
+
+        public ResolvedQuark(ITmfStateSystem ss, int quark) {
+            fSs = ss;
+            fQuark = quark;
+        }
+    }
+
+    /** Equality of two values, each one a constant or an event field */
+    private static final class ValuesEqual extends TmfXmlCompiledCondition {
+        private final TmfXmlCondition fCondition;
+        private final Operand fLeft;
+        private final Operand fRight;
+
+        public ValuesEqual(TmfXmlCondition condition, Operand left, Operand right) {
+            fCondition = condition;
+            fLeft = left;
+            fRight = right;
+        }
+
+        @Override
+        public boolean test(ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo) {
+            ITmfStateValue leftConstant = fLeft.fConstant;
+            ITmfStateValue rightConstant = fRight.fConstant;
+            if (leftConstant != null && rightConstant != null) {
+                return leftConstant.equals(rightConstant);
+            }
+            Object left = leftConstant != null ? leftConstant : getRawField(event, StateCompare.checkFieldName(fLeft.fFieldName));
+            Object right = rightConstant != null ? rightConstant : getRawField(event, StateCompare.checkFieldName(fRight.fFieldName));
+            /*
+             * State values of different types are never equal, so only values
+             * of the same type can be compared directly
+             */
+            if (left instanceof ITmfStateValue && right != null) {
+                return equalsField(right, (ITmfStateValue) left, event, scenarioInfo);
+            }
+            if (right instanceof ITmfStateValue && left != null) {
+                return equalsField(left, (ITmfStateValue) right, event, scenarioInfo);
+            }
+            if (left != null && right != null && left.getClass() == right.getClass()
+                    && (left instanceof Long || left instanceof Integer || left instanceof String)) {
+                return left.equals(right);
+            }
+            return fCondition.test(event, scenarioInfo);
+        }
+
+        private boolean equalsField(Object field, ITmfStateValue constant, ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo) {
+            switch (constant.getType()) {
+            case INTEGER:
+                if (field instanceof Integer) {
+                    return ((Integer) field).intValue() == constant.unboxInt();
+                }
+                break;
+            case LONG:
+                if (field instanceof Long) {
+                    return ((Long) field).longValue() == constant.unboxLong();
+                }
+                break;
+            case STRING:
+                if (field instanceof String) {
+                    return field.equals(constant.unboxStr());
+                }
+                break;
+            case DOUBLE:
+            case NULL:
+            case CUSTOM:
+            default:
+                break;
+            }
+            return fCondition.test(event, scenarioInfo);
+        }
+    }
+}
@@ -352,6 +352,84 @@ public class TmfXmlCondition implements ITmfXmlCondition {
         }
     }
     
+    /**
+     * Get whether the result of this condition only depends on the current
+     * event. Such a condition gives the same result for every scenario, as
+     * long as the event does not change.
+     *
+     * @return True if the condition only depends on the event
+     */
+    public boolean isEventOnly() {
+        switch (fType) {
+        case DATA:
+            for (ITmfXmlStateValue value : fStateValues) {
+                if (!value.getAttributes().isEmpty() || !(value instanceof TmfXmlStateValue) || !((TmfXmlStateValue) value).isEventOnly()) {
+                    return false;
+                }
+            }
+            return true;
+        case NONE:
+            for (TmfXmlCondition condition : fConditions) {
+                if (!condition.isEventOnly()) {
+                    return false;
+                }
+            }
+            return true;
+        case TIME:
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Get whether this condition compares state values, as opposed to a time
+     * condition or a tree of conditions
+     *
+     * @return True if this is a data condition
+     */
+    boolean isDataCondition() {
+        return fType == ConditionType.DATA;
+    }
+
+    /**
+     * Apply the comparison operator of this condition to the result of a
+     * comparison
+     *
+     * @param comparison
+     *            The result of the comparison of the value found in the state
+     *            system or the event with the value of the condition, as
+     *            returned by a compareTo method
+     * @return The result of the condition
+     */
+    boolean matches(int comparison) {
+        switch (fConditionOperator) {
+        case EQ:
+            return comparison == 0;
+        case NE:
+            return comparison != 0;
+        case GE:
+            return comparison >= 0;
+        case GT:
+            return comparison > 0;
+        case LE:
+            return comparison <= 0;
+        case LT:
+            return comparison < 0;
+        case NONE:
+        default:
+            throw new IllegalArgumentException("TmfXmlCondition: invalid comparison operator."); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Get the state system container of this condition
+     *
+     * @return The container
+     */
+    IXmlStateSystemContainer getContainer() {
+        return fContainer;
+    }
+
     public List<ITmfXmlStateValue> getStateValues() {
     	return fStateValues;
     }
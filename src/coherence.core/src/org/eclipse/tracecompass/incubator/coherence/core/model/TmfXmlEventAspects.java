@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.ToIntFunction;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.analysis.os.linux.core.kernel.KernelTidAspect;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.event.aspect.ITmfEventAspect;
+import org.eclipse.tracecompass.tmf.core.event.aspect.TmfCpuAspect;
+import org.eclipse.tracecompass.tmf.core.trace.ITmfTrace;
+
+/**
+ * Accessors of the CPU and TID of the events of a trace, resolved once per
+ * trace.
+ *
+ * {@link org.eclipse.tracecompass.tmf.core.trace.TmfTraceUtils#resolveEventAspectOfClassForEvent}
+ * goes through the aspects of the trace and checks their class for every
+ * event. Here, the matching aspects are found when the trace is first seen and
+ * the accessors directly call them, with the same result: the value of the
+ * first matching aspect that resolves the event. The trace of an event of an
+ * experiment is the trace it comes from, so each trace of the experiment gets
+ * its own accessors.
+ *
+ * @author mmartin
+ */
+public final class TmfXmlEventAspects {
+
+    /** Value returned by the accessors when no aspect resolves the event */
+    public static final int NO_VALUE = Integer.MIN_VALUE;
+
+    private static final Map<ITmfTrace, TmfXmlEventAspects> ASPECTS = Collections.synchronizedMap(new WeakHashMap<>());
+    private static volatile @Nullable TmfXmlEventAspects sLast = null;
+
+    /* Weak, the trace is the key of this value in the map */
+    private final WeakReference<ITmfTrace> fTrace;
+    private final ToIntFunction<ITmfEvent> fCpuAccessor;
+    private final ToIntFunction<ITmfEvent> fTidAccessor;
+
+    private TmfXmlEventAspects(ITmfTrace trace) {
+        fTrace = new WeakReference<>(trace);
+        fCpuAccessor = createAccessor(trace, TmfCpuAspect.class);
+        fTidAccessor = createAccessor(trace, KernelTidAspect.class);
+    }
+
+    /**
+     * Get the accessors of a trace
+     *
+     * @param trace
+     *            The trace
+     * @return The accessors of the events of this trace
+     */
+    public static TmfXmlEventAspects forTrace(ITmfTrace trace) {
+        /* Consecutive events most often come from the same trace */
+        TmfXmlEventAspects last = sLast;
+        if (last != null && last.fTrace.get() == trace) {
+            return last;
+        }
+        TmfXmlEventAspects aspects = ASPECTS.computeIfAbsent(trace, TmfXmlEventAspects::new);
+        sLast = aspects;
+        return aspects;
+    }
+
+    /**
+     * Forget the accessors of a disposed trace
+     *
+     * @param trace
+     *            The trace
+     */
+    public static void dispose(ITmfTrace trace) {
+        ASPECTS.remove(trace);
+        TmfXmlEventAspects last = sLast;
+        if (last != null && last.fTrace.get() == trace) {
+            sLast = null;
+        }
+    }
+
+    /**
+     * Get the CPU of an event
+     *
+     * @param event
+     *            The event
+     * @return The CPU, or {@link #NO_VALUE}
+     */
+    public static int getCpu(ITmfEvent event) {
+        return forTrace(event.getTrace()).fCpuAccessor.applyAsInt(event);
+    }
+
+    /**
+     * Get the TID of an event
+     *
+     * @param event
+     *            The event
+     * @return The TID, or {@link #NO_VALUE}
+     */
+    public static int getTid(ITmfEvent event) {
+        return forTrace(event.getTrace()).fTidAccessor.applyAsInt(event);
+    }
+
+    /**
+     * Get the accessor of the CPU of the events of this trace
+     *
+     * @return The accessor, returning {@link #NO_VALUE} when the CPU is unknown
+     */
+    public ToIntFunction<ITmfEvent> getCpuAccessor() {
+        return fCpuAccessor;
+    }
+
+    /**
+     * Get the accessor of the TID of the events of this trace
+     *
+     * @return The accessor, returning {@link #NO_VALUE} when the TID is unknown
+     */
+    public ToIntFunction<ITmfEvent> getTidAccessor() {
+        return fTidAccessor;
+    }
+
+    private static ToIntFunction<ITmfEvent> createAccessor(ITmfTrace trace, Class<?> aspectClass) {
+        List<ITmfEventAspect<?>> matching = new ArrayList<>();
+        for (ITmfEventAspect<?> aspect : trace.getEventAspects()) {
+            if (aspectClass.isAssignableFrom(aspect.getClass())) {
+                matching.add(aspect);
+            }
+        }
+        if (matching.isEmpty()) {
+            return event -> NO_VALUE;
+        }
+        if (matching.size() == 1) {
+            ITmfEventAspect<?> aspect = matching.get(0);
+            return event -> toInt(aspect.resolve(event));
+        }
+        ITmfEventAspect<?>[] aspects = matching.toArray(new ITmfEventAspect<?>[matching.size()]);
+        return event -> {
+            for (ITmfEventAspect<?> aspect : aspects) {
+                Object value = aspect.resolve(event);
+                if (value != null) {
+                    return toInt(value);
+                }
+            }
+            return NO_VALUE;
+        };
+    }
+
+    private static int toInt(@Nullable Object value) {
+        return (value instanceof Integer) ? (Integer) value : NO_VALUE;
+    }
+}
@@ -49,6 +49,7 @@ public class TmfXmlEventHandler {
     private final List<TmfXmlStateChange> fStateChangeList = new ArrayList<>();
     private final String fName;
     private final IXmlStateSystemContainer fParent;
+    private final TmfXmlEventTypeSet fAcceptedTypes;
 
     /**
      * Constructor
@@ -64,6 +65,7 @@ public class TmfXmlEventHandler {
         fParent = parent;
         String name = node.getAttribute(TmfXmlStrings.HANDLER_EVENT_NAME);
         fName = name;
+        fAcceptedTypes = new TmfXmlEventTypeSet(this::appliesToEvent, parent.getEventTypes());
 
         List<@NonNull Element> childElements = TmfXmlUtils.getChildElements(node, TmfXmlStrings.STATE_CHANGE);
         /* load state changes */
@@ -73,9 +75,7 @@ public class TmfXmlEventHandler {
         }
     }
 
-    private boolean appliesToEvent(ITmfEvent event) {
-        String eventName = event.getName();
-
+    private boolean appliesToEvent(String eventName) {
         /* test for full name */
         if (eventName.equals(fName)) {
             return true;
@@ -96,7 +96,20 @@ public class TmfXmlEventHandler {
      *            The trace event to handle
      */
     public void handleEvent(ITmfEvent event) {
-        if (!appliesToEvent(event)) {
+        handleEvent(event, fParent.getEventTypes().getId(event));
+    }
+
+    /**
+     * If the event handler can handle the event, it applies all state changes
+     * to modify the state system accordingly
+     *
+     * @param event
+     *            The trace event to handle
+     * @param typeId
+     *            The ID of the event type, in the registry of the parent container
+     */
+    public void handleEvent(ITmfEvent event, int typeId) {
+        if (!fAcceptedTypes.contains(typeId)) {
             return;
         }
 
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Set of event types accepted by a transition or an event handler, as a bitset
+ * over the IDs of a {@link TmfXmlEventTypes} registry. The membership of an event type is
+ * resolved with the name matcher the first time its ID is tested, and is a
+ * single bit test afterwards.
+ *
+ * @author mmartin
+ */
+public class TmfXmlEventTypeSet {
+
+    /*
+     * Two words per block of 64 IDs: the first one has the bits of the resolved
+     * IDs, the second one the bits of the accepted IDs. The array is replaced
+     * as a whole when an ID is resolved, so it can be read without locking.
+     */
+    private volatile long[] fBits = new long[0];
+    private final Predicate<String> fMatcher;
+    private final TmfXmlEventTypes fEventTypes;
+
+    /**
+     * Constructor
+     *
+     * @param matcher
+     *            The predicate telling if an event name is accepted
+     * @param eventTypes
+     *            The registry of the event type IDs tested in this set
+     */
+    public TmfXmlEventTypeSet(Predicate<String> matcher, TmfXmlEventTypes eventTypes) {
+        fMatcher = matcher;
+        fEventTypes = eventTypes;
+    }
+
+    /**
+     * Test if an event type is accepted
+     *
+     * @param typeId
+     *            The ID of the event type
+     * @return True if the event type is in this set
+     */
+    public boolean contains(int typeId) {
+        long[] bits = fBits;
+        int word = (typeId >>> 6) << 1;
+        long mask = 1L << typeId;
+        if (word < bits.length && (bits[word] & mask) != 0) {
+            return (bits[word + 1] & mask) != 0;
+        }
+        return resolve(typeId);
+    }
+
+    private synchronized boolean resolve(int typeId) {
+        long[] bits = fBits;
+        int word = (typeId >>> 6) << 1;
+        long mask = 1L << typeId;
+        if (word < bits.length && (bits[word] & mask) != 0) {
+            return (bits[word + 1] & mask) != 0;
+        }
+        boolean accepted = fMatcher.test(fEventTypes.getName(typeId));
+        long[] newBits = Arrays.copyOf(bits, Math.max(bits.length, word + 2));
+        newBits[word] |= mask;
+        if (accepted) {
+            newBits[word + 1] |= mask;
+        }
+        fBits = newBits;
+        return accepted;
+    }
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Table of values indexed by the IDs of {@link TmfXmlEventTypes}. The value of
+ * an event type is computed by the resolver the first time it is requested,
+ * so the table grows as new event names appear in the trace.
+ *
+ * @author mmartin
+ *
+ * @param <T>
+ *            The type of the values
+ */
+public class TmfXmlEventTypeTable<T> {
+
+    /*
+     * The array is replaced as a whole when a new event type is resolved, so
+     * it can be read without locking.
+     */
+    private volatile Object[] fValues = new Object[0];
+    private final IntFunction<T> fResolver;
+
+    /**
+     * Constructor
+     *
+     * @param resolver
+     *            The function computing the value of an event type ID
+     */
+    public TmfXmlEventTypeTable(IntFunction<T> resolver) {
+        fResolver = resolver;
+    }
+
+    /**
+     * Get the value of an event type, resolving it if needed
+     *
+     * @param typeId
+     *            The ID of the event type
+     * @return The value
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int typeId) {
+        Object[] values = fValues;
+        if (typeId < values.length && values[typeId] != null) {
+            return (T) values[typeId];
+        }
+        return resolve(typeId);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized T resolve(int typeId) {
+        Object[] values = fValues;
+        if (typeId < values.length && values[typeId] != null) {
+            return (T) values[typeId];
+        }
+        T value = fResolver.apply(typeId);
+        Object[] newValues = Arrays.copyOf(values, Math.max(values.length, typeId + 1));
+        newValues[typeId] = value;
+        fValues = newValues;
+        return value;
+    }
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+
+/**
+ * Registry interning every event name seen by an XML analysis to a dense int
+ * ID. The IDs are used to index the {@link TmfXmlEventTypeSet} of transitions
+ * and event handlers, so that matching an event is a single bit test.
+ *
+ * Each state provider has its own registry, see
+ * {@link org.eclipse.tracecompass.incubator.coherence.core.module.IXmlStateSystemContainer#getEventTypes()},
+ * so the names of a trace are dropped with its analysis. The ID of an event is
+ * looked up once, when the event is given to the analysis, and passed down to
+ * the transitions.
+ *
+ * @author mmartin
+ */
+public final class TmfXmlEventTypes {
+
+    /** The ID returned for an event name that was never registered */
+    public static final int NO_ID = -1;
+
+    private final Map<String, Integer> fIds = new ConcurrentHashMap<>();
+    /* Replaced as a whole when a name is added, so it can be read without locking */
+    private volatile String[] fNames = new String[0];
+
+    /**
+     * Get the ID of an event name, assigning a new one the first time the name
+     * is seen
+     *
+     * @param name
+     *            The event name
+     * @return The ID of the event type
+     */
+    public int getId(String name) {
+        Integer id = fIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        return register(name);
+    }
+
+    /**
+     * Get the ID of the type of an event
+     *
+     * @param event
+     *            The event
+     * @return The ID of the event type
+     */
+    public int getId(ITmfEvent event) {
+        return getId(event.getName());
+    }
+
+    /**
+     * Get the ID of an event name without registering it
+     *
+     * @param name
+     *            The event name
+     * @return The ID of the event type, or {@link #NO_ID} if the name was never
+     *         seen
+     */
+    public int find(String name) {
+        Integer id = fIds.get(name);
+        return (id == null) ? NO_ID : id;
+    }
+
+    private synchronized int register(String name) {
+        Integer id = fIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        String[] names = fNames;
+        int newId = names.length;
+        String[] newNames = Arrays.copyOf(names, newId + 1);
+        newNames[newId] = name;
+        fNames = newNames;
+        fIds.put(name, newId);
+        return newId;
+    }
+
+    /**
+     * Get the event name of an ID
+     *
+     * @param id
+     *            The ID of the event type
+     * @return The event name
+     */
+    public String getName(int id) {
+        return fNames[id];
+    }
+
+    /**
+     * Get the number of event types registered so far
+     *
+     * @return The number of event types
+     */
+    public int getCount() {
+        return fNames.length;
+    }
+}
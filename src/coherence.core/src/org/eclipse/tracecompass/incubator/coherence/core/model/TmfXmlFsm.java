@@ -8,18 +8,19 @@
  ******************************************************************************/
 package org.eclipse.tracecompass.incubator.coherence.core.model;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.eclipse.jdt.annotation.NonNull;
@@ -28,6 +29,7 @@ import org.eclipse.osgi.util.NLS;
 import org.eclipse.tracecompass.analysis.os.linux.core.trace.IKernelAnalysisEventLayout;
 import org.eclipse.tracecompass.common.core.NonNullUtils;
 import org.eclipse.tracecompass.incubator.coherence.core.Activator;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlIncoherenceBuffer.EventStamp;
 import org.eclipse.tracecompass.incubator.coherence.core.module.IXmlStateSystemContainer;
 import org.eclipse.tracecompass.incubator.coherence.core.newmodel.FsmStateIncoherence;
 import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlCpuScenarioModel;
@@ -42,12 +44,14 @@ import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlScenario
 import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlSoftIrqScenarioModel;
 import org.eclipse.tracecompass.tmf.analysis.xml.core.module.TmfXmlStrings;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEventType;
 import org.eclipse.tracecompass.tmf.core.event.ITmfLostEvent;
 import org.eclipse.tracecompass.tmf.core.statesystem.AbstractTmfStateProvider;
 import org.eclipse.tracecompass.tmf.core.statistics.ITmfStatistics;
 import org.eclipse.tracecompass.tmf.core.statistics.TmfStatisticsModule;
+import org.eclipse.tracecompass.tmf.core.trace.ITmfTrace;
+import org.eclipse.tracecompass.tmf.core.trace.ITmfTraceWithPreDefinedEvents;
 import org.eclipse.tracecompass.tmf.core.trace.TmfTraceUtils;
-import org.eclipse.tracecompass.tmf.core.util.Pair;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
@@ -63,11 +67,12 @@ import com.google.common.collect.ImmutableMap;
 public class TmfXmlFsm {
 
     protected final Map<String, TmfXmlState> fStatesMap;
-    protected final Map<String, TmfXmlScenario> fActiveScenariosList;
+    protected final TmfXmlScenarioMap fActiveScenariosList;
     protected final List<TmfXmlBasicTransition> fPreconditions;
     protected final String fId;
     protected final ITmfXmlModelFactory fModelFactory;
     protected final IXmlStateSystemContainer fContainer;
+    private final TmfXmlEventTypes fEventTypes;
     protected final String fFinalStateId;
     protected final String fAbandonStateId;
     protected final boolean fInstanceMultipleEnabled;
@@ -80,68 +85,183 @@ public class TmfXmlFsm {
     protected boolean fHasIncoherence;              /* indicates if there is at least one possible transition that could have been taken */
     protected boolean fCoherenceCheckingNeeded;     /* indicates if we need to keep on checking the coherence for the current event */
     protected int transitionCount;					/* counter representing the number of transitions taken for the current event */
-    Map<String, Set<String>> fPrevStates;
+    private final TmfXmlEventTypeTable<TmfXmlState[]> fPrevStates; // map an event type to the states having a transition accepting it
 	Map<String, Set<TmfXmlFsmTransition>> fPrevStatesForState;
-	private Map<TmfXmlFsmTransition, Long> fTransitionsCounters = new HashMap<>();
+	private final TmfXmlTransitionCounters fTransitionsCounters = new TmfXmlTransitionCounters();
+	private @Nullable TmfXmlShortestPaths fShortestPaths = null;
+	private final TmfXmlInferenceCache fInferenceCache = new TmfXmlInferenceCache(INFERENCE_CACHE_SIZE);
 	private String fCoherenceAlgo;
-	private Map<FsmStateIncoherence, Set<TmfXmlFsmTransition>> possibleTransitionsMap = new LinkedHashMap<>(); // temporarily save the possible transitions for each incoherence, before processing
-	private Map<Pair<Pattern, String>, Set<String>> certaintyMap = new HashMap<>(); // map a pair of (event name, condition name) to a list of unique target state names	
+	private boolean fCheckOnlyUncertain = false;
+	private boolean fGlobalInference = false; // only use the global statistics to infer the transitions
+	private final TmfXmlIncoherenceBuffer fIncoherenceBuffer = new TmfXmlIncoherenceBuffer(); // the incoherences, as compact records
+	private @Nullable List<FsmStateIncoherence> fIncoherences = null; // views of the records, created when the incoherences are first needed
+	private final TmfXmlEventTypeTable<Map<String, Boolean>> fCertaintyTable; // map an event type and a condition to the certainty of the reached state
 	private final TmfXmlScenarioModel fScenarioModel;
+	private final long[] fEventAttributes; // buffer reused to get the scenario attributes of each event
+	/* Timestamps and CPUs of the lost events, the number of lost events is the current uncertainty epoch */
+	private long[] fLostEventTimes = new long[16];
+	private int[] fLostEventCpus = new int[16];
+	private int fUncertaintyEpoch = 0;
+	private final Map<TmfXmlState, TmfXmlEventTypeTable<TmfXmlStateTransition[]>> fTransitionTable; // map a state to the ordered candidate transitions for each event type
+	private final Map<TmfXmlState, TmfXmlEventTypeTable<TmfXmlFsmTransition[]>> fFsmTransitionTable; // map a state to the flyweights of its candidate transitions for each event type
+	/* The flyweights by ID, the array grows by doubling and its first fFsmTransitionCount entries are set */
+	private volatile TmfXmlFsmTransition[] fFsmTransitionsById = new TmfXmlFsmTransition[16];
+	private volatile int fFsmTransitionCount = 0;
+	/* Dense numbering of the states, the arrays are replaced as a whole when a state is added */
+	private final Map<String, Integer> fStateIndexes = new ConcurrentHashMap<>();
+	private final Map<TmfXmlState, Integer> fDeclaredStateIndexes = new IdentityHashMap<>(); // the initial state may be declared under another ID than its own
+	private volatile String[] fStateNames = new String[0];
+	private volatile @Nullable TmfXmlState[] fStates = new TmfXmlState[0];
+	private final int fInitialStateIndex;
+	private final int fFinalStateIndex;
+	private final int fAbandonStateIndex;
+	private final int fErrorStateIndex;
+	/* Shards of the scenarios, see setShardCount */
+	private int fShardCount = 1;
+	private boolean fShardsStarted = false;
+	private TmfXmlFsmShard @Nullable [] fShards = null;
+	private @Nullable TmfXmlScenarioHistoryBuilder fShardsHistoryBuilder = null;
+	/* The spill of the incoherences, also used for the buffers of the shards, see setIncoherenceSpill */
+	private @Nullable Path fSpillDirectory = null;
+	private long fSpillThreshold = 0;
+	private final ThreadLocal<@Nullable TmfXmlFsmShard> fCurrentShard = new ThreadLocal<>();
+	/* The fsm handled by the current thread, when the fsms or their shards have their own threads */
+	private static final ThreadLocal<@Nullable TmfXmlFsm> THREAD_FSM = new ThreadLocal<>();
+	private long fEventSequence = 0;
+	private TmfXmlFsmShard[] fTargets = new TmfXmlFsmShard[0]; // buffer reused to find the shards of each event
+	private final TmfXmlEventTypeTable<Boolean> fStartingTypes = new TmfXmlEventTypeTable<>(this::resolveStartingType); // event types that can start a scenario
+	private static final int INFERENCE_CACHE_SIZE = 4096;
+	private static final TmfXmlStateTransition[] NO_TRANSITION = new TmfXmlStateTransition[0];
+	private static final TmfXmlState[] NO_STATE = new TmfXmlState[0];
 	private static final String fErrorStateId = "#error";
 	private static final String fInitialCond = "initial_test";
 	
-	// TODO should be done dynamically when parsing the FSM
-	private static Map<String, Set<String>> buildEventTypes() {
-        ImmutableMap.Builder<String, Set<String>> builder = ImmutableMap.builder();
-        builder.put("sys_.*", new HashSet<>(Arrays.asList("")));
-        builder.put("compat_sys_.*", new HashSet<>(Arrays.asList("")));
-        builder.put("syscall_entry_.*", new HashSet<>(Arrays.asList("syscall_entry_accept","syscall_entry_access","syscall_entry_brk","syscall_entry_clone","syscall_entry_close","syscall_entry_connect","syscall_entry_epoll_wait","syscall_entry_execve","syscall_entry_exit_group","syscall_entry_fcntl","syscall_entry_futex","syscall_entry_getdents","syscall_entry_getegid","syscall_entry_geteuid","syscall_entry_getgid","syscall_entry_getpid","syscall_entry_getrusage","syscall_entry_gettid","syscall_entry_getuid","syscall_entry_ioctl","syscall_entry_lseek","syscall_entry_mmap","syscall_entry_mprotect","syscall_entry_munmap","syscall_entry_nanosleep","syscall_entry_newfstat","syscall_entry_open","syscall_entry_pipe","syscall_entry_poll","syscall_entry_prlimit64","syscall_entry_pselect6","syscall_entry_read","syscall_entry_readlink","syscall_entry_recvmsg","syscall_entry_set_tid_address","syscall_entry_rt_sigaction","syscall_entry_rt_sigprocmask","syscall_entry_sendmsg","syscall_entry_set_robust_list","syscall_entry_set_tid_address","syscall_entry_setitimer","syscall_entry_setsockopt","syscall_entry_socket","syscall_entry_unknown","syscall_entry_wait","syscall_entry_wait4","syscall_entry_write","syscall_entry_writev")));
-        builder.put("syscall_exit_.*", new HashSet<>(Arrays.asList("syscall_exit_accept","syscall_exit_access","syscall_exit_brk","syscall_exit_clone","syscall_exit_close","syscall_exit_connect","syscall_exit_epoll_wait","syscall_exit_execve","syscall_exit_exit_group","syscall_exit_fcntl","syscall_exit_futex","syscall_exit_getdents","syscall_exit_getegid","syscall_exit_geteuid","syscall_exit_getgid","syscall_exit_getpid","syscall_exit_getrusage","syscall_exit_gettid","syscall_exit_getuid","syscall_exit_ioctl","syscall_exit_lseek","syscall_exit_mmap","syscall_exit_mprotect","syscall_exit_munmap","syscall_exit_nanosleep","syscall_exit_newfstat","syscall_exit_open","syscall_exit_pipe","syscall_exit_poll","syscall_exit_prlimit64","syscall_exit_pselect6","syscall_exit_read","syscall_exit_readlink","syscall_exit_recvmsg","syscall_exit_rt_sigaction","syscall_exit_rt_sigprocmask","syscall_exit_set_tid_address","syscall_exit_sendmsg","syscall_exit_set_robust_list","syscall_exit_set_tid_address","syscall_exit_setitimer","syscall_exit_setsockopt","syscall_exit_socket","syscall_exit_unknown","syscall_exit_wait","syscall_exit_wait4","syscall_exit_write","syscall_exit_writev")));
-        builder.put("sched_wakeup.*", new HashSet<>(Arrays.asList("sched_wakeup","sched_wakeup_new")));
-        builder.put("x86_irq_vectors_.*_entry", new HashSet<>(Arrays.asList("x86_irq_vectors_local_timer_entry","x86_irq_vectors_reschedule_entry","x86_irq_vectors_spurious_apic_entry","x86_irq_vectors_error_apic_entry","x86_irq_vectors_ipi_entry","x86_irq_vectors_irq_work_entry","x86_irq_vectors_call_function_entry","x86_irq_vectors_call_function_single_entry","x86_irq_vectors_threshold_apic_entry","x86_irq_vectors_thermal_apic_entry","x86_irq_vectors_deferred_error_apic_entry")));
-        builder.put("x86_irq_vectors_.*_exit", new HashSet<>(Arrays.asList("x86_irq_vectors_local_timer_exit","x86_irq_vectors_reschedule_exit","x86_irq_vectors_spurious_apic_exit","x86_irq_vectors_error_apic_exit","x86_irq_vectors_ipi_exit","x86_irq_vectors_irq_work_exit","x86_irq_vectors_call_function_exit","x86_irq_vectors_call_function_single_exit","x86_irq_vectors_threshold_apic_exit","x86_irq_vectors_deferred_error_apic_exit,x86_irq_vectors_thermal_apic_exit")));
-        builder.put("compat_syscall_entry_.*", new HashSet<>(Arrays.asList("")));
-        builder.put("compat_syscall_exit_.*", new HashSet<>(Arrays.asList("")));
-
-       return builder.build();
-    }
-
 	/**
 	 * Increase the counter of the given transition
 	 * @param transition
 	 * 				A triggered transition
 	 */
 	public void increaseTransitionCounter(TmfXmlFsmTransition transition) {
-		Long value = (fTransitionsCounters.containsKey(transition)) ? fTransitionsCounters.get(transition) + 1 : 1;
-		fTransitionsCounters.put(transition, value);
+		TmfXmlFsmShard shard = currentShard();
+		TmfXmlTransitionCounters counters = (shard == null) ? fTransitionsCounters : shard.getTransitionsCounters();
+		counters.increment(transition.getId());
+	}
+
+	/**
+	 * Get the number of times a transition was taken in this fsm
+	 *
+	 * @param transition
+	 *            The transition, either a flyweight or a transition for an
+	 *            event name accepted by its state transition
+	 * @return The global counter of the transition, 0 if it was never taken
+	 *         or if it is built from an event pattern with wildcards
+	 */
+	public long getTransitionCounter(TmfXmlFsmTransition transition) {
+		return fTransitionsCounters.get(getCounterId(transition));
+	}
+
+	/**
+	 * Get the ID under which the counters of a transition are kept. A
+	 * transition built for an event name is matched with the flyweight of the
+	 * type of that name. A transition built from an accepted event pattern
+	 * (e.g. "syscall_entry_.*") stands for several event types, it has no
+	 * counter of its own: the pattern is not an event name, so it is not
+	 * registered as one.
+	 *
+	 * @return The ID of the flyweight, or {@link TmfXmlFsmTransition#NO_ID}
+	 */
+	int getCounterId(TmfXmlFsmTransition transition) {
+		if (transition.getId() != TmfXmlFsmTransition.NO_ID) {
+			return transition.getId();
+		}
+		TmfXmlState from = transition.from();
+		TmfXmlStateTransition to = transition.to();
+		if (from == null || to == null) {
+			return TmfXmlFsmTransition.NO_ID;
+		}
+		int typeId = fEventTypes.find(transition.getEvent());
+		if (typeId == TmfXmlEventTypes.NO_ID) {
+			return TmfXmlFsmTransition.NO_ID;
+		}
+		TmfXmlFsmTransition flyweight = getFsmTransition(from, to, typeId);
+		return (flyweight == null) ? TmfXmlFsmTransition.NO_ID : flyweight.getId();
 	}
 	
-	public void addProblematicEvent(ITmfEvent event, String scenarioAttribute, Set<TmfXmlFsmTransition> transitions, String currentState, ITmfEvent lastEvent) {
-	    FsmStateIncoherence incoherence = new FsmStateIncoherence(event, scenarioAttribute, lastEvent, currentState);
-    	Set<TmfXmlFsmTransition> possibleTransitions = new HashSet<>(); // copy transitions because it will be disposed by the scenario observer
-    	possibleTransitions.addAll(transitions);
-    	possibleTransitionsMap.put(incoherence, possibleTransitions);
+	public void addProblematicEvent(ITmfEvent event, long scenarioAttribute, Set<TmfXmlFsmTransition> transitions, String currentState, @Nullable ITmfEvent lastEvent) {
+		int[] transitionIds = getTransitionIds(transitions);
+		addProblematicEvent(EventStamp.of(event, fEventTypes.getId(event)), scenarioAttribute, transitionIds, transitionIds.length, 
+				getStateIndex(currentState), (lastEvent == null) ? null : EventStamp.of(lastEvent, fEventTypes.getId(lastEvent)));
+	}
+
+	/**
+	 * Save an incoherence, without keeping a reference to its events
+	 * 
+	 * @param event
+	 * 			The incoherent event
+	 * @param scenarioAttribute
+	 * 			The attribute of the scenario
+	 * @param transitionIds
+	 * 			The IDs of the flyweight transitions that could have been taken
+	 * @param transitionCount
+	 * 			The number of IDs to use in the array
+	 * @param stateIndex
+	 * 			The index of the last coherent state of the scenario
+	 * @param lastEvent
+	 * 			The last event handled by the scenario before the incoherent one, or null
+	 */
+	public void addProblematicEvent(EventStamp event, long scenarioAttribute, int[] transitionIds, int transitionCount, 
+			int stateIndex, @Nullable EventStamp lastEvent) {
+    	TmfXmlFsmShard shard = currentShard();
+    	if (shard != null) {
+    		shard.addIncoherence(event, lastEvent, scenarioAttribute, stateIndex, transitionIds, transitionCount);
+    		return;
+    	}
+    	fIncoherenceBuffer.append(event, lastEvent, scenarioAttribute, stateIndex, transitionIds, transitionCount);
+	}
+
+	/**
+	 * Get the IDs of flyweight transitions, the other transitions are ignored
+	 * 
+	 * @param transitions
+	 * 			The transitions
+	 * @return
+	 * 			The IDs of the transitions
+	 */
+	public int[] getTransitionIds(Collection<TmfXmlFsmTransition> transitions) {
+		int[] ids = new int[transitions.size()];
+		int count = 0;
+		for (TmfXmlFsmTransition transition : transitions) {
+			int id = getCounterId(transition);
+			if (id != TmfXmlFsmTransition.NO_ID) {
+				ids[count++] = id;
+			}
+		}
+		return (count == ids.length) ? ids : Arrays.copyOf(ids, count);
 	}
 	
-	private TmfXmlFsmTransition findBestTransition(Set<TmfXmlFsmTransition> possibleTransitions, Map<TmfXmlFsmTransition, Long> counters, boolean isGlobal) {
+	private TmfXmlFsmTransition findBestTransition(Set<TmfXmlFsmTransition> possibleTransitions, TmfXmlTransitionCounters counters, boolean isGlobal) {
 		TmfXmlFsmTransition bestTransition = null;
-		if (isGlobal) {
-			for (TmfXmlFsmTransition t : possibleTransitions) {			
-		    	if ((fTransitionsCounters.containsKey(t)) && 
-		    			((bestTransition == null) || (fTransitionsCounters.get(t) > fTransitionsCounters.get(bestTransition)))) {
+		long bestGlobal = 0;
+		long bestLocal = 0;
+		for (TmfXmlFsmTransition t : possibleTransitions) {
+			int id = getCounterId(t);
+			long global = fTransitionsCounters.get(id);
+			long local = isGlobal ? 0 : counters.get(id);
+			/* A counter of 0 means that the transition was never taken */
+			if (isGlobal) {
+		    	if ((global > 0) && ((bestTransition == null) || (global > bestGlobal))) {
 		    		bestTransition = t;
 		    	}
-		    }
-		}
-		else {
-			for (TmfXmlFsmTransition t : possibleTransitions) {			
-		    	if ((counters.containsKey(t) &&
-		    			((bestTransition == null) || (counters.containsKey(bestTransition) && (counters.get(t) > counters.get(bestTransition))))) ||
-	    			(!counters.containsKey(t) && (fTransitionsCounters.containsKey(t)) && // if we are using per-object statistics but the transition is not in the map, we try to find it in the global map
-		    			((bestTransition == null) || (fTransitionsCounters.get(t) > fTransitionsCounters.get(bestTransition))))) { // TODO what happens if bestTransition was found using local object statistics? does it make sense to compare counters from global statistics?
-		    		bestTransition = t;
-		    	}
-		    }
+			}
+			else if (((local > 0) && ((bestTransition == null) || ((bestLocal > 0) && (local > bestLocal)))) ||
+					((local == 0) && (global > 0) && // if we are using per-object statistics but the transition was never taken by the object, we use the global statistics
+		    			((bestTransition == null) || (global > bestGlobal)))) { // TODO what happens if bestTransition was found using local object statistics? does it make sense to compare counters from global statistics?
+				bestTransition = t;
+			}
+			if (bestTransition == t) {
+				bestGlobal = global;
+				bestLocal = local;
+			}
 		}
 	    
 	    if (bestTransition == null) { // every possible transition has never been taken in this fsm
@@ -159,115 +279,165 @@ public class TmfXmlFsm {
 	 * 			The targeted state
 	 * @param counters 
 	 * 			The local statistics on transitions, on a per-object basis
+	 * @param isGlobal
+	 * 			True to only use the global statistics
 	 * 
 	 * @return
 	 * 			The list of inferred transitions, which is the list of each edge on the shortest path
 	 */
 	private List<TmfXmlFsmTransition> computeMissingTransitions(String start, String target, 
-			Map<TmfXmlFsmTransition, Long> counters, boolean isGlobal) {
-		Float INFINITY = Float.POSITIVE_INFINITY; // biggest possible distance
-		/* Initialization */
-		String current = start;							 			// current node
-		Map<String, Float> distances = new HashMap<>(); 			// associates a node (state) to its tentative distance to the start
-		List<String> unvisited = new ArrayList<>();					// set of unvisited nodes
-		/* the comparator used to sort the list of unvisited nodes according to their distance to start  */
-		Comparator<String> compUnvisited = new Comparator<String>() {
-			
-			@Override
-			public int compare(String o1, String o2) {
-				if (distances.get(o1) == distances.get(o2) ) {
-					return 0;
-				}
-				return (distances.get(o1) <= distances.get(o2)) ? -1 : 1;
-			}
-		};
-		Map<String, TmfXmlFsmTransition> prev = new HashMap<>(); 	// associates a node to the previous optimal node (with the related transition)
-		for (TmfXmlState state : fStatesMap.values()) {
-			distances.put(state.getId(), INFINITY); // set to infinity because the distance is unknown
-			unvisited.add(state.getId());
-			prev.put(state.getId(), TmfXmlFsmTransition.UNDEFINED);
-		}
-		distances.put(current, 0f); // the current node is the start ; distance to itself is 0
-		
-		while (unvisited.contains(target)) {
-			float currentDist = distances.get(current);
-			Set<TmfXmlFsmTransition> neighbors = fPrevStatesForState.get(current);
-			 /* Check the neighbors of the current node */
-			for (TmfXmlFsmTransition neighborTransition : neighbors) {
-				String neighbor = neighborTransition.from().getId();
-				/* Evaluate path to target using the statistics on transitions from the reading of the trace */
-				long weight;
-				if (isGlobal || !counters.containsKey(neighborTransition)) { // if we are using per-object statistics but the transition is not in the map, we try to find it in the global map
-					weight = fTransitionsCounters.containsKey(neighborTransition) ? fTransitionsCounters.get(neighborTransition) : 1;
-				}
-				else {
-					weight = counters.get(neighborTransition);
-				}
-				
-				float newDist = currentDist + (1f / (float) weight); 
-				if (distances.get(neighbor) > newDist) {	// this is a shorter path to target
-					distances.put(neighbor, newDist);
-					prev.put(neighbor, neighborTransition);
-				}
-			}
-			
-			/* Remove current node from the list of unvisited nodes */
-			unvisited.remove(current);
-			/* Look for the next node, which is the unvisited node with minimum distance to start */
-			unvisited.sort(compUnvisited);
-			if (!unvisited.isEmpty()) {
-				current = unvisited.get(0);
-			}
-		}		
-		/* The target node has been reached */
-		
-		/* Compute the path, given the results obtained at previous steps,
-		 * by following the nodes in the 'prev' map from target to start
-		 */
-		Stack<TmfXmlFsmTransition> transitions = new Stack<>();
-		String node = target;
-		while (!prev.get(node).equals(TmfXmlFsmTransition.UNDEFINED)) { // we should reach an UNDEFINED value when reaching the starting node
-			TmfXmlFsmTransition transition = prev.get(node);
-			transitions.push(transition);
-			node = transition.to().getTarget();
+			TmfXmlTransitionCounters counters, boolean isGlobal) {
+		int startIndex = getStateIndex(start);
+		int targetIndex = getStateIndex(target);
+		TmfXmlTransitionCounters localCounters = isGlobal ? null : counters;
+		return fInferenceCache.get(startIndex, targetIndex, localCounters, fTransitionsCounters,
+				() -> getShortestPaths().compute(startIndex, targetIndex, localCounters, fTransitionsCounters));
+	}
+
+	/**
+	 * Get the cache of the transitions inferred between two states, for its
+	 * hit and miss counts
+	 *
+	 * @return The cache of inferred transitions
+	 */
+	public TmfXmlInferenceCache getInferenceCache() {
+		return fInferenceCache;
+	}
+
+	/**
+	 * Get the shortest path engine over the reverse graph of this fsm, built
+	 * when first needed
+	 *
+	 * @return The shortest path engine
+	 */
+	public synchronized TmfXmlShortestPaths getShortestPaths() {
+		TmfXmlShortestPaths shortestPaths = fShortestPaths;
+		if (shortestPaths == null) {
+			shortestPaths = new TmfXmlShortestPaths(this, fPrevStatesForState);
+			fShortestPaths = shortestPaths;
 		}
-		return transitions;
+		return shortestPaths;
+	}
+
+	/**
+	 * Get the global statistics on the transitions taken in this fsm
+	 *
+	 * @return The counters, indexed by the ID of the flyweight transitions
+	 */
+	public TmfXmlTransitionCounters getTransitionsCounters() {
+		return fTransitionsCounters;
 	}
 	
 	/**
 	 * Select a transition from the list of possible transitions for each incoherent event
 	 * We select the most probable transition, considering that the most frequent one is the most probable
-	 * @return 
-	 * 			The status of this operation
+	 * 
+	 * The incoherences of different scenarios are independent and are handled in parallel,
+	 * on the common fork/join pool. The incoherences of a scenario are handled in order.
 	 */
 	public void setTransitions() {
-		FsmStateIncoherence lastIncoherence = null; 
+		stopShards();
+		/* Group the incoherences by scenario, keeping their order */
+		Map<Long, List<FsmStateIncoherence>> scenarioIncoherences = new LinkedHashMap<>();
 		for (FsmStateIncoherence incoherence : getIncoherences()) {
+			scenarioIncoherences.computeIfAbsent(incoherence.getScenarioKey(), key -> new ArrayList<>()).add(incoherence);
+		}
+		scenarioIncoherences.values().parallelStream().forEach(this::setTransitions);
+	}
+
+	/**
+	 * Infer the transitions of the incoherences of one scenario, in order
+	 */
+	private void setTransitions(List<FsmStateIncoherence> incoherences) {
+		FsmStateIncoherence lastIncoherence = null; 
+		for (FsmStateIncoherence incoherence : incoherences) {
 			String targetState = incoherence.getLastCoherentStateName();
 			/* The current incoherence is following the previous one.
 			      It could have been caused by the FSM being blocked in the same state by the previous incoherent event, 
 			      when the event associated with this  incoherence is actually consistent. So, we have to update this 
 			      incoherence's targetState with the last state computed from the inferred events for the previous incoherence */
-			if (lastIncoherence != null && lastIncoherence.getIncoherentEvent().getTimestamp().equals(incoherence.getPrevEvent().getTimestamp())) {
+			if (lastIncoherence != null && lastIncoherence.getIncoherentTimestamp().equals(incoherence.getPrevTimestamp())) {
 				TmfXmlFsmTransition lastTransition = lastIncoherence.getInferredTransitions().get(lastIncoherence.getInferredTransitions().size() - 1); // get last transition
 				targetState = lastTransition.to().getTarget();
 			}
-			Set<TmfXmlFsmTransition> possibleTransitions = possibleTransitionsMap.get(incoherence);
+			Set<TmfXmlFsmTransition> possibleTransitions = incoherence.getPossibleTransitions();
 			// Infer transitions
-			Map<TmfXmlFsmTransition, Long> counters = ((TmfXmlScenarioObserver) fActiveScenariosList.get(incoherence.getScenarioAttribute())).getTransitionsCounters();
-			boolean isGlobal = false; // FIXME: hard-coded parameter
-			TmfXmlFsmTransition lastTransition = findBestTransition(possibleTransitions, counters, isGlobal);
+			TmfXmlTransitionCounters counters = ((TmfXmlScenarioObserver) fActiveScenariosList.get(incoherence.getScenarioKey())).getTransitionsCounters();
+			TmfXmlFsmTransition lastTransition = findBestTransition(possibleTransitions, counters, fGlobalInference);
 			List<TmfXmlFsmTransition> inferredTransitions = new ArrayList<>();
 	    	inferredTransitions.addAll(computeMissingTransitions(lastTransition.from().getId(), targetState, counters, 
-	    			isGlobal));
+	    			fGlobalInference));
 			inferredTransitions.add(lastTransition);
 			incoherence.setInferredTransitions(inferredTransitions);
 			lastIncoherence = incoherence;
 		}
 	}
 	
-	public Set<FsmStateIncoherence> getIncoherences() {
-		return possibleTransitionsMap.keySet();
+	/**
+	 * Get the incoherences found so far, in the order they were found. The
+	 * views of the incoherences already returned are kept, with their inferred
+	 * transitions.
+	 * 
+	 * @return
+	 * 			The incoherences
+	 */
+	public synchronized List<FsmStateIncoherence> getIncoherences() {
+		List<FsmStateIncoherence> incoherences = fIncoherences;
+		if (incoherences == null) {
+			incoherences = new ArrayList<>(fIncoherenceBuffer.size());
+			fIncoherences = incoherences;
+		}
+		for (int i = incoherences.size(); i < fIncoherenceBuffer.size(); i++) {
+			incoherences.add(new FsmStateIncoherence(this, fIncoherenceBuffer, i));
+		}
+		return Collections.unmodifiableList(incoherences);
+	}
+
+	/**
+	 * Get the records of the incoherences found so far, without creating their
+	 * views
+	 *
+	 * @return
+	 * 			The buffer of the incoherences
+	 */
+	public TmfXmlIncoherenceBuffer getIncoherenceBuffer() {
+		return fIncoherenceBuffer;
+	}
+
+	/**
+	 * Get the registry of the event types of the analysis of this fsm, which
+	 * gives the names of the type IDs of the incoherences
+	 *
+	 * @return
+	 * 			The registry of the event types
+	 */
+	public TmfXmlEventTypes getEventTypes() {
+		return fEventTypes;
+	}
+
+	/**
+	 * Write the incoherences to a memory-mapped file in a directory once there
+	 * are more than a number of them. It should be called before the start of
+	 * event handling.
+	 * 
+	 * @param directory
+	 * 			The directory of the file, or null to keep the incoherences in memory
+	 * @param threshold
+	 * 			The number of incoherences kept in memory
+	 */
+	public void setIncoherenceSpill(@Nullable Path directory, long threshold) {
+		fIncoherenceBuffer.setSpill(directory, threshold);
+		fSpillDirectory = directory;
+		fSpillThreshold = threshold;
+	}
+
+	/**
+	 * Drop the incoherences and delete their file, once they are not needed
+	 * anymore
+	 */
+	public synchronized void disposeIncoherences() {
+		fIncoherences = null;
+		fIncoherenceBuffer.dispose();
 	}
 	
 	public List<ITmfEvent> getIncoherentEvents() {
@@ -279,11 +449,17 @@ public class TmfXmlFsm {
 	}
 
     public int getTransitionCount() {
-		return transitionCount;
+		TmfXmlFsmShard shard = currentShard();
+		return (shard == null) ? transitionCount : shard.getTransitionCount();
 	}
 
 	public void increaseTransitionCount() {
-		transitionCount++;
+		TmfXmlFsmShard shard = currentShard();
+		if (shard == null) {
+			transitionCount++;
+		} else {
+			shard.setTransitionCount(shard.getTransitionCount() + 1);
+		}
 	}
 
 	/**
@@ -309,7 +485,7 @@ public class TmfXmlFsm {
         // Get the preconditions
         NodeList nodesPreconditions = node.getElementsByTagName(TmfXmlStrings.PRECONDITION);
         for (int i = 0; i < nodesPreconditions.getLength(); i++) {
-            preconditions.add(new TmfXmlBasicTransition(((Element) NonNullUtils.checkNotNull(nodesPreconditions.item(i)))));
+            preconditions.add(new TmfXmlBasicTransition(((Element) NonNullUtils.checkNotNull(nodesPreconditions.item(i))), container.getEventTypes()));
         }
 
         // Get the initial state and the preconditions
@@ -389,55 +565,26 @@ public class TmfXmlFsm {
 //		}
 //        statesMap.put(fErrorStateId, errorState);
 
-        Map<String, Set<String>> prevStates = new HashMap<>();
         Map<String, Set<TmfXmlFsmTransition>> prevStatesForState = new HashMap<>();
-        Map<Pair<Pattern, String>, Set<String>> certaintyInfo = new HashMap<>();
-        Map<String, Set<String>> fEventTypes = buildEventTypes();
-        // Create the maps of previous states and next states
+        // Create the maps of next states
         for (TmfXmlState state : statesMap.values()) {
         	if (!prevStatesForState.containsKey(state.getId())) {
         		prevStatesForState.put(state.getId(), new HashSet<>()); // every state will have at least an empty set of previous states
         	}
 	        for (TmfXmlStateTransition transition : state.getTransitionList()) {
 	        	for (Pattern eventPattern : transition.getAcceptedEvents()) {
-	        		Set<String> typesList = new HashSet<>();
-	        		if (eventPattern.toString().contains("*")) {
-	        			typesList.addAll(fEventTypes.get(eventPattern.toString()));
-	        		}
-	        		else {
-	        			typesList.add(eventPattern.toString());
-	        		}
-	        		for (String eventType : typesList) {
-		        		// Add a state to the list of previous states for the current event
-		        		Set<String> statesId;
-		        		if (prevStates.containsKey(eventType)) {
-		                	statesId = prevStates.get(eventType);
-		        		}
-		        		else {
-		        			statesId = new HashSet<>();
-		        		}
-		        		statesId.add(state.getId()); // Set cannot contain duplicate elements, so no need to check
-	    				prevStates.put(eventType, statesId);
-	        		}
-    				    				
     				// Add a state to the list of previous states for the target state
     				TmfXmlFsmTransition fsmTransition = new TmfXmlFsmTransition(transition, state, eventPattern);
     				String targetState = transition.getTarget();
     				Set<TmfXmlFsmTransition> set = (prevStatesForState.containsKey(targetState)) ? prevStatesForState.get(targetState) : new HashSet<>();
     				set.add(fsmTransition);
     				prevStatesForState.put(targetState, set);
-    				
-    				// Add a certainty information
-    				Pair<Pattern, String> p = new Pair<>(eventPattern, transition.getCondition());
-    				Set<String> targets = certaintyInfo.containsKey(p) ? certaintyInfo.get(p) : new HashSet<>(); // TODO: NEED FIXING !!!! key is not checked correctly, duplicates (pattern,string) are happening !!
-    				targets.add(targetState);
-    				certaintyInfo.put(p, targets);
 				}
 			}
         }
         
         return new TmfXmlFsm(modelFactory, container, id, consuming, instanceMultipleEnabled, initialState, finalStateId, 
-        		abandonStateId, preconditions, statesMap, prevStates, prevStatesForState, certaintyInfo, scenarioModel);
+        		abandonStateId, preconditions, statesMap, prevStatesForState, scenarioModel);
     }
 
     protected TmfXmlFsm(ITmfXmlModelFactory modelFactory, 
@@ -450,13 +597,12 @@ public class TmfXmlFsm {
 						String abandonState, 
 						List<TmfXmlBasicTransition> preconditions, 
 						Map<String, TmfXmlState> states, 
-						Map<String, Set<String>> prevStates, 
 						Map<String, Set<TmfXmlFsmTransition>> prevStatesForState, 
-						Map<Pair<Pattern, String>, Set<String>> certaintyInfo, 
 						TmfXmlScenarioModel scenarioModel) {
         fModelFactory = modelFactory;
         fTotalScenarios = 0;
         fContainer = container;
+        fEventTypes = container.getEventTypes();
         fId = id;
         fConsuming = consuming;
         fInstanceMultipleEnabled = multiple;
@@ -465,17 +611,364 @@ public class TmfXmlFsm {
         fAbandonStateId = abandonState;
         fPreconditions = ImmutableList.copyOf(preconditions);
         fStatesMap = ImmutableMap.copyOf(states);
-        fActiveScenariosList = new LinkedHashMap<>();
-        fPrevStates = prevStates;
+        for (Map.Entry<String, TmfXmlState> entry : fStatesMap.entrySet()) {
+            fDeclaredStateIndexes.put(entry.getValue(), getStateIndex(entry.getKey()));
+        }
+        fInitialStateIndex = getStateIndex(initialState);
+        fFinalStateIndex = getStateIndex(finalState);
+        fAbandonStateIndex = getStateIndex(abandonState);
+        fErrorStateIndex = getStateIndex(fErrorStateId);
+        fActiveScenariosList = new TmfXmlScenarioMap();
+        fPrevStates = new TmfXmlEventTypeTable<>(this::resolvePrevStates);
         fPrevStatesForState = prevStatesForState;
-        certaintyMap = certaintyInfo;
+        fCertaintyTable = new TmfXmlEventTypeTable<>(this::resolveCertainty);
         fScenarioModel = scenarioModel;
+        if (container instanceof AbstractTmfStateProvider) {
+            fIncoherenceBuffer.setTrace(((AbstractTmfStateProvider) container).getTrace(), fEventTypes);
+        }
+        fEventAttributes = new long[scenarioModel.getMaxAttributes()];
+        fTransitionTable = buildTransitionTable(fStatesMap, fEventTypes);
+        fFsmTransitionTable = new IdentityHashMap<>();
+        for (TmfXmlState state : fStatesMap.values()) {
+            fFsmTransitionTable.put(state, new TmfXmlEventTypeTable<>(typeId -> resolveFsmTransitions(state, typeId)));
+        }
+        resolveTraceEventTypes(container);
+    }
+
+    /**
+     * Resolve the event types declared by the trace, if it has any, so the
+     * tables of this fsm are filled before the analysis starts. The event
+     * types that are not declared are resolved when they are first seen.
+     *
+     * @param container
+     *            The state system container this fsm belongs to
+     */
+    private void resolveTraceEventTypes(IXmlStateSystemContainer container) {
+        if (!(container instanceof AbstractTmfStateProvider)) {
+            return;
+        }
+        ITmfTrace trace = ((AbstractTmfStateProvider) container).getTrace();
+        if (!(trace instanceof ITmfTraceWithPreDefinedEvents)) {
+            return;
+        }
+        for (ITmfEventType eventType : ((ITmfTraceWithPreDefinedEvents) trace).getContainedEventTypes()) {
+            fPrevStates.get(fEventTypes.getId(eventType.getName()));
+        }
+    }
+
+    /**
+     * Compute, for each condition of the transitions accepting an event type,
+     * whether these transitions all lead to the same state
+     *
+     * @param typeId
+     *            The ID of the event type
+     * @return The map of conditions to their certainty
+     */
+    private Map<String, Boolean> resolveCertainty(int typeId) {
+        Map<String, Set<String>> targets = new HashMap<>();
+        for (TmfXmlState state : fStatesMap.values()) {
+            for (TmfXmlStateTransition transition : getCandidateTransitions(state, typeId)) {
+                if (!transition.getAcceptedEvents().isEmpty()) {
+                    targets.computeIfAbsent(transition.getCondition(), cond -> new HashSet<>()).add(transition.getTarget());
+                }
+            }
+        }
+        ImmutableMap.Builder<String, Boolean> builder = ImmutableMap.builder();
+        for (Map.Entry<String, Set<String>> entry : targets.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().size() == 1);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Compute the states having at least one transition accepting an event
+     * type
+     *
+     * @param typeId
+     *            The ID of the event type
+     * @return The states, empty if no state accepts this event type
+     */
+    private TmfXmlState[] resolvePrevStates(int typeId) {
+        List<TmfXmlState> states = new ArrayList<>();
+        for (TmfXmlState state : fStatesMap.values()) {
+            if (getCandidateTransitions(state, typeId).length > 0) {
+                states.add(state);
+            }
+        }
+        return states.isEmpty() ? NO_STATE : states.toArray(new TmfXmlState[states.size()]);
+    }
+
+    /**
+     * Create the flyweights of the candidate transitions of a state for an
+     * event type
+     *
+     * @param state
+     *            The source state
+     * @param typeId
+     *            The ID of the event type
+     * @return The flyweights, in the same order as the candidate transitions
+     */
+    private TmfXmlFsmTransition[] resolveFsmTransitions(TmfXmlState state, int typeId) {
+        TmfXmlStateTransition[] candidates = getCandidateTransitions(state, typeId);
+        TmfXmlFsmTransition[] transitions = new TmfXmlFsmTransition[candidates.length];
+        String eventName = fEventTypes.getName(typeId);
+        Integer declaredIndex = fDeclaredStateIndexes.get(state);
+        int fromIndex = (declaredIndex != null) ? declaredIndex : getStateIndex(state.getId());
+        for (int i = 0; i < candidates.length; i++) {
+            transitions[i] = registerFsmTransition(candidates[i], state, fromIndex, getStateIndex(candidates[i].getTarget()), eventName);
+        }
+        return transitions;
+    }
+
+    private synchronized TmfXmlFsmTransition registerFsmTransition(TmfXmlStateTransition transition, TmfXmlState state,
+            int fromIndex, int targetIndex, String eventName) {
+        int id = fFsmTransitionCount;
+        TmfXmlFsmTransition flyweight = new TmfXmlFsmTransition(id, transition, state, fromIndex, targetIndex, eventName);
+        TmfXmlFsmTransition[] transitions = fFsmTransitionsById;
+        if (id == transitions.length) {
+            transitions = Arrays.copyOf(transitions, transitions.length * 2);
+        }
+        transitions[id] = flyweight;
+        /* The array is published before the count, so a reader seeing the count sees the flyweight */
+        fFsmTransitionsById = transitions;
+        fFsmTransitionCount = id + 1;
+        return flyweight;
+    }
+
+    /**
+     * Get a flyweight transition from its ID
+     *
+     * @param id
+     *            The ID of the transition
+     * @return The transition, or null if there is no flyweight with this ID
+     */
+    public @Nullable TmfXmlFsmTransition getFsmTransition(int id) {
+        int count = fFsmTransitionCount;
+        TmfXmlFsmTransition[] transitions = fFsmTransitionsById;
+        return (id >= 0 && id < count) ? transitions[id] : null;
+    }
+
+    /**
+     * Compile the transitions of every state into a table of candidate
+     * transitions for each event type. The literal event names are resolved
+     * here, other names (matched by wildcards) are resolved the first time
+     * they are seen.
+     *
+     * @param states
+     *            The states of this fsm
+     * @param eventTypes
+     *            The registry of the event types of the analysis
+     * @return The transition table
+     */
+    private static Map<TmfXmlState, TmfXmlEventTypeTable<TmfXmlStateTransition[]>> buildTransitionTable(Map<String, TmfXmlState> states,
+            TmfXmlEventTypes eventTypes) {
+        Map<TmfXmlState, TmfXmlEventTypeTable<TmfXmlStateTransition[]>> table = new IdentityHashMap<>();
+        for (TmfXmlState state : states.values()) {
+            TmfXmlEventTypeTable<TmfXmlStateTransition[]> candidates = new TmfXmlEventTypeTable<>(typeId -> resolveCandidates(state, typeId));
+            for (TmfXmlStateTransition transition : state.getTransitionList()) {
+                for (String eventName : transition.getLiteralEvents()) {
+                    candidates.get(eventTypes.getId(eventName));
+                }
+            }
+            table.put(state, candidates);
+        }
+        return table;
+    }
+
+    private static TmfXmlStateTransition[] resolveCandidates(TmfXmlState state, int typeId) {
+        List<TmfXmlStateTransition> candidates = new ArrayList<>();
+        for (TmfXmlStateTransition transition : state.getTransitionList()) {
+            if (transition.acceptsEvent(typeId)) {
+                candidates.add(transition);
+            }
+        }
+        return candidates.isEmpty() ? NO_TRANSITION : candidates.toArray(new TmfXmlStateTransition[candidates.size()]);
+    }
+
+    /**
+     * Get the transitions of a state that accept an event type, in the order
+     * they were declared
+     *
+     * @param state
+     *            The state
+     * @param typeId
+     *            The ID of the event type, in the registry of the analysis
+     * @return The candidate transitions, only their conditions remain to be
+     *         tested
+     */
+    public TmfXmlStateTransition[] getCandidateTransitions(TmfXmlState state, int typeId) {
+        TmfXmlEventTypeTable<TmfXmlStateTransition[]> candidates = fTransitionTable.get(state);
+        if (candidates == null) {
+            return resolveCandidates(state, typeId);
+        }
+        return candidates.get(typeId);
     }
     
-    public Map<String, Set<String>> getPrevStates() {
-		return fPrevStates;
+    /**
+     * Get the flyweights of the transitions of a state that accept an event
+     * type. They are in the same order as the transitions returned by
+     * {@link #getCandidateTransitions(TmfXmlState, int)}.
+     *
+     * @param state
+     *            The state
+     * @param typeId
+     *            The ID of the event type, in the registry of the analysis
+     * @return The flyweight transitions
+     */
+    public TmfXmlFsmTransition[] getFsmTransitions(TmfXmlState state, int typeId) {
+        TmfXmlEventTypeTable<TmfXmlFsmTransition[]> transitions = fFsmTransitionTable.get(state);
+        if (transitions == null) {
+            return resolveFsmTransitions(state, typeId);
+        }
+        return transitions.get(typeId);
+    }
+
+    /**
+     * Get the flyweight of a transition of a state for an event type
+     *
+     * @param state
+     *            The source state
+     * @param transition
+     *            The transition, one of the candidate transitions of the state
+     *            for this event type
+     * @param typeId
+     *            The ID of the event type, in the registry of the analysis
+     * @return The flyweight transition, or null if the transition does not
+     *         accept this event type
+     */
+    public @Nullable TmfXmlFsmTransition getFsmTransition(TmfXmlState state, TmfXmlStateTransition transition, int typeId) {
+        TmfXmlStateTransition[] candidates = getCandidateTransitions(state, typeId);
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i] == transition) {
+                return getFsmTransitions(state, typeId)[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of flyweight transitions created so far. Their IDs are
+     * below this number.
+     *
+     * @return The number of flyweight transitions
+     */
+    public int getFsmTransitionCount() {
+        return fFsmTransitionCount;
+    }
+
+    /**
+     * Get the states having at least one transition accepting an event type
+     *
+     * @param typeId
+     *            The ID of the event type, in the registry of the analysis
+     * @return The states, empty if no state accepts this event type
+     */
+    public TmfXmlState[] getPrevStates(int typeId) {
+		return fPrevStates.get(typeId);
 	}
 
+    /**
+     * Get the index of a state. The states of this fsm are numbered densely
+     * when it is created, other state names are numbered when first seen.
+     *
+     * @param stateId
+     *            The ID of the state
+     * @return The index of the state
+     */
+    public int getStateIndex(String stateId) {
+        Integer index = fStateIndexes.get(stateId);
+        if (index != null) {
+            return index;
+        }
+        return registerState(stateId);
+    }
+
+    private synchronized int registerState(String stateId) {
+        Integer index = fStateIndexes.get(stateId);
+        if (index != null) {
+            return index;
+        }
+        String[] names = fStateNames;
+        int newIndex = names.length;
+        String[] newNames = Arrays.copyOf(names, newIndex + 1);
+        newNames[newIndex] = stateId;
+        @Nullable TmfXmlState[] newStates = Arrays.copyOf(fStates, newIndex + 1);
+        newStates[newIndex] = fStatesMap.get(stateId);
+        fStates = newStates;
+        fStateNames = newNames;
+        fStateIndexes.put(stateId, newIndex);
+        return newIndex;
+    }
+
+    /**
+     * Get the number of states that have an index so far
+     *
+     * @return The number of states
+     */
+    public int getStateCount() {
+        return fStateNames.length;
+    }
+
+    /**
+     * Get a state from its index
+     *
+     * @param index
+     *            The index of the state
+     * @return The state, or null if the index is not a state declared in this
+     *         fsm
+     */
+    public @Nullable TmfXmlState getState(int index) {
+        @Nullable TmfXmlState[] states = fStates;
+        return (index >= 0 && index < states.length) ? states[index] : null;
+    }
+
+    /**
+     * Get the ID of a state from its index
+     *
+     * @param index
+     *            The index of the state
+     * @return The ID of the state
+     */
+    public String getStateId(int index) {
+        return fStateNames[index];
+    }
+
+    /**
+     * Get the index of the initial state
+     *
+     * @return The index of the initial state
+     */
+    public int getInitialStateIndex() {
+        return fInitialStateIndex;
+    }
+
+    /**
+     * Get the index of the final state
+     *
+     * @return The index of the final state
+     */
+    public int getFinalStateIndex() {
+        return fFinalStateIndex;
+    }
+
+    /**
+     * Get the index of the abandon state
+     *
+     * @return The index of the abandon state
+     */
+    public int getAbandonStateIndex() {
+        return fAbandonStateIndex;
+    }
+
+    /**
+     * Get the index of the error state
+     *
+     * @return The index of the error state
+     */
+    public int getErrorStateIndex() {
+        return fErrorStateIndex;
+    }
+
     /**
      * Get the fsm ID
      *
@@ -531,11 +1024,20 @@ public class TmfXmlFsm {
     }
 
 
+    /**
+     * Get the model giving the keys of the scenarios of this fsm
+     *
+     * @return The scenario model
+     */
+    public TmfXmlScenarioModel getScenarioModel() {
+        return fScenarioModel;
+    }
+
     /**
      * Get the active scenarios of this fsm
-     * @return The list of the active scenarios
+     * @return The active scenarios, by attribute
      */
-    public Map<String, TmfXmlScenario> getActiveScenariosList() {
+    public TmfXmlScenarioMap getActiveScenariosList() {
         return fActiveScenariosList;
     }
 
@@ -574,7 +1076,12 @@ public class TmfXmlFsm {
      *            The consumed state
      */
     public void setEventConsumed(boolean eventConsumed) {
-        fEventConsumed = eventConsumed;
+        TmfXmlFsmShard shard = currentShard();
+        if (shard == null) {
+            fEventConsumed = eventConsumed;
+        } else {
+            shard.setEventConsumed(eventConsumed);
+        }
     }
 
     /**
@@ -583,7 +1090,8 @@ public class TmfXmlFsm {
      * @return True if the event has been consumed, false otherwise
      */
     protected boolean isEventConsumed() {
-        return fEventConsumed;
+        TmfXmlFsmShard shard = currentShard();
+        return (shard == null) ? fEventConsumed : shard.isEventConsumed();
     }
 
     /**
@@ -593,7 +1101,17 @@ public class TmfXmlFsm {
      *            The value
      */
     public void setCoherenceCheckingNeeded(boolean coherenceCheckingNeeded) {
-        fCoherenceCheckingNeeded = coherenceCheckingNeeded;
+        TmfXmlFsmShard shard = currentShard();
+        if (shard == null) {
+            fCoherenceCheckingNeeded = coherenceCheckingNeeded;
+        } else {
+            shard.setCoherenceCheckingNeeded(coherenceCheckingNeeded);
+        }
+    }
+
+    private boolean isCoherenceCheckingNeeded() {
+        TmfXmlFsmShard shard = currentShard();
+        return (shard == null) ? fCoherenceCheckingNeeded : shard.isCoherenceCheckingNeeded();
     }
 
     /**
@@ -605,11 +1123,254 @@ public class TmfXmlFsm {
     	fCoherenceAlgo = algoId;
     }
 
+    /**
+     * Check the coherence of the events of a scenario only while its state is
+     * uncertain. The scenario is checked again after the next lost event that
+     * affects it.
+     *
+     * @param checkOnlyUncertain
+     *            True to check only the uncertain scenarios, false to check
+     *            every scenario affected by lost events
+     */
+    public void setCheckOnlyUncertain(boolean checkOnlyUncertain) {
+    	fCheckOnlyUncertain = checkOnlyUncertain;
+    }
+
+    /**
+     * Infer the missing transitions from the statistics of the whole fsm only,
+     * instead of the statistics of each scenario completed by the ones of the
+     * fsm. It should be called before the inferences are computed.
+     *
+     * @param globalInference
+     *            True to only use the global statistics
+     */
+    public void setGlobalInference(boolean globalInference) {
+    	fGlobalInference = globalInference;
+    }
+
+    /**
+     * Split the scenarios of this fsm in several shards, each handled by its
+     * own thread. A scenario belongs to the shard of its attribute, and an
+     * event is handled by the shards of its attributes, so the scenarios of
+     * different attributes must not modify the same attributes of the state
+     * system. Only the fsms with multiple instances are split. It should be
+     * called before the start of event handling.
+     *
+     * @param shardCount
+     *            The number of shards, 1 to handle the scenarios in the
+     *            thread of the fsm
+     */
+    public void setShardCount(int shardCount) {
+    	if (shardCount < 1) {
+    		throw new IllegalArgumentException("The number of shards must be positive: " + shardCount); //$NON-NLS-1$
+    	}
+    	fShardCount = shardCount;
+    }
+
+    /**
+     * Start the threads of the shards, if this fsm is split in several
+     * shards. The active scenarios and the pending scenario are given to the
+     * shards. Does nothing if the shards were already started once.
+     *
+     * @param eventHandler
+     *            The event handler this fsm belongs to
+     * @param isObserver
+     *            True if the scenarios are observers
+     */
+    public void startShards(TmfXmlPatternEventHandler eventHandler, boolean isObserver) {
+    	if (fShardCount < 2 || !fInstanceMultipleEnabled || fShardsStarted) {
+    		return;
+    	}
+    	fShardsStarted = true;
+    	TmfXmlFsmShard[] shards = new TmfXmlFsmShard[fShardCount];
+    	for (int i = 0; i < shards.length; i++) {
+    		shards[i] = new TmfXmlFsmShard(this, i, eventHandler, isObserver);
+    		/* The shards share the number of incoherences the fsm keeps in memory */
+    		shards[i].setIncoherenceSpill(fSpillDirectory, fSpillThreshold / shards.length);
+    	}
+    	fShards = shards;
+    	fTargets = new TmfXmlFsmShard[shards.length];
+    	for (int i = 0; i < fActiveScenariosList.size(); i++) {
+    		long key = fActiveScenariosList.getKeyAt(i);
+    		shardFor(shards, key).putScenario(key, fActiveScenariosList.getAt(i));
+    	}
+    	shards[0].setPendingScenario(fPendingScenario);
+    	fPendingScenario = null;
+    	/* A recycled quark may already have states after the time of another shard */
+    	TmfXmlScenarioHistoryBuilder historyBuilder = eventHandler.getHistoryBuilder();
+    	historyBuilder.setRecycleScenarioQuarks(fId, false);
+    	fShardsHistoryBuilder = historyBuilder;
+    	for (TmfXmlFsmShard shard : shards) {
+    		shard.start();
+    	}
+    }
+
+    /**
+     * Wait until the shards have handled all the events given so far, stop
+     * them and merge their scenarios, transition counters and incoherences
+     * into this fsm. Does nothing if the scenarios are not split in shards.
+     */
+    public void stopShards() {
+    	TmfXmlFsmShard[] shards = fShards;
+    	if (shards == null) {
+    		return;
+    	}
+    	for (TmfXmlFsmShard shard : shards) {
+    		shard.finish();
+    	}
+    	fShards = null;
+    	for (TmfXmlFsmShard shard : shards) {
+    		TmfXmlScenarioMap scenarios = shard.getScenarios();
+    		for (int i = 0; i < scenarios.size(); i++) {
+    			fActiveScenariosList.put(scenarios.getKeyAt(i), scenarios.getAt(i));
+    		}
+    		fTransitionsCounters.addAll(shard.getTransitionsCounters());
+    	}
+    	/* A single pending scenario is kept, as without shards, the ones of the other shards never started */
+    	fPendingScenario = shards[0].getPendingScenario();
+    	for (int i = 1; i < shards.length; i++) {
+    		TmfXmlScenario pending = shards[i].getPendingScenario();
+    		if (pending != null) {
+    			pending.cancel();
+    			shards[i].setPendingScenario(null);
+    		}
+    	}
+    	TmfXmlScenarioHistoryBuilder historyBuilder = fShardsHistoryBuilder;
+    	if (historyBuilder != null) {
+    		historyBuilder.setRecycleScenarioQuarks(fId, true);
+    		fShardsHistoryBuilder = null;
+    	}
+    	/* Keep the incoherences in the order of their events, as when they are found by a single thread */
+    	int[] next = new int[shards.length];
+    	while (true) {
+    		int best = -1;
+    		for (int i = 0; i < shards.length; i++) {
+    			if (next[i] < shards[i].getIncoherenceCount() && (best < 0 ||
+    					shards[i].getIncoherenceSequence(next[i]) < shards[best].getIncoherenceSequence(next[best]))) {
+    				best = i;
+    			}
+    		}
+    		if (best < 0) {
+    			break;
+    		}
+    		fIncoherenceBuffer.append(shards[best].getIncoherences(), next[best]);
+    		next[best]++;
+    	}
+    	/* The records are copied, the buffers of the shards and their files are not needed anymore */
+    	for (TmfXmlFsmShard shard : shards) {
+    		shard.getIncoherences().dispose();
+    	}
+    }
+
+    /**
+     * Set the shard handled by the current thread
+     *
+     * @param shard
+     *            The shard
+     */
+    void bindShard(TmfXmlFsmShard shard) {
+    	fCurrentShard.set(shard);
+    	bindThread();
+    }
+
+    /**
+     * Set this fsm as the one handled by the current thread
+     */
+    void bindThread() {
+    	THREAD_FSM.set(this);
+    }
+
+    /**
+     * Get the fsm handled by the current thread
+     *
+     * @return The fsm, or null if the current thread is not the thread of an
+     *         fsm or of a shard
+     */
+    public static @Nullable TmfXmlFsm getThreadFsm() {
+    	return THREAD_FSM.get();
+    }
+
+    private @Nullable TmfXmlFsmShard currentShard() {
+    	return (fShards == null) ? null : fCurrentShard.get();
+    }
+
+    private static TmfXmlFsmShard shardFor(TmfXmlFsmShard[] shards, long key) {
+    	return shards[Math.floorMod(Long.hashCode(key), shards.length)];
+    }
+
+    /**
+     * Send an event to the shards of its attributes. An event with attributes
+     * in several shards is handled at a barrier between these shards. A lost
+     * event, which changes the uncertainty epoch seen by every shard, and an
+     * event that can start a scenario, whose attribute may belong to any
+     * shard, are handled at a barrier between all the shards, so the new
+     * scenario is given to its shard before that shard gets its next event.
+     *
+     * This is called by the thread reading the trace only, so the buffers of
+     * the fsm are reused for every event.
+     */
+    private void dispatchEvent(TmfXmlFsmShard[] shards, ITmfEvent event, int typeId, boolean startChecking, boolean forceChecking) {
+    	long[] keys = fEventAttributes;
+    	int keyCount = fScenarioModel.getAttributesForEvent(event, keys);
+    	boolean isLostEvent = event instanceof ITmfLostEvent;
+    	if (keyCount == 0 && !isLostEvent) {
+    		return;
+    	}
+    	long sequence = fEventSequence++;
+    	TmfXmlFsmShard[] targets = fTargets;
+    	int targetCount = 0;
+    	if (isLostEvent || fStartingTypes.get(typeId)) {
+    		System.arraycopy(shards, 0, targets, 0, shards.length);
+    		targetCount = shards.length;
+    	} else {
+    		for (int i = 0; i < keyCount; i++) {
+    			if (keys[i] != TmfXmlScenarioModel.NO_KEY) {
+    				TmfXmlFsmShard shard = shardFor(shards, keys[i]);
+    				if (!contains(targets, targetCount, shard)) {
+    					targets[targetCount++] = shard;
+    				}
+    			}
+    		}
+    		if (targetCount == 0) { // only the pending scenario can handle the event
+    			targets[targetCount++] = shards[0];
+    		}
+    	}
+    	if (targetCount == 1) {
+    		targets[0].submit(TmfXmlFsmShard.Task.create(event, typeId, keys, keyCount, sequence, startChecking, forceChecking, null));
+    		return;
+    	}
+    	TmfXmlFsmShard.Barrier barrier = new TmfXmlFsmShard.Barrier(targets[0], Arrays.asList(Arrays.copyOf(targets, targetCount)));
+    	TmfXmlFsmShard.Task task = TmfXmlFsmShard.Task.create(event, typeId, keys, keyCount, sequence, startChecking, forceChecking, barrier);
+    	for (int i = 0; i < targetCount; i++) {
+    		targets[i].submit(task);
+    	}
+    }
+
+    private static boolean contains(TmfXmlFsmShard[] shards, int count, TmfXmlFsmShard shard) {
+    	for (int i = 0; i < count; i++) {
+    		if (shards[i] == shard) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+
+    /**
+     * Whether an event type can start a scenario: a transition from the
+     * initial state accepts it
+     */
+    private Boolean resolveStartingType(int typeId) {
+    	TmfXmlState initialState = fStatesMap.get(fInitialStateId);
+    	return initialState == null || getCandidateTransitions(initialState, typeId).length > 0;
+    }
+
     /**
      * Process the active event and determine the next step of this fsm
      *
      * @param event
      *            The event to process
+     * @param typeId
+     *            The ID of the type of the event
      * @param tests
      *            The list of possible transitions of the state machine
      * @param scenarioInfo
@@ -617,18 +1378,19 @@ public class TmfXmlFsm {
      * @return A pair containing the next state of the state machine and the
      *         actions to execute
      */
-    public @Nullable TmfXmlStateTransition next(ITmfEvent event, Map<String, TmfXmlTransitionValidator> tests, TmfXmlScenarioInfo scenarioInfo) {
+    public @Nullable TmfXmlStateTransition next(ITmfEvent event, int typeId, Map<String, TmfXmlTransitionValidator> tests, TmfXmlScenarioInfo scenarioInfo) {
         boolean matched = false;
         TmfXmlStateTransition stateTransition = null;
-        TmfXmlState state = fStatesMap.get(scenarioInfo.getActiveState());
+        TmfXmlState state = getState(scenarioInfo.getActiveStateIndex());
         if (state == null) {
             /** FIXME: This logging should be replaced by something the user will see, this is XML debugging information! */
             Activator.logError(NLS.bind(Messages.TmfXmlFsm_StateUndefined, scenarioInfo.getActiveState(), getId()));
             return null;
         }
-        for (int i = 0; i < state.getTransitionList().size() && !matched; i++) {
-            stateTransition = state.getTransitionList().get(i);
-            matched = stateTransition.test(event, scenarioInfo, tests);
+        TmfXmlStateTransition[] candidates = getCandidateTransitions(state, typeId);
+        for (int i = 0; i < candidates.length && !matched; i++) {
+            stateTransition = candidates[i];
+            matched = stateTransition.testConditions(event, scenarioInfo, tests);
         }
         return matched ? stateTransition : null;
     }
@@ -641,16 +1403,18 @@ public class TmfXmlFsm {
      *
      * @param event
      *            The current event
+     * @param typeId
+     *            The ID of the type of the event
      * @param tests
      *            The transition inputs
      * @return True if one of the precondition is validated, false otherwise
      */
-    public boolean validatePreconditions(ITmfEvent event, Map<String, TmfXmlTransitionValidator> tests) {
+    public boolean validatePreconditions(ITmfEvent event, int typeId, Map<String, TmfXmlTransitionValidator> tests) {
         if (fPreconditions.isEmpty()) {
             return true;
         }
         for (TmfXmlBasicTransition precondition : fPreconditions) {
-            if (precondition.test(event, null, tests)) {
+            if (precondition.test(event, typeId, null, tests)) {
                 return true;
             }
         }
@@ -662,35 +1426,69 @@ public class TmfXmlFsm {
      *
      * @param event
      *            The current event
+     * @param typeId
+     *            The ID of the type of the event, looked up once for all the
+     *            fsms
      * @param testMap
      *            The transitions of the pattern
+     * @param startChecking
+     *            True if the coherence of the events must be checked
+     * @param forceChecking
+     *            True to check the coherence for every scenario, false to
+     *            only check it for the scenarios affected by lost events
      */
-    public void handleEvent(ITmfEvent event, Map<String, TmfXmlTransitionValidator> testMap, boolean startChecking) {
+    public void handleEvent(ITmfEvent event, int typeId, Map<String, TmfXmlTransitionValidator> testMap, boolean startChecking, boolean forceChecking) {
+        TmfXmlFsmShard[] shards = fShards;
+        if (shards != null) {
+            dispatchEvent(shards, event, typeId, startChecking, forceChecking);
+            return;
+        }
+        // Handle only the scenarios related to this event, which are identified by the tid of the process it models
+        long[] eventAttributes = fEventAttributes;
+        int attributeCount = fScenarioModel.getAttributesForEvent(event, eventAttributes);
+        handleEvent(event, typeId, eventAttributes, attributeCount, testMap, startChecking, forceChecking);
+    }
+
+    /**
+     * Handle the current event in the scenarios of its attributes, in the
+     * thread of the fsm or of a shard
+     */
+    void handleEvent(ITmfEvent event, int typeId, long[] eventAttributes, int attributeCount, Map<String, TmfXmlTransitionValidator> testMap, boolean startChecking, boolean forceChecking) {
         setEventConsumed(false);
-        fCoherenceCheckingNeeded = startChecking;
+        setCoherenceCheckingNeeded(startChecking);
         
         // Initialize the counters
-        transitionCount = 0;
+        TmfXmlFsmShard currentShard = currentShard();
+        if (currentShard == null) {
+            transitionCount = 0;
+        } else {
+            currentShard.setTransitionCount(0);
+        }
         
-        // Handle only the scenarios related to this event, which are identified by the tid of the process it models
-        List<String> eventAttributes = fScenarioModel.getAttributesForEvent(event);
-        if (event instanceof ITmfLostEvent) { // check certainty here
-        	for (TmfXmlScenario scenario : fActiveScenariosList.values()) {
-        		scenario.updateCertainty(false, event.getTimestamp().getValue());
-        	}
+        int cpu = TmfXmlEventAspects.getCpu(event);
+        if (event instanceof ITmfLostEvent) { // the scenarios of this cpu become uncertain, see applyLostEvents
+        	addLostEvent(event.getTimestamp().getValue(), cpu);
         }
         else {
-	        for (String attr : eventAttributes) {
-	        	TmfXmlScenario scenario = fActiveScenariosList.get(attr);
+	        for (int i = 0; i < attributeCount; i++) {
+	        	long attr = eventAttributes[i];
+	        	TmfXmlScenario scenario = (attr == TmfXmlScenarioModel.NO_KEY) ? null : getActiveScenario(attr);
 	        	if (scenario != null) {
-	        		handleScenario(scenario, event, fCoherenceCheckingNeeded, eventAttributes.size());
+	        		if (scenario.isActive()) {
+	        			scenario.applyLostEvents(cpu);
+	        		}
+	        		/* Scenarios that never lost events stay on the non-checking path */
+	        		boolean checking = isCoherenceCheckingNeeded() && (forceChecking ||
+	        				(scenario.isAffectedByLostEvents() && (!fCheckOnlyUncertain || scenario.isUncertain())));
+	        		handleScenario(scenario, event, typeId, checking, attributeCount);
+	        		scenario.setLastCpu(cpu);
 	        	}
 	        }
         }
         
-        if (!eventAttributes.isEmpty()) { // if we did not find any attribute for this event, it means it should be applied to no scenario
-	        boolean isValidInput = validatePreconditions(event, testMap);
-	        handlePendingScenario(event, isValidInput, eventAttributes.size());
+        if (attributeCount > 0) { // if we did not find any attribute for this event, it means it should be applied to no scenario
+	        boolean isValidInput = validatePreconditions(event, typeId, testMap);
+	        handlePendingScenario(event, typeId, isValidInput, attributeCount, cpu);
         }
     }
 
@@ -699,20 +1497,27 @@ public class TmfXmlFsm {
      *
      * @param event
      *            The ongoing event
+     * @param typeId
+     *            The ID of the type of the event
      * @param isInputValid
      *            Either the ongoing event validated the preconditions or not
+     * @param transitionTotal
+     *            The number of scenarios the event applies to
+     * @param cpu
+     *            The cpu of the event
      */
-    private void handlePendingScenario(ITmfEvent event, boolean isInputValid, int transitionTotal) {
+    private void handlePendingScenario(ITmfEvent event, int typeId, boolean isInputValid, int transitionTotal, int cpu) {
         if (fConsuming && isEventConsumed()) {
             return;
         }
 
-        TmfXmlScenario scenario = fPendingScenario;
+        TmfXmlScenario scenario = getPendingScenario();
         if ((fInitialStateId.equals(TmfXmlState.INITIAL_STATE_ID) || isInputValid) && scenario != null) {
-            handleScenario(scenario, event, fCoherenceCheckingNeeded, transitionTotal);
+            handleScenario(scenario, event, typeId, isCoherenceCheckingNeeded(), transitionTotal);
+            scenario.setLastCpu(cpu);
             if (!scenario.isPending()) {
                 addActiveScenario(scenario);
-                fPendingScenario = null;
+                setPendingScenario(null);
             }
         }
     }
@@ -721,16 +1526,19 @@ public class TmfXmlFsm {
      * Abandon all ongoing scenarios
      */
     public void dispose() {
+        stopShards();
+        fInferenceCache.clear();
         for (TmfXmlScenario scenario : fActiveScenariosList.values()) {
             if (scenario.isActive()) {
+                scenario.applyLostEvents(TmfXmlEventAspects.NO_VALUE);
                 scenario.cancel();
             }
         }
     }
 
-    protected static void handleScenario(TmfXmlScenario scenario, ITmfEvent event, boolean isCoherenceCheckingNeeded, int transitionTotal) {
+    protected static void handleScenario(TmfXmlScenario scenario, ITmfEvent event, int typeId, boolean isCoherenceCheckingNeeded, int transitionTotal) {
         if (scenario.isActive() || scenario.isPending()) {
-        	scenario.handleEvent(event, isCoherenceCheckingNeeded, transitionTotal);
+        	scenario.handleEvent(event, typeId, isCoherenceCheckingNeeded, transitionTotal);
         }
     }
 
@@ -748,19 +1556,21 @@ public class TmfXmlFsm {
     		boolean isObserver) {
         if (force || isNewScenarioAllowed()) {
             fTotalScenarios++;
+            TmfXmlScenario scenario = getPendingScenario();
             if (isObserver) {
             	if (fCoherenceAlgo.equals(TmfXmlScenarioObserver.ALGO1)) {
-            		fPendingScenario = new TmfXmlScenarioObserverNaive(event, eventHandler, fId, fContainer, fModelFactory);
+            		scenario = new TmfXmlScenarioObserverNaive(event, eventHandler, fId, fContainer, fModelFactory);
             	}
             	else if (fCoherenceAlgo.equals(TmfXmlScenarioObserver.ALGO2)) {
-            		fPendingScenario = new TmfXmlScenarioObserverOptimized(event, eventHandler, fId, fContainer, fModelFactory);
+            		scenario = new TmfXmlScenarioObserverOptimized(event, eventHandler, fId, fContainer, fModelFactory);
             	}
             }
-            if (fPendingScenario == null) {
-            	fPendingScenario = new TmfXmlScenario(event, eventHandler, fId, fContainer, fModelFactory);
+            if (scenario == null) {
+            	scenario = new TmfXmlScenario(event, eventHandler, fId, fContainer, fModelFactory);
             }
             /* We have no information on certainty before the scenario starts, so set state to uncertain */
-            fPendingScenario.updateCertainty(false, ((AbstractTmfStateProvider) fContainer).getTrace().getStartTime().getValue());
+            scenario.updateCertainty(false, ((AbstractTmfStateProvider) fContainer).getTrace().getStartTime().getValue());
+            setPendingScenario(scenario);
         }
     }
 
@@ -771,7 +1581,99 @@ public class TmfXmlFsm {
      *            The scenario
      */
     private void addActiveScenario(TmfXmlScenario scenario) {
-        fActiveScenariosList.put(scenario.getAttribute(), scenario);
+        /* The lost events seen while the scenario was pending do not apply to it */
+        scenario.setUncertaintyEpoch(fUncertaintyEpoch);
+        long key = scenario.getAttributeKey();
+        TmfXmlFsmShard[] shards = fShards;
+        TmfXmlFsmShard shard = currentShard();
+        if (shards == null || shard == null) {
+            fActiveScenariosList.put(key, scenario);
+            return;
+        }
+        /*
+         * The events that can start a scenario are handled at a barrier
+         * between all the shards, so the shard of the attribute is waiting
+         */
+        TmfXmlFsmShard owner = shardFor(shards, key);
+        if (!shard.owns(owner)) {
+            throw new IllegalStateException("The scenario " + key + " was started outside of a barrier"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        owner.putScenario(key, scenario);
+    }
+
+    private @Nullable TmfXmlScenario getActiveScenario(long key) {
+        TmfXmlFsmShard[] shards = fShards;
+        if (shards == null || currentShard() == null) {
+            return fActiveScenariosList.get(key);
+        }
+        return shardFor(shards, key).getScenario(key);
+    }
+
+    private @Nullable TmfXmlScenario getPendingScenario() {
+        TmfXmlFsmShard shard = currentShard();
+        return (shard == null) ? fPendingScenario : shard.getPendingScenario();
+    }
+
+    private void setPendingScenario(@Nullable TmfXmlScenario scenario) {
+        TmfXmlFsmShard shard = currentShard();
+        if (shard == null) {
+            fPendingScenario = scenario;
+        } else {
+            shard.setPendingScenario(scenario);
+        }
+    }
+
+    /**
+     * Start a new uncertainty epoch. Instead of marking every active scenario
+     * as uncertain, each scenario compares its epoch with the one of the fsm
+     * when it is next handled, see {@link TmfXmlScenario#applyLostEvents(int)}.
+     *
+     * @param time
+     *            The timestamp of the lost event
+     * @param cpu
+     *            The cpu that lost events, or {@link TmfXmlEventAspects#NO_VALUE}
+     *            if it is unknown
+     */
+    private void addLostEvent(long time, int cpu) {
+        if (fUncertaintyEpoch == fLostEventTimes.length) {
+            fLostEventTimes = Arrays.copyOf(fLostEventTimes, fUncertaintyEpoch * 2);
+            fLostEventCpus = Arrays.copyOf(fLostEventCpus, fUncertaintyEpoch * 2);
+        }
+        fLostEventTimes[fUncertaintyEpoch] = time;
+        fLostEventCpus[fUncertaintyEpoch] = cpu;
+        fUncertaintyEpoch++;
+    }
+
+    /**
+     * Get the current uncertainty epoch, which is the number of lost events
+     * seen by this fsm
+     *
+     * @return The uncertainty epoch
+     */
+    public int getUncertaintyEpoch() {
+        return fUncertaintyEpoch;
+    }
+
+    /**
+     * Get the timestamp of the lost event that started an uncertainty epoch
+     *
+     * @param epoch
+     *            The epoch, below {@link #getUncertaintyEpoch()}
+     * @return The timestamp of the lost event
+     */
+    public long getLostEventTime(int epoch) {
+        return fLostEventTimes[epoch];
+    }
+
+    /**
+     * Get the cpu of the lost event that started an uncertainty epoch
+     *
+     * @param epoch
+     *            The epoch, below {@link #getUncertaintyEpoch()}
+     * @return The cpu, or {@link TmfXmlEventAspects#NO_VALUE} if it is unknown
+     */
+    public int getLostEventCpu(int epoch) {
+        return fLostEventCpus[epoch];
     }
 
     /**
@@ -782,30 +1684,25 @@ public class TmfXmlFsm {
      * @return True if the start of a new scenario is allowed, false otherwise
      */
     public synchronized boolean isNewScenarioAllowed() {
+        /* The shards create their own pending scenarios */
         return fTotalScenarios > 0 && fInstanceMultipleEnabled
-                && fPendingScenario == null;
+                && fPendingScenario == null && fShards == null;
     }
 
     /**
      * Determine if an event causes the state to be coherent with certainty
      * A state A becomes certain when an event e is observed if e labels one or several transitions to A only  
      * 
-     * @param event
- * 				The event who labels the taken transition 
+     * @param typeId
+ * 				The ID of the type of the event who labels the taken transition 
      * @param transition
  * 				The taken transition
  * 
      * @return
      * 			The certainty value (true if certain, false if uncertain)		
      */
-    public boolean isCertain(ITmfEvent event, TmfXmlStateTransition transition) {
-    	Iterator<Pair<Pattern, String>> it = certaintyMap.keySet().iterator();
-    	while (it.hasNext()) {
-    		Pair<Pattern, String> key = it.next();
-    		if (key.getFirst().matcher(event.getName()).matches() && key.getSecond().equals(transition.getCondition())) {
-    			return (certaintyMap.get(key).size() == 1);
-    		}
-    	}
-    	return false;
+    public boolean isCertain(int typeId, TmfXmlStateTransition transition) {
+    	Boolean certain = fCertaintyTable.get(typeId).get(transition.getCondition());
+    	return certain != null && certain;
     }
 }
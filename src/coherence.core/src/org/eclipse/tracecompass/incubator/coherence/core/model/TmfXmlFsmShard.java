@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.incubator.coherence.core.Activator;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlIncoherenceBuffer.EventStamp;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+
+/**
+ * Part of the scenarios of an fsm, handled by its own thread. The scenarios
+ * are assigned to the shards by their attribute, see
+ * {@link TmfXmlFsm#setShardCount(int)}.
+ *
+ * Each shard has its own active scenarios, its own pending scenario, and its
+ * own state for the event being handled, which the fsm uses instead of its
+ * fields when called from the thread of the shard. The transition counters
+ * and the incoherences of the shards are merged into the fsm when the shards
+ * are stopped.
+ *
+ * An event whose attributes belong to several shards, a lost event or an
+ * event that can start a scenario is a {@link Barrier}: the shards involved
+ * stop at that event, in trace order, and one of them handles it while the
+ * others wait. A scenario is thus always started by a thread owning the shard
+ * of its attribute.
+ *
+ * @author mmartin
+ */
+class TmfXmlFsmShard extends Thread {
+
+    private static final int QUEUE_SIZE = 10000;
+    private static final Task END = new Task(null, 0, null, 0, 0, 0, false, false, null);
+
+    /**
+     * An event to handle, with its type ID and the attributes computed by the
+     * thread reading the trace. Most events have a single attribute, which is kept in the
+     * task instead of an array.
+     */
+    static final class Task {
+        final @Nullable ITmfEvent fEvent;
+        final int fTypeId;
+        final long @Nullable [] fKeys;
+        final long fKey;
+        final int fKeyCount;
+        final long fSequence;
+        final boolean fStartChecking;
+        final boolean fForceChecking;
+        final @Nullable Barrier fBarrier;
+
+        private Task(@Nullable ITmfEvent event, int typeId, long @Nullable [] keys, long key, int keyCount, long sequence, boolean startChecking, boolean forceChecking, @Nullable Barrier barrier) {
+            fEvent = event;
+            fTypeId = typeId;
+            fKeys = keys;
+            fKey = key;
+            fKeyCount = keyCount;
+            fSequence = sequence;
+            fStartChecking = startChecking;
+            fForceChecking = forceChecking;
+            fBarrier = barrier;
+        }
+
+        /**
+         * Create the task of an event. The attributes are copied, the buffer
+         * is reused by the thread reading the trace.
+         */
+        static Task create(ITmfEvent event, int typeId, long[] keys, int keyCount, long sequence, boolean startChecking, boolean forceChecking, @Nullable Barrier barrier) {
+            if (keyCount <= 1) {
+                return new Task(event, typeId, null, (keyCount == 0) ? 0 : keys[0], keyCount, sequence, startChecking, forceChecking, barrier);
+            }
+            return new Task(event, typeId, Arrays.copyOf(keys, keyCount), 0, keyCount, sequence, startChecking, forceChecking, barrier);
+        }
+
+        /**
+         * Get the attributes of the event
+         *
+         * @param buffer
+         *            A buffer of at least one attribute, used for a single
+         *            attribute
+         * @return The attributes, the first {@link #fKeyCount} are set
+         */
+        long[] getKeys(long[] buffer) {
+            long[] keys = fKeys;
+            if (keys != null) {
+                return keys;
+            }
+            buffer[0] = fKey;
+            return buffer;
+        }
+    }
+
+    /**
+     * Ordered barrier between the shards of an event. The events are queued in
+     * trace order by a single thread, so the shards always reach the barriers
+     * they share in the same order.
+     */
+    static final class Barrier {
+        final TmfXmlFsmShard fLeader;
+        final List<TmfXmlFsmShard> fShards;
+        final CountDownLatch fArrived;
+        final CountDownLatch fDone = new CountDownLatch(1);
+
+        Barrier(TmfXmlFsmShard leader, List<TmfXmlFsmShard> shards) {
+            fLeader = leader;
+            fShards = shards;
+            fArrived = new CountDownLatch(shards.size() - 1);
+        }
+    }
+
+    private final BlockingQueue<Task> fQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final TmfXmlFsm fFsm;
+    private final TmfXmlPatternEventHandler fHandler;
+    private final boolean fIsObserver;
+
+    /* Scenarios of this shard */
+    private final TmfXmlScenarioMap fScenarios = new TmfXmlScenarioMap();
+    private @Nullable TmfXmlScenario fPendingScenario = null;
+    private final long[] fKeyBuffer = new long[1];
+
+    /* State of the event being handled */
+    private boolean fEventConsumed;
+    private boolean fCoherenceCheckingNeeded;
+    private int fTransitionCount;
+    private long fSequence;
+    private long fLastTime = Long.MIN_VALUE;
+    private @Nullable Barrier fBarrier = null;
+
+    /* Results, merged into the fsm */
+    private final TmfXmlTransitionCounters fTransitionsCounters = new TmfXmlTransitionCounters();
+    private final TmfXmlIncoherenceBuffer fIncoherences = new TmfXmlIncoherenceBuffer();
+    private long[] fIncoherenceSequences = new long[16];
+
+    /**
+     * Constructor
+     *
+     * @param fsm
+     *            The fsm this shard belongs to
+     * @param index
+     *            The index of this shard
+     * @param handler
+     *            The pattern handler of the fsm
+     * @param isObserver
+     *            True if the scenarios are observers
+     */
+    public TmfXmlFsmShard(TmfXmlFsm fsm, int index, TmfXmlPatternEventHandler handler, boolean isObserver) {
+        super("Pattern fsm " + fsm.getId() + " shard " + index); //$NON-NLS-1$ //$NON-NLS-2$
+        fFsm = fsm;
+        fHandler = handler;
+        fIsObserver = isObserver;
+    }
+
+    /**
+     * Write the incoherences of this shard to a file once there are more than
+     * a number of them, like the ones of its fsm. It should be called before
+     * the shard is started.
+     *
+     * @param directory
+     *            The directory of the file, or null to keep the incoherences
+     *            in memory
+     * @param threshold
+     *            The number of incoherences kept in memory
+     */
+    void setIncoherenceSpill(@Nullable Path directory, long threshold) {
+        fIncoherences.setSpill(directory, threshold);
+    }
+
+    // ------------------------------------------------------------------------
+    // Called by the thread reading the trace
+    // ------------------------------------------------------------------------
+
+    /**
+     * Queue an event for this shard, waiting if the queue is full
+     *
+     * @param task
+     *            The event to handle
+     */
+    public void submit(Task task) {
+        try {
+            fQueue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Handle the events queued so far and stop the thread
+     */
+    public void finish() {
+        submit(END);
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Called by the thread of the shard
+    // ------------------------------------------------------------------------
+
+    @Override
+    public void run() {
+        fFsm.bindShard(this);
+        try {
+            Task task = fQueue.take();
+            while (task != END) {
+                handle(task);
+                task = fQueue.take();
+            }
+        } catch (InterruptedException e) {
+            Activator.logError("The shard " + getName() + " was interrupted.", e); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    private void handle(Task task) throws InterruptedException {
+        Barrier barrier = task.fBarrier;
+        if (barrier != null && barrier.fLeader != this) {
+            /* The leader handles the event while this shard waits */
+            barrier.fArrived.countDown();
+            barrier.fDone.await();
+            return;
+        }
+        try {
+            if (barrier != null) {
+                barrier.fArrived.await();
+            }
+            fBarrier = barrier;
+            fSequence = task.fSequence;
+            ITmfEvent event = task.fEvent;
+            if (event == null) {
+                return;
+            }
+            fHandler.getValidatorCache().newEvent();
+            if (fPendingScenario == null) {
+                /* Scenarios created without event start at the last event of the shard */
+                long time = (fLastTime == Long.MIN_VALUE) ? event.getTimestamp().toNanos() : fLastTime;
+                TmfXmlScenarioHistoryBuilder.setThreadTime(time);
+                try {
+                    fFsm.createScenario(null, fHandler, true, fIsObserver);
+                } finally {
+                    TmfXmlScenarioHistoryBuilder.setThreadTime(null);
+                }
+            }
+            fFsm.handleEvent(event, task.fTypeId, task.getKeys(fKeyBuffer), task.fKeyCount, fHandler.getTestMap(), task.fStartChecking, task.fForceChecking);
+            fLastTime = event.getTimestamp().toNanos();
+        } catch (RuntimeException e) {
+            /* Keep on taking events, or the thread reading the trace would be blocked */
+            Activator.logError("Error while handling an event in " + getName(), e); //$NON-NLS-1$
+        } finally {
+            fBarrier = null;
+            if (barrier != null) {
+                barrier.fDone.countDown();
+            }
+        }
+    }
+
+    /**
+     * Whether the scenarios of a shard can be modified by the thread of this
+     * shard: it is this shard, or a shard waiting at the barrier handled by
+     * this shard
+     */
+    boolean owns(TmfXmlFsmShard shard) {
+        Barrier barrier = fBarrier;
+        return shard == this || (barrier != null && barrier.fShards.contains(shard));
+    }
+
+    @Nullable TmfXmlScenario getScenario(long key) {
+        return fScenarios.get(key);
+    }
+
+    void putScenario(long key, TmfXmlScenario scenario) {
+        fScenarios.put(key, scenario);
+    }
+
+    @Nullable TmfXmlScenario getPendingScenario() {
+        return fPendingScenario;
+    }
+
+    void setPendingScenario(@Nullable TmfXmlScenario scenario) {
+        fPendingScenario = scenario;
+    }
+
+    boolean isEventConsumed() {
+        return fEventConsumed;
+    }
+
+    void setEventConsumed(boolean eventConsumed) {
+        fEventConsumed = eventConsumed;
+    }
+
+    boolean isCoherenceCheckingNeeded() {
+        return fCoherenceCheckingNeeded;
+    }
+
+    void setCoherenceCheckingNeeded(boolean coherenceCheckingNeeded) {
+        fCoherenceCheckingNeeded = coherenceCheckingNeeded;
+    }
+
+    int getTransitionCount() {
+        return fTransitionCount;
+    }
+
+    void setTransitionCount(int transitionCount) {
+        fTransitionCount = transitionCount;
+    }
+
+    TmfXmlTransitionCounters getTransitionsCounters() {
+        return fTransitionsCounters;
+    }
+
+    void addIncoherence(EventStamp event, @Nullable EventStamp lastEvent, long scenarioKey, int stateIndex, int[] transitionIds, int transitionCount) {
+        int index = fIncoherences.append(event, lastEvent, scenarioKey, stateIndex, transitionIds, transitionCount);
+        if (index == fIncoherenceSequences.length) {
+            fIncoherenceSequences = Arrays.copyOf(fIncoherenceSequences, index * 2);
+        }
+        fIncoherenceSequences[index] = fSequence;
+    }
+
+    // ------------------------------------------------------------------------
+    // Called once the thread of the shard is done
+    // ------------------------------------------------------------------------
+
+    TmfXmlScenarioMap getScenarios() {
+        return fScenarios;
+    }
+
+    int getIncoherenceCount() {
+        return fIncoherences.size();
+    }
+
+    TmfXmlIncoherenceBuffer getIncoherences() {
+        return fIncoherences;
+    }
+
+    long getIncoherenceSequence(int index) {
+        return fIncoherenceSequences[index];
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.incubator.coherence.core.Activator;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+
+/**
+ * Thread handling the events of one fsm, in trace order. The events are given
+ * through a bounded queue, so the thread reading the trace waits when the fsm
+ * falls too far behind.
+ *
+ * The fsms have their own scenarios and their own subtree of the state system,
+ * so an fsm can be handled independently of the others, as long as the
+ * pattern does not use the same attributes in several fsms.
+ *
+ * @author mmartin
+ */
+class TmfXmlFsmWorker extends Thread {
+
+    private static final int QUEUE_SIZE = 10000;
+    private static final Task END = new Task(null, 0, false, false);
+
+    /**
+     * An event to handle, with its type ID and the state of the coherence
+     * checking when it was read, so the fsm does not depend on when its thread
+     * gets to it
+     */
+    private static final class Task {
+        final @Nullable ITmfEvent fEvent;
+        final int fTypeId;
+        final boolean fStartChecking;
+        final boolean fForceChecking;
+
+        Task(@Nullable ITmfEvent event, int typeId, boolean startChecking, boolean forceChecking) {
+            fEvent = event;
+            fTypeId = typeId;
+            fStartChecking = startChecking;
+            fForceChecking = forceChecking;
+        }
+    }
+
+    private final BlockingQueue<Task> fQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final TmfXmlPatternEventHandler fHandler;
+    private final TmfXmlFsm fFsm;
+    private final boolean fIsObserver;
+
+    /**
+     * Constructor
+     *
+     * @param handler
+     *            The pattern handler of the fsm
+     * @param fsm
+     *            The fsm handled by this thread
+     * @param isObserver
+     *            True if the scenarios are observers
+     */
+    public TmfXmlFsmWorker(TmfXmlPatternEventHandler handler, TmfXmlFsm fsm, boolean isObserver) {
+        super("Pattern fsm " + fsm.getId()); //$NON-NLS-1$
+        fHandler = handler;
+        fFsm = fsm;
+        fIsObserver = isObserver;
+    }
+
+    /**
+     * Queue an event for this fsm, waiting if the queue is full
+     *
+     * @param event
+     *            The event
+     * @param typeId
+     *            The ID of the type of the event
+     * @param startChecking
+     *            True if the coherence checking was started when the event was
+     *            read
+     * @param forceChecking
+     *            True if every scenario is checked
+     */
+    public void submit(ITmfEvent event, int typeId, boolean startChecking, boolean forceChecking) {
+        put(new Task(event, typeId, startChecking, forceChecking));
+    }
+
+    /**
+     * Handle the events queued so far and stop the thread
+     */
+    public void finish() {
+        put(END);
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void put(Task item) {
+        try {
+            fQueue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        fFsm.bindThread();
+        try {
+            Task task = fQueue.take();
+            while (task != END) {
+                handleEvent(task);
+                task = fQueue.take();
+            }
+        } catch (InterruptedException e) {
+            Activator.logError("The fsm " + fFsm.getId() + " was interrupted.", e); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    private void handleEvent(Task task) {
+        ITmfEvent event = task.fEvent;
+        if (event == null) {
+            return;
+        }
+        try {
+            fHandler.handleFsmEvent(fFsm, event, task.fTypeId, fIsObserver, task.fStartChecking, task.fForceChecking);
+        } catch (RuntimeException e) {
+            /* Keep on taking events, or the thread reading the trace would be blocked */
+            Activator.logError("Error while handling an event in the fsm " + fFsm.getId(), e); //$NON-NLS-1$
+        }
+    }
+}
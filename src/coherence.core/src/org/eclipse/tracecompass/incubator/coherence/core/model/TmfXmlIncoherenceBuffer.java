@@ -0,0 +1,594 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.incubator.coherence.core.Activator;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.timestamp.TmfTimestamp;
+import org.eclipse.tracecompass.tmf.core.trace.ITmfContext;
+import org.eclipse.tracecompass.tmf.core.trace.ITmfTrace;
+
+/**
+ * Append-only store of the incoherences found in an fsm, kept as primitive
+ * records instead of references to the events.
+ *
+ * An incoherence is stored as the timestamp, rank, type and CPU of the
+ * incoherent event and of the last event before it, the index of the last coherent
+ * state, the attribute of the scenario and the IDs of the flyweight
+ * transitions that could have been taken. The events themselves are read
+ * again from the trace when they are needed, see
+ * {@link #readEvent(EventStamp)}.
+ *
+ * The records are grouped in segments of {@link #SEGMENT_RECORDS} records,
+ * each one laid out by column. Once a segment is full, it is kept in memory,
+ * or, past the spill threshold, written to a file, see
+ * {@link #setSpill(Path, long)}. The spilled segments are read through a
+ * single mapping of the file, made again only if the file grew since.
+ *
+ * The records are appended by a single thread. Once the appends are done,
+ * they can be read by several threads.
+ *
+ * @author mmartin
+ */
+public class TmfXmlIncoherenceBuffer {
+
+    /** Number of records of a segment */
+    public static final int SEGMENT_RECORDS = 4096;
+    /** Timestamp of the events that do not exist */
+    public static final long NO_TIME = Long.MIN_VALUE;
+    private static final int NO_TYPE = -1;
+    /* The segments are read through a single mapping, whose positions are ints */
+    private static final long MAX_SPILL_FILE_SIZE = Integer.MAX_VALUE;
+
+    /* Columns of a segment, by width */
+    private static final int TIME = 0;
+    private static final int RANK = TIME + 8 * SEGMENT_RECORDS;
+    private static final int PREV_TIME = RANK + 8 * SEGMENT_RECORDS;
+    private static final int PREV_RANK = PREV_TIME + 8 * SEGMENT_RECORDS;
+    private static final int KEY = PREV_RANK + 8 * SEGMENT_RECORDS;
+    private static final int TYPE = KEY + 8 * SEGMENT_RECORDS;
+    private static final int PREV_TYPE = TYPE + 4 * SEGMENT_RECORDS;
+    private static final int CPU = PREV_TYPE + 4 * SEGMENT_RECORDS;
+    private static final int PREV_CPU = CPU + 4 * SEGMENT_RECORDS;
+    private static final int STATE = PREV_CPU + 4 * SEGMENT_RECORDS;
+    private static final int TRANSITIONS_OFFSET = STATE + 4 * SEGMENT_RECORDS;
+    private static final int TRANSITIONS_COUNT = TRANSITIONS_OFFSET + 4 * SEGMENT_RECORDS;
+    /* The IDs of the transitions of the records follow the columns */
+    private static final int TRANSITIONS = TRANSITIONS_COUNT + 4 * SEGMENT_RECORDS;
+
+    /**
+     * What is kept of an event: enough to find it again in the trace
+     */
+    public static final class EventStamp {
+        private final long fTime;
+        private final long fRank;
+        private final int fTypeId;
+        private final int fCpu;
+
+        /**
+         * Constructor
+         *
+         * @param time
+         *            The timestamp of the event, in nanoseconds
+         * @param rank
+         *            The rank of the event, or
+         *            {@link ITmfContext#UNKNOWN_RANK}
+         * @param typeId
+         *            The ID of the event type, in the registry of the analysis
+         * @param cpu
+         *            The CPU of the event, or
+         *            {@link TmfXmlEventAspects#NO_VALUE}
+         */
+        public EventStamp(long time, long rank, int typeId, int cpu) {
+            fTime = time;
+            fRank = rank;
+            fTypeId = typeId;
+            fCpu = cpu;
+        }
+
+        /**
+         * Get the stamp of an event
+         *
+         * @param event
+         *            The event
+         * @param typeId
+         *            The ID of the type of the event
+         * @return The stamp
+         */
+        public static EventStamp of(ITmfEvent event, int typeId) {
+            return new EventStamp(event.getTimestamp().toNanos(), event.getRank(), typeId, TmfXmlEventAspects.getCpu(event));
+        }
+
+        /**
+         * @return The timestamp of the event, in nanoseconds
+         */
+        public long getTime() {
+            return fTime;
+        }
+
+        /**
+         * @return The rank of the event, or {@link ITmfContext#UNKNOWN_RANK}
+         */
+        public long getRank() {
+            return fRank;
+        }
+
+        /**
+         * @return The ID of the event type
+         */
+        public int getTypeId() {
+            return fTypeId;
+        }
+
+        /**
+         * @return The CPU of the event, or {@link TmfXmlEventAspects#NO_VALUE}
+         */
+        public int getCpu() {
+            return fCpu;
+        }
+    }
+
+    /* Full segments with the IDs of the transitions after the columns, null for the ones in the spill file */
+    private final List<@Nullable ByteBuffer> fSegments = new ArrayList<>();
+    /* Positions and ends of the spilled segments in the spill file, by segment */
+    private int[] fSpillOffsets = new int[16];
+    private int[] fSpillEnds = new int[16];
+    /* Segment being filled */
+    private final ByteBuffer fTail = ByteBuffer.allocate(TRANSITIONS);
+    private int[] fTailTransitions = new int[SEGMENT_RECORDS];
+    private int fTailTransitionCount = 0;
+    private int fSize = 0;
+
+    private @Nullable ITmfTrace fTrace = null;
+    private @Nullable TmfXmlEventTypes fEventTypes = null;
+    private @Nullable Path fSpillDirectory = null;
+    private long fSpillThreshold = Long.MAX_VALUE;
+    private @Nullable FileChannel fSpillFile = null;
+    private long fSpillFileSize = 0;
+    private @Nullable ByteBuffer fSpillScratch = null;
+    /* The mapping of the spill file, covering fMappedSize bytes */
+    private volatile @Nullable MappedByteBuffer fSpillMap = null;
+    private long fMappedSize = 0;
+
+    /**
+     * Set the trace from which the events are read again
+     *
+     * @param trace
+     *            The trace of the events
+     * @param eventTypes
+     *            The registry of the type IDs of the stamps
+     */
+    public void setTrace(@Nullable ITmfTrace trace, TmfXmlEventTypes eventTypes) {
+        fTrace = trace;
+        fEventTypes = eventTypes;
+    }
+
+    /**
+     * Write the full segments to a file once the buffer has a number of
+     * records
+     *
+     * @param directory
+     *            The directory of the file, or null to keep every record in
+     *            memory
+     * @param threshold
+     *            The number of records kept in memory
+     */
+    public void setSpill(@Nullable Path directory, long threshold) {
+        fSpillDirectory = directory;
+        fSpillThreshold = threshold;
+    }
+
+    /**
+     * Add an incoherence
+     *
+     * @param event
+     *            The incoherent event
+     * @param prevEvent
+     *            The last event before the incoherent one, or null
+     * @param scenarioKey
+     *            The attribute of the scenario
+     * @param stateIndex
+     *            The index of the last coherent state of the scenario
+     * @param transitionIds
+     *            The IDs of the transitions that could have been taken
+     * @param transitionCount
+     *            The number of IDs to use in the array
+     * @return The index of the incoherence
+     */
+    public int append(EventStamp event, @Nullable EventStamp prevEvent, long scenarioKey, int stateIndex,
+            int[] transitionIds, int transitionCount) {
+        int record = fSize % SEGMENT_RECORDS;
+        ByteBuffer tail = fTail;
+        tail.putLong(TIME + 8 * record, event.getTime());
+        tail.putLong(RANK + 8 * record, event.getRank());
+        tail.putInt(TYPE + 4 * record, event.getTypeId());
+        tail.putLong(PREV_TIME + 8 * record, (prevEvent == null) ? NO_TIME : prevEvent.getTime());
+        tail.putLong(PREV_RANK + 8 * record, (prevEvent == null) ? ITmfContext.UNKNOWN_RANK : prevEvent.getRank());
+        tail.putInt(PREV_TYPE + 4 * record, (prevEvent == null) ? NO_TYPE : prevEvent.getTypeId());
+        tail.putInt(CPU + 4 * record, event.getCpu());
+        tail.putInt(PREV_CPU + 4 * record, (prevEvent == null) ? TmfXmlEventAspects.NO_VALUE : prevEvent.getCpu());
+        tail.putLong(KEY + 8 * record, scenarioKey);
+        tail.putInt(STATE + 4 * record, stateIndex);
+        tail.putInt(TRANSITIONS_OFFSET + 4 * record, fTailTransitionCount);
+        tail.putInt(TRANSITIONS_COUNT + 4 * record, transitionCount);
+        if (fTailTransitionCount + transitionCount > fTailTransitions.length) {
+            fTailTransitions = Arrays.copyOf(fTailTransitions, Math.max(fTailTransitions.length * 2, fTailTransitionCount + transitionCount));
+        }
+        System.arraycopy(transitionIds, 0, fTailTransitions, fTailTransitionCount, transitionCount);
+        fTailTransitionCount += transitionCount;
+        int index = fSize++;
+        if (record == SEGMENT_RECORDS - 1) {
+            seal();
+        }
+        return index;
+    }
+
+    /**
+     * Add an incoherence of another buffer
+     *
+     * @param other
+     *            The other buffer
+     * @param index
+     *            The index of the incoherence in the other buffer
+     * @return The index of the incoherence in this buffer
+     */
+    public int append(TmfXmlIncoherenceBuffer other, int index) {
+        int[] transitionIds = other.getTransitionIds(index);
+        return append(other.getEvent(index), other.getPrevEvent(index), other.getScenarioKey(index), other.getStateIndex(index),
+                transitionIds, transitionIds.length);
+    }
+
+    /**
+     * Move the tail to the full segments, in memory or in the spill file
+     */
+    private void seal() {
+        int size = TRANSITIONS + 4 * fTailTransitionCount;
+        Path directory = fSpillDirectory;
+        boolean spill = directory != null && fSize > fSpillThreshold;
+        ByteBuffer segment;
+        if (spill) {
+            ByteBuffer scratch = fSpillScratch;
+            if (scratch == null || scratch.capacity() < size) {
+                scratch = ByteBuffer.allocate(size);
+                fSpillScratch = scratch;
+            }
+            scratch.clear();
+            scratch.limit(size);
+            segment = scratch;
+        } else {
+            segment = ByteBuffer.allocate(size);
+        }
+        fTail.clear();
+        segment.put(fTail);
+        for (int i = 0; i < fTailTransitionCount; i++) {
+            segment.putInt(fTailTransitions[i]);
+        }
+        fTailTransitionCount = 0;
+        if (spill && directory != null) {
+            segment.flip();
+            long offset = write(directory, segment);
+            if (offset >= 0) {
+                int index = fSegments.size();
+                if (index == fSpillOffsets.length) {
+                    fSpillOffsets = Arrays.copyOf(fSpillOffsets, index * 2);
+                    fSpillEnds = Arrays.copyOf(fSpillEnds, index * 2);
+                }
+                fSpillOffsets[index] = (int) offset;
+                fSpillEnds[index] = (int) fSpillFileSize;
+                fSegments.add(null);
+                return;
+            }
+            /* Keep the segment in memory */
+            ByteBuffer copy = ByteBuffer.allocate(size);
+            segment.rewind();
+            copy.put(segment);
+            segment = copy;
+        }
+        fSegments.add(segment);
+    }
+
+    /**
+     * Append a segment to the spill file
+     *
+     * @return The position of the segment in the file, or -1 if it could not
+     *         be written
+     */
+    private long write(Path directory, ByteBuffer segment) {
+        if (fSpillFileSize + segment.remaining() > MAX_SPILL_FILE_SIZE) {
+            Activator.logWarning("The spill file of the incoherences is full, the next ones are kept in memory"); //$NON-NLS-1$
+            fSpillDirectory = null;
+            return -1;
+        }
+        try {
+            FileChannel file = fSpillFile;
+            if (file == null) {
+                Path path = Files.createTempFile(directory, "incoherences", ".dat"); //$NON-NLS-1$ //$NON-NLS-2$
+                file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                fSpillFile = file;
+            }
+            long offset = fSpillFileSize;
+            long position = offset;
+            while (segment.hasRemaining()) {
+                position += file.write(segment, position);
+            }
+            fSpillFileSize = position;
+            return offset;
+        } catch (IOException e) {
+            /* Keep the records in memory */
+            Activator.logError("Failed to spill the incoherences to " + directory, e); //$NON-NLS-1$
+            fSpillDirectory = null;
+            return -1;
+        }
+    }
+
+    /**
+     * Get the mapping of the spill file, mapping it again only if it does not
+     * cover a segment written since it was made
+     */
+    private ByteBuffer getSpillMap(int end) {
+        MappedByteBuffer map = fSpillMap;
+        if (map != null && fMappedSize >= end) {
+            return map;
+        }
+        synchronized (this) {
+            map = fSpillMap;
+            if (map != null && fMappedSize >= end) {
+                return map;
+            }
+            FileChannel file = fSpillFile;
+            if (file == null) {
+                throw new IllegalStateException("The spill file of the incoherences is closed"); //$NON-NLS-1$
+            }
+            try {
+                map = file.map(FileChannel.MapMode.READ_ONLY, 0, fSpillFileSize);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to map the spill file of the incoherences", e); //$NON-NLS-1$
+            }
+            fMappedSize = fSpillFileSize;
+            fSpillMap = map;
+            return map;
+        }
+    }
+
+    private ByteBuffer getSegment(int index) {
+        int segment = index / SEGMENT_RECORDS;
+        if (segment >= fSegments.size()) {
+            return fTail;
+        }
+        ByteBuffer buffer = fSegments.get(segment);
+        return (buffer != null) ? buffer : getSpillMap(fSpillEnds[segment]);
+    }
+
+    /* Position of the segment of a record in the buffer returned by getSegment */
+    private int getBase(int index) {
+        int segment = index / SEGMENT_RECORDS;
+        if (segment >= fSegments.size() || fSegments.get(segment) != null) {
+            return 0;
+        }
+        return fSpillOffsets[segment];
+    }
+
+    /**
+     * Get the number of incoherences
+     *
+     * @return The number of incoherences
+     */
+    public int size() {
+        return fSize;
+    }
+
+    /**
+     * Get the number of incoherences written to the spill file
+     *
+     * @return The number of incoherences not kept in memory
+     */
+    public long getSpilledCount() {
+        long count = 0;
+        for (ByteBuffer segment : fSegments) {
+            if (segment == null) {
+                count += SEGMENT_RECORDS;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the incoherent event of an incoherence
+     *
+     * @param index
+     *            The index of the incoherence
+     * @return The stamp of the event
+     */
+    public EventStamp getEvent(int index) {
+        ByteBuffer segment = getSegment(index);
+        int base = getBase(index);
+        int record = index % SEGMENT_RECORDS;
+        return new EventStamp(segment.getLong(base + TIME + 8 * record), segment.getLong(base + RANK + 8 * record),
+                segment.getInt(base + TYPE + 4 * record), segment.getInt(base + CPU + 4 * record));
+    }
+
+    /**
+     * Get the last event before the incoherent event of an incoherence
+     *
+     * @param index
+     *            The index of the incoherence
+     * @return The stamp of the event, or null if there is none
+     */
+    public @Nullable EventStamp getPrevEvent(int index) {
+        ByteBuffer segment = getSegment(index);
+        int base = getBase(index);
+        int record = index % SEGMENT_RECORDS;
+        long time = segment.getLong(base + PREV_TIME + 8 * record);
+        if (time == NO_TIME) {
+            return null;
+        }
+        return new EventStamp(time, segment.getLong(base + PREV_RANK + 8 * record), segment.getInt(base + PREV_TYPE + 4 * record),
+                segment.getInt(base + PREV_CPU + 4 * record));
+    }
+
+    /**
+     * Get the timestamp of the incoherent event of an incoherence
+     *
+     * @param index
+     *            The index of the incoherence
+     * @return The timestamp, in nanoseconds
+     */
+    public long getTime(int index) {
+        return getSegment(index).getLong(getBase(index) + TIME + 8 * (index % SEGMENT_RECORDS));
+    }
+
+    /**
+     * Get the timestamp of the last event before the incoherent event of an
+     * incoherence
+     *
+     * @param index
+     *            The index of the incoherence
+     * @return The timestamp, in nanoseconds, or {@link #NO_TIME}
+     */
+    public long getPrevTime(int index) {
+        return getSegment(index).getLong(getBase(index) + PREV_TIME + 8 * (index % SEGMENT_RECORDS));
+    }
+
+    /**
+     * Get the attribute of the scenario of an incoherence
+     *
+     * @param index
+     *            The index of the incoherence
+     * @return The scenario key
+     */
+    public long getScenarioKey(int index) {
+        return getSegment(index).getLong(getBase(index) + KEY + 8 * (index % SEGMENT_RECORDS));
+    }
+
+    /**
+     * Get the last coherent state of the scenario of an incoherence
+     *
+     * @param index
+     *            The index of the incoherence
+     * @return The index of the state in the fsm
+     */
+    public int getStateIndex(int index) {
+        return getSegment(index).getInt(getBase(index) + STATE + 4 * (index % SEGMENT_RECORDS));
+    }
+
+    /**
+     * Get the transitions that could have been taken by the incoherent event
+     * of an incoherence
+     *
+     * @param index
+     *            The index of the incoherence
+     * @return The IDs of the flyweight transitions
+     */
+    public int[] getTransitionIds(int index) {
+        ByteBuffer segment = getSegment(index);
+        int base = getBase(index);
+        int record = index % SEGMENT_RECORDS;
+        int offset = segment.getInt(base + TRANSITIONS_OFFSET + 4 * record);
+        int[] ids = new int[segment.getInt(base + TRANSITIONS_COUNT + 4 * record)];
+        if (segment == fTail) {
+            System.arraycopy(fTailTransitions, offset, ids, 0, ids.length);
+            return ids;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = segment.getInt(base + TRANSITIONS + 4 * (offset + i));
+        }
+        return ids;
+    }
+
+    /**
+     * Read an event again from the trace
+     *
+     * @param stamp
+     *            The stamp of the event
+     * @return The event, or null if it cannot be found
+     */
+    public @Nullable ITmfEvent readEvent(@Nullable EventStamp stamp) {
+        ITmfTrace trace = fTrace;
+        TmfXmlEventTypes eventTypes = fEventTypes;
+        if (stamp == null || trace == null || eventTypes == null) {
+            return null;
+        }
+        if (stamp.getRank() != ITmfContext.UNKNOWN_RANK) {
+            ITmfContext context = trace.seekEvent(stamp.getRank());
+            try {
+                ITmfEvent event = trace.getNext(context);
+                if (matches(event, stamp, eventTypes) && event != null && event.getRank() == stamp.getRank()) {
+                    return event;
+                }
+            } finally {
+                context.dispose();
+            }
+        }
+        /*
+         * The rank is not known or not valid, look for the event among those
+         * at its timestamp, preferring the one at its rank if there is one
+         */
+        ITmfContext context = trace.seekEvent(TmfTimestamp.fromNanos(stamp.getTime()));
+        try {
+            ITmfEvent found = null;
+            ITmfEvent event = trace.getNext(context);
+            while (event != null && event.getTimestamp().toNanos() <= stamp.getTime()) {
+                if (matches(event, stamp, eventTypes)) {
+                    if (event.getRank() == stamp.getRank()) {
+                        return event;
+                    }
+                    if (found == null) {
+                        found = event;
+                    }
+                }
+                event = trace.getNext(context);
+            }
+            return found;
+        } finally {
+            context.dispose();
+        }
+    }
+
+    private static boolean matches(@Nullable ITmfEvent event, EventStamp stamp, TmfXmlEventTypes eventTypes) {
+        if (event == null || event.getTimestamp().toNanos() != stamp.getTime() || eventTypes.getId(event) != stamp.getTypeId()) {
+            return false;
+        }
+        /* Events of the same type at the same time are told apart by their CPU */
+        return stamp.getCpu() == TmfXmlEventAspects.NO_VALUE || TmfXmlEventAspects.getCpu(event) == stamp.getCpu();
+    }
+
+    /**
+     * Drop every incoherence and delete the spill file
+     */
+    public void dispose() {
+        fSegments.clear();
+        fSize = 0;
+        fTailTransitionCount = 0;
+        FileChannel file = fSpillFile;
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                Activator.logError("Failed to close the spill file of the incoherences", e); //$NON-NLS-1$
+            }
+            fSpillFile = null;
+            fSpillFileSize = 0;
+        }
+        fSpillMap = null;
+        fMappedSize = 0;
+        fSpillScratch = null;
+    }
+}
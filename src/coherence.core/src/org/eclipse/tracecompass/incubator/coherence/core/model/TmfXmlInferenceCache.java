@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlFsmTransition;
+
+/**
+ * Bounded memoization of the transitions inferred between two states of an
+ * fsm.
+ *
+ * The inferred transitions only depend on the starting and targeted states and
+ * on the statistics used to weight the transitions, so the incoherences that
+ * share them share the same path. An entry is keyed on the states and on the
+ * counters of the scenario with their version, or on the states only when the
+ * global statistics are used alone, so the counters are not copied to look up
+ * a path. An entry remembers the version of the global counters it was
+ * computed with. The least recently used entries are evicted once the cache is
+ * full.
+ *
+ * This class is thread-safe.
+ *
+ * @author mmartin
+ */
+public class TmfXmlInferenceCache {
+
+    private final Map<Key, Entry> fEntries;
+    private long fHits = 0;
+    private long fMisses = 0;
+
+    /**
+     * The states of a path and the version of the local statistics used
+     */
+    private static final class Key {
+        private final int fStart;
+        private final int fTarget;
+        /* The counters of the scenario, compared by identity, null if only the global statistics are used */
+        private final @Nullable TmfXmlTransitionCounters fCounters;
+        private final long fVersion;
+        private final int fHash;
+
+        Key(int start, int target, @Nullable TmfXmlTransitionCounters counters) {
+            fStart = start;
+            fTarget = target;
+            fCounters = counters;
+            fVersion = (counters == null) ? 0 : counters.getVersion();
+            fHash = ((31 * fStart + fTarget) * 31 + System.identityHashCode(fCounters)) * 31 + Long.hashCode(fVersion);
+        }
+
+        @Override
+        public int hashCode() {
+            return fHash;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return fStart == other.fStart && fTarget == other.fTarget && fCounters == other.fCounters
+                    && fVersion == other.fVersion;
+        }
+    }
+
+    private static final class Entry {
+        private final long fGlobalVersion;
+        private final List<TmfXmlFsmTransition> fTransitions;
+
+        Entry(long globalVersion, List<TmfXmlFsmTransition> transitions) {
+            fGlobalVersion = globalVersion;
+            fTransitions = transitions;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxEntries
+     *            The maximum number of paths kept
+     */
+    public TmfXmlInferenceCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The size of the cache must be positive: " + maxEntries); //$NON-NLS-1$
+        }
+        fEntries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.@Nullable Entry<Key, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get the transitions inferred between two states, computing them if they
+     * are not known for the current statistics
+     *
+     * @param start
+     *            The index of the starting state
+     * @param target
+     *            The index of the targeted state
+     * @param localCounters
+     *            The statistics of the scenario, or null if only the global
+     *            statistics are used
+     * @param globalCounters
+     *            The statistics of the fsm
+     * @param compute
+     *            Computes the transitions on a miss
+     * @return The inferred transitions, as an unmodifiable list
+     */
+    public List<TmfXmlFsmTransition> get(int start, int target, @Nullable TmfXmlTransitionCounters localCounters,
+            TmfXmlTransitionCounters globalCounters, Supplier<List<TmfXmlFsmTransition>> compute) {
+        Key key = new Key(start, target, localCounters);
+        long globalVersion = globalCounters.getVersion();
+        synchronized (this) {
+            Entry entry = fEntries.get(key);
+            if (entry != null && entry.fGlobalVersion == globalVersion) {
+                fHits++;
+                return entry.fTransitions;
+            }
+            fMisses++;
+        }
+        /* Compute outside of the lock, the paths of other incoherences can be looked up meanwhile */
+        List<TmfXmlFsmTransition> transitions = Collections.unmodifiableList(compute.get());
+        synchronized (this) {
+            fEntries.put(key, new Entry(globalVersion, transitions));
+        }
+        return transitions;
+    }
+
+    /**
+     * Drop every path
+     */
+    public synchronized void clear() {
+        fEntries.clear();
+    }
+
+    /**
+     * Get the number of paths that were reused
+     *
+     * @return The number of hits
+     */
+    public synchronized long getHits() {
+        return fHits;
+    }
+
+    /**
+     * Get the number of paths that had to be computed
+     *
+     * @return The number of misses
+     */
+    public synchronized long getMisses() {
+        return fMisses;
+    }
+}
@@ -21,6 +21,7 @@ import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tracecompass.analysis.os.linux.core.trace.IKernelAnalysisEventLayout;
 import org.eclipse.tracecompass.analysis.os.linux.core.trace.IKernelTrace;
 import org.eclipse.tracecompass.common.core.NonNullUtils;
+import org.eclipse.tracecompass.incubator.coherence.core.Activator;
 import org.eclipse.tracecompass.incubator.coherence.core.module.IXmlStateSystemContainer;
 import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlCpuScenarioModel;
 import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlEvalScenarioModel;
@@ -31,6 +32,7 @@ import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlSoftIrqS
 import org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider.XmlPatternStateProvider;
 import org.eclipse.tracecompass.tmf.analysis.xml.core.module.TmfXmlStrings;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.event.ITmfLostEvent;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
@@ -60,8 +62,14 @@ public class TmfXmlPatternEventHandler {
     protected final Map<String, TmfXmlFsm> fFsmMap = new LinkedHashMap<>();
     protected final List<TmfXmlFsm> fActiveFsmList = new ArrayList<>();
     protected final Map<String, TmfXmlScenarioModel> fFsmIds;
+    protected final TmfXmlValidatorCache fValidatorCache;
     
-    protected boolean fStartChecking;				/* indicated if we should start checking the coherence */ 
+    protected final Map<TmfXmlFsm, TmfXmlFsmWorker> fWorkers = new HashMap<>();
+    
+    protected volatile boolean fStartChecking;		/* indicated if we should start checking the coherence */ 
+    protected boolean fForceChecking = false;		/* indicates if every scenario is checked, not only the ones affected by lost events */
+    protected boolean fParallel = false;			/* indicates if each fsm is handled by its own thread */
+    protected int fScenarioShards = 1;				/* number of threads handling the scenarios of each fsm */
 
     public boolean startChecking() {
 		return fStartChecking;
@@ -71,6 +79,47 @@ public class TmfXmlPatternEventHandler {
 		this.fStartChecking = value;
 	}
 
+	/**
+	 * Set whether the coherence is checked for every scenario, or only for
+	 * the scenarios affected by lost events
+	 *
+	 * @param value
+	 *            True to check every scenario
+	 */
+	public void setForceChecking(boolean value) {
+		this.fForceChecking = value;
+	}
+
+	/**
+	 * Set whether each fsm handles the events in its own thread. The fsms must
+	 * not share attributes of the state system. This must be set before the
+	 * first event is handled.
+	 *
+	 * @param value
+	 *            True to handle the fsms in parallel
+	 */
+	public void setParallel(boolean value) {
+		this.fParallel = value;
+		fValidatorCache.setThreadConfined(value || fScenarioShards > 1);
+	}
+
+	/**
+	 * Split the scenarios of each fsm with multiple instances in several
+	 * shards, each handled by its own thread, see
+	 * {@link TmfXmlFsm#setShardCount(int)}. This must be set before the first
+	 * event is handled.
+	 *
+	 * @param shardCount
+	 *            The number of shards of each fsm, 1 to not split them
+	 */
+	public void setScenarioShards(int shardCount) {
+		for (TmfXmlFsm fsm : fFsmMap.values()) {
+			fsm.setShardCount(shardCount);
+		}
+		this.fScenarioShards = shardCount;
+		fValidatorCache.setThreadConfined(fParallel || shardCount > 1);
+	}
+
 	/**
      * Constructor
      *
@@ -98,6 +147,7 @@ public class TmfXmlPatternEventHandler {
             testMap.put(test.getId(), test);
         }
         fTestMap = Collections.unmodifiableMap(testMap);
+        fValidatorCache = new TmfXmlValidatorCache(fTestMap.values());
 
         @NonNull Builder<String, ITmfXmlAction> builder = ImmutableMap.builder();
         NodeList nodesAction = node.getElementsByTagName(TmfXmlStrings.ACTION);
@@ -161,6 +211,7 @@ public class TmfXmlPatternEventHandler {
                 fActiveFsmList.add(fsm);
             }
             fsm.createScenario(event, this, force, isObserver);
+            fsm.startShards(this, isObserver);
         }
     }
 
@@ -173,6 +224,25 @@ public class TmfXmlPatternEventHandler {
         return fTestMap;
     }
 
+    /**
+     * Get the cache of the results of the transition tests for the current
+     * event
+     *
+     * @return The cache
+     */
+    public TmfXmlValidatorCache getValidatorCache() {
+        return fValidatorCache;
+    }
+
+    /**
+     * Get the history builder of the scenarios of the pattern
+     *
+     * @return The history builder
+     */
+    public TmfXmlScenarioHistoryBuilder getHistoryBuilder() {
+        return fParent.getHistoryBuilder();
+    }
+
     /**
      * Get all the defined actions
      *
@@ -190,9 +260,17 @@ public class TmfXmlPatternEventHandler {
      *            The trace event to handle
      */
     public void handleEvent(ITmfEvent event, boolean isObserver) {
+        /* The type of the event is looked up once, for every fsm and scenario */
+        int typeId = fParent.getEventTypes().getId(event);
         /*
-         * Order is important so cannot be parallelized
+         * Order is important within an fsm, so in parallel mode each fsm
+         * receives the events in trace order through its own queue
          */
+        if (fParallel && !fActiveFsmList.isEmpty()) {
+            handleEventParallel(event, typeId, isObserver);
+            return;
+        }
+        fValidatorCache.newEvent();
         final @NonNull List<@NonNull TmfXmlFsm> activeFsmList = fActiveFsmList;
         final @NonNull Map<@NonNull String, @NonNull TmfXmlFsm> fsmMap = fFsmMap;
         if (activeFsmList.isEmpty()) {
@@ -218,14 +296,117 @@ public class TmfXmlPatternEventHandler {
             }
         }
         for (TmfXmlFsm fsm : activeFsmList) {
-            fsm.handleEvent(event, fTestMap, fStartChecking);
+            fsm.handleEvent(event, typeId, fTestMap, fStartChecking, fForceChecking);
+        }
+        startCheckingAfter(event, isObserver);
+    }
+
+    /**
+     * The observers start the coherence checking at the first lost event. It
+     * is also started here, by the thread reading the trace, so the events
+     * given to the threads of the fsms and of their shards after a lost event
+     * are all checked, whenever the threads get to the lost event.
+     */
+    private void startCheckingAfter(ITmfEvent event, boolean isObserver) {
+        if (isObserver && !fStartChecking && event instanceof ITmfLostEvent) {
+            fStartChecking = true;
+        }
+    }
+
+    private void handleEventParallel(ITmfEvent event, int typeId, boolean isObserver) {
+        /* The fsms without scenario yet are started here, the others by their thread */
+        List<String> fsmToStart = new ArrayList<>();
+        for (Map.Entry<String, TmfXmlFsm> entry : fFsmMap.entrySet()) {
+            TmfXmlFsm fsm = entry.getValue();
+            if (!fActiveFsmList.contains(fsm) && fsm.isNewScenarioAllowed()) {
+                fsmToStart.add(entry.getKey());
+            }
         }
+        if (!fsmToStart.isEmpty()) {
+            startScenario(fsmToStart, null, false, isObserver);
+        }
+        for (TmfXmlFsm fsm : fActiveFsmList) {
+            TmfXmlFsmWorker worker = fWorkers.get(fsm);
+            if (worker == null) {
+                worker = new TmfXmlFsmWorker(this, fsm, isObserver);
+                worker.start();
+                fWorkers.put(fsm, worker);
+            }
+            /* The state of the checking is taken when the event is read, not when the thread handles it */
+            worker.submit(event, typeId, fStartChecking, fForceChecking);
+        }
+        startCheckingAfter(event, isObserver);
+    }
+
+    /**
+     * Handle an event in one fsm. This is called by the thread of the fsm in
+     * parallel mode.
+     *
+     * @param fsm
+     *            The fsm
+     * @param event
+     *            The trace event to handle
+     * @param typeId
+     *            The ID of the type of the event
+     * @param isObserver
+     *            True if the scenarios are observers
+     * @param startChecking
+     *            True if the coherence checking was started when the event was
+     *            read
+     * @param forceChecking
+     *            True if every scenario is checked
+     */
+    void handleFsmEvent(TmfXmlFsm fsm, ITmfEvent event, int typeId, boolean isObserver, boolean startChecking, boolean forceChecking) {
+        fValidatorCache.newEvent();
+        if (fsm.isNewScenarioAllowed()) {
+            fsm.createScenario(null, this, false, isObserver);
+        }
+        fsm.handleEvent(event, typeId, fTestMap, startChecking, forceChecking);
+    }
+
+    /**
+     * Get whether the fsms or their scenarios are handled by several threads.
+     * The state system is then shared by these threads.
+     *
+     * @return True if the events are handled in parallel
+     */
+    public boolean isMultiThreaded() {
+        return fParallel || fScenarioShards > 1;
+    }
+
+    /**
+     * Wait until the threads of the fsms and of their shards have handled all
+     * the events given so far, and stop them. Does nothing if the fsms are not
+     * handled in parallel.
+     */
+    public void waitForWorkers() {
+        for (TmfXmlFsmWorker worker : fWorkers.values()) {
+            worker.finish();
+        }
+        fWorkers.clear();
+        for (TmfXmlFsm fsm : fActiveFsmList) {
+            fsm.stopShards();
+        }
+    }
+
+    /**
+     * Log the statistics of the caches used while handling the trace. This is
+     * called once the trace is handled and the threads are stopped.
+     */
+    public void logCacheStatistics() {
+        long hits = fValidatorCache.getHits();
+        long misses = fValidatorCache.getMisses();
+        Activator.logInfo("Pattern " + fParent.getStateId() + ": transition validator cache " + hits + " hits, " + misses + " misses"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        TmfXmlQuarkCache quarkCache = fParent.getHistoryBuilder().getQuarkCache();
+        Activator.logInfo("Pattern " + fParent.getStateId() + ": scenario quark cache hit rate " + quarkCache.getHitRate() //$NON-NLS-1$ //$NON-NLS-2$
+                + " (" + quarkCache.getHits() + " hits, " + quarkCache.getMisses() + " misses)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     }
 
     /**
      * Abandon all the ongoing scenarios
      */
     public void dispose() {
+        waitForWorkers();
         for (TmfXmlFsm fsm : fActiveFsmList) {
             fsm.dispose();
         }
@@ -246,9 +427,19 @@ public class TmfXmlPatternEventHandler {
         return fFsmMap;
     }
     
+    /**
+     * Infer the missing transitions of the incoherences of every fsm. The fsms
+     * are independent and are handled in parallel on the common fork/join
+     * pool. The statistics of the inference cache of each fsm are logged
+     * once they are all done.
+     */
     public void computeInferences() {
+    	waitForWorkers();
+    	fActiveFsmList.parallelStream().forEach(TmfXmlFsm::setTransitions);
     	for (TmfXmlFsm fsm : fActiveFsmList) {
-    		fsm.setTransitions();
+    		TmfXmlInferenceCache cache = fsm.getInferenceCache();
+    		Activator.logInfo("Pattern " + fParent.getStateId() + ", fsm " + fsm.getId() + ": inference cache " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    				+ cache.getHits() + " hits, " + cache.getMisses() + " misses"); //$NON-NLS-1$ //$NON-NLS-2$
     	}
     }
 }
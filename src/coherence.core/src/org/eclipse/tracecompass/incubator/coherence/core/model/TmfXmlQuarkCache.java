@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
+
+/**
+ * Cache of the child quarks of state system attributes, keyed by the parent
+ * quark and the name of the child. Numeric names are kept as longs, so
+ * resolving the attribute of a thread or a CPU does not need to build the
+ * string of its number nor to walk the attribute tree of the state system.
+ *
+ * The two tables use open addressing with linear probing. The cache only
+ * remembers quarks that were successfully resolved: since attributes are never
+ * removed from a state system, a cached quark is valid until the cache is used
+ * with another state system.
+ *
+ * The cache is only locked while the analysis is handled by several threads,
+ * as told by the supplier given to the constructor. The serial analysis uses
+ * it without synchronization.
+ *
+ * @author mmartin
+ */
+public class TmfXmlQuarkCache {
+
+    /** Value returned when a child is not in the cache */
+    public static final int NOT_FOUND = -2;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int EMPTY = -1;
+
+    private final BooleanSupplier fMultiThreaded;
+    private @Nullable ITmfStateSystem fSs = null;
+
+    private int[] fLongParents;
+    private long[] fLongKeys;
+    private int[] fLongQuarks;
+    private int fLongSize;
+
+    private int[] fStringParents;
+    private @Nullable String[] fStringKeys;
+    private int[] fStringQuarks;
+    private int fStringSize;
+
+    private long fHits = 0;
+    private long fMisses = 0;
+
+    /**
+     * Constructor
+     *
+     * @param multiThreaded
+     *            Tells whether the cache is used by several threads at once,
+     *            it is then locked at each use. It is asked at each use, since
+     *            the threads of an analysis are set after its model is built.
+     */
+    public TmfXmlQuarkCache(BooleanSupplier multiThreaded) {
+        fMultiThreaded = multiThreaded;
+        fLongParents = new int[INITIAL_CAPACITY];
+        fLongKeys = new long[INITIAL_CAPACITY];
+        fLongQuarks = newQuarks(INITIAL_CAPACITY);
+        fStringParents = new int[INITIAL_CAPACITY];
+        fStringKeys = new @Nullable String[INITIAL_CAPACITY];
+        fStringQuarks = newQuarks(INITIAL_CAPACITY);
+    }
+
+    private static int[] newQuarks(int capacity) {
+        int[] quarks = new int[capacity];
+        Arrays.fill(quarks, EMPTY);
+        return quarks;
+    }
+
+    private static int hash(int parent, long key) {
+        long h = key * 0x9E3779B97F4A7C15L + parent;
+        h ^= (h >>> 32);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 29);
+        return (int) h;
+    }
+
+    /**
+     * Get the quark of a child with a numeric name
+     *
+     * @param ss
+     *            The state system of the attributes
+     * @param parent
+     *            The quark of the parent attribute
+     * @param key
+     *            The name of the child, as a number
+     * @return The quark of the child, or {@link #NOT_FOUND}
+     */
+    public int get(ITmfStateSystem ss, int parent, long key) {
+        if (fMultiThreaded.getAsBoolean()) {
+            synchronized (this) {
+                return getLong(ss, parent, key);
+            }
+        }
+        return getLong(ss, parent, key);
+    }
+
+    private int getLong(ITmfStateSystem ss, int parent, long key) {
+        checkStateSystem(ss);
+        int mask = fLongQuarks.length - 1;
+        for (int i = hash(parent, key) & mask; fLongQuarks[i] != EMPTY; i = (i + 1) & mask) {
+            if (fLongKeys[i] == key && fLongParents[i] == parent) {
+                fHits++;
+                return fLongQuarks[i];
+            }
+        }
+        fMisses++;
+        return NOT_FOUND;
+    }
+
+    /**
+     * Get the quark of a child with a string name
+     *
+     * @param ss
+     *            The state system of the attributes
+     * @param parent
+     *            The quark of the parent attribute
+     * @param key
+     *            The name of the child
+     * @return The quark of the child, or {@link #NOT_FOUND}
+     */
+    public int get(ITmfStateSystem ss, int parent, String key) {
+        if (fMultiThreaded.getAsBoolean()) {
+            synchronized (this) {
+                return getString(ss, parent, key);
+            }
+        }
+        return getString(ss, parent, key);
+    }
+
+    private int getString(ITmfStateSystem ss, int parent, String key) {
+        checkStateSystem(ss);
+        int mask = fStringQuarks.length - 1;
+        for (int i = hash(parent, key.hashCode()) & mask; fStringQuarks[i] != EMPTY; i = (i + 1) & mask) {
+            if (fStringParents[i] == parent && key.equals(fStringKeys[i])) {
+                fHits++;
+                return fStringQuarks[i];
+            }
+        }
+        fMisses++;
+        return NOT_FOUND;
+    }
+
+    /**
+     * Remember the quark of a child with a numeric name
+     *
+     * @param parent
+     *            The quark of the parent attribute
+     * @param key
+     *            The name of the child, as a number
+     * @param quark
+     *            The quark of the child. Invalid quarks are not cached.
+     */
+    public void put(int parent, long key, int quark) {
+        if (quark < 0) {
+            return;
+        }
+        if (fMultiThreaded.getAsBoolean()) {
+            synchronized (this) {
+                putLong(parent, key, quark);
+            }
+        } else {
+            putLong(parent, key, quark);
+        }
+    }
+
+    private void putLong(int parent, long key, int quark) {
+        if ((fLongSize + 1) * 2 > fLongQuarks.length) {
+            growLongTable();
+        }
+        if (insertLong(fLongParents, fLongKeys, fLongQuarks, parent, key, quark)) {
+            fLongSize++;
+        }
+    }
+
+    /**
+     * Remember the quark of a child with a string name
+     *
+     * @param parent
+     *            The quark of the parent attribute
+     * @param key
+     *            The name of the child
+     * @param quark
+     *            The quark of the child. Invalid quarks are not cached.
+     */
+    public void put(int parent, String key, int quark) {
+        if (quark < 0) {
+            return;
+        }
+        if (fMultiThreaded.getAsBoolean()) {
+            synchronized (this) {
+                putString(parent, key, quark);
+            }
+        } else {
+            putString(parent, key, quark);
+        }
+    }
+
+    private void putString(int parent, String key, int quark) {
+        if ((fStringSize + 1) * 2 > fStringQuarks.length) {
+            growStringTable();
+        }
+        if (insertString(fStringParents, fStringKeys, fStringQuarks, parent, key, quark)) {
+            fStringSize++;
+        }
+    }
+
+    private static boolean insertLong(int[] parents, long[] keys, int[] quarks, int parent, long key, int quark) {
+        int mask = quarks.length - 1;
+        int i = hash(parent, key) & mask;
+        while (quarks[i] != EMPTY) {
+            if (keys[i] == key && parents[i] == parent) {
+                quarks[i] = quark;
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        parents[i] = parent;
+        keys[i] = key;
+        quarks[i] = quark;
+        return true;
+    }
+
+    private static boolean insertString(int[] parents, @Nullable String[] keys, int[] quarks, int parent, String key, int quark) {
+        int mask = quarks.length - 1;
+        int i = hash(parent, key.hashCode()) & mask;
+        while (quarks[i] != EMPTY) {
+            if (parents[i] == parent && key.equals(keys[i])) {
+                quarks[i] = quark;
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        parents[i] = parent;
+        keys[i] = key;
+        quarks[i] = quark;
+        return true;
+    }
+
+    private void growLongTable() {
+        int capacity = fLongQuarks.length * 2;
+        int[] parents = new int[capacity];
+        long[] keys = new long[capacity];
+        int[] quarks = newQuarks(capacity);
+        for (int i = 0; i < fLongQuarks.length; i++) {
+            if (fLongQuarks[i] != EMPTY) {
+                insertLong(parents, keys, quarks, fLongParents[i], fLongKeys[i], fLongQuarks[i]);
+            }
+        }
+        fLongParents = parents;
+        fLongKeys = keys;
+        fLongQuarks = quarks;
+    }
+
+    private void growStringTable() {
+        int capacity = fStringQuarks.length * 2;
+        int[] parents = new int[capacity];
+        @Nullable String[] keys = new @Nullable String[capacity];
+        int[] quarks = newQuarks(capacity);
+        for (int i = 0; i < fStringQuarks.length; i++) {
+            String key = fStringKeys[i];
+            if (fStringQuarks[i] != EMPTY && key != null) {
+                insertString(parents, keys, quarks, fStringParents[i], key, fStringQuarks[i]);
+            }
+        }
+        fStringParents = parents;
+        fStringKeys = keys;
+        fStringQuarks = quarks;
+    }
+
+    /*
+     * The quarks of another state system are meaningless, drop them if the
+     * attribute is now used with a new one
+     */
+    private void checkStateSystem(ITmfStateSystem ss) {
+        if (fSs == ss) {
+            return;
+        }
+        fSs = ss;
+        Arrays.fill(fLongQuarks, EMPTY);
+        Arrays.fill(fStringQuarks, EMPTY);
+        Arrays.fill(fStringKeys, null);
+        fLongSize = 0;
+        fStringSize = 0;
+    }
+
+    /**
+     * Get the number of lookups that found the quark in the cache
+     *
+     * @return The number of hits
+     */
+    public synchronized long getHits() {
+        return fHits;
+    }
+
+    /**
+     * Get the number of lookups that had to go to the state system
+     *
+     * @return The number of misses
+     */
+    public synchronized long getMisses() {
+        return fMisses;
+    }
+
+    /**
+     * Get the ratio of lookups that found the quark in the cache
+     *
+     * @return The hit rate, between 0 and 1, or 0 if there was no lookup
+     */
+    public synchronized double getHitRate() {
+        long total = fHits + fMisses;
+        return total == 0 ? 0.0 : (double) fHits / total;
+    }
+}
@@ -10,11 +10,11 @@ package org.eclipse.tracecompass.incubator.coherence.core.model;
 
 import java.util.List;
 
-import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tracecompass.incubator.coherence.core.Activator;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlScenarioHistoryBuilder.ScenarioStatusType;
 import org.eclipse.tracecompass.incubator.coherence.core.module.IXmlStateSystemContainer;
+import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlScenarioModel;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
 import org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider.XmlPatternStateProvider;
 import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
@@ -32,7 +32,12 @@ public class TmfXmlScenario {
     protected TmfXmlScenarioInfo fScenarioInfo;
     protected TmfXmlScenarioHistoryBuilder fHistoryBuilder;
     
-    protected String fAttribute = null;
+    protected long fAttribute = TmfXmlScenarioModel.NO_KEY;
+    protected boolean fAttributeSet = false;
+    private int fUncertaintyEpoch;
+    private int fLastCpu = TmfXmlEventAspects.NO_VALUE;
+    protected boolean fAffectedByLostEvents = false;
+    private boolean fUncertain = false;
     
     public static String ATTRIBUTE_PATH = "attribute";
 
@@ -60,13 +65,14 @@ public class TmfXmlScenario {
         fContainer = container;
         fHistoryBuilder = ((XmlPatternStateProvider) container).getHistoryBuilder();
         fPatternHandler = patternHandler;
+        fUncertaintyEpoch = fsm.getUncertaintyEpoch();
         int quark = fHistoryBuilder.assignScenarioQuark(fContainer, fsmId);
         int statusQuark = fHistoryBuilder.getScenarioStatusQuark(fContainer, quark);
         fScenarioInfo = new TmfXmlScenarioInfo(fFsm.getInitialStateId(), ScenarioStatusType.PENDING, quark, statusQuark, fFsm);
         fHistoryBuilder.update(fContainer, fScenarioInfo, event);
         
         if (event != null) {
-        	fAttribute = setAttribute(); // attribute should be set after the fHistoryBuilder.update if there is an event
+        	setAttribute(); // attribute should be set after the fHistoryBuilder.update if there is an event
         }
     }
 
@@ -112,16 +118,21 @@ public class TmfXmlScenario {
      *
      * @param event
      *            The ongoing event
+     * @param typeId
+     *            The ID of the type of the event
      * @param isEventCoherent
      *            Value used only in TmfXmlScenarioObserver
      */
-    public void handleEvent(ITmfEvent event, boolean isEventCoherent, int transitionTotal) {
+    public void handleEvent(ITmfEvent event, int typeId, boolean isEventCoherent, int transitionTotal) {
 
-        TmfXmlStateTransition out = fFsm.next(event, fPatternHandler.getTestMap(), fScenarioInfo);
+        invalidateTestResults();
+        TmfXmlStateTransition out = fFsm.next(event, typeId, fPatternHandler.getTestMap(), fScenarioInfo);
         if (out == null) {
             return;
         }
 
+        invalidateTestResults();
+
         fFsm.increaseTransitionCount();
         
         fFsm.setEventConsumed(true);
@@ -138,42 +149,51 @@ public class TmfXmlScenario {
         }
         
         // Update the certainty status to certain if the transition is appropriate
-        if (fFsm.isCertain(event, out)) {
-        	fHistoryBuilder.updateCertaintyStatus(true, fContainer, fScenarioInfo, event.getTimestamp().getValue());
+        if (fFsm.isCertain(typeId, out)) {
+        	updateCertainty(true, event.getTimestamp().getValue());
         }
 
         // Change the activeState
-        final @NonNull String nextState = out.getTarget();
+        final int nextState = fFsm.getStateIndex(out.getTarget());
         if (fScenarioInfo.getStatus().equals(ScenarioStatusType.PENDING)) {
             fScenarioInfo.setStatus(ScenarioStatusType.IN_PROGRESS);
             fHistoryBuilder.startScenario(fContainer, fScenarioInfo, event);
-        } else if (nextState.equals(fFsm.getAbandonStateId())) {
+        } else if (nextState == fFsm.getAbandonStateIndex()) {
             fScenarioInfo.setStatus(ScenarioStatusType.ABANDONED);
             fHistoryBuilder.completeScenario(fContainer, fScenarioInfo, event);
-        } else if (nextState.equals(fFsm.getFinalStateId())) {
+        } else if (nextState == fFsm.getFinalStateIndex()) {
             fScenarioInfo.setStatus(ScenarioStatusType.MATCHED);
             fHistoryBuilder.completeScenario(fContainer, fScenarioInfo, event);
         }
         fScenarioInfo.setActiveState(nextState);
         fHistoryBuilder.update(fContainer, fScenarioInfo, event);
         
-        if (fAttribute == null) { // it means this is the first event being handled
-        	fAttribute = setAttribute(); // attribute should be set after the fHistoryBuilder.update
+        if (!fAttributeSet) { // it means this is the first event being handled
+        	setAttribute(); // attribute should be set after the fHistoryBuilder.update
         }
     }
     
     /**
-     * Get the attribute uniquely identifying this scenario.
+     * Drop the cached results of the transition tests that depend on a
+     * scenario. This must be done before the scenario or the state system is
+     * modified, and before a new scenario is tested.
+     */
+    protected void invalidateTestResults() {
+        fPatternHandler.getValidatorCache().invalidateScenarioResults();
+    }
+
+    /**
+     * Set the attribute uniquely identifying this scenario.
      * 
      * It should be set by the user in every action that is 
      * executed first, at the location '#CurrentScenario/attribute'.
-     * It should be an integer. 
-     *  
-     * @return
-     * 			The unique attribute
+     * It is converted to a key by the scenario model of the fsm, as the
+     * attributes of the events are. If it cannot be found, the attribute is
+     * {@link TmfXmlScenarioModel#NO_KEY}.
      */
-    protected String setAttribute() {
-    	String value = "";
+    protected void setAttribute() {
+    	fAttributeSet = true;
+    	fAttribute = TmfXmlScenarioModel.NO_KEY;
     	ITmfStateSystemBuilder ss = (ITmfStateSystemBuilder) fContainer.getStateSystem();
     	int startingNodeQuark = fScenarioInfo.getQuark();
     	String subPath = ATTRIBUTE_PATH; // we use tid to identify each scenario from "process_fsm" FSM, and cpu id for "cpu_fsm" FSM => found in "attribute" field
@@ -182,19 +202,105 @@ public class TmfXmlScenario {
 			attributeQuark = ss.getQuarkRelative(startingNodeQuark, subPath);
 		} catch (AttributeNotFoundException e) {
 			Activator.logWarning("Attribute not found.", e);
-			return value;
+			return;
 		}
     	ITmfStateValue sValue = ss.queryOngoingState(attributeQuark);
-    	value = String.valueOf(sValue.unboxInt());
-    	return value;
+    	fAttribute = fFsm.getScenarioModel().toKey(sValue);
     }
     
-    public String getAttribute() {
+    /**
+     * Get the attribute uniquely identifying this scenario, as a string
+     *
+     * @return The attribute, empty if it could not be found, or null if it is
+     *         not set yet
+     */
+    public @Nullable String getAttribute() {
+    	if (!fAttributeSet) {
+    		return null;
+    	}
+    	return fFsm.getScenarioModel().toAttribute(fAttribute);
+    }
+    
+    /**
+     * Get the attribute uniquely identifying this scenario
+     *
+     * @return The attribute, or {@link TmfXmlScenarioModel#NO_KEY} if it is
+     *         not set or could not be found
+     */
+    public long getAttributeKey() {
     	return fAttribute;
     }
 
 	public void updateCertainty(boolean value, long time) {
+		fUncertain = !value;
 		fHistoryBuilder.updateCertaintyStatus(value, fContainer, fScenarioInfo, time);
 	}
 
+    /**
+     * Test if the state of this scenario is currently uncertain
+     *
+     * @return True if the last certainty status written for this scenario is
+     *         uncertain
+     */
+    public boolean isUncertain() {
+        return fUncertain;
+    }
+
+    /**
+     * Mark this scenario as uncertain if lost events that affect it were seen
+     * by its fsm since it was last handled. The certainty status is written
+     * once, at the time of the first of these lost events.
+     *
+     * A lost event affects the scenario if it was lost on the cpu of the last
+     * event of the scenario, or on the cpu of the current event: this is where
+     * the scenario may have run during the loss. Lost events with no known cpu
+     * affect every scenario.
+     *
+     * @param cpu
+     *            The cpu of the current event, or
+     *            {@link TmfXmlEventAspects#NO_VALUE}
+     */
+    public void applyLostEvents(int cpu) {
+        int epoch = fFsm.getUncertaintyEpoch();
+        for (int i = fUncertaintyEpoch; i < epoch; i++) {
+            int lostCpu = fFsm.getLostEventCpu(i);
+            if (lostCpu == TmfXmlEventAspects.NO_VALUE || fLastCpu == TmfXmlEventAspects.NO_VALUE
+                    || lostCpu == fLastCpu || lostCpu == cpu) {
+                updateCertainty(false, fFsm.getLostEventTime(i));
+                fAffectedByLostEvents = true;
+                break;
+            }
+        }
+        fUncertaintyEpoch = epoch;
+    }
+
+    /**
+     * Test if this scenario was affected by lost events since it started
+     *
+     * @return True if the scenario became uncertain because of lost events
+     */
+    public boolean isAffectedByLostEvents() {
+        return fAffectedByLostEvents;
+    }
+
+    /**
+     * Set the cpu of the last event handled by this scenario
+     *
+     * @param cpu
+     *            The cpu, or {@link TmfXmlEventAspects#NO_VALUE}
+     */
+    void setLastCpu(int cpu) {
+        fLastCpu = cpu;
+    }
+
+    /**
+     * Set the uncertainty epoch of the fsm this scenario is up to date with
+     *
+     * @param epoch
+     *            The epoch
+     */
+    void setUncertaintyEpoch(int epoch) {
+        fUncertaintyEpoch = epoch;
+    }
+
 }
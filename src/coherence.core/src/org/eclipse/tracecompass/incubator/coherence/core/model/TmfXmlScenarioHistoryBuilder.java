@@ -10,6 +10,8 @@ package org.eclipse.tracecompass.incubator.coherence.core.model;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tracecompass.common.core.NonNullUtils;
@@ -46,6 +48,11 @@ public class TmfXmlScenarioHistoryBuilder {
     private static final String ERROR_MESSAGE = "The state system is null"; //$NON-NLS-1$
 
     private final Map<String, TmfAttributePool> fFsmPools = new HashMap<>();
+    private final TmfXmlQuarkCache fQuarkCache;
+    private final Set<String> fNoRecycleFsms = ConcurrentHashMap.newKeySet();
+
+    /* Time used instead of the end of the state system when there is no event, see setThreadTime */
+    private static final ThreadLocal<@Nullable Long> THREAD_TIME = new ThreadLocal<>();
    
     public static final String CERTAINTY_STATUS = "certainty";
     
@@ -83,6 +90,17 @@ public class TmfXmlScenarioHistoryBuilder {
             ScenarioStatusType.MATCHED, TmfStateValue.newValueInt(2),
             ScenarioStatusType.ABANDONED, TmfStateValue.newValueInt(3));
 
+    /**
+     * Constructor
+     *
+     * @param container
+     *            The state system container of the scenarios, telling whether
+     *            they are handled by several threads
+     */
+    public TmfXmlScenarioHistoryBuilder(IXmlStateSystemContainer container) {
+        fQuarkCache = new TmfXmlQuarkCache(container::isMultiThreaded);
+    }
+
     /**
      * Get the scenario matched process start time
      *
@@ -99,7 +117,7 @@ public class TmfXmlScenarioHistoryBuilder {
         ITmfStateSystemBuilder ss = (ITmfStateSystemBuilder) container.getStateSystem();
         long ts = getTimestamp(event, ss);
         try {
-            int attributeQuark = getQuarkRelativeAndAdd(ss, info.getQuark(), START_TIME);
+            int attributeQuark = getChildQuark(ss, info.getQuark(), START_TIME);
             ITmfStateInterval state = ss.querySingleState(ts, attributeQuark);
             return state.getStartTime();
         } catch (StateSystemDisposedException e) {
@@ -126,7 +144,7 @@ public class TmfXmlScenarioHistoryBuilder {
         ITmfStateSystemBuilder ss = (ITmfStateSystemBuilder) container.getStateSystem();
         long ts = getTimestamp(event, ss);
         try {
-            int attributeQuark = getQuarkRelativeAndAdd(ss, info.getQuark(), TmfXmlStrings.STORED_FIELDS, attributeName);
+            int attributeQuark = getStoredFieldQuark(ss, info, attributeName);
             ss.modifyAttribute(ts, value, attributeQuark);
         } catch (StateValueTypeException e) {
             Activator.logError("failed to save the stored field " + attributeName, e); //$NON-NLS-1$
@@ -150,7 +168,7 @@ public class TmfXmlScenarioHistoryBuilder {
         long ts = getTimestamp(event, ss);
         ITmfStateValue value = TmfStateValue.nullValue();
         try {
-            int attributeQuark = getQuarkRelativeAndAdd(ss, info.getQuark(), TmfXmlStrings.STORED_FIELDS, attributeName);
+            int attributeQuark = getStoredFieldQuark(ss, info, attributeName);
             ss.modifyAttribute(ts, value, attributeQuark);
         } catch (StateValueTypeException e) {
             Activator.logError("failed to clear the stored fields", e); //$NON-NLS-1$
@@ -176,7 +194,7 @@ public class TmfXmlScenarioHistoryBuilder {
         long ts = event.getTimestamp().toNanos();
         ITmfStateInterval state = null;
         try {
-            int attributeQuark = getQuarkRelativeAndAdd(ss, info.getQuark(), TmfXmlStrings.STORED_FIELDS, attributeName);
+            int attributeQuark = getStoredFieldQuark(ss, info, attributeName);
             state = ss.querySingleState(ts, attributeQuark);
         } catch (StateSystemDisposedException e) {
             Activator.logError("failed to get the value of the stored field " + attributeName, e); //$NON-NLS-1$
@@ -193,7 +211,7 @@ public class TmfXmlScenarioHistoryBuilder {
      *            The ID of the FSM
      * @return The attribute pool associated with this FSM
      */
-    protected TmfAttributePool getPoolFor(IXmlStateSystemContainer container, String fsmId) {
+    protected synchronized TmfAttributePool getPoolFor(IXmlStateSystemContainer container, String fsmId) {
         TmfAttributePool pool = fFsmPools.get(fsmId);
         if (pool != null) {
             return pool;
@@ -217,7 +235,44 @@ public class TmfXmlScenarioHistoryBuilder {
      */
     public int assignScenarioQuark(IXmlStateSystemContainer container, String fsmId) {
         TmfAttributePool pool = getPoolFor(container, fsmId);
-        return pool.getAvailable();
+        synchronized (pool) {
+            return pool.getAvailable();
+        }
+    }
+
+    /**
+     * Set whether the quarks of the completed scenarios of an fsm are reused
+     * for its new scenarios. They must not be reused while the scenarios of
+     * the fsm are handled by several threads, as a quark may already have
+     * states after the time of the thread that gets it.
+     *
+     * @param fsmId
+     *            The ID of the fsm
+     * @param recycle
+     *            True to reuse the quarks
+     */
+    public void setRecycleScenarioQuarks(String fsmId, boolean recycle) {
+        if (recycle) {
+            fNoRecycleFsms.remove(fsmId);
+        } else {
+            fNoRecycleFsms.add(fsmId);
+        }
+    }
+
+    /**
+     * Set the time of the updates without event made by the current thread,
+     * instead of the end time of the state system, which is the time of the
+     * most advanced thread when the scenarios are handled by several threads.
+     *
+     * @param time
+     *            The time, or null to use the end time of the state system
+     */
+    public static void setThreadTime(@Nullable Long time) {
+        if (time == null) {
+            THREAD_TIME.remove();
+        } else {
+            THREAD_TIME.set(time);
+        }
     }
 
     /**
@@ -231,7 +286,7 @@ public class TmfXmlScenarioHistoryBuilder {
      */
     public int getScenarioStatusQuark(IXmlStateSystemContainer container, int scenarioQuark) {
         ITmfStateSystemBuilder ss = (ITmfStateSystemBuilder) container.getStateSystem();
-        return getQuarkRelativeAndAdd(ss, scenarioQuark, STATUS);
+        return getChildQuark(ss, scenarioQuark, STATUS);
     }
 
     /**
@@ -252,7 +307,8 @@ public class TmfXmlScenarioHistoryBuilder {
         long ts = event.getTimestamp().getValue();
         ITmfStateSystemBuilder ss = (ITmfStateSystemBuilder) container.getStateSystem();
         try {
-            int attributeQuark = getQuarkRelativeAndAdd(ss, info.getQuark(), TmfXmlStrings.STATE, stateName, START_TIME);
+            int stateQuark = getChildQuark(ss, getChildQuark(ss, info.getQuark(), TmfXmlStrings.STATE), stateName);
+            int attributeQuark = getChildQuark(ss, stateQuark, START_TIME);
             ITmfStateInterval state = ss.querySingleState(ts, attributeQuark);
             return state.getStartTime();
         } catch (StateSystemDisposedException e) {
@@ -285,23 +341,42 @@ public class TmfXmlScenarioHistoryBuilder {
     /**
      * Quark-retrieving method, but the attribute is queried starting from the
      * startNodeQuark. If the attribute does not exist, it will add it to the
-     * state system if the context allows it.
+     * state system if the context allows it. The quarks are cached, so
+     * repeated lookups of the same attribute do not go to the state system.
      *
      * See {@link ITmfStateSystemBuilder#getQuarkRelativeAndAdd(int, String...)}
      *
      ** @param ss
      *            The state system the attribute belongs to
      * @param startNodeQuark
-     *            The quark of the attribute from which 'path' originates.
-     * @param path
-     *            Relative path to the attribute
+     *            The quark of the attribute from which 'name' originates.
+     * @param name
+     *            Name of the child attribute
      * @return The quark for this attribute
      */
-    private static int getQuarkRelativeAndAdd(@Nullable ITmfStateSystemBuilder ss, int startNodeQuark, String... path) {
+    private int getChildQuark(@Nullable ITmfStateSystemBuilder ss, int startNodeQuark, String name) {
         if (ss == null) {
             throw new NullPointerException(ERROR_MESSAGE);
         }
-        return ss.getQuarkRelativeAndAdd(startNodeQuark, path);
+        int quark = fQuarkCache.get(ss, startNodeQuark, name);
+        if (quark == TmfXmlQuarkCache.NOT_FOUND) {
+            quark = ss.getQuarkRelativeAndAdd(startNodeQuark, name);
+            fQuarkCache.put(startNodeQuark, name, quark);
+        }
+        return quark;
+    }
+
+    private int getStoredFieldQuark(@Nullable ITmfStateSystemBuilder ss, TmfXmlScenarioInfo info, String attributeName) {
+        return getChildQuark(ss, getChildQuark(ss, info.getQuark(), TmfXmlStrings.STORED_FIELDS), attributeName);
+    }
+
+    /**
+     * Get the cache of the quarks of the scenario attributes
+     *
+     * @return The quark cache
+     */
+    public TmfXmlQuarkCache getQuarkCache() {
+        return fQuarkCache;
     }
 
     /**
@@ -353,19 +428,23 @@ public class TmfXmlScenarioHistoryBuilder {
         if (event != null) {
             return event.getTimestamp().toNanos();
         }
+        Long time = THREAD_TIME.get();
+        if (time != null) {
+            return time;
+        }
         if (ss != null) {
             return ss.getCurrentEndTime();
         }
         throw new IllegalArgumentException("Event and state system cannot be null at the same time."); //$NON-NLS-1$
     }
 
-    private static void updateScenarioState(final @Nullable ITmfEvent event, final IXmlStateSystemContainer container, final TmfXmlScenarioInfo info) {
+    private void updateScenarioState(final @Nullable ITmfEvent event, final IXmlStateSystemContainer container, final TmfXmlScenarioInfo info) {
         ITmfStateSystemBuilder ss = (ITmfStateSystemBuilder) container.getStateSystem();
         long ts = getTimestamp(event, ss);
         try {
             // save the status
             ITmfStateValue value = TmfStateValue.newValueString(info.getActiveState());
-            int attributeQuark = ss.getQuarkRelativeAndAdd(info.getQuark(), TmfXmlStrings.STATE);
+            int attributeQuark = getChildQuark(ss, info.getQuark(), TmfXmlStrings.STATE);
             ss.modifyAttribute(ts, value, attributeQuark);
         } catch (StateValueTypeException e) {
             Activator.logError("failed to update scenario state"); //$NON-NLS-1$
@@ -382,14 +461,14 @@ public class TmfXmlScenarioHistoryBuilder {
      * @param info
      *            The scenario details
      */
-    private static void updateScenarioSpecificStateStartTime(final @Nullable ITmfEvent event, final IXmlStateSystemContainer container, final TmfXmlScenarioInfo info) {
+    private void updateScenarioSpecificStateStartTime(final @Nullable ITmfEvent event, final IXmlStateSystemContainer container, final TmfXmlScenarioInfo info) {
         ITmfStateSystemBuilder ss = (ITmfStateSystemBuilder) container.getStateSystem();
         long ts = getTimestamp(event, ss);
         try {
-            int stateQuark = ss.getQuarkRelativeAndAdd(info.getQuark(), TmfXmlStrings.STATE);
+            int stateQuark = getChildQuark(ss, info.getQuark(), TmfXmlStrings.STATE);
             String activeState = ss.queryOngoingState(stateQuark).unboxStr();
             if (activeState.compareTo(info.getActiveState()) != 0) {
-                int attributeQuark = ss.getQuarkRelativeAndAdd(stateQuark, info.getActiveState(), START_TIME);
+                int attributeQuark = getChildQuark(ss, getChildQuark(ss, stateQuark, info.getActiveState()), START_TIME);
                 ITmfStateValue value = TmfStateValue.newValueLong(ts);
                 ss.modifyAttribute(ts, value, attributeQuark);
             }
@@ -415,7 +494,7 @@ public class TmfXmlScenarioHistoryBuilder {
         try {
             // save the status
             ITmfStateValue value = TmfStateValue.newValueLong(ts);
-            int attributeQuark = ss.getQuarkRelativeAndAdd(info.getQuark(), START_TIME);
+            int attributeQuark = getChildQuark(ss, info.getQuark(), START_TIME);
             ss.modifyAttribute(ts, value, attributeQuark);
         } catch (StateValueTypeException e) {
             Activator.logError("failed to update the start time of the scenario"); //$NON-NLS-1$
@@ -437,13 +516,21 @@ public class TmfXmlScenarioHistoryBuilder {
     public void completeScenario(final IXmlStateSystemContainer container, final TmfXmlScenarioInfo info, final @Nullable ITmfEvent event) {
         ITmfStateSystemBuilder ss = (ITmfStateSystemBuilder) container.getStateSystem();
         long ts = getTimestamp(event, ss);
+        if (fNoRecycleFsms.contains(info.getFsmId())) {
+            if (ss != null) {
+                ss.removeAttribute(ts, info.getQuark());
+            }
+            return;
+        }
         TmfAttributePool pool = getPoolFor(container, info.getFsmId());
-        pool.recycle(info.getQuark(), ts);
+        synchronized (pool) {
+            pool.recycle(info.getQuark(), ts);
+        }
     }
     
     public void updateCertaintyStatus(boolean certain, final IXmlStateSystemContainer container, final TmfXmlScenarioInfo info, final long time) {
     	ITmfStateSystemBuilder ss = (ITmfStateSystemBuilder) container.getStateSystem();
-    	int attributeQuark = ss.getQuarkRelativeAndAdd(info.getQuark(), CERTAINTY_STATUS);
+    	int attributeQuark = getChildQuark(ss, info.getQuark(), CERTAINTY_STATUS);
     	/* This scenario state status becomes uncertain when a lost event is encountered */
     	if (certain) {
     		ss.modifyAttribute(time, CERTAIN, attributeQuark);
@@ -20,7 +20,8 @@ public class TmfXmlScenarioInfo {
     private final int fQuark;
     private final TmfXmlFsm fFsm;
     private final int fStatusQuark;
-    private String fActiveState;
+    /* The active state is kept as its index in the fsm */
+    private int fActiveState;
     private ScenarioStatusType fStatus;
 
     /**
@@ -38,7 +39,7 @@ public class TmfXmlScenarioInfo {
      *            The FSM this scenario is part of
      */
     public TmfXmlScenarioInfo(String activeState, ScenarioStatusType status, int quark, int statusQuark, TmfXmlFsm fsm) {
-        fActiveState = activeState;
+        fActiveState = fsm.getStateIndex(activeState);
         fQuark = quark;
         fStatus = status;
         fStatusQuark = statusQuark;
@@ -52,6 +53,16 @@ public class TmfXmlScenarioInfo {
      *            The active state
      */
     public void setActiveState(String activeState) {
+        fActiveState = fFsm.getStateIndex(activeState);
+    }
+
+    /**
+     * Set the active state from its index in the fsm
+     *
+     * @param activeState
+     *            The index of the active state
+     */
+    public void setActiveState(int activeState) {
         fActiveState = activeState;
     }
 
@@ -80,6 +91,15 @@ public class TmfXmlScenarioInfo {
      * @return The active state
      */
     public String getActiveState() {
+        return fFsm.getStateId(fActiveState);
+    }
+
+    /**
+     * Get the index of the scenario active state in the fsm
+     *
+     * @return The index of the active state
+     */
+    public int getActiveStateIndex() {
         return fActiveState;
     }
 
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Map of the active scenarios of an fsm, keyed by the attribute of the
+ * scenarios as a long.
+ *
+ * The scenarios are kept in insertion order in a dense array, and the keys are
+ * indexed by an open addressing table with linear probing. Scenarios are never
+ * removed from an fsm, so the map has no removal.
+ *
+ * This class is not thread-safe.
+ *
+ * @author mmartin
+ */
+public class TmfXmlScenarioMap {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int EMPTY = -1;
+
+    /* Entries, in insertion order */
+    private long[] fKeys;
+    private @Nullable TmfXmlScenario[] fScenarios;
+    private int fSize = 0;
+
+    /* Index of the entry of each key, or EMPTY */
+    private int[] fTable;
+
+    private final List<TmfXmlScenario> fValues = new AbstractList<TmfXmlScenario>() {
+        @Override
+        public TmfXmlScenario get(int index) {
+            return getAt(index);
+        }
+
+        @Override
+        public int size() {
+            return fSize;
+        }
+    };
+
+    /**
+     * Constructor
+     */
+    public TmfXmlScenarioMap() {
+        fKeys = new long[INITIAL_CAPACITY / 2];
+        fScenarios = new @Nullable TmfXmlScenario[INITIAL_CAPACITY / 2];
+        fTable = newTable(INITIAL_CAPACITY);
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int find(long key) {
+        int mask = fTable.length - 1;
+        for (int i = hash(key) & mask; fTable[i] != EMPTY; i = (i + 1) & mask) {
+            if (fKeys[fTable[i]] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the scenario of an attribute
+     *
+     * @param key
+     *            The attribute of the scenario
+     * @return The scenario, or null if there is none
+     */
+    public @Nullable TmfXmlScenario get(long key) {
+        int slot = find(key);
+        return slot < 0 ? null : fScenarios[fTable[slot]];
+    }
+
+    /**
+     * Set the scenario of an attribute. A scenario that replaces another one
+     * keeps the position of the previous one in the iteration order.
+     *
+     * @param key
+     *            The attribute of the scenario
+     * @param scenario
+     *            The scenario
+     */
+    public void put(long key, TmfXmlScenario scenario) {
+        int slot = find(key);
+        if (slot >= 0) {
+            fScenarios[fTable[slot]] = scenario;
+            return;
+        }
+        if (fSize == fKeys.length) {
+            fKeys = Arrays.copyOf(fKeys, fSize * 2);
+            fScenarios = Arrays.copyOf(fScenarios, fSize * 2);
+        }
+        fKeys[fSize] = key;
+        fScenarios[fSize] = scenario;
+        fSize++;
+        if (fSize * 2 > fTable.length) {
+            fTable = newTable(fTable.length * 2);
+            for (int i = 0; i < fSize; i++) {
+                insert(i);
+            }
+        } else {
+            insert(fSize - 1);
+        }
+    }
+
+    private void insert(int index) {
+        int mask = fTable.length - 1;
+        int i = hash(fKeys[index]) & mask;
+        while (fTable[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        fTable[i] = index;
+    }
+
+    /**
+     * Get the number of scenarios
+     *
+     * @return The number of scenarios
+     */
+    public int size() {
+        return fSize;
+    }
+
+    /**
+     * Get a scenario by its position in the insertion order
+     *
+     * @param index
+     *            The position of the scenario, below {@link #size()}
+     * @return The scenario
+     */
+    public TmfXmlScenario getAt(int index) {
+        if (index < 0 || index >= fSize) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        TmfXmlScenario scenario = fScenarios[index];
+        if (scenario == null) {
+            throw new IllegalStateException();
+        }
+        return scenario;
+    }
+
+    /**
+     * Get the attribute of a scenario by its position in the insertion order
+     *
+     * @param index
+     *            The position of the scenario, below {@link #size()}
+     * @return The attribute of the scenario
+     */
+    public long getKeyAt(int index) {
+        if (index < 0 || index >= fSize) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return fKeys[index];
+    }
+
+    /**
+     * Get the scenarios, in insertion order
+     *
+     * @return A read-only view of the scenarios
+     */
+    public List<TmfXmlScenario> values() {
+        return fValues;
+    }
+}
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlFsmTransition;
+
+/**
+ * Shortest paths in the reverse graph of an fsm, used to infer the transitions
+ * missing between two states.
+ *
+ * The states are the indexes given by {@link TmfXmlFsm#getStateIndex(String)}
+ * and the edges of each state, its incoming transitions, are kept in flat
+ * arrays. The weight of a transition is the inverse of the number of times it
+ * was taken. Each thread has its own distance, predecessor and heap arrays,
+ * reused from one search to the next.
+ *
+ * @author mmartin
+ */
+public class TmfXmlShortestPaths {
+
+    private static final int NONE = -1;
+    private static final int SETTLED = -2;
+
+    private final int fNodeCount;
+    /* Edges entering node n are at indexes fEdgeStart[n] to fEdgeStart[n + 1] - 1 */
+    private final int[] fEdgeStart;
+    private final int[] fEdgeFrom;
+    private final int[] fEdgeTo;
+    private final int[] fEdgeCounterIds;
+    private final TmfXmlFsmTransition[] fEdgeTransitions;
+    private final ThreadLocal<Workspace> fWorkspace;
+
+    /**
+     * Arrays of a search, allocated once per thread
+     */
+    private static final class Workspace {
+        final float[] fDistances;
+        final int[] fPrevEdges;
+        /* Position of each node in the heap, NONE if not queued, SETTLED once its distance is final */
+        final int[] fPositions;
+        final int[] fHeap;
+        int fHeapSize = 0;
+
+        Workspace(int nodeCount) {
+            fDistances = new float[nodeCount];
+            fPrevEdges = new int[nodeCount];
+            fPositions = new int[nodeCount];
+            fHeap = new int[nodeCount];
+        }
+
+        void reset() {
+            Arrays.fill(fDistances, Float.POSITIVE_INFINITY);
+            Arrays.fill(fPrevEdges, NONE);
+            Arrays.fill(fPositions, NONE);
+            fHeapSize = 0;
+        }
+
+        boolean before(int node1, int node2) {
+            float dist1 = fDistances[node1];
+            float dist2 = fDistances[node2];
+            /* Ties are broken by state index, so the paths do not depend on the heap layout */
+            return (dist1 < dist2) || (dist1 == dist2 && node1 < node2);
+        }
+
+        void push(int node) {
+            int position = fPositions[node];
+            if (position == NONE) {
+                position = fHeapSize++;
+                fHeap[position] = node;
+                fPositions[node] = position;
+            }
+            siftUp(position);
+        }
+
+        int poll() {
+            int node = fHeap[0];
+            fHeapSize--;
+            if (fHeapSize > 0) {
+                int last = fHeap[fHeapSize];
+                fHeap[0] = last;
+                fPositions[last] = 0;
+                siftDown(0);
+            }
+            fPositions[node] = SETTLED;
+            return node;
+        }
+
+        private void siftUp(int start) {
+            int position = start;
+            int node = fHeap[position];
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                int parentNode = fHeap[parent];
+                if (!before(node, parentNode)) {
+                    break;
+                }
+                fHeap[position] = parentNode;
+                fPositions[parentNode] = position;
+                position = parent;
+            }
+            fHeap[position] = node;
+            fPositions[node] = position;
+        }
+
+        private void siftDown(int start) {
+            int position = start;
+            int node = fHeap[position];
+            int half = fHeapSize >>> 1;
+            while (position < half) {
+                int child = 2 * position + 1;
+                int right = child + 1;
+                if (right < fHeapSize && before(fHeap[right], fHeap[child])) {
+                    child = right;
+                }
+                int childNode = fHeap[child];
+                if (!before(childNode, node)) {
+                    break;
+                }
+                fHeap[position] = childNode;
+                fPositions[childNode] = position;
+                position = child;
+            }
+            fHeap[position] = node;
+            fPositions[node] = position;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param fsm
+     *            The fsm
+     * @param prevStatesForState
+     *            The transitions entering each state, by state ID
+     */
+    public TmfXmlShortestPaths(TmfXmlFsm fsm, Map<String, Set<TmfXmlFsmTransition>> prevStatesForState) {
+        /* Number the states first, so the graph covers all of them */
+        for (Map.Entry<String, Set<TmfXmlFsmTransition>> entry : prevStatesForState.entrySet()) {
+            fsm.getStateIndex(entry.getKey());
+            for (TmfXmlFsmTransition transition : entry.getValue()) {
+                fsm.getStateIndex(transition.from().getId());
+            }
+        }
+        int nodeCount = fsm.getStateCount();
+        List<List<TmfXmlFsmTransition>> edges = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            edges.add(new ArrayList<>());
+        }
+        int edgeCount = 0;
+        for (Map.Entry<String, Set<TmfXmlFsmTransition>> entry : prevStatesForState.entrySet()) {
+            edges.get(fsm.getStateIndex(entry.getKey())).addAll(entry.getValue());
+            edgeCount += entry.getValue().size();
+        }
+
+        fNodeCount = nodeCount;
+        fEdgeStart = new int[nodeCount + 1];
+        fEdgeFrom = new int[edgeCount];
+        fEdgeTo = new int[edgeCount];
+        fEdgeCounterIds = new int[edgeCount];
+        fEdgeTransitions = new TmfXmlFsmTransition[edgeCount];
+        int edge = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            fEdgeStart[node] = edge;
+            for (TmfXmlFsmTransition transition : edges.get(node)) {
+                fEdgeFrom[edge] = fsm.getStateIndex(transition.from().getId());
+                fEdgeTo[edge] = node;
+                fEdgeCounterIds[edge] = fsm.getCounterId(transition);
+                fEdgeTransitions[edge] = transition;
+                edge++;
+            }
+        }
+        fEdgeStart[nodeCount] = edge;
+        fWorkspace = ThreadLocal.withInitial(() -> new Workspace(fNodeCount));
+    }
+
+    /**
+     * Compute the shortest path from a state back to another state, following
+     * the transitions in reverse
+     *
+     * @param start
+     *            The index of the starting state
+     * @param target
+     *            The index of the targeted state
+     * @param localCounters
+     *            The statistics on the transitions of a scenario, or null to
+     *            only use the global statistics
+     * @param globalCounters
+     *            The statistics on the transitions of the fsm, used for the
+     *            transitions never taken by the scenario
+     * @return The transitions of the path, from the targeted state to the
+     *         starting state, or an empty list if there is none
+     */
+    public List<TmfXmlFsmTransition> compute(int start, int target, @Nullable TmfXmlTransitionCounters localCounters,
+            TmfXmlTransitionCounters globalCounters) {
+        if (start < 0 || start >= fNodeCount || target < 0 || target >= fNodeCount) {
+            return Collections.emptyList();
+        }
+        Workspace ws = fWorkspace.get();
+        ws.reset();
+        float[] distances = ws.fDistances;
+        distances[start] = 0f;
+        ws.push(start);
+
+        while (ws.fHeapSize > 0) {
+            int current = ws.poll();
+            if (current == target) {
+                break;
+            }
+            float currentDist = distances[current];
+            for (int edge = fEdgeStart[current]; edge < fEdgeStart[current + 1]; edge++) {
+                int neighbor = fEdgeFrom[edge];
+                if (ws.fPositions[neighbor] == SETTLED) {
+                    continue;
+                }
+                float newDist = currentDist + (1f / weight(fEdgeCounterIds[edge], localCounters, globalCounters));
+                if (newDist < distances[neighbor]) {
+                    distances[neighbor] = newDist;
+                    ws.fPrevEdges[neighbor] = edge;
+                    ws.push(neighbor);
+                }
+            }
+        }
+
+        /* Follow the predecessors from the target back to the start */
+        List<TmfXmlFsmTransition> transitions = new ArrayList<>();
+        int node = target;
+        int edge = ws.fPrevEdges[node];
+        while (edge != NONE) {
+            transitions.add(fEdgeTransitions[edge]);
+            node = fEdgeTo[edge];
+            edge = ws.fPrevEdges[node];
+        }
+        return transitions;
+    }
+
+    /**
+     * Get the weight of a transition, the number of times it was taken by the
+     * scenario, or by the fsm if the scenario never took it
+     */
+    private static float weight(int counterId, @Nullable TmfXmlTransitionCounters localCounters, TmfXmlTransitionCounters globalCounters) {
+        long weight = (localCounters == null) ? 0 : localCounters.get(counterId);
+        if (weight == 0) {
+            weight = globalCounters.get(counterId);
+            if (weight == 0) {
+                weight = 1;
+            }
+        }
+        return weight;
+    }
+}
@@ -31,7 +31,6 @@ import org.eclipse.tracecompass.statesystem.core.statevalue.ITmfStateValue;
 import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEventField;
-import org.eclipse.tracecompass.tmf.core.event.aspect.TmfCpuAspect;
 import org.eclipse.tracecompass.tmf.core.trace.TmfTraceUtils;
 import org.w3c.dom.Element;
 
@@ -78,6 +77,9 @@ public abstract class TmfXmlStateAttribute implements ITmfXmlStateAttribute {
 
     private final IXmlStateSystemContainer fContainer;
 
+    /** Child quarks already resolved by this attribute */
+    private final TmfXmlQuarkCache fQuarkCache;
+
     /**
      * Constructor
      *
@@ -90,6 +92,7 @@ public abstract class TmfXmlStateAttribute implements ITmfXmlStateAttribute {
      */
     protected TmfXmlStateAttribute(ITmfXmlModelFactory modelFactory, Element attribute, IXmlStateSystemContainer container) {
         fContainer = container;
+        fQuarkCache = new TmfXmlQuarkCache(container::isMultiThreaded);
 
         switch (attribute.getAttribute(TmfXmlStrings.TYPE)) {
         case TmfXmlStrings.TYPE_CONSTANT:
@@ -207,11 +210,16 @@ public abstract class TmfXmlStateAttribute implements ITmfXmlStateAttribute {
                 if (name.equals(CURRENT_SCENARIO)) {
                     return checkNotNull(scenarioInfo).getQuark();
                 }
+                quark = fQuarkCache.get(ss, startQuark, name);
+                if (quark != TmfXmlQuarkCache.NOT_FOUND) {
+                    return quark;
+                }
                 if (startQuark == IXmlStateSystemContainer.ROOT_QUARK) {
                     quark = getQuarkAbsoluteAndAdd(name);
                 } else {
                     quark = getQuarkRelativeAndAdd(startQuark, name);
                 }
+                fQuarkCache.put(startQuark, name, quark);
                 return quark;
             }
             case EVENTFIELD: {
@@ -231,15 +239,14 @@ public abstract class TmfXmlStateAttribute implements ITmfXmlStateAttribute {
                 if (field == null) {
                     if (name.equalsIgnoreCase(TmfXmlStrings.CPU)) {
                         /* See if the event advertises a CPU aspect */
-                        Integer cpu = TmfTraceUtils.resolveIntEventAspectOfClassForEvent(
-                                event.getTrace(), TmfCpuAspect.class, event);
-                        if (cpu != null) {
-                            return getQuarkRelativeAndAdd(startQuark, cpu.toString());
+                        int cpu = TmfXmlEventAspects.getCpu(event);
+                        if (cpu != TmfXmlEventAspects.NO_VALUE) {
+                            return getChildQuark(ss, startQuark, cpu);
                         }
                         return IXmlStateSystemContainer.ERROR_QUARK;
                     } else if (name.equalsIgnoreCase(TmfXmlStrings.HOSTID)) {
                         /* Return the host ID of the trace containing the event */
-                        return getQuarkRelativeAndAdd(startQuark, event.getTrace().getHostId());
+                        return getChildQuark(ss, startQuark, event.getTrace().getHostId());
                     }
                     /* Search between the trace event aspects */
                     fieldValue = TmfTraceUtils.resolveAspectOfNameForEvent(event.getTrace(), name, event);
@@ -249,13 +256,11 @@ public abstract class TmfXmlStateAttribute implements ITmfXmlStateAttribute {
 
                 if (fieldValue instanceof String) {
                     String fieldString = (String) fieldValue;
-                    quark = getQuarkRelativeAndAdd(startQuark, fieldString);
+                    quark = getChildQuark(ss, startQuark, fieldString);
                 } else if (fieldValue instanceof Long) {
-                    Long fieldLong = (Long) fieldValue;
-                    quark = getQuarkRelativeAndAdd(startQuark, fieldLong.toString());
+                    quark = getChildQuark(ss, startQuark, ((Long) fieldValue).longValue());
                 } else if (fieldValue instanceof Integer) {
-                    Integer fieldInterger = (Integer) fieldValue;
-                    quark = getQuarkRelativeAndAdd(startQuark, fieldInterger.toString());
+                    quark = getChildQuark(ss, startQuark, ((Integer) fieldValue).longValue());
                 }
 
                 return quark;
@@ -281,17 +286,17 @@ public abstract class TmfXmlStateAttribute implements ITmfXmlStateAttribute {
                 switch (value.getType()) {
                 case INTEGER: {
                     int result = value.unboxInt();
-                    quark = getQuarkRelativeAndAdd(startQuark, String.valueOf(result));
+                    quark = getChildQuark(ss, startQuark, result);
                     break;
                 }
                 case LONG: {
                     long result = value.unboxLong();
-                    quark = getQuarkRelativeAndAdd(startQuark, String.valueOf(result));
+                    quark = getChildQuark(ss, startQuark, result);
                     break;
                 }
                 case STRING: {
                     String result = value.unboxStr();
-                    quark = getQuarkRelativeAndAdd(startQuark, result);
+                    quark = getChildQuark(ss, startQuark, result);
                     break;
                 }
                 case DOUBLE:
@@ -324,7 +329,7 @@ public abstract class TmfXmlStateAttribute implements ITmfXmlStateAttribute {
                     Activator.logWarning("XML State attribute: looking for an eventname, but event is null"); //$NON-NLS-1$
                     return quark;
                 }
-                quark = getQuarkRelativeAndAdd(startQuark, event.getName());
+                quark = getChildQuark(ss, startQuark, event.getName());
                 return quark;
             }
             case SELF:
@@ -349,6 +354,41 @@ public abstract class TmfXmlStateAttribute implements ITmfXmlStateAttribute {
         }
     }
 
+    /**
+     * Get the quark of a child attribute whose name is a number, looking in
+     * the cache of this attribute first
+     */
+    private int getChildQuark(ITmfStateSystem ss, int startQuark, long name) throws AttributeNotFoundException {
+        int quark = fQuarkCache.get(ss, startQuark, name);
+        if (quark == TmfXmlQuarkCache.NOT_FOUND) {
+            quark = getQuarkRelativeAndAdd(startQuark, String.valueOf(name));
+            fQuarkCache.put(startQuark, name, quark);
+        }
+        return quark;
+    }
+
+    /**
+     * Get the quark of a child attribute, looking in the cache of this
+     * attribute first
+     */
+    private int getChildQuark(ITmfStateSystem ss, int startQuark, String name) throws AttributeNotFoundException {
+        int quark = fQuarkCache.get(ss, startQuark, name);
+        if (quark == TmfXmlQuarkCache.NOT_FOUND) {
+            quark = getQuarkRelativeAndAdd(startQuark, name);
+            fQuarkCache.put(startQuark, name, quark);
+        }
+        return quark;
+    }
+
+    /**
+     * Get the cache of the child quarks resolved by this attribute
+     *
+     * @return The quark cache
+     */
+    public TmfXmlQuarkCache getQuarkCache() {
+        return fQuarkCache;
+    }
+
     @Override
     public String toString() {
         return "TmfXmlStateAttribute " + fType + ": " + fName; //$NON-NLS-1$ //$NON-NLS-2$
@@ -140,7 +140,7 @@ public class TmfXmlStateChange {
             if (ifNode == null) {
                 throw new IllegalArgumentException();
             }
-            fCondition = modelFactory.createCondition((Element) ifNode, fContainer);
+            fCondition = TmfXmlCompiledCondition.compile(modelFactory.createCondition((Element) ifNode, fContainer));
 
             Node thenNode = statechange.getElementsByTagName(TmfXmlStrings.THEN).item(0);
             if (thenNode == null) {
@@ -44,7 +44,7 @@ public class TmfXmlStateTransition extends TmfXmlBasicTransition {
      *            The state system container this state transition belongs to
      */
     public TmfXmlStateTransition(ITmfXmlModelFactory modelFactory, Element node, IXmlStateSystemContainer container) {
-        super(node);
+        super(node, container.getEventTypes());
         String target = node.getAttribute(TmfXmlStrings.TARGET);
         if (target.isEmpty()) {
             throw new IllegalStateException("No target state has been specified."); //$NON-NLS-1$
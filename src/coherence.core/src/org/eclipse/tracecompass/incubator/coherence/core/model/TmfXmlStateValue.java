@@ -31,7 +31,6 @@ import org.eclipse.tracecompass.statesystem.core.statevalue.ITmfStateValue;
 import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEventField;
-import org.eclipse.tracecompass.tmf.core.event.aspect.TmfCpuAspect;
 import org.eclipse.tracecompass.tmf.core.trace.TmfTraceUtils;
 import org.w3c.dom.Element;
 
@@ -307,9 +306,9 @@ public abstract class TmfXmlStateValue implements ITmfXmlStateValue {
         if (field == null) {
             if (fieldName.equalsIgnoreCase(TmfXmlStrings.CPU)) {
                 /* A "CPU" field will return the CPU aspect if available */
-                Integer cpu = TmfTraceUtils.resolveIntEventAspectOfClassForEvent(event.getTrace(), TmfCpuAspect.class, event);
-                if (cpu != null) {
-                    return TmfStateValue.newValueInt(cpu.intValue());
+                int cpu = TmfXmlEventAspects.getCpu(event);
+                if (cpu != TmfXmlEventAspects.NO_VALUE) {
+                    return TmfStateValue.newValueInt(cpu);
                 }
             } else if (fieldName.equalsIgnoreCase(TmfXmlStrings.TIMESTAMP)) {
                 /*
@@ -349,6 +348,40 @@ public abstract class TmfXmlStateValue implements ITmfXmlStateValue {
         return fPath;
     }
 
+    /**
+     * Get whether the value only depends on the current event, and neither on
+     * the state system nor on the scenario
+     *
+     * @return True if the value only depends on the event
+     */
+    public boolean isEventOnly() {
+        return fPath.isEmpty() && fMappingGroup.isEmpty() && fStateValue.isEventOnly();
+    }
+
+    /**
+     * Get the value of this state value if it is a constant that is used as
+     * is, without mapping
+     *
+     * @return The constant value, or null if the value has to be computed
+     */
+    public @Nullable ITmfStateValue getConstantValue() {
+        return fMappingGroup.isEmpty() ? fStateValue.getConstantValue() : null;
+    }
+
+    /**
+     * Get the name of the event field this state value reads, if the field
+     * value is used as is, without mapping nor forced type
+     *
+     * @return The name of the field, or null if the value is computed
+     *         differently
+     */
+    public @Nullable String getValueFieldName() {
+        if (!fMappingGroup.isEmpty() || fForcedType != ITmfStateValue.Type.NULL) {
+            return null;
+        }
+        return fStateValue.getFieldName();
+    }
+
     @Override
     public void handleEvent(@NonNull ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo) throws AttributeNotFoundException, StateValueTypeException, TimeRangeException {
         int quark = IXmlStateSystemContainer.ROOT_QUARK;
@@ -400,6 +433,35 @@ public abstract class TmfXmlStateValue implements ITmfXmlStateValue {
          */
         public abstract ITmfStateValue getValue(@Nullable ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo) throws AttributeNotFoundException;
 
+        /**
+         * Get whether the value only depends on the event, and neither on the
+         * state system nor on the scenario
+         *
+         * @return True if the value only depends on the event
+         */
+        public boolean isEventOnly() {
+            return false;
+        }
+
+        /**
+         * Get the value if it is a constant defined in the XML
+         *
+         * @return The constant value, or null if the value is computed
+         */
+        public @Nullable ITmfStateValue getConstantValue() {
+            return null;
+        }
+
+        /**
+         * Get the name of the event field if the value is read from the event
+         *
+         * @return The name of the field, or null if the value is not an event
+         *         field
+         */
+        public @Nullable String getFieldName() {
+            return null;
+        }
+
         /**
          * Do something with the state value, possibly using an event
          *
@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlFsmTransition;
+
+/**
+ * Counters of the transitions taken in an fsm, indexed by the ID of the
+ * flyweight transitions (see {@link TmfXmlFsmTransition#getId()}).
+ *
+ * Most scenarios only take a few transitions, so the counters start as a small
+ * sorted array of (ID, count) pairs. They are promoted to a dense array of
+ * ints indexed by ID once more transitions are used, and to a dense array of
+ * longs if an int counter would overflow.
+ *
+ * This class is not thread-safe.
+ *
+ * @author mmartin
+ */
+public class TmfXmlTransitionCounters {
+
+    private static final int SPARSE_INITIAL_CAPACITY = 4;
+    private static final int SPARSE_MAX_SIZE = 16;
+
+    /* Sparse representation, used while fIntCounts and fLongCounts are null */
+    private int[] fIds = new int[SPARSE_INITIAL_CAPACITY];
+    private long[] fSparseCounts = new long[SPARSE_INITIAL_CAPACITY];
+    private int fSize = 0;
+
+    /* Dense representations */
+    private int @Nullable [] fIntCounts = null;
+    private long @Nullable [] fLongCounts = null;
+
+    /* Changed by every update, so the results computed from the counters can be checked */
+    private long fVersion = 0;
+
+    /* The values of the counters at fSnapshotVersion, built when first needed */
+    private long @Nullable [] fSnapshot = null;
+    private long fSnapshotVersion = -1;
+
+    /**
+     * Increase the counter of a transition
+     *
+     * @param id
+     *            The ID of the transition. Transitions that are not flyweights
+     *            are ignored.
+     */
+    public void increment(int id) {
+        add(id, 1);
+    }
+
+    /**
+     * Add the counters of other counters to these ones
+     *
+     * @param other
+     *            The counters to add
+     */
+    public void addAll(TmfXmlTransitionCounters other) {
+        long[] longCounts = other.fLongCounts;
+        int[] intCounts = other.fIntCounts;
+        if (longCounts != null) {
+            for (int id = 0; id < longCounts.length; id++) {
+                if (longCounts[id] != 0) {
+                    add(id, longCounts[id]);
+                }
+            }
+        } else if (intCounts != null) {
+            for (int id = 0; id < intCounts.length; id++) {
+                if (intCounts[id] != 0) {
+                    add(id, intCounts[id]);
+                }
+            }
+        } else {
+            for (int i = 0; i < other.fSize; i++) {
+                add(other.fIds[i], other.fSparseCounts[i]);
+            }
+        }
+    }
+
+    private void add(int id, long count) {
+        if (id < 0) {
+            return;
+        }
+        fVersion++;
+        long[] longCounts = fLongCounts;
+        if (longCounts != null) {
+            if (id >= longCounts.length) {
+                longCounts = Arrays.copyOf(longCounts, newCapacity(longCounts.length, id));
+                fLongCounts = longCounts;
+            }
+            longCounts[id] += count;
+            return;
+        }
+        int[] intCounts = fIntCounts;
+        if (intCounts != null) {
+            if (id >= intCounts.length) {
+                intCounts = Arrays.copyOf(intCounts, newCapacity(intCounts.length, id));
+                fIntCounts = intCounts;
+            }
+            if (intCounts[id] + count > Integer.MAX_VALUE) {
+                promoteToLongs()[id] += count;
+                return;
+            }
+            intCounts[id] += count;
+            return;
+        }
+        int index = Arrays.binarySearch(fIds, 0, fSize, id);
+        if (index >= 0) {
+            fSparseCounts[index] += count;
+            return;
+        }
+        if (fSize == SPARSE_MAX_SIZE) {
+            promoteToDense();
+            add(id, count);
+            return;
+        }
+        int insertion = -(index + 1);
+        if (fSize == fIds.length) {
+            fIds = Arrays.copyOf(fIds, fSize * 2);
+            fSparseCounts = Arrays.copyOf(fSparseCounts, fSize * 2);
+        }
+        System.arraycopy(fIds, insertion, fIds, insertion + 1, fSize - insertion);
+        System.arraycopy(fSparseCounts, insertion, fSparseCounts, insertion + 1, fSize - insertion);
+        fIds[insertion] = id;
+        fSparseCounts[insertion] = count;
+        fSize++;
+    }
+
+    /**
+     * Get the version of the counters, which changes every time a counter is
+     * increased
+     *
+     * @return The version
+     */
+    public long getVersion() {
+        return fVersion;
+    }
+
+    /**
+     * Get the values of the counters, indexed by transition ID. Two counters
+     * with the same values have equal snapshots, whatever their
+     * representation. The snapshot is kept until the counters change.
+     *
+     * @return The counters, up to the last one that is not 0. The array must
+     *         not be modified.
+     */
+    public long[] snapshot() {
+        long[] snapshot = fSnapshot;
+        if (snapshot != null && fSnapshotVersion == fVersion) {
+            return snapshot;
+        }
+        long[] longCounts = fLongCounts;
+        int[] intCounts = fIntCounts;
+        int length = 0;
+        if (longCounts != null) {
+            for (int id = 0; id < longCounts.length; id++) {
+                if (longCounts[id] != 0) {
+                    length = id + 1;
+                }
+            }
+            snapshot = Arrays.copyOf(longCounts, length);
+        } else if (intCounts != null) {
+            for (int id = 0; id < intCounts.length; id++) {
+                if (intCounts[id] != 0) {
+                    length = id + 1;
+                }
+            }
+            snapshot = new long[length];
+            for (int id = 0; id < length; id++) {
+                snapshot[id] = intCounts[id];
+            }
+        } else {
+            for (int i = 0; i < fSize; i++) {
+                if (fSparseCounts[i] != 0) {
+                    length = fIds[i] + 1;
+                }
+            }
+            snapshot = new long[length];
+            for (int i = 0; i < fSize && fIds[i] < length; i++) {
+                snapshot[fIds[i]] = fSparseCounts[i];
+            }
+        }
+        fSnapshot = snapshot;
+        fSnapshotVersion = fVersion;
+        return snapshot;
+    }
+
+    /**
+     * Get the counter of a transition
+     *
+     * @param id
+     *            The ID of the transition
+     * @return The number of times the transition was taken, 0 if it never was
+     */
+    public long get(int id) {
+        if (id < 0) {
+            return 0;
+        }
+        long[] longCounts = fLongCounts;
+        if (longCounts != null) {
+            return id < longCounts.length ? longCounts[id] : 0;
+        }
+        int[] intCounts = fIntCounts;
+        if (intCounts != null) {
+            return id < intCounts.length ? intCounts[id] : 0;
+        }
+        int index = Arrays.binarySearch(fIds, 0, fSize, id);
+        return index >= 0 ? fSparseCounts[index] : 0;
+    }
+
+    /**
+     * Get an estimation of the memory used by the counters, to compare the
+     * footprint of the scenarios
+     *
+     * @return The approximate number of bytes used by the arrays
+     */
+    public long getFootprint() {
+        long[] longCounts = fLongCounts;
+        if (longCounts != null) {
+            return 16 + 8L * longCounts.length;
+        }
+        int[] intCounts = fIntCounts;
+        if (intCounts != null) {
+            return 16 + 4L * intCounts.length;
+        }
+        return 32 + 4L * fIds.length + 8L * fSparseCounts.length;
+    }
+
+    private static int newCapacity(int length, int id) {
+        return Math.max(length * 2, id + 1);
+    }
+
+    private void promoteToDense() {
+        int[] intCounts = new int[fIds[fSize - 1] + 1];
+        for (int i = 0; i < fSize; i++) {
+            if (fSparseCounts[i] > Integer.MAX_VALUE) {
+                promoteSparseToLongs();
+                return;
+            }
+            intCounts[fIds[i]] = (int) fSparseCounts[i];
+        }
+        fIntCounts = intCounts;
+        releaseSparse();
+    }
+
+    private void promoteSparseToLongs() {
+        long[] longCounts = new long[fIds[fSize - 1] + 1];
+        for (int i = 0; i < fSize; i++) {
+            longCounts[fIds[i]] = fSparseCounts[i];
+        }
+        fLongCounts = longCounts;
+        releaseSparse();
+    }
+
+    private long[] promoteToLongs() {
+        int[] intCounts = fIntCounts;
+        long[] longCounts = new long[intCounts == null ? 0 : intCounts.length];
+        if (intCounts != null) {
+            for (int i = 0; i < intCounts.length; i++) {
+                longCounts[i] = intCounts[i];
+            }
+        }
+        fLongCounts = longCounts;
+        fIntCounts = null;
+        return longCounts;
+    }
+
+    private void releaseSparse() {
+        fIds = new int[0];
+        fSparseCounts = new long[0];
+        fSize = 0;
+    }
+}
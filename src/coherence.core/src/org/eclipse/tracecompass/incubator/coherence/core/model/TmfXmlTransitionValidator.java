@@ -33,6 +33,10 @@ public class TmfXmlTransitionValidator implements ITmfXmlCondition {
     IXmlStateSystemContainer fParent;
     private final String fId;
     private final ITmfXmlCondition fCondition;
+    private final ITmfXmlCondition fCompiledCondition;
+    private final boolean fEventOnly;
+    private @Nullable TmfXmlValidatorCache fCache = null;
+    private int fCacheIndex;
 
     /**
      * Constructor
@@ -51,6 +55,8 @@ public class TmfXmlTransitionValidator implements ITmfXmlCondition {
         List<@Nullable Element> childElements = XmlUtils.getChildElements(node);
         Node child = NonNullUtils.checkNotNull(childElements.get(0));
         fCondition = modelFactory.createCondition((Element) child, parent);
+        fCompiledCondition = TmfXmlCompiledCondition.compile(fCondition);
+        fEventOnly = (fCondition instanceof TmfXmlCondition) && ((TmfXmlCondition) fCondition).isEventOnly();
     }
 
     /**
@@ -62,9 +68,50 @@ public class TmfXmlTransitionValidator implements ITmfXmlCondition {
         return fId;
     }
 
+    /**
+     * Get whether the result of this transition input only depends on the
+     * current event
+     *
+     * @return True if the result only depends on the event
+     */
+    public boolean isEventOnly() {
+        return fEventOnly;
+    }
+
+    /**
+     * Set the cache where the results of this transition input are memoized
+     *
+     * @param cache
+     *            The cache
+     * @param index
+     *            The index of this transition input in the cache
+     */
+    void setCache(TmfXmlValidatorCache cache, int index) {
+        fCache = cache;
+        fCacheIndex = index;
+    }
+
     @Override
     public boolean test(ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo) {
-        return fCondition.test(event, scenarioInfo);
+        TmfXmlValidatorCache cache = fCache;
+        if (cache != null) {
+            return cache.test(this, fCacheIndex, event, scenarioInfo);
+        }
+        return evaluate(event, scenarioInfo);
+    }
+
+    /**
+     * Evaluate the condition of this transition input, without looking in the
+     * cache
+     *
+     * @param event
+     *            The current event
+     * @param scenarioInfo
+     *            The active scenario details, or null
+     * @return The result of the condition
+     */
+    boolean evaluate(ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo) {
+        return fCompiledCondition.test(event, scenarioInfo);
     }
     
     public ITmfXmlCondition getCondition() {
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+
+/**
+ * Per-event memoization of the results of the transition validators of a
+ * pattern.
+ *
+ * The result of a validator that only depends on the event is shared by every
+ * scenario of every fsm until the next event. The result of the other
+ * validators is kept for one scenario and is dropped as soon as the state of a
+ * scenario may change, see {@link #invalidateScenarioResults()}.
+ *
+ * When the fsms are handled by several threads, see
+ * {@link #setThreadConfined(boolean)}, each thread has its own results.
+ *
+ * @author mmartin
+ */
+public class TmfXmlValidatorCache {
+
+    private final boolean[] fEventOnly;
+    private final Results fResults;
+    private final List<Results> fAllResults = new ArrayList<>();
+    private volatile @Nullable ThreadLocal<Results> fThreadResults = null;
+
+    /**
+     * Results of the validators for the event being handled by a thread
+     */
+    private static final class Results {
+        private final long[] fEventStamps;
+        private final boolean[] fEventResults;
+        private final Object[] fScenarioKeys;
+        private final long[] fScenarioStamps;
+        private final boolean[] fScenarioResults;
+
+        /* Stamps start at 1 so that the empty entries are never valid */
+        private long fEventStamp = 1;
+        private long fScenarioStamp = 1;
+        private long fHits = 0;
+        private long fMisses = 0;
+
+        public Results(int size) {
+            fEventStamps = new long[size];
+            fEventResults = new boolean[size];
+            fScenarioKeys = new Object[size];
+            fScenarioStamps = new long[size];
+            fScenarioResults = new boolean[size];
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param validators
+     *            The validators of the pattern. Each one is given an index in
+     *            this cache.
+     */
+    public TmfXmlValidatorCache(Collection<TmfXmlTransitionValidator> validators) {
+        int size = validators.size();
+        fEventOnly = new boolean[size];
+        fResults = new Results(size);
+        fAllResults.add(fResults);
+        int index = 0;
+        for (TmfXmlTransitionValidator validator : validators) {
+            fEventOnly[index] = validator.isEventOnly();
+            validator.setCache(this, index);
+            index++;
+        }
+    }
+
+    /**
+     * Keep separate results for each thread using this cache. This must be set
+     * before the fsms are handled by several threads.
+     *
+     * @param threadConfined
+     *            True if the cache is used by several threads
+     */
+    public synchronized void setThreadConfined(boolean threadConfined) {
+        if (!threadConfined) {
+            fThreadResults = null;
+            return;
+        }
+        if (fThreadResults != null) {
+            return;
+        }
+        fThreadResults = ThreadLocal.withInitial(() -> {
+            Results results = new Results(fEventOnly.length);
+            synchronized (this) {
+                fAllResults.add(results);
+            }
+            return results;
+        });
+    }
+
+    private Results getResults() {
+        ThreadLocal<Results> threadResults = fThreadResults;
+        return (threadResults == null) ? fResults : threadResults.get();
+    }
+
+    /**
+     * Drop every result, a new event is being handled
+     */
+    public void newEvent() {
+        Results results = getResults();
+        results.fEventStamp++;
+        results.fScenarioStamp++;
+    }
+
+    /**
+     * Drop the results that depend on a scenario or on the state system. This
+     * must be called before the state of a scenario or the state system is
+     * modified.
+     */
+    public void invalidateScenarioResults() {
+        getResults().fScenarioStamp++;
+    }
+
+    /**
+     * Get the result of a validator for the current event
+     *
+     * @param validator
+     *            The validator
+     * @param index
+     *            The index of the validator in this cache
+     * @param event
+     *            The current event
+     * @param scenarioInfo
+     *            The active scenario details, or null
+     * @return The result of the validator
+     */
+    boolean test(TmfXmlTransitionValidator validator, int index, ITmfEvent event, @Nullable TmfXmlScenarioInfo scenarioInfo) {
+        Results results = getResults();
+        if (fEventOnly[index]) {
+            if (results.fEventStamps[index] == results.fEventStamp) {
+                results.fHits++;
+                return results.fEventResults[index];
+            }
+            results.fMisses++;
+            boolean result = validator.evaluate(event, scenarioInfo);
+            results.fEventResults[index] = result;
+            results.fEventStamps[index] = results.fEventStamp;
+            return result;
+        }
+        if (results.fScenarioStamps[index] == results.fScenarioStamp && results.fScenarioKeys[index] == scenarioInfo) {
+            results.fHits++;
+            return results.fScenarioResults[index];
+        }
+        results.fMisses++;
+        boolean result = validator.evaluate(event, scenarioInfo);
+        results.fScenarioResults[index] = result;
+        results.fScenarioKeys[index] = scenarioInfo;
+        results.fScenarioStamps[index] = results.fScenarioStamp;
+        return result;
+    }
+
+    /**
+     * Get the number of validator results that were reused
+     *
+     * @return The number of hits
+     */
+    public synchronized long getHits() {
+        long hits = 0;
+        for (Results results : fAllResults) {
+            hits += results.fHits;
+        }
+        return hits;
+    }
+
+    /**
+     * Get the number of validator results that had to be computed
+     *
+     * @return The number of misses
+     */
+    public synchronized long getMisses() {
+        long misses = 0;
+        for (Results results : fAllResults) {
+            misses += results.fMisses;
+        }
+        return misses;
+    }
+}
@@ -13,6 +13,7 @@
 package org.eclipse.tracecompass.incubator.coherence.core.module;
 
 import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlEventTypes;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlLocation;
 import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
 
@@ -50,4 +51,22 @@ public interface IXmlStateSystemContainer extends ITmfXmlTopLevelElement {
      */
     @NonNull Iterable<@NonNull TmfXmlLocation> getLocations();
 
+    /**
+     * Get the registry of the event types seen by this XML object, shared by
+     * the model elements it contains
+     *
+     * @return The registry of the event types
+     */
+    @NonNull TmfXmlEventTypes getEventTypes();
+
+    /**
+     * Get whether the model elements of this XML object are used by several
+     * threads at once, so their caches must be locked
+     *
+     * @return True if the events are handled by several threads
+     */
+    default boolean isMultiThreaded() {
+        return false;
+    }
+
 }
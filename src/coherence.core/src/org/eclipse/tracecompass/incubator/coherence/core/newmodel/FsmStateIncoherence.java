@@ -1,55 +1,147 @@
 package org.eclipse.tracecompass.incubator.coherence.core.newmodel;
 
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfInferredEvent;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlFsm;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlIncoherenceBuffer;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.timestamp.ITmfTimestamp;
+import org.eclipse.tracecompass.tmf.core.timestamp.TmfTimestamp;
 
+/**
+ * An incoherence found in an fsm, a view of a record of the
+ * {@link TmfXmlIncoherenceBuffer} of the fsm. The events of the incoherence
+ * are read again from the trace when they are first needed, and kept while
+ * there is enough memory.
+ *
+ * @author mmartin
+ */
 public class FsmStateIncoherence {
 	
-	/* The incoherent event */
-	private final ITmfEvent fIncoherentEvent;
-	/* The attribute of the scenario on which the incoherent event was detected */
-	private final String fScenarioAttribute;
-	/* The last coherent event before the incoherent one */
-	private final ITmfEvent fPrevEvent;
-	/* The name of the state the scenario was in when the coherent event happened */
-	private final String fLastCoherentStateName;
+	/* The fsm where the incoherence was found */
+	private final TmfXmlFsm fFsm;
+	/* The record of the incoherence */
+	private final TmfXmlIncoherenceBuffer fBuffer;
+	private final int fIndex;
+	/* The events read from the trace, null until they are read */
+	private @Nullable SoftReference<@Nullable ITmfEvent> fIncoherentEvent = null;
+	private @Nullable SoftReference<@Nullable ITmfEvent> fPrevEvent = null;
 	/* The list of inferred transitions computed for this incoherence */
 	private List<TmfXmlFsmTransition> fInferredTransitions = new ArrayList<>();
 	/* The list of inferred events computed for this incoherence, and the associated inferred transition (as key) */
 	private Map<TmfXmlFsmTransition, TmfInferredEvent> fInferredEvents = new HashMap<>();
 
-	
-	public FsmStateIncoherence(ITmfEvent incoherentEvent, String scenarioAttribute, ITmfEvent prevEvent, String currentStateName) {
-		fIncoherentEvent = incoherentEvent;
-		fScenarioAttribute = scenarioAttribute;
-		fPrevEvent = prevEvent;
-		fLastCoherentStateName = currentStateName;
+	/**
+	 * Constructor
+	 * 
+	 * @param fsm
+	 * 			The fsm where the incoherence was found
+	 * @param buffer
+	 * 			The incoherences of the fsm
+	 * @param index
+	 * 			The index of this incoherence in the buffer
+	 */
+	public FsmStateIncoherence(TmfXmlFsm fsm, TmfXmlIncoherenceBuffer buffer, int index) {
+		fFsm = fsm;
+		fBuffer = buffer;
+		fIndex = index;
 	}
 
-	
-	public ITmfEvent getIncoherentEvent() {
-		return fIncoherentEvent;
+	/**
+	 * Get the incoherent event, read again from the trace the first time
+	 * 
+	 * @return
+	 * 			The incoherent event, or null if it cannot be read
+	 */
+	public synchronized @Nullable ITmfEvent getIncoherentEvent() {
+		SoftReference<@Nullable ITmfEvent> cached = fIncoherentEvent;
+		ITmfEvent event = (cached == null) ? null : cached.get();
+		if (event == null) {
+			event = fBuffer.readEvent(fBuffer.getEvent(fIndex));
+			fIncoherentEvent = new SoftReference<>(event);
+		}
+		return event;
+	}
+
+	/**
+	 * Get the timestamp of the incoherent event, without reading it
+	 * 
+	 * @return
+	 * 			The timestamp of the incoherent event
+	 */
+	public ITmfTimestamp getIncoherentTimestamp() {
+		return TmfTimestamp.fromNanos(fBuffer.getTime(fIndex));
 	}
 
 	public String getScenarioAttribute() {
-		return fScenarioAttribute;
+		return fFsm.getScenarioModel().toAttribute(getScenarioKey());
+	}
+	
+	/**
+	 * Get the attribute of the scenario on which the incoherent event was detected
+	 * 
+	 * @return
+	 * 			The attribute, as a scenario key
+	 */
+	public long getScenarioKey() {
+		return fBuffer.getScenarioKey(fIndex);
 	}
 
-	public ITmfEvent getPrevEvent() {
-		return fPrevEvent;
+	/**
+	 * Get the last coherent event before the incoherent one, read again from the trace the first time
+	 * 
+	 * @return
+	 * 			The event, or null if there is none
+	 */
+	public synchronized @Nullable ITmfEvent getPrevEvent() {
+		SoftReference<@Nullable ITmfEvent> cached = fPrevEvent;
+		ITmfEvent event = (cached == null) ? null : cached.get();
+		if (event == null) {
+			event = fBuffer.readEvent(fBuffer.getPrevEvent(fIndex));
+			fPrevEvent = new SoftReference<>(event);
+		}
+		return event;
+	}
+
+	/**
+	 * Get the timestamp of the last coherent event before the incoherent one, without reading it
+	 * 
+	 * @return
+	 * 			The timestamp, or null if there is no such event
+	 */
+	public @Nullable ITmfTimestamp getPrevTimestamp() {
+		long time = fBuffer.getPrevTime(fIndex);
+		return (time == TmfXmlIncoherenceBuffer.NO_TIME) ? null : TmfTimestamp.fromNanos(time);
 	}
 	
 	public String getLastCoherentStateName() {
-		return fLastCoherentStateName;
+		return fFsm.getStateId(fBuffer.getStateIndex(fIndex));
+	}
+
+	/**
+	 * Get the transitions that could have been taken by the incoherent event
+	 * 
+	 * @return
+	 * 			The possible transitions
+	 */
+	public Set<TmfXmlFsmTransition> getPossibleTransitions() {
+		Set<TmfXmlFsmTransition> transitions = new LinkedHashSet<>();
+		for (int id : fBuffer.getTransitionIds(fIndex)) {
+			TmfXmlFsmTransition transition = fFsm.getFsmTransition(id);
+			if (transition != null) {
+				transitions.add(transition);
+			}
+		}
+		return transitions;
 	}
 
 	public List<TmfXmlFsmTransition> getInferredTransitions() {
@@ -95,13 +187,13 @@ public class FsmStateIncoherence {
 			 * is associated with this transition, and so this is the transition
 			 * associated with the incoherent event
 			 */
-			return (inferredEvent != null) ? inferredEvent : fIncoherentEvent;
+			return (inferredEvent != null) ? inferredEvent : getIncoherentEvent();
 		}
 		return null;
 	}
 	
 	/**
-	 * Two FsmStateIncoherence are equal if the incoherent event is the same and it happened on the same scenario
+	 * Two FsmStateIncoherence are equal if they are the same record of the same fsm
 	 * (because no event can be twice incoherent for a given scenario)
 	 */
 	@Override
@@ -111,16 +203,12 @@ public class FsmStateIncoherence {
 		}
 		
 		FsmStateIncoherence other = (FsmStateIncoherence) obj;
-		if ((other.fIncoherentEvent == fIncoherentEvent) && (other.fScenarioAttribute == fScenarioAttribute)) {
-			return true;
-		}
-		
-		return false;
+		return (other.fBuffer == fBuffer) && (other.fIndex == fIndex);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(fIncoherentEvent, fScenarioAttribute);
+		return 31 * System.identityHashCode(fBuffer) + fIndex;
 	}
 
 }
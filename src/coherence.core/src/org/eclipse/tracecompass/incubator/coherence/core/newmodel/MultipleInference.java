@@ -24,6 +24,16 @@ public class MultipleInference {
 		return fChoice;
 	}
 	
+	/**
+	 * Get the index of the value chosen among the possible values
+	 * 
+	 * @return
+	 * 			The index of the choice, or -1 if no value was chosen yet
+	 */
+	public int getChoiceIndex() {
+		return (fChoice == null) ? -1 : fPossibilities.indexOf(fChoice);
+	}
+	
 	public List<TmfEventField> getPossibilites() {
 		return fPossibilities;
 	}
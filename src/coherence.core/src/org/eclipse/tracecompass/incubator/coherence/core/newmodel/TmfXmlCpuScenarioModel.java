@@ -1,11 +1,7 @@
 package org.eclipse.tracecompass.incubator.coherence.core.newmodel;
 
-import java.util.ArrayList;
-import java.util.List;
-
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlEventAspects;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
-import org.eclipse.tracecompass.tmf.core.event.aspect.TmfCpuAspect;
-import org.eclipse.tracecompass.tmf.core.trace.TmfTraceUtils;
 
 public class TmfXmlCpuScenarioModel extends TmfXmlScenarioModel {
 
@@ -14,15 +10,20 @@ public class TmfXmlCpuScenarioModel extends TmfXmlScenarioModel {
 	}
 
 	@Override
-	public List<String> getAttributesForEvent(ITmfEvent event) {
-		List<String> attributes = new ArrayList<>();
+	public int getMaxAttributes() {
+		return 1;
+	}
+
+	@Override
+	public int getAttributesForEvent(ITmfEvent event, long[] keys) {
+		int count = 0;
 		
-		Object cpuAspect = TmfTraceUtils.resolveEventAspectOfClassForEvent(event.getTrace(), TmfCpuAspect.class, event);
-		if (cpuAspect != null) {
-			attributes.add(((Integer) cpuAspect).toString());
+		int cpu = TmfXmlEventAspects.getCpu(event);
+		if (cpu != TmfXmlEventAspects.NO_VALUE) {
+			keys[count++] = cpu;
 		}
 		
-		return attributes;
+		return count;
 	}
 
 }
@@ -1,8 +1,5 @@
 package org.eclipse.tracecompass.incubator.coherence.core.newmodel;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.eclipse.tracecompass.analysis.os.linux.core.kernel.KernelTidAspect;
 import org.eclipse.tracecompass.analysis.os.linux.core.trace.IKernelAnalysisEventLayout;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
@@ -20,16 +17,21 @@ public class TmfXmlEvalScenarioModel extends TmfXmlScenarioModel {
 	}
 
 	@Override
-	public List<String> getAttributesForEvent(ITmfEvent event) {
-		List<String> attributes = new ArrayList<>();
+	public int getMaxAttributes() {
+		return 1;
+	}
+
+	@Override
+	public int getAttributesForEvent(ITmfEvent event, long[] keys) {
+		int count = 0;
 		ITmfEventField content = event.getContent();
     	
     	ITmfEventField attr = content.getField("obj_id");
     	if (attr != null) {
-    		attributes.add(attr.getValue().toString());
+    		keys[count++] = toKey(attr.getValue());
     	}
 	    	    	
-    	return attributes;
+    	return count;
 	}
 
 }
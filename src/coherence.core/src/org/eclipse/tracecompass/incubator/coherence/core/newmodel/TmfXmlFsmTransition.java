@@ -6,29 +6,70 @@ import java.util.regex.Pattern;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlState;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlStateTransition;
 
+/**
+ * A transition of an FSM, from a state, for an event name or pattern.
+ *
+ * The transitions taken while handling events are flyweights created once by
+ * the {@link org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlFsm}
+ * for each (state, transition, event type), with a stable ID and the indexes
+ * of their source and target states. The other transitions have an ID of
+ * {@link #NO_ID}.
+ *
+ * @author mmartin
+ */
 public class TmfXmlFsmTransition {
 	
+	/** ID of the transitions that are not flyweights of an FSM */
+	public static final int NO_ID = -1;
+
 	private final TmfXmlStateTransition fTransitionTo;
 	private final TmfXmlState fFromState;
 	private final String fEvent;
+	private final int fId;
+	private final int fFromIndex;
+	private final int fTargetIndex;
+	private final int fHash;
 
 	public static TmfXmlFsmTransition UNDEFINED = new TmfXmlFsmTransition(null, null, "");
 	
 	public TmfXmlFsmTransition(TmfXmlStateTransition transitionTo, TmfXmlState fromState, Pattern eventPattern) {
-		fTransitionTo = transitionTo;
-		fFromState = fromState;
-		fEvent = eventPattern.toString();
+		this(transitionTo, fromState, eventPattern.toString());
 	}
 	
 	public TmfXmlFsmTransition(TmfXmlStateTransition transitionTo, TmfXmlState fromState, String eventName) {
+		this(NO_ID, transitionTo, fromState, NO_ID, NO_ID, eventName);
+	}
+
+	/**
+	 * Constructor of a flyweight transition
+	 *
+	 * @param id
+	 *            The ID of this transition in its FSM
+	 * @param transitionTo
+	 *            The state transition
+	 * @param fromState
+	 *            The source state
+	 * @param fromIndex
+	 *            The index of the source state in its FSM
+	 * @param targetIndex
+	 *            The index of the target state in its FSM
+	 * @param eventName
+	 *            The event name
+	 */
+	public TmfXmlFsmTransition(int id, TmfXmlStateTransition transitionTo, TmfXmlState fromState, int fromIndex, int targetIndex, String eventName) {
+		fId = id;
 		fTransitionTo = transitionTo;
 		fFromState = fromState;
-		fEvent = eventName;;
+		fFromIndex = fromIndex;
+		fTargetIndex = targetIndex;
+		fEvent = eventName;
+		/* The fields are immutable, so the hash is computed only once */
+		fHash = (transitionTo == null || fromState == null) ? 0 : Objects.hash(transitionTo.getTarget(), fromState.toString(), eventName);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(fTransitionTo.getTarget(), fFromState.toString(), fEvent);
+		return fHash;
 	}
 
 	@Override
@@ -58,5 +99,32 @@ public class TmfXmlFsmTransition {
 	public String getEvent() {
 		return fEvent;
 	}
+
+	/**
+	 * Get the ID of this transition in its FSM
+	 *
+	 * @return The ID, or {@link #NO_ID} if this is not a flyweight
+	 */
+	public int getId() {
+		return fId;
+	}
+
+	/**
+	 * Get the index of the source state in the FSM
+	 *
+	 * @return The index, or {@link #NO_ID} if this is not a flyweight
+	 */
+	public int getFromIndex() {
+		return fFromIndex;
+	}
+
+	/**
+	 * Get the index of the target state in the FSM
+	 *
+	 * @return The index, or {@link #NO_ID} if this is not a flyweight
+	 */
+	public int getTargetIndex() {
+		return fTargetIndex;
+	}
 	
 }
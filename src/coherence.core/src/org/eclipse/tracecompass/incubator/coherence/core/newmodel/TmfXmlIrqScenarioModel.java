@@ -1,11 +1,7 @@
 package org.eclipse.tracecompass.incubator.coherence.core.newmodel;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import org.eclipse.tracecompass.analysis.os.linux.core.kernel.KernelTidAspect;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlEventAspects;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
-import org.eclipse.tracecompass.tmf.core.trace.TmfTraceUtils;
 
 public class TmfXmlIrqScenarioModel extends TmfXmlScenarioModel {
 
@@ -14,15 +10,20 @@ public class TmfXmlIrqScenarioModel extends TmfXmlScenarioModel {
 	}
 
 	@Override
-	public List<String> getAttributesForEvent(ITmfEvent event) {
-		List<String> attributes = new ArrayList<>();
+	public int getMaxAttributes() {
+		return 1;
+	}
+
+	@Override
+	public int getAttributesForEvent(ITmfEvent event, long[] keys) {
+		int count = 0;
 		
-		Object tidAspect = TmfTraceUtils.resolveEventAspectOfClassForEvent(event.getTrace(), KernelTidAspect.class, event);
-		if (tidAspect != null) {
-			attributes.add(((Integer) tidAspect).toString());
+		int tid = TmfXmlEventAspects.getTid(event);
+		if (tid != TmfXmlEventAspects.NO_VALUE) {
+			keys[count++] = tid;
 		}
 		
-		return attributes;
+		return count;
 	}
 
 }
@@ -1,13 +1,9 @@
 package org.eclipse.tracecompass.incubator.coherence.core.newmodel;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import org.eclipse.tracecompass.analysis.os.linux.core.kernel.KernelTidAspect;
 import org.eclipse.tracecompass.analysis.os.linux.core.trace.IKernelAnalysisEventLayout;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlEventAspects;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEventField;
-import org.eclipse.tracecompass.tmf.core.trace.TmfTraceUtils;
 
 public class TmfXmlProcessScenarioModel extends TmfXmlScenarioModel {
 	
@@ -20,35 +16,40 @@ public class TmfXmlProcessScenarioModel extends TmfXmlScenarioModel {
 	}
 
 	@Override
-	public List<String> getAttributesForEvent(ITmfEvent event) {
-		List<String> attributes = new ArrayList<>();
+	public int getMaxAttributes() {
+		return 2;
+	}
+
+	@Override
+	public int getAttributesForEvent(ITmfEvent event, long[] keys) {
+		int count = 0;
 		ITmfEventField content = event.getContent();
     	
     	// We want to collect tid information for process FSM
     	if (event.getName().equals("sched_switch")) {
 	    	ITmfEventField prevTid = content.getField(fLayout.fieldPrevTid());
 	    	if (prevTid != null) {
-	    		attributes.add(prevTid.getValue().toString());
+	    		keys[count++] = toKey(prevTid.getValue());
 	    	}
 	    	
 	    	ITmfEventField nextTid = content.getField(fLayout.fieldNextTid());
 	    	if (nextTid != null) {
-	    		attributes.add(nextTid.getValue().toString());
+	    		keys[count++] = toKey(nextTid.getValue());
 	    	}
     	}
     	else {
 	    	ITmfEventField childTid = content.getField(fLayout.fieldChildTid());
 	    	if (childTid != null) {
-	    		attributes.add(childTid.getValue().toString());
+	    		keys[count++] = toKey(childTid.getValue());
 	    	}
 	    	
-			Object tidAspect = TmfTraceUtils.resolveEventAspectOfClassForEvent(event.getTrace(), KernelTidAspect.class, event);
-			if (tidAspect != null) {
-				attributes.add(((Integer) tidAspect).toString());
+			int tid = TmfXmlEventAspects.getTid(event);
+			if (tid != TmfXmlEventAspects.NO_VALUE) {
+				keys[count++] = tid;
 			}
     	}
     	
-    	return attributes;
+    	return count;
 	}
 
 }
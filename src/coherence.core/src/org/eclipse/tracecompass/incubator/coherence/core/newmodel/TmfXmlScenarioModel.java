@@ -1,11 +1,128 @@
 package org.eclipse.tracecompass.incubator.coherence.core.newmodel;
 
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.statesystem.core.statevalue.ITmfStateValue;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
 
+/**
+ * Model giving the attributes of the scenarios an event applies to. The
+ * attributes are the keys of the scenarios, as longs, so that no object is
+ * allocated for each event.
+ *
+ * The numeric attributes are their own key. The other ones are interned: each
+ * distinct value gets a key counting up from {@link #NO_KEY} + 1, stable for
+ * the life of the model, so the key computed from an event field and the one
+ * read from the attribute of a scenario are the same.
+ *
+ * @author mmartin
+ */
 public abstract class TmfXmlScenarioModel {
 	
-	public abstract List<String> getAttributesForEvent(ITmfEvent event);
+	/** Key of a missing attribute, it matches no scenario */
+	public static final long NO_KEY = Long.MIN_VALUE;
+	
+	/* The interned attributes that are not numbers, both ways */
+	private final Map<String, Long> fInternedKeys = new ConcurrentHashMap<>();
+	private final Map<Long, String> fInternedValues = new ConcurrentHashMap<>();
+	
+	/**
+	 * Get the maximum number of attributes this model can find in an event
+	 *
+	 * @return The size of the buffer to give to {@link #getAttributesForEvent}
+	 */
+	public abstract int getMaxAttributes();
+	
+	/**
+	 * Write the keys of the scenarios an event applies to
+	 *
+	 * @param event
+	 *            The event
+	 * @param keys
+	 *            The buffer to fill, of at least {@link #getMaxAttributes()}
+	 *            elements. It is reused by the caller.
+	 * @return The number of keys written in the buffer
+	 */
+	public abstract int getAttributesForEvent(ITmfEvent event, long[] keys);
+	
+	/**
+	 * Convert the value of a field or an aspect to a scenario key
+	 *
+	 * @param value
+	 *            The value
+	 * @return The key, or {@link #NO_KEY} if there is no value
+	 */
+	protected long toKey(@Nullable Object value) {
+		if (value instanceof Long || value instanceof Integer) {
+			return ((Number) value).longValue();
+		}
+		if (value == null) {
+			return NO_KEY;
+		}
+		String string = value.toString();
+		try {
+			return Long.parseLong(string);
+		} catch (NumberFormatException e) {
+			return intern(string);
+		}
+	}
+	
+	/**
+	 * Convert the attribute of a scenario, as saved in the state system, to a
+	 * scenario key
+	 *
+	 * @param value
+	 *            The value of the attribute
+	 * @return The key, or {@link #NO_KEY} if the value is null
+	 */
+	public long toKey(ITmfStateValue value) {
+		switch (value.getType()) {
+		case INTEGER:
+			return value.unboxInt();
+		case LONG:
+			return value.unboxLong();
+		case STRING:
+			return toKey(value.unboxStr());
+		case NULL:
+			return NO_KEY;
+		case DOUBLE:
+		case CUSTOM:
+		default:
+			return toKey(value.toString());
+		}
+	}
+	
+	/**
+	 * Get the attribute of a key, as a string
+	 *
+	 * @param key
+	 *            The key
+	 * @return The attribute, empty for {@link #NO_KEY}
+	 */
+	public String toAttribute(long key) {
+		if (key == NO_KEY) {
+			return ""; //$NON-NLS-1$
+		}
+		String value = fInternedValues.get(key);
+		return (value == null) ? String.valueOf(key) : value;
+	}
+	
+	private long intern(String value) {
+		Long key = fInternedKeys.get(value);
+		if (key != null) {
+			return key;
+		}
+		synchronized (this) {
+			key = fInternedKeys.get(value);
+			if (key == null) {
+				key = NO_KEY + 1 + fInternedKeys.size();
+				fInternedValues.put(key, value);
+				fInternedKeys.put(value, key);
+			}
+			return key;
+		}
+	}
 
 }
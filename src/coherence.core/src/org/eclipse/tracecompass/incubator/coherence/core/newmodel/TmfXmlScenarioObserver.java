@@ -1,7 +1,6 @@
 package org.eclipse.tracecompass.incubator.coherence.core.newmodel;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -13,12 +12,15 @@ import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tracecompass.incubator.coherence.core.Activator;
 import org.eclipse.tracecompass.incubator.coherence.core.model.ITmfXmlAction;
 import org.eclipse.tracecompass.incubator.coherence.core.model.ITmfXmlModelFactory;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlEventAspects;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlIncoherenceBuffer.EventStamp;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlPatternEventHandler;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlScenario;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlScenarioInfo;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlScenarioHistoryBuilder.ScenarioStatusType;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlState;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlStateTransition;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlTransitionCounters;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlTransitionValidator;
 import org.eclipse.tracecompass.incubator.coherence.core.module.IXmlStateSystemContainer;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
@@ -33,28 +35,30 @@ import org.eclipse.tracecompass.tmf.core.event.ITmfLostEvent;
 public abstract class TmfXmlScenarioObserver extends TmfXmlScenario {
 	
 	ITmfEvent lastEvent; // the last event having been handled
+	int lastEventTypeId; // the type ID of the last event
 	Set<TmfXmlFsmTransition> currentPossibleTransitions = new HashSet<>();
 	
 	public static String ALGO1 = "naive";
 	public static String ALGO2 = "optimized";
 	
+	/* An incoherence found before the attribute of the scenario is set, without references to the events */
 	private class WaitingProblematicEvent {
-		public WaitingProblematicEvent(ITmfEvent event, Set<TmfXmlFsmTransition> currentPossibleTransitions, 
-				String activeState, ITmfEvent lastEvent) {
+		public WaitingProblematicEvent(EventStamp event, Set<TmfXmlFsmTransition> currentPossibleTransitions, 
+				int activeState, @Nullable EventStamp lastEvent) {
 			this.event = event;
-			this.currentPossibleTransitions = new HashSet<>(currentPossibleTransitions);
+			this.transitionIds = fFsm.getTransitionIds(currentPossibleTransitions);
 			this.activeState = activeState;
 			this.lastEvent = lastEvent;
 		}
-		ITmfEvent event;
-		Set<TmfXmlFsmTransition> currentPossibleTransitions;
-		String activeState;
-		ITmfEvent lastEvent;
+		EventStamp event;
+		int[] transitionIds;
+		int activeState;
+		EventStamp lastEvent;
 	}
 	
 	List<WaitingProblematicEvent> waitingEvents = new ArrayList<>();
 	
-	private Map<TmfXmlFsmTransition, Long> fTransitionsCounters = new HashMap<>();
+	private final TmfXmlTransitionCounters fTransitionsCounters = new TmfXmlTransitionCounters();
 	
     /**
      * Constructor
@@ -75,13 +79,14 @@ public abstract class TmfXmlScenarioObserver extends TmfXmlScenario {
     /**
      * Computes the list of every possible transition, including the transition from the current state
      * @param event
+     * @param typeId
      * @param statesMap
      * @param scenarioInfo
      * @param patternHandler
      * @return
      * 			The list of possible transitions
      */
-    public static Set<TmfXmlFsmTransition> computePossibleTransitions(ITmfEvent event, 
+    public static Set<TmfXmlFsmTransition> computePossibleTransitions(ITmfEvent event, int typeId, 
     		Map<String, TmfXmlState> statesMap, 
     		TmfXmlScenarioInfo scenarioInfo,
     		Map<String, TmfXmlTransitionValidator> testMap) {
@@ -94,7 +99,7 @@ public abstract class TmfXmlScenarioObserver extends TmfXmlScenario {
             // We check every transition of the state
             for (int i = 0; i < state.getTransitionList().size(); i++) {
                 stateTransition = state.getTransitionList().get(i);
-                if (stateTransition.test(event, scenarioInfo, testMap)) { // true if the transition can be taken
+                if (stateTransition.test(event, typeId, scenarioInfo, testMap)) { // true if the transition can be taken
                     TmfXmlFsmTransition fsmTransition = new TmfXmlFsmTransition(stateTransition, state, event.getName());
                     possibleTransitions.add(fsmTransition);
                 }
@@ -134,62 +139,73 @@ public abstract class TmfXmlScenarioObserver extends TmfXmlScenario {
      *
      * @param event
      *            The event to check
+     * @param typeId
+     *            The ID of the type of the event
      *
      * @return True if event is coherent, false otherwise
      */
-    protected abstract boolean checkEvent(ITmfEvent event);
+    protected abstract boolean checkEvent(ITmfEvent event, int typeId);
     
     public void increaseTransitionCounter(TmfXmlFsmTransition transition) {
-		Long value = (fTransitionsCounters.containsKey(transition)) ? fTransitionsCounters.get(transition) + 1 : 1;
-		fTransitionsCounters.put(transition, value);
+		fTransitionsCounters.increment(transition.getId());
 	}
 
     @Override
-    public void handleEvent(ITmfEvent event, boolean isCoherenceCheckingNeeded, int transitionTotal) {
+    public void handleEvent(ITmfEvent event, int typeId, boolean isCoherenceCheckingNeeded, int transitionTotal) {
     	// Clear current possible transitions set as we receive a new event
     	currentPossibleTransitions.clear();
+    	invalidateTestResults();
 
         if (event instanceof ITmfLostEvent) {
-        	// The entry state becomes uncertain
-        	updateCertainty(false, event.getTimestamp().getValue());
-        	
-        	if (!fPatternHandler.startChecking()) {    	
-	        	// We start checking the coherence of events when we receive the first 'Lost event'
-	        	fPatternHandler.setStartChecking(true);
-        	}
+        	/*
+        	 * The lost event was recorded by the fsm, which starts the checking.
+        	 * The scenario becomes uncertain if it is affected, like the active
+        	 * scenarios do before their next event.
+        	 */
+        	applyLostEvents(TmfXmlEventAspects.getCpu(event));
         }
         
 
-        TmfXmlStateTransition out = fFsm.next(event, fPatternHandler.getTestMap(), fScenarioInfo);
+        TmfXmlStateTransition out = fFsm.next(event, typeId, fPatternHandler.getTestMap(), fScenarioInfo);
         if (out == null) { // No transition from the current state has been found
             /* If there is no transition and checking is needed, we need to check the coherence of the event */
         	boolean mustContinue = false;
-			if (isCoherenceCheckingNeeded && !((boolean) checkEvent(event))) {
+			if (isCoherenceCheckingNeeded && !((boolean) checkEvent(event, typeId))) {
 			    // Save incoherences
-				if (fAttribute == null) {
-					waitingEvents.add(new WaitingProblematicEvent(event, currentPossibleTransitions, fFsm.getStatesMap().get(fScenarioInfo.getActiveState()).getId(), lastEvent));
+				EventStamp eventStamp = EventStamp.of(event, typeId);
+				EventStamp lastEventStamp = (lastEvent == null) ? null : EventStamp.of(lastEvent, lastEventTypeId);
+				if (!fAttributeSet) {
+					waitingEvents.add(new WaitingProblematicEvent(eventStamp, currentPossibleTransitions, fScenarioInfo.getActiveStateIndex(), lastEventStamp));
 		        }
 				else {
-					fFsm.addProblematicEvent(event, fAttribute, currentPossibleTransitions, fFsm.getStatesMap().get(fScenarioInfo.getActiveState()).getId(), lastEvent); // currentPossibleTransitions has been set in checkEvent
+					int[] transitionIds = fFsm.getTransitionIds(currentPossibleTransitions); // currentPossibleTransitions has been set in checkEvent
+					fFsm.addProblematicEvent(eventStamp, fAttribute, transitionIds, transitionIds.length, fScenarioInfo.getActiveStateIndex(), lastEventStamp);
 				}
 				// Update scenario state to error
-				fScenarioInfo.setActiveState(fFsm.getErrorStateId());
+				invalidateTestResults();
+				fScenarioInfo.setActiveState(fFsm.getErrorStateIndex());
 		        fHistoryBuilder.update(fContainer, fScenarioInfo, event);
 		        // Try to find a transition from error right now
-		        out = fFsm.next(event, fPatternHandler.getTestMap(), fScenarioInfo);
+		        out = fFsm.next(event, typeId, fPatternHandler.getTestMap(), fScenarioInfo);
 		        mustContinue = out != null;
 			}
 			lastEvent = event;
+			lastEventTypeId = typeId;
 			if (!mustContinue) {
 				return;
 			}
         }
         
         lastEvent = event;
+        lastEventTypeId = typeId;
+        invalidateTestResults();
         
         // Increase transitions counter
-        TmfXmlState currentState = fFsm.getStatesMap().get(fScenarioInfo.getActiveState());
-        TmfXmlFsmTransition fsmTransition = new TmfXmlFsmTransition(out, currentState, event.getName());
+        TmfXmlState currentState = fFsm.getState(fScenarioInfo.getActiveStateIndex());
+        TmfXmlFsmTransition fsmTransition = (currentState == null) ? null : fFsm.getFsmTransition(currentState, out, typeId);
+        if (fsmTransition == null) {
+            fsmTransition = new TmfXmlFsmTransition(out, currentState, event.getName());
+        }
         fFsm.increaseTransitionCounter(fsmTransition);
         increaseTransitionCounter(fsmTransition);
         
@@ -213,37 +229,43 @@ public abstract class TmfXmlScenarioObserver extends TmfXmlScenario {
         }
         
         // Update the certainty status to certain if the transition is appropriate
-        if (fFsm.isCertain(event, out)) {
-        	fHistoryBuilder.updateCertaintyStatus(true, fContainer, fScenarioInfo, event.getTimestamp().getValue());
+        if (fFsm.isCertain(typeId, out)) {
+        	updateCertainty(true, event.getTimestamp().getValue());
         }
 
         // Change the activeState
-        final @NonNull String nextState = out.getTarget();
+        final int nextState = (fsmTransition.getTargetIndex() != TmfXmlFsmTransition.NO_ID) ? fsmTransition.getTargetIndex() : fFsm.getStateIndex(out.getTarget());
         if (fScenarioInfo.getStatus().equals(ScenarioStatusType.PENDING)) {
             fScenarioInfo.setStatus(ScenarioStatusType.IN_PROGRESS);
             fHistoryBuilder.startScenario(fContainer, fScenarioInfo, event);
-        } else if (nextState.equals(fFsm.getAbandonStateId())) {
+        } else if (nextState == fFsm.getAbandonStateIndex()) {
             fScenarioInfo.setStatus(ScenarioStatusType.ABANDONED);
             fHistoryBuilder.completeScenario(fContainer, fScenarioInfo, event);
-        } else if (nextState.equals(fFsm.getFinalStateId())) {
+        } else if (nextState == fFsm.getFinalStateIndex()) {
             fScenarioInfo.setStatus(ScenarioStatusType.MATCHED);
             fHistoryBuilder.completeScenario(fContainer, fScenarioInfo, event);
         }
         fScenarioInfo.setActiveState(nextState);
         fHistoryBuilder.update(fContainer, fScenarioInfo, event);
         
-        if (fAttribute == null) { // it means this is the first event being handled
-        	fAttribute = setAttribute(); // attribute should be set after the fHistoryBuilder.update
+        if (!fAttributeSet) { // it means this is the first event being handled
+        	setAttribute(); // attribute should be set after the fHistoryBuilder.update
         	if (!waitingEvents.isEmpty()) { // add events that were not added due to the lack of a set attribute
         		for (WaitingProblematicEvent waitingEvent : waitingEvents) {
-        			fFsm.addProblematicEvent(waitingEvent.event, fAttribute, waitingEvent.currentPossibleTransitions, waitingEvent.activeState, waitingEvent.lastEvent);
+        			fFsm.addProblematicEvent(waitingEvent.event, fAttribute, waitingEvent.transitionIds, waitingEvent.transitionIds.length, 
+        					waitingEvent.activeState, waitingEvent.lastEvent);
         		}
         		waitingEvents.clear(); // now we can remove these events
         	}
         }
     }
     
-    public Map<TmfXmlFsmTransition, Long> getTransitionsCounters() {
+    /**
+     * Get the counters of the transitions taken by this scenario
+     *
+     * @return The counters, indexed by the ID of the flyweight transitions
+     */
+    public TmfXmlTransitionCounters getTransitionsCounters() {
     	return fTransitionsCounters;
     }
 
@@ -36,30 +36,27 @@ public class TmfXmlScenarioObserverNaive extends TmfXmlScenarioObserver {
     }
     
     @Override
-    protected boolean checkEvent(ITmfEvent event) {
+    protected boolean checkEvent(ITmfEvent event, int typeId) {
         boolean isCoherent = true;
 
         Map<String, TmfXmlState> states = fFsm.getStatesMap();
-        TmfXmlState currentState = states.get(fScenarioInfo.getActiveState());
+        TmfXmlState currentState = fFsm.getState(fScenarioInfo.getActiveStateIndex());
 
         if (currentState == null) {
             return false;
         }
 
-        TmfXmlStateTransition stateTransition = null;
-
         // We check every state of the FSM
         for (TmfXmlState state : states.values()) {
-            // We check every transition of the state
-            for (int i = 0; i < state.getTransitionList().size(); i++) {
-                stateTransition = state.getTransitionList().get(i);
-                if (stateTransition.test(event, fScenarioInfo, fPatternHandler.getTestMap())) { // true if the transition can be taken
-                    if (!state.getId().equals(currentState.getId())) {
+            // We check every transition of the state accepting this event
+            TmfXmlStateTransition[] candidates = fFsm.getCandidateTransitions(state, typeId);
+            for (int i = 0; i < candidates.length; i++) {
+                if (candidates[i].testConditions(event, fScenarioInfo, fPatternHandler.getTestMap())) { // true if the transition can be taken
+                    if (state != currentState) {
                         /* A transition could have been taken from another state */
                         isCoherent = false;
 	        			// Save the possible transition
-                        TmfXmlFsmTransition fsmTransition = new TmfXmlFsmTransition(stateTransition, state, event.getName());
-                        currentPossibleTransitions.add(fsmTransition);
+                        currentPossibleTransitions.add(fFsm.getFsmTransitions(state, typeId)[i]);
                     }
                 }
             }
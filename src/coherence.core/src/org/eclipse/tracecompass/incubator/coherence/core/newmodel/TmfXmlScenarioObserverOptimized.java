@@ -1,11 +1,5 @@
 package org.eclipse.tracecompass.incubator.coherence.core.newmodel;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tracecompass.incubator.coherence.core.model.ITmfXmlModelFactory;
@@ -42,39 +36,30 @@ public class TmfXmlScenarioObserverOptimized extends TmfXmlScenarioObserver {
     
     
     @Override
-    protected boolean checkEvent(ITmfEvent event) {
+    protected boolean checkEvent(ITmfEvent event, int typeId) {
         boolean isCoherent = true;
         
-        /* Get every key where event name matches
-           and get the associated states */
-        Set<String> prevStates = fFsm.getPrevStates().get(event.getName());
+        /* Get the states having a transition accepting this event type */
+        TmfXmlState[] prevStates = fFsm.getPrevStates(typeId);
         
-        if (prevStates != null) { // we might have a null set if this event is never accepted by any state of the FSM
-	        Map<String, TmfXmlState> states = fFsm.getStatesMap();
-	        TmfXmlState currentState = states.get(fScenarioInfo.getActiveState());
+        if (prevStates.length > 0) { // we might have no state if this event is never accepted by any state of the FSM
+	        TmfXmlState currentState = fFsm.getState(fScenarioInfo.getActiveStateIndex());
 	        	
 	        if (currentState == null) {
 	            return false;
 	        }
 	
-	        TmfXmlStateTransition stateTransition = null;
-	
 	        // We check only in the possible previous states for this event
-	        for (String stateName : prevStates) {
-	        	TmfXmlState state = states.get(stateName);
-	        	if (state == null) { // state is null because stateId in statesMap is not the same as the id of XML state
-	        		state = states.get(TmfXmlState.INITIAL_STATE_ID);
-	        	}
-	            // We check every transition of the state
-	            for (int i = 0; i < state.getTransitionList().size(); i++) {
-	                stateTransition = state.getTransitionList().get(i);
-	                if (stateTransition.test(event, fScenarioInfo, fPatternHandler.getTestMap())) { // true if the transition can be taken
-	                    if (!state.getId().equals(currentState.getId())) {
+	        for (TmfXmlState state : prevStates) {
+	            // We check every transition of the state accepting this event
+	            TmfXmlStateTransition[] candidates = fFsm.getCandidateTransitions(state, typeId);
+	            for (int i = 0; i < candidates.length; i++) {
+	                if (candidates[i].testConditions(event, fScenarioInfo, fPatternHandler.getTestMap())) { // true if the transition can be taken
+	                    if (state != currentState) {
 	                        /* A transition could have been taken from another state */
 	                        isCoherent = false;
 	                        // Save the possible transition
-	                        TmfXmlFsmTransition fsmTransition = new TmfXmlFsmTransition(stateTransition, state, event.getName());
-	                        currentPossibleTransitions.add(fsmTransition);
+	                        currentPossibleTransitions.add(fFsm.getFsmTransitions(state, typeId)[i]);
 	                    }
 	                }
 	            }
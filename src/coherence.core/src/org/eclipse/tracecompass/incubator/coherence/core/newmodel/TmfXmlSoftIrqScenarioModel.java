@@ -1,8 +1,5 @@
 package org.eclipse.tracecompass.incubator.coherence.core.newmodel;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.eclipse.tracecompass.analysis.os.linux.core.trace.IKernelAnalysisEventLayout;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEventField;
@@ -18,16 +15,21 @@ public class TmfXmlSoftIrqScenarioModel extends TmfXmlScenarioModel {
 	}
 
 	@Override
-	public List<String> getAttributesForEvent(ITmfEvent event) {
-		List<String> attributes = new ArrayList<>();
+	public int getMaxAttributes() {
+		return 1;
+	}
+
+	@Override
+	public int getAttributesForEvent(ITmfEvent event, long[] keys) {
+		int count = 0;
 		ITmfEventField content = event.getContent();
 
 		ITmfEventField vecField = content.getField(fLayout.fieldVec());
     	if (vecField != null) {
-    		attributes.add(vecField.getValue().toString());
+    		keys[count++] = toKey(vecField.getValue());
     	}
 	
-    	return attributes;
+    	return count;
 	}
 
 }
@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.datastore.core.interval.IHTIntervalReader;
+import org.eclipse.tracecompass.incubator.coherence.core.Activator;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfInferredEvent;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlFsm;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlIncoherenceBuffer;
+import org.eclipse.tracecompass.incubator.coherence.core.segment.TmfXmlIncoherenceSegment;
+import org.eclipse.tracecompass.incubator.coherence.core.segment.TmfXmlInferredEventSegment;
+import org.eclipse.tracecompass.segmentstore.core.ISegment;
+import org.eclipse.tracecompass.segmentstore.core.ISegmentStore;
+import org.eclipse.tracecompass.segmentstore.core.SegmentStoreFactory;
+
+/**
+ * The incoherences and the inferred events of a pattern analysis, saved in
+ * the supplementary files of the trace next to its state system and segment
+ * store. Each kind is kept in its own on-disk segment store, indexed by time:
+ * the incoherences are written at the end of the analysis and the inferred
+ * events once they are computed. The files are opened the first time they are
+ * needed and the queries are served from the files.
+ *
+ * @author mmartin
+ */
+public class XmlPatternCoherenceStore {
+
+    /** Extension of the file of the incoherences */
+    public static final @NonNull String INCOHERENCES_EXTENSION = ".incoherences.dat"; //$NON-NLS-1$
+    /** Extension of the file of the inferred events */
+    public static final @NonNull String INFERENCES_EXTENSION = ".inferences.dat"; //$NON-NLS-1$
+
+    /* Version of the files, to change when the segments are written differently */
+    private static final int VERSION = 2;
+
+    private static final Comparator<ISegment> START_COMPARATOR = Comparator.comparingLong(ISegment::getStart)
+            .thenComparingLong(ISegment::getEnd);
+
+    /* Number of segments created before they are added to a store */
+    private static final int CHUNK_SIZE = 4096;
+
+    private final Path fIncoherencesFile;
+    private final Path fInferencesFile;
+    private @Nullable ISegmentStore<@NonNull TmfXmlIncoherenceSegment> fIncoherences = null;
+    private @Nullable ISegmentStore<@NonNull TmfXmlInferredEventSegment> fInferences = null;
+
+    /**
+     * Constructor
+     *
+     * @param directory
+     *            The directory of the supplementary files of the trace
+     * @param id
+     *            The ID of the analysis
+     */
+    public XmlPatternCoherenceStore(Path directory, String id) {
+        fIncoherencesFile = directory.resolve(id + INCOHERENCES_EXTENSION);
+        fInferencesFile = directory.resolve(id + INFERENCES_EXTENSION);
+    }
+
+    /**
+     * Get whether the incoherences were saved by a previous analysis
+     *
+     * @return True if the file of the incoherences exists
+     */
+    public boolean hasIncoherences() {
+        return Files.exists(fIncoherencesFile);
+    }
+
+    /**
+     * Get whether the inferred events were saved by a previous analysis
+     *
+     * @return True if the file of the inferred events exists
+     */
+    public boolean hasInferredEvents() {
+        return Files.exists(fInferencesFile);
+    }
+
+    /**
+     * Get the saved incoherences
+     *
+     * @return The segment store of the incoherences, or null if they were not
+     *         saved
+     */
+    public synchronized @Nullable ISegmentStore<@NonNull TmfXmlIncoherenceSegment> getIncoherences() {
+        ISegmentStore<@NonNull TmfXmlIncoherenceSegment> store = fIncoherences;
+        if (store == null) {
+            store = open(fIncoherencesFile, TmfXmlIncoherenceSegment.READER);
+            fIncoherences = store;
+        }
+        return store;
+    }
+
+    /**
+     * Get the saved inferred events
+     *
+     * @return The segment store of the inferred events, or null if they were
+     *         not saved
+     */
+    public synchronized @Nullable ISegmentStore<@NonNull TmfXmlInferredEventSegment> getInferredEvents() {
+        ISegmentStore<@NonNull TmfXmlInferredEventSegment> store = fInferences;
+        if (store == null) {
+            store = open(fInferencesFile, TmfXmlInferredEventSegment.READER);
+            fInferences = store;
+        }
+        return store;
+    }
+
+    /**
+     * Save the incoherences of fsms, replacing the ones saved before. The
+     * inferred events saved before are deleted, as they came from the previous
+     * incoherences.
+     *
+     * @param fsms
+     *            The fsms
+     */
+    public synchronized void writeIncoherences(Collection<TmfXmlFsm> fsms) {
+        delete();
+        /* Merge the incoherences of the fsms by start time, without creating all their segments at once */
+        PriorityQueue<IncoherenceCursor> cursors = new PriorityQueue<>(Comparator.comparingLong(IncoherenceCursor::getStart)
+                .thenComparingLong(IncoherenceCursor::getEnd));
+        for (TmfXmlFsm fsm : fsms) {
+            if (fsm.getIncoherenceBuffer().size() > 0) {
+                cursors.add(new IncoherenceCursor(fsm));
+            }
+        }
+        fIncoherences = write(fIncoherencesFile, TmfXmlIncoherenceSegment.READER, store -> {
+            List<@NonNull TmfXmlIncoherenceSegment> chunk = new ArrayList<>(CHUNK_SIZE);
+            IncoherenceCursor cursor = cursors.poll();
+            while (cursor != null) {
+                chunk.add(cursor.createSegment());
+                if (cursor.next()) {
+                    cursors.add(cursor);
+                }
+                if (chunk.size() == CHUNK_SIZE) {
+                    store.addAll(chunk);
+                    chunk.clear();
+                }
+                cursor = cursors.poll();
+            }
+            store.addAll(chunk);
+        });
+    }
+
+    /**
+     * The incoherences of an fsm, in the order of their start time
+     */
+    private static final class IncoherenceCursor {
+        private final TmfXmlFsm fFsm;
+        private final TmfXmlIncoherenceBuffer fBuffer;
+        private final int[] fOrder;
+        private int fPosition = 0;
+
+        IncoherenceCursor(TmfXmlFsm fsm) {
+            fFsm = fsm;
+            fBuffer = fsm.getIncoherenceBuffer();
+            TmfXmlIncoherenceBuffer buffer = fBuffer;
+            /* The records are in the order of the incoherent events, sort their indexes by start time */
+            fOrder = IntStream.range(0, buffer.size()).boxed()
+                    .sorted(Comparator.<Integer> comparingLong(i -> startOf(buffer, i)).thenComparingLong(buffer::getTime))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+
+        private static long startOf(TmfXmlIncoherenceBuffer buffer, int index) {
+            long prevTime = buffer.getPrevTime(index);
+            return (prevTime == TmfXmlIncoherenceBuffer.NO_TIME) ? buffer.getTime(index) : prevTime;
+        }
+
+        long getStart() {
+            return startOf(fBuffer, fOrder[fPosition]);
+        }
+
+        long getEnd() {
+            return fBuffer.getTime(fOrder[fPosition]);
+        }
+
+        TmfXmlIncoherenceSegment createSegment() {
+            int i = fOrder[fPosition];
+            return TmfXmlIncoherenceSegment.create(fFsm.getId(), fBuffer.getScenarioKey(i), fBuffer.getEvent(i),
+                    fBuffer.getPrevEvent(i), fFsm.getStateId(fBuffer.getStateIndex(i)), fFsm.getEventTypes());
+        }
+
+        /* Move to the next incoherence, return false if there is none */
+        boolean next() {
+            fPosition++;
+            return fPosition < fOrder.length;
+        }
+    }
+
+    /**
+     * Save the inferred events, replacing the ones saved before
+     *
+     * @param events
+     *            The inferred events
+     */
+    public synchronized void writeInferredEvents(Collection<TmfInferredEvent> events) {
+        close(fInferences);
+        fInferences = null;
+        deleteFile(fInferencesFile);
+        List<@NonNull TmfXmlInferredEventSegment> segments = new ArrayList<>(events.size());
+        for (TmfInferredEvent event : events) {
+            segments.add(event.toSegment());
+        }
+        /* The segments are inserted in the history tree by start time */
+        segments.sort(START_COMPARATOR);
+        fInferences = write(fInferencesFile, TmfXmlInferredEventSegment.READER, store -> store.addAll(segments));
+    }
+
+    /**
+     * Delete the saved incoherences and inferred events
+     */
+    public synchronized void delete() {
+        close(fIncoherences);
+        close(fInferences);
+        fIncoherences = null;
+        fInferences = null;
+        deleteFile(fIncoherencesFile);
+        deleteFile(fInferencesFile);
+    }
+
+    /**
+     * Close the files, keeping them for the next time the trace is opened
+     */
+    public synchronized void dispose() {
+        close(fIncoherences);
+        close(fInferences);
+        fIncoherences = null;
+        fInferences = null;
+    }
+
+    private static <E extends ISegment> @Nullable ISegmentStore<E> open(Path file, IHTIntervalReader<E> reader) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return SegmentStoreFactory.createOnDiskSegmentStore(file, reader, VERSION);
+        } catch (IOException e) {
+            /* Written by another version, or not completely, it will be written again */
+            Activator.logWarning("Failed to open the segment store " + file, e); //$NON-NLS-1$
+            deleteFile(file);
+            return null;
+        }
+    }
+
+    /**
+     * Write a segment store, the writer adding the segments by start time
+     */
+    private static <E extends ISegment> @Nullable ISegmentStore<E> write(Path file, IHTIntervalReader<E> reader, Consumer<ISegmentStore<E>> writer) {
+        try {
+            Files.deleteIfExists(file);
+            ISegmentStore<E> store = SegmentStoreFactory.createOnDiskSegmentStore(file, reader, VERSION);
+            writer.accept(store);
+            store.close(false);
+            return store;
+        } catch (IOException e) {
+            Activator.logError("Failed to write the segment store " + file, e); //$NON-NLS-1$
+            deleteFile(file);
+            return null;
+        }
+    }
+
+    private static void close(@Nullable ISegmentStore<?> store) {
+        if (store != null) {
+            store.dispose();
+        }
+    }
+
+    private static void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            Activator.logWarning("Failed to delete " + file, e); //$NON-NLS-1$
+        }
+    }
+}
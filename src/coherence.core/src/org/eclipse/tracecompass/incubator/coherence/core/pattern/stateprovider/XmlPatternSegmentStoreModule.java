@@ -104,7 +104,8 @@ public class XmlPatternSegmentStoreModule extends AbstractSegmentStoreAnalysisMo
     }
 
     @Override
-    public void onNewSegment(@NonNull ISegment segment) {
+    public synchronized void onNewSegment(@NonNull ISegment segment) {
+        // The segments may come from the threads of several fsms.
         // We can accept segments until the first END_SEGMENT arrives. Nothing
         // should be accept after it. This prevents to receive new segments if
         // the analysis that generates the segments is rescheduled
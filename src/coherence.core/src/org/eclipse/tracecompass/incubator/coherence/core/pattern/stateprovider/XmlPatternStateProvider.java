@@ -20,6 +20,7 @@ import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tracecompass.common.core.NonNullUtils;
 import org.eclipse.tracecompass.ctf.core.CTFStrings;
 import org.eclipse.tracecompass.incubator.coherence.core.model.ITmfXmlModelFactory;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlEventTypes;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlLocation;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlMapEntry;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlPatternEventHandler;
@@ -29,6 +30,7 @@ import org.eclipse.tracecompass.incubator.coherence.core.readwrite.TmfXmlReadWri
 import org.eclipse.tracecompass.tmf.analysis.xml.core.module.TmfXmlStrings;
 import org.eclipse.tracecompass.tmf.analysis.xml.core.module.TmfXmlUtils;
 import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
 import org.eclipse.tracecompass.tmf.core.statesystem.AbstractTmfStateProvider;
 import org.eclipse.tracecompass.tmf.core.statesystem.ITmfStateProvider;
@@ -58,6 +60,9 @@ public class XmlPatternStateProvider extends AbstractTmfStateProvider implements
 
     private final @NonNull Map<@NonNull String, @NonNull Set<@NonNull TmfXmlMapEntry>> fMappingGroups;
 
+    /** Registry of the event types of this analysis */
+    private final @NonNull TmfXmlEventTypes fEventTypes = new TmfXmlEventTypes();
+
     /** Map for stored values */
     private final @NonNull Map<@NonNull String, @NonNull String> fStoredFields = new HashMap<>();
 
@@ -70,6 +75,11 @@ public class XmlPatternStateProvider extends AbstractTmfStateProvider implements
     private boolean fWithObservers;
     
 	private boolean fForceObservation;
+
+    private volatile boolean fTraceHandled = false;
+
+    private @Nullable ITmfStateSystemBuilder fSynchronizedTarget = null;
+    private @Nullable ITmfStateSystemBuilder fSynchronizedStateSystem = null;
     
     
     /**
@@ -90,7 +100,7 @@ public class XmlPatternStateProvider extends AbstractTmfStateProvider implements
         fFilePath = file;
         fListener = listener;
         fForceObservation = forceObservation;
-        fHistoryBuilder = new TmfXmlScenarioHistoryBuilder();
+        fHistoryBuilder = new TmfXmlScenarioHistoryBuilder(this);
         final String pathString = fFilePath.toAbsolutePath().toString();
         Element doc = TmfXmlUtils.getElementInFile(pathString, TmfXmlStrings.PATTERN, fStateId);
         if (doc == null) {
@@ -159,6 +169,7 @@ public class XmlPatternStateProvider extends AbstractTmfStateProvider implements
         	/* Force the coherence checking of every event */
         	fWithObservers = true;
         	fHandler.setStartChecking(true);
+        	fHandler.setForceChecking(true);
         }
         else {
 	        TmfStatisticsModule module = (TmfStatisticsModule) TmfTraceUtils.getAnalysisModuleOfClass(trace, TmfStatisticsModule.class, TmfStatisticsModule.ID);
@@ -182,6 +193,7 @@ public class XmlPatternStateProvider extends AbstractTmfStateProvider implements
     public void setNoObservers() {
     	fWithObservers = false;
     	fHandler.setStartChecking(false);
+    	fHandler.setForceChecking(false);
     }
 
     @Override
@@ -235,7 +247,18 @@ public class XmlPatternStateProvider extends AbstractTmfStateProvider implements
 
     @Override
     public ITmfStateSystem getStateSystem() {
-        return getStateSystemBuilder();
+        ITmfStateSystemBuilder stateSystem = getStateSystemBuilder();
+        if (stateSystem == null || !fHandler.isMultiThreaded()) {
+            return stateSystem;
+        }
+        /* The threads of the fsms and of their shards modify the state system one at a time */
+        synchronized (this) {
+            if (fSynchronizedTarget != stateSystem) {
+                fSynchronizedStateSystem = new XmlPatternSynchronizedStateSystem(stateSystem);
+                fSynchronizedTarget = stateSystem;
+            }
+            return fSynchronizedStateSystem;
+        }
     }
 
     @Override
@@ -243,6 +266,18 @@ public class XmlPatternStateProvider extends AbstractTmfStateProvider implements
         return fLocations;
     }
 
+    @Override
+    public @NonNull TmfXmlEventTypes getEventTypes() {
+        return fEventTypes;
+    }
+
+    @Override
+    public boolean isMultiThreaded() {
+        /* The model elements are built before the handler */
+        TmfXmlPatternEventHandler handler = fHandler;
+        return handler != null && handler.isMultiThreaded();
+    }
+
     @Override
     protected void eventHandle(@NonNull ITmfEvent event) {
         fHandler.handleEvent(event, fWithObservers);
@@ -257,9 +292,29 @@ public class XmlPatternStateProvider extends AbstractTmfStateProvider implements
         return fListener;
     }
 
+    @Override
+    protected void done() {
+        /* The threads of the fsms must be done before the history is closed */
+        fHandler.waitForWorkers();
+        fHandler.logCacheStatistics();
+        fTraceHandled = true;
+        super.done();
+    }
+
+    /**
+     * Get whether the events of the trace were handled by this provider. They
+     * are not when the history is opened from its file.
+     *
+     * @return True if the whole trace was handled
+     */
+    public boolean isTraceHandled() {
+        return fTraceHandled;
+    }
+
     @Override
     public void dispose() {
         waitForEmptyQueue();
+        fHandler.waitForWorkers();
         fListener.onNewSegment(XmlPatternSegmentStoreModule.END_SEGMENT);
         fHandler.dispose();
         super.dispose();
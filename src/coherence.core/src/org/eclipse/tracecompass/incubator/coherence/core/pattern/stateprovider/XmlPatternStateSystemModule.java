@@ -11,26 +11,37 @@ package org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider;
 import static org.eclipse.tracecompass.common.core.NonNullUtils.checkNotNull;
 
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.incubator.coherence.core.Activator;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfInferredEvent;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlEventAspects;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlFsm;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlPatternEventHandler;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlTransitionValidator;
 import org.eclipse.tracecompass.incubator.coherence.core.newmodel.FsmStateIncoherence;
 import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlFsmTransition;
 import org.eclipse.tracecompass.incubator.coherence.core.newmodel.TmfXmlScenarioObserver;
+import org.eclipse.tracecompass.incubator.coherence.core.segment.TmfXmlIncoherenceSegment;
+import org.eclipse.tracecompass.incubator.coherence.core.segment.TmfXmlInferredEventSegment;
+import org.eclipse.tracecompass.segmentstore.core.ISegmentStore;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfAnalysisException;
 import org.eclipse.tracecompass.tmf.core.statesystem.ITmfStateProvider;
 import org.eclipse.tracecompass.tmf.core.statesystem.TmfStateSystemAnalysisModule;
 import org.eclipse.tracecompass.tmf.core.trace.ITmfTrace;
+import org.eclipse.tracecompass.tmf.core.trace.TmfTraceManager;
 
 /**
  * State system analysis for pattern matching analysis described in XML. This
@@ -47,6 +58,16 @@ public class XmlPatternStateSystemModule extends TmfStateSystemAnalysisModule {
     
     private String fAlgoId;
     private final boolean fForceObservation;
+    private boolean fCheckOnlyUncertain = false;
+    private boolean fGlobalInference = false;
+    private boolean fParallelFsms = false;
+    private int fScenarioShards = 1;
+    private long fIncoherenceSpillThreshold = DEFAULT_INCOHERENCE_SPILL_THRESHOLD;
+    private static final long DEFAULT_INCOHERENCE_SPILL_THRESHOLD = 1 << 20;
+
+    private @Nullable XmlPatternCoherenceStore fCoherenceStore = null;
+    private boolean fIncoherencesRestored = false;
+    private static final int[] NO_TRANSITIONS = new int[0];
 
     List<TmfInferredEvent> fInferredEvents;
     boolean hasMultiInferredEvent;
@@ -78,8 +99,13 @@ public class XmlPatternStateSystemModule extends TmfStateSystemAnalysisModule {
         else {
 	        for (TmfXmlFsm fsm : fStateProvider.getEventHandler().getFsmMap().values()) {
 	    		fsm.setCoherenceAlgorithm(fAlgoId);
+	    		fsm.setCheckOnlyUncertain(fCheckOnlyUncertain);
+	    		fsm.setGlobalInference(fGlobalInference);
+	    		fsm.setIncoherenceSpill(Paths.get(TmfTraceManager.getSupplementaryFileDir(checkNotNull(getTrace()))), fIncoherenceSpillThreshold);
 	    	}
         }
+        fStateProvider.getEventHandler().setParallel(fParallelFsms);
+        fStateProvider.getEventHandler().setScenarioShards(fScenarioShards);
         return fStateProvider;
     }
 
@@ -107,6 +133,176 @@ public class XmlPatternStateSystemModule extends TmfStateSystemAnalysisModule {
     	fAlgoId = algoId;
     }
 
+    /**
+     * Check the coherence of a scenario only while its state is uncertain,
+     * instead of checking it until the end of the trace after a lost event.
+     * It should be called before the start of event handling
+     * @param checkOnlyUncertain
+     * 			True to check only the uncertain scenarios
+     */
+    public void setCheckOnlyUncertain(boolean checkOnlyUncertain) {
+    	fCheckOnlyUncertain = checkOnlyUncertain;
+    }
+
+    /**
+     * Infer the missing transitions from the statistics of each fsm only,
+     * instead of the statistics of each scenario completed by the ones of its
+     * fsm.
+     * It should be called before the start of event handling
+     * @param globalInference
+     * 			True to only use the global statistics
+     */
+    public void setGlobalInference(boolean globalInference) {
+    	fGlobalInference = globalInference;
+    }
+
+    /**
+     * Handle each fsm of the pattern in its own thread. The fsms must not
+     * modify the same attributes of the state system, a warning is logged for
+     * each attribute modified by more than one of them.
+     * It should be called before the start of event handling
+     * @param parallelFsms
+     * 			True to handle the fsms in parallel
+     */
+    public void setParallelFsms(boolean parallelFsms) {
+    	fParallelFsms = parallelFsms;
+    }
+
+    /**
+     * Split the scenarios of each fsm with multiple instances in several
+     * shards, by scenario attribute, each handled by its own thread. The
+     * scenarios of different attributes must not modify the same attributes
+     * of the state system.
+     * It should be called before the start of event handling
+     * @param shardCount
+     * 			The number of shards of each fsm, 1 to not split them
+     */
+    public void setScenarioShards(int shardCount) {
+    	fScenarioShards = shardCount;
+    }
+
+    /**
+     * Set the number of incoherences of an fsm kept in memory. Past this
+     * number, they are written to a file in the supplementary files of the
+     * trace.
+     * It should be called before the start of event handling
+     * @param threshold
+     * 			The number of incoherences kept in memory, by fsm
+     */
+    public void setIncoherenceSpillThreshold(long threshold) {
+    	fIncoherenceSpillThreshold = threshold;
+    }
+
+    @Override
+    protected boolean executeAnalysis(@Nullable IProgressMonitor monitor) throws TmfAnalysisException {
+    	if (!super.executeAnalysis(monitor)) {
+    		return false;
+    	}
+    	/* Save the incoherences found, unless the history was opened from its file */
+    	XmlPatternStateProvider stateProvider = fStateProvider;
+    	XmlPatternCoherenceStore store = getCoherenceStore();
+    	if (stateProvider != null && stateProvider.isTraceHandled() && store != null) {
+    		if (fAlgoId == null) {
+    			store.delete();
+    		}
+    		else {
+    			store.writeIncoherences(stateProvider.getEventHandler().getFsmMap().values());
+    		}
+    	}
+    	return true;
+    }
+
+    /**
+     * Get the incoherences and inferred events saved in the supplementary
+     * files of the trace
+     *
+     * @return
+     * 			The store, or null if there is no trace
+     */
+    public synchronized @Nullable XmlPatternCoherenceStore getCoherenceStore() {
+    	XmlPatternCoherenceStore store = fCoherenceStore;
+    	ITmfTrace trace = getTrace();
+    	if (store == null && trace != null) {
+    		store = new XmlPatternCoherenceStore(Paths.get(TmfTraceManager.getSupplementaryFileDir(trace)), getId());
+    		fCoherenceStore = store;
+    	}
+    	return store;
+    }
+
+    /**
+     * Get the incoherences found between two times, read from the
+     * supplementary files of the trace
+     *
+     * @param start
+     * 			The start of the time range
+     * @param end
+     * 			The end of the time range
+     * @return
+     * 			The incoherences whose interval, from the last coherent event to the
+     * 			incoherent one, intersects the range, or null if they were not saved
+     */
+    public @Nullable Iterable<TmfXmlIncoherenceSegment> getIncoherenceSegments(long start, long end) {
+    	XmlPatternCoherenceStore store = getCoherenceStore();
+    	ISegmentStore<TmfXmlIncoherenceSegment> segments = (store == null) ? null : store.getIncoherences();
+    	return (segments == null) ? null : segments.getIntersectingElements(start, end);
+    }
+
+    /**
+     * Put the incoherences saved by a previous analysis back in their fsms,
+     * when the history was opened from its file instead of handling the
+     * events of the trace. The restored incoherences do not keep their
+     * possible transitions. Nothing is done if the trace was handled.
+     */
+    public void restoreIncoherences() {
+    	/* Wait outside of the lock, the analysis uses it to save the incoherences */
+    	waitForCompletion();
+    	synchronized (this) {
+    		XmlPatternStateProvider stateProvider = fStateProvider;
+    		if (fIncoherencesRestored || stateProvider == null || stateProvider.isTraceHandled()) {
+    			return;
+    		}
+    		fIncoherencesRestored = true;
+    		XmlPatternCoherenceStore store = getCoherenceStore();
+    		ISegmentStore<TmfXmlIncoherenceSegment> segments = (store == null) ? null : store.getIncoherences();
+    		if (segments == null) {
+    			return;
+    		}
+    		/* The incoherences of an fsm are kept in the order they were found */
+    		List<TmfXmlIncoherenceSegment> sorted = new ArrayList<>(segments);
+    		sorted.sort(Comparator.comparingLong(TmfXmlIncoherenceSegment::getEnd));
+    		Map<String, TmfXmlFsm> fsmMap = stateProvider.getEventHandler().getFsmMap();
+    		for (TmfXmlIncoherenceSegment segment : sorted) {
+    			TmfXmlFsm fsm = fsmMap.get(segment.getFsmId());
+    			if (fsm != null) {
+    				fsm.addProblematicEvent(segment.getEvent(fsm.getEventTypes()), segment.getScenarioKey(), NO_TRANSITIONS, 0,
+    						fsm.getStateIndex(segment.getStateName()), segment.getPrevEvent(fsm.getEventTypes()));
+    			}
+    		}
+    	}
+    }
+
+    @Override
+    public void dispose() {
+    	ITmfTrace trace = getTrace();
+    	super.dispose();
+    	if (trace != null) {
+    		/* The events come from the traces of the set, the accessors were resolved for each */
+    		for (ITmfTrace member : TmfTraceManager.getTraceSet(trace)) {
+    			TmfXmlEventAspects.dispose(member);
+    		}
+    	}
+    	XmlPatternCoherenceStore store = fCoherenceStore;
+    	if (store != null) {
+    		store.dispose();
+    	}
+    	XmlPatternStateProvider stateProvider = fStateProvider;
+    	if (stateProvider != null && stateProvider.getEventHandler() != null) {
+    		for (TmfXmlFsm fsm : stateProvider.getEventHandler().getFsmMap().values()) {
+    			fsm.disposeIncoherences();
+    		}
+    	}
+    }
+
     /**
      * Get the inferred events computed after the analysis,
      * sorted by their timestamp
@@ -119,58 +315,104 @@ public class XmlPatternStateSystemModule extends TmfStateSystemAnalysisModule {
 			fInferredEvents = new ArrayList<>();
 			/* Wait for the analysis to complete */
 			waitForCompletion();
+			/* Read the inferred events saved by a previous analysis, if any */
+			ITmfTrace trace = getTrace();
+			XmlPatternCoherenceStore store = getCoherenceStore();
+			ISegmentStore<TmfXmlInferredEventSegment> saved = (store == null) ? null : store.getInferredEvents();
+			if (saved != null) {
+				for (TmfXmlInferredEventSegment segment : saved) {
+					TmfInferredEvent inferredEvent = TmfInferredEvent.create(trace, segment);
+					fInferredEvents.add(inferredEvent);
+					if (inferredEvent.isMulti()) {
+						hasMultiInferredEvent = true;
+					}
+				}
+				sortInferredEvents();
+				return fInferredEvents;
+			}
+			if (!getStateProvider().isTraceHandled()) {
+				/* The statistics of the scenarios are not saved with the history */
+				Activator.logWarning("The inferred events of " + getId() + " cannot be computed from a history opened from its file"); //$NON-NLS-1$ //$NON-NLS-2$
+				return fInferredEvents;
+			}
 			/* Compute the inferences */
 			TmfXmlPatternEventHandler handler = getStateProvider().getEventHandler();
 			handler.computeInferences();
-			/* Create the inferred events */
-			ITmfTrace trace = getTrace();
+			/* Create the inferred events of each incoherence in parallel, then gather them in the order of the incoherences */
 			Map<String, TmfXmlTransitionValidator> testMap = handler.getTestMap();
+			List<TmfXmlFsm> fsms = new ArrayList<>();
+			List<FsmStateIncoherence> incoherences = new ArrayList<>();
 			for (TmfXmlFsm fsm : handler.getFsmMap().values()) { // we need to get the incoherences of each FSM
 				for (FsmStateIncoherence incoherence : fsm.getIncoherences()) {
-					long index = 1;
-					Map<TmfXmlFsmTransition, TmfInferredEvent> localEventsMap = new HashMap<>(); // inferred events related to the current incoherence
-					List<TmfXmlFsmTransition> transitions = incoherence.getInferredTransitions();
-					Iterator<TmfXmlFsmTransition> it = transitions.iterator();
-					int nbInferred = transitions.size() - 1 ; // (nb transitions - 1) because no inferred event for the last transition
-					while (it.hasNext()) {
-						TmfXmlFsmTransition inferredTransition = it.next();
-						if (it.hasNext()) { // it means this is not the last transition, whose label is the incoherent event
-							TmfInferredEvent inferredEvent = TmfInferredEvent.create(
-									trace,
-									incoherence,
-									inferredTransition,
-									index,
-									nbInferred,
-									testMap,
-									getStateSystem(),
-									fsm.getActiveScenariosList().get(incoherence.getScenarioAttribute()).getScenarioInfos());
-							fInferredEvents.add(inferredEvent);
-							localEventsMap.put(inferredTransition, inferredEvent);
-							index++;
-							
-							if (inferredEvent.isMulti()) {
-								hasMultiInferredEvent = true;
-							}
-						}
-					}
-					
-//					incoherence.setInferences(localEventsMap);
+					fsms.add(fsm);
+					incoherences.add(incoherence);
 				}
 			}
-			/* Sort the list of inferred events before saving it */
-			fInferredEvents.sort(new Comparator<TmfInferredEvent>() {
-				@Override
-				public int compare(TmfInferredEvent event1, TmfInferredEvent event2) {
-					if (event1.equals(event2)) {
-						return 0;
+			List<List<TmfInferredEvent>> inferredEvents = IntStream.range(0, incoherences.size()).parallel()
+					.mapToObj(i -> createInferredEvents(trace, fsms.get(i), incoherences.get(i), testMap))
+					.collect(Collectors.toList());
+			for (List<TmfInferredEvent> events : inferredEvents) {
+				for (TmfInferredEvent inferredEvent : events) {
+					fInferredEvents.add(inferredEvent);
+					if (inferredEvent.isMulti()) {
+						hasMultiInferredEvent = true;
 					}
-					return event1.greaterThan(event2) ? 1 : -1;
 				}
-			});
+			}
+			/* Sort the list of inferred events before saving it */
+			sortInferredEvents();
+			if (store != null) {
+				store.writeInferredEvents(fInferredEvents);
+			}
 		}
 		return fInferredEvents;
 	}
+
+	private void sortInferredEvents() {
+		fInferredEvents.sort(new Comparator<TmfInferredEvent>() {
+			@Override
+			public int compare(TmfInferredEvent event1, TmfInferredEvent event2) {
+				if (event1.equals(event2)) {
+					return 0;
+				}
+				return event1.greaterThan(event2) ? 1 : -1;
+			}
+		});
+	}
 	
+	private List<TmfInferredEvent> createInferredEvents(ITmfTrace trace, TmfXmlFsm fsm, FsmStateIncoherence incoherence,
+			Map<String, TmfXmlTransitionValidator> testMap) {
+		List<TmfInferredEvent> inferredEvents = new ArrayList<>();
+		/* Read the incoherent event once for all the inferred events of the incoherence */
+		ITmfEvent incoherentEvent = incoherence.getIncoherentEvent();
+		if (incoherentEvent == null) {
+			Activator.logWarning("The incoherent event at " + incoherence.getIncoherentTimestamp() + " of " + fsm.getId() + " cannot be read from the trace, no event is inferred for it"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			return inferredEvents;
+		}
+		long index = 1;
+		List<TmfXmlFsmTransition> transitions = incoherence.getInferredTransitions();
+		Iterator<TmfXmlFsmTransition> it = transitions.iterator();
+		int nbInferred = transitions.size() - 1 ; // (nb transitions - 1) because no inferred event for the last transition
+		while (it.hasNext()) {
+			TmfXmlFsmTransition inferredTransition = it.next();
+			if (it.hasNext()) { // it means this is not the last transition, whose label is the incoherent event
+				TmfInferredEvent inferredEvent = TmfInferredEvent.create(
+						trace,
+						incoherence,
+						incoherentEvent,
+						inferredTransition,
+						index,
+						nbInferred,
+						testMap,
+						getStateSystem(),
+						fsm.getActiveScenariosList().get(incoherence.getScenarioKey()).getScenarioInfos());
+				inferredEvents.add(inferredEvent);
+				index++;
+			}
+		}
+		return inferredEvents;
+	}
+
     public boolean hasMultiInferredEvents() {
     	return hasMultiInferredEvent;
     }
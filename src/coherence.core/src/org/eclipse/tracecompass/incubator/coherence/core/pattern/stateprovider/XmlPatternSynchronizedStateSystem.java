@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.incubator.coherence.core.Activator;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlFsm;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
+import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
+import org.eclipse.tracecompass.statesystem.core.exceptions.StateSystemDisposedException;
+import org.eclipse.tracecompass.statesystem.core.exceptions.StateValueTypeException;
+import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.statevalue.ITmfStateValue;
+
+/**
+ * View of a state system builder shared by the threads of the fsms and of
+ * their shards. The state system is not made to be modified by several
+ * threads, so the calls that modify it are serialized on a lock. The queries
+ * go straight to the state system, which can be queried while it is built.
+ *
+ * The fsms handled in parallel must modify disjoint attributes: the fsm that
+ * first modifies an attribute owns it, and a warning is logged the first time
+ * another fsm modifies it, as the order of their changes then depends on the
+ * scheduling of the threads.
+ *
+ * @author mmartin
+ */
+final class XmlPatternSynchronizedStateSystem implements ITmfStateSystemBuilder {
+
+    private final ITmfStateSystemBuilder fStateSystem;
+    private final Object fWriteLock = new Object();
+    /* The fsm owning each attribute, by quark, null if not modified yet by the thread of an fsm */
+    private @Nullable TmfXmlFsm[] fOwners = new TmfXmlFsm[64];
+    /* Attributes already reported as shared */
+    private boolean[] fReported = new boolean[64];
+
+    /**
+     * Constructor
+     *
+     * @param stateSystem
+     *            The state system builder
+     */
+    public XmlPatternSynchronizedStateSystem(ITmfStateSystemBuilder stateSystem) {
+        fStateSystem = stateSystem;
+    }
+
+    /**
+     * Check the owner of an attribute modified by the current thread. Called
+     * with the write lock held.
+     */
+    private void checkOwner(int quark) {
+        TmfXmlFsm fsm = TmfXmlFsm.getThreadFsm();
+        if (fsm == null || quark < 0) {
+            return;
+        }
+        if (quark >= fOwners.length) {
+            int length = Math.max(fOwners.length * 2, quark + 1);
+            fOwners = Arrays.copyOf(fOwners, length);
+            fReported = Arrays.copyOf(fReported, length);
+        }
+        TmfXmlFsm owner = fOwners[quark];
+        if (owner == null) {
+            fOwners[quark] = fsm;
+        } else if (owner != fsm && !fReported[quark]) {
+            fReported[quark] = true;
+            Activator.logWarning("The attribute " + fStateSystem.getFullAttributePath(quark) + " is modified by the fsms " //$NON-NLS-1$ //$NON-NLS-2$
+                    + owner.getId() + " and " + fsm.getId() + ", the fsms handled in parallel must modify disjoint attributes."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Modifications, serialized
+    // ------------------------------------------------------------------------
+
+    @Override
+    public int getQuarkAbsoluteAndAdd(String... attribute) {
+        synchronized (fWriteLock) {
+            return fStateSystem.getQuarkAbsoluteAndAdd(attribute);
+        }
+    }
+
+    @Override
+    public int getQuarkRelativeAndAdd(int startingNodeQuark, String... subPath) {
+        synchronized (fWriteLock) {
+            return fStateSystem.getQuarkRelativeAndAdd(startingNodeQuark, subPath);
+        }
+    }
+
+    @Override
+    public void updateOngoingState(ITmfStateValue newValue, int attribute) {
+        synchronized (fWriteLock) {
+            checkOwner(attribute);
+            fStateSystem.updateOngoingState(newValue, attribute);
+        }
+    }
+
+    @Override
+    public void updateOngoingState(@Nullable Object newValue, int attribute) {
+        synchronized (fWriteLock) {
+            checkOwner(attribute);
+            fStateSystem.updateOngoingState(newValue, attribute);
+        }
+    }
+
+    @Override
+    public void modifyAttribute(long t, ITmfStateValue value, int attributeQuark) throws StateValueTypeException {
+        synchronized (fWriteLock) {
+            checkOwner(attributeQuark);
+            fStateSystem.modifyAttribute(t, value, attributeQuark);
+        }
+    }
+
+    @Override
+    public void modifyAttribute(long t, @Nullable Object value, int attributeQuark) throws StateValueTypeException {
+        synchronized (fWriteLock) {
+            checkOwner(attributeQuark);
+            fStateSystem.modifyAttribute(t, value, attributeQuark);
+        }
+    }
+
+    @Override
+    public void pushAttribute(long t, ITmfStateValue value, int attributeQuark) throws StateValueTypeException {
+        synchronized (fWriteLock) {
+            checkOwner(attributeQuark);
+            fStateSystem.pushAttribute(t, value, attributeQuark);
+        }
+    }
+
+    @Override
+    public void pushAttribute(long t, @Nullable Object value, int attributeQuark) throws StateValueTypeException {
+        synchronized (fWriteLock) {
+            checkOwner(attributeQuark);
+            fStateSystem.pushAttribute(t, value, attributeQuark);
+        }
+    }
+
+    @Override
+    public @Nullable ITmfStateValue popAttribute(long t, int attributeQuark) throws StateValueTypeException {
+        synchronized (fWriteLock) {
+            checkOwner(attributeQuark);
+            return fStateSystem.popAttribute(t, attributeQuark);
+        }
+    }
+
+    @Override
+    public @Nullable Object popAttributeObject(long t, int attributeQuark) throws StateValueTypeException {
+        synchronized (fWriteLock) {
+            checkOwner(attributeQuark);
+            return fStateSystem.popAttributeObject(t, attributeQuark);
+        }
+    }
+
+    @Override
+    public void removeAttribute(long t, int attributeQuark) {
+        synchronized (fWriteLock) {
+            checkOwner(attributeQuark);
+            fStateSystem.removeAttribute(t, attributeQuark);
+        }
+    }
+
+    @Override
+    public void closeHistory(long endTime) {
+        synchronized (fWriteLock) {
+            fStateSystem.closeHistory(endTime);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Queries, not locked
+    // ------------------------------------------------------------------------
+
+    @Override
+    public String getSSID() {
+        return fStateSystem.getSSID();
+    }
+
+    @Override
+    public long getStartTime() {
+        return fStateSystem.getStartTime();
+    }
+
+    @Override
+    public long getCurrentEndTime() {
+        return fStateSystem.getCurrentEndTime();
+    }
+
+    @Override
+    public boolean waitUntilBuilt() {
+        return fStateSystem.waitUntilBuilt();
+    }
+
+    @Override
+    public boolean waitUntilBuilt(long timeout) {
+        return fStateSystem.waitUntilBuilt(timeout);
+    }
+
+    @Override
+    public void dispose() {
+        fStateSystem.dispose();
+    }
+
+    @Override
+    public int getNbAttributes() {
+        return fStateSystem.getNbAttributes();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return fStateSystem.isCancelled();
+    }
+
+    @Override
+    public int getQuarkAbsolute(String... attribute) throws AttributeNotFoundException {
+        return fStateSystem.getQuarkAbsolute(attribute);
+    }
+
+    @Override
+    public int optQuarkAbsolute(String... attribute) {
+        return fStateSystem.optQuarkAbsolute(attribute);
+    }
+
+    @Override
+    public int getQuarkRelative(int startingNodeQuark, String... subPath) throws AttributeNotFoundException {
+        return fStateSystem.getQuarkRelative(startingNodeQuark, subPath);
+    }
+
+    @Override
+    public int optQuarkRelative(int startingNodeQuark, String... subPath) {
+        return fStateSystem.optQuarkRelative(startingNodeQuark, subPath);
+    }
+
+    @Override
+    public List<Integer> getSubAttributes(int quark, boolean recursive) {
+        return fStateSystem.getSubAttributes(quark, recursive);
+    }
+
+    @Override
+    public List<Integer> getQuarks(String... pattern) {
+        return fStateSystem.getQuarks(pattern);
+    }
+
+    @Override
+    public List<Integer> getQuarks(int startingNodeQuark, String... pattern) {
+        return fStateSystem.getQuarks(startingNodeQuark, pattern);
+    }
+
+    @Override
+    public String getAttributeName(int attribute) {
+        return fStateSystem.getAttributeName(attribute);
+    }
+
+    @Override
+    public String getFullAttributePath(int attribute) {
+        return fStateSystem.getFullAttributePath(attribute);
+    }
+
+    @Override
+    public String[] getFullAttributePathArray(int attribute) {
+        return fStateSystem.getFullAttributePathArray(attribute);
+    }
+
+    @Override
+    public int getParentAttributeQuark(int attributeQuark) {
+        return fStateSystem.getParentAttributeQuark(attributeQuark);
+    }
+
+    @Override
+    public ITmfStateValue queryOngoingState(int attributeQuark) {
+        return fStateSystem.queryOngoingState(attributeQuark);
+    }
+
+    @Override
+    public @Nullable Object queryOngoing(int attributeQuark) {
+        return fStateSystem.queryOngoing(attributeQuark);
+    }
+
+    @Override
+    public long getOngoingStartTime(int attribute) {
+        return fStateSystem.getOngoingStartTime(attribute);
+    }
+
+    @Override
+    public List<ITmfStateInterval> queryFullState(long t) throws StateSystemDisposedException {
+        return fStateSystem.queryFullState(t);
+    }
+
+    @Override
+    public ITmfStateInterval querySingleState(long t, int attributeQuark) throws StateSystemDisposedException {
+        return fStateSystem.querySingleState(t, attributeQuark);
+    }
+
+    @Override
+    public Iterable<ITmfStateInterval> query2D(Collection<Integer> quarks, Collection<Long> times) throws StateSystemDisposedException {
+        return fStateSystem.query2D(quarks, times);
+    }
+
+    @Override
+    public Iterable<ITmfStateInterval> query2D(Collection<Integer> quarks, long start, long end) throws StateSystemDisposedException {
+        return fStateSystem.query2D(quarks, start, end);
+    }
+}
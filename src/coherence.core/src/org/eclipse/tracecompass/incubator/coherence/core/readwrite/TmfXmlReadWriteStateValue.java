@@ -299,6 +299,16 @@ public class TmfXmlReadWriteStateValue extends TmfXmlStateValue {
             }
         }
 
+        @Override
+        public boolean isEventOnly() {
+            return !getStackType().equals(ValueTypeStack.PEEK);
+        }
+
+        @Override
+        public @Nullable ITmfStateValue getConstantValue() {
+            return getStackType().equals(ValueTypeStack.PEEK) ? null : fValue;
+        }
+
         /**
          * @param event
          *            The ongoing event
@@ -377,6 +387,11 @@ public class TmfXmlReadWriteStateValue extends TmfXmlStateValue {
             return getEventFieldValue(event, fFieldName);
         }
 
+        @Override
+        public boolean isEventOnly() {
+            return true;
+        }
+
         @Override
         public void incrementValue(ITmfEvent event, int quark, long timestamp, @Nullable TmfXmlScenarioInfo scenarioInfo) throws StateValueTypeException, TimeRangeException, AttributeNotFoundException {
             ITmfStateSystem ss = getSsContainer().getStateSystem();
@@ -397,6 +412,7 @@ public class TmfXmlReadWriteStateValue extends TmfXmlStateValue {
             return "Event Field=" + fFieldName; //$NON-NLS-1$
         }
         
+        @Override
         public String getFieldName() {
         	return fFieldName;
         }
@@ -414,6 +430,11 @@ public class TmfXmlReadWriteStateValue extends TmfXmlStateValue {
             return TmfStateValue.newValueString(event.getName());
         }
 
+        @Override
+        public boolean isEventOnly() {
+            return true;
+        }
+
         @Override
         public String toString() {
             return "Event name"; //$NON-NLS-1$
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.segment;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.datastore.core.interval.IHTIntervalReader;
+import org.eclipse.tracecompass.datastore.core.serialization.ISafeByteBufferWriter;
+import org.eclipse.tracecompass.datastore.core.serialization.SafeByteBufferFactory;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlEventAspects;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlEventTypes;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlIncoherenceBuffer;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlIncoherenceBuffer.EventStamp;
+import org.eclipse.tracecompass.segmentstore.core.ISegment;
+
+/**
+ * An incoherence found by an fsm, as saved in the supplementary files of the
+ * trace. The segment goes from the last coherent event of the scenario, if
+ * any, to the incoherent event.
+ *
+ * @author mmartin
+ */
+public class TmfXmlIncoherenceSegment implements ISegment {
+
+    /**
+     * The serial version UID
+     */
+    private static final long serialVersionUID = -2650394786371227184L;
+
+    /** Name of the event type of a missing previous event */
+    private static final String NO_TYPE = ""; //$NON-NLS-1$
+
+    /**
+     * Reads the segments from a segment store file
+     */
+    public static final IHTIntervalReader<@NonNull TmfXmlIncoherenceSegment> READER = buffer -> new TmfXmlIncoherenceSegment(
+            buffer.getString(),
+            buffer.getLong(),
+            buffer.getLong(),
+            buffer.getLong(),
+            buffer.getString(),
+            buffer.getInt(),
+            buffer.getLong(),
+            buffer.getLong(),
+            buffer.getString(),
+            buffer.getInt(),
+            buffer.getString());
+
+    private final String fFsmId;
+    private final long fScenarioKey;
+    private final long fTime;
+    private final long fRank;
+    private final String fType;
+    private final int fCpu;
+    private final long fPrevTime;
+    private final long fPrevRank;
+    private final String fPrevType;
+    private final int fPrevCpu;
+    private final String fStateName;
+
+    private TmfXmlIncoherenceSegment(String fsmId, long scenarioKey, long time, long rank, String type, int cpu,
+            long prevTime, long prevRank, String prevType, int prevCpu, String stateName) {
+        fFsmId = fsmId;
+        fScenarioKey = scenarioKey;
+        fTime = time;
+        fRank = rank;
+        fType = type;
+        fCpu = cpu;
+        fPrevTime = prevTime;
+        fPrevRank = prevRank;
+        fPrevType = prevType;
+        fPrevCpu = prevCpu;
+        fStateName = stateName;
+    }
+
+    /**
+     * Create the segment of an incoherence
+     *
+     * @param fsmId
+     *            The ID of the fsm where the incoherence was found
+     * @param scenarioKey
+     *            The attribute of the scenario
+     * @param event
+     *            The incoherent event
+     * @param prevEvent
+     *            The last coherent event of the scenario, or null
+     * @param stateName
+     *            The last coherent state of the scenario
+     * @param eventTypes
+     *            The registry of the type IDs of the stamps
+     * @return The segment
+     */
+    public static TmfXmlIncoherenceSegment create(String fsmId, long scenarioKey, EventStamp event,
+            @Nullable EventStamp prevEvent, String stateName, TmfXmlEventTypes eventTypes) {
+        return new TmfXmlIncoherenceSegment(fsmId, scenarioKey,
+                event.getTime(), event.getRank(), eventTypes.getName(event.getTypeId()), event.getCpu(),
+                (prevEvent == null) ? TmfXmlIncoherenceBuffer.NO_TIME : prevEvent.getTime(),
+                (prevEvent == null) ? 0 : prevEvent.getRank(),
+                (prevEvent == null) ? NO_TYPE : eventTypes.getName(prevEvent.getTypeId()),
+                (prevEvent == null) ? TmfXmlEventAspects.NO_VALUE : prevEvent.getCpu(),
+                stateName);
+    }
+
+    @Override
+    public long getStart() {
+        return (fPrevTime == TmfXmlIncoherenceBuffer.NO_TIME) ? fTime : fPrevTime;
+    }
+
+    @Override
+    public long getEnd() {
+        return fTime;
+    }
+
+    /**
+     * Get the ID of the fsm where the incoherence was found
+     *
+     * @return The ID of the fsm
+     */
+    public String getFsmId() {
+        return fFsmId;
+    }
+
+    /**
+     * Get the attribute of the scenario
+     *
+     * @return The scenario key
+     */
+    public long getScenarioKey() {
+        return fScenarioKey;
+    }
+
+    /**
+     * Get the incoherent event, to find it again in the trace
+     *
+     * @param eventTypes
+     *            The registry giving the type ID of the stamp
+     * @return The stamp of the incoherent event
+     */
+    public EventStamp getEvent(TmfXmlEventTypes eventTypes) {
+        return new EventStamp(fTime, fRank, eventTypes.getId(fType), fCpu);
+    }
+
+    /**
+     * Get the last coherent event of the scenario, to find it again in the
+     * trace
+     *
+     * @param eventTypes
+     *            The registry giving the type ID of the stamp
+     * @return The stamp of the event, or null if there is none
+     */
+    public @Nullable EventStamp getPrevEvent(TmfXmlEventTypes eventTypes) {
+        if (fPrevTime == TmfXmlIncoherenceBuffer.NO_TIME) {
+            return null;
+        }
+        return new EventStamp(fPrevTime, fPrevRank, eventTypes.getId(fPrevType), fPrevCpu);
+    }
+
+    /**
+     * Get the last coherent state of the scenario
+     *
+     * @return The ID of the state
+     */
+    public String getStateName() {
+        return fStateName;
+    }
+
+    @Override
+    public int getSizeOnDisk() {
+        return 5 * Long.BYTES + 2 * Integer.BYTES
+                + SafeByteBufferFactory.getStringSizeInBuffer(fFsmId)
+                + SafeByteBufferFactory.getStringSizeInBuffer(fType)
+                + SafeByteBufferFactory.getStringSizeInBuffer(fPrevType)
+                + SafeByteBufferFactory.getStringSizeInBuffer(fStateName);
+    }
+
+    @Override
+    public void writeSegment(ISafeByteBufferWriter buffer) {
+        /* Same order as the reader */
+        buffer.putString(fFsmId);
+        buffer.putLong(fScenarioKey);
+        buffer.putLong(fTime);
+        buffer.putLong(fRank);
+        buffer.putString(fType);
+        buffer.putInt(fCpu);
+        buffer.putLong(fPrevTime);
+        buffer.putLong(fPrevRank);
+        buffer.putString(fPrevType);
+        buffer.putInt(fPrevCpu);
+        buffer.putString(fStateName);
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder(getClass().getSimpleName())
+                .append(", [fFsmId=").append(fFsmId) //$NON-NLS-1$
+                .append(", fScenarioKey=").append(fScenarioKey) //$NON-NLS-1$
+                .append(", fTime=").append(fTime) //$NON-NLS-1$
+                .append(", fType=").append(fType) //$NON-NLS-1$
+                .append(", fStateName=").append(fStateName) //$NON-NLS-1$
+                .append("]").toString(); //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.segment;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.datastore.core.interval.IHTIntervalReader;
+import org.eclipse.tracecompass.datastore.core.serialization.ISafeByteBufferReader;
+import org.eclipse.tracecompass.datastore.core.serialization.ISafeByteBufferWriter;
+import org.eclipse.tracecompass.datastore.core.serialization.SafeByteBufferFactory;
+import org.eclipse.tracecompass.segmentstore.core.ISegment;
+
+/**
+ * An inferred event, as saved in the supplementary files of the trace. The
+ * segment covers the interval where the event could have happened.
+ *
+ * Each field of the event has its possible values: a single one, or several
+ * ones when the value could not be decided.
+ *
+ * @author mmartin
+ */
+public class TmfXmlInferredEventSegment implements ISegment {
+
+    /**
+     * The serial version UID
+     */
+    private static final long serialVersionUID = 4406781734912365718L;
+
+    /* 'Byte' equivalent for the types of the field values */
+    private static final byte TYPE_NULL = -1;
+    private static final byte TYPE_INTEGER = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_LONG = 2;
+
+    /**
+     * Reads the segments from a segment store file
+     */
+    public static final IHTIntervalReader<@NonNull TmfXmlInferredEventSegment> READER = TmfXmlInferredEventSegment::read;
+
+    private final long fStart;
+    private final long fEnd;
+    private final long fTime;
+    private final long fLocalRank;
+    private final String fName;
+    private final int fCpu;
+    private final String[] fFieldNames;
+    private final Object[][] fFieldValues;
+
+    /**
+     * Constructor
+     *
+     * @param start
+     *            The start of the interval where the event could have happened
+     * @param end
+     *            The end of the interval
+     * @param time
+     *            The timestamp given to the event
+     * @param localRank
+     *            The position of the event among the events inferred for its
+     *            incoherence
+     * @param name
+     *            The name of the event
+     * @param cpu
+     *            The CPU of the event
+     * @param fieldNames
+     *            The names of the fields
+     * @param fieldValues
+     *            The possible values of each field, Integer, Long or String
+     */
+    public TmfXmlInferredEventSegment(long start, long end, long time, long localRank, String name, int cpu,
+            String[] fieldNames, Object[][] fieldValues) {
+        if (fieldNames.length != fieldValues.length) {
+            throw new IllegalArgumentException("Each field must have its values"); //$NON-NLS-1$
+        }
+        fStart = start;
+        fEnd = end;
+        fTime = time;
+        fLocalRank = localRank;
+        fName = name;
+        fCpu = cpu;
+        fFieldNames = fieldNames;
+        fFieldValues = fieldValues;
+    }
+
+    private static TmfXmlInferredEventSegment read(ISafeByteBufferReader buffer) {
+        long start = buffer.getLong();
+        long end = buffer.getLong();
+        long time = buffer.getLong();
+        long localRank = buffer.getLong();
+        String name = buffer.getString();
+        int cpu = buffer.getInt();
+        int fieldCount = buffer.getInt();
+        String[] fieldNames = new String[fieldCount];
+        Object[][] fieldValues = new Object[fieldCount][];
+        for (int i = 0; i < fieldCount; i++) {
+            fieldNames[i] = buffer.getString();
+            Object[] values = new Object[buffer.getInt()];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = readValue(buffer);
+            }
+            fieldValues[i] = values;
+        }
+        return new TmfXmlInferredEventSegment(start, end, time, localRank, name, cpu, fieldNames, fieldValues);
+    }
+
+    private static @Nullable Object readValue(ISafeByteBufferReader buffer) {
+        byte type = buffer.get();
+        switch (type) {
+        case TYPE_NULL:
+            return null;
+        case TYPE_INTEGER:
+            return buffer.getInt();
+        case TYPE_LONG:
+            return buffer.getLong();
+        case TYPE_STRING:
+            return buffer.getString();
+        default:
+            throw new IllegalStateException("Invalid value type " + type); //$NON-NLS-1$
+        }
+    }
+
+    @Override
+    public long getStart() {
+        return fStart;
+    }
+
+    @Override
+    public long getEnd() {
+        return fEnd;
+    }
+
+    /**
+     * Get the timestamp given to the event
+     *
+     * @return The timestamp, in nanoseconds
+     */
+    public long getTime() {
+        return fTime;
+    }
+
+    /**
+     * Get the position of the event among the events inferred for its
+     * incoherence
+     *
+     * @return The local rank
+     */
+    public long getLocalRank() {
+        return fLocalRank;
+    }
+
+    /**
+     * Get the name of the event
+     *
+     * @return The name
+     */
+    public String getName() {
+        return fName;
+    }
+
+    /**
+     * Get the CPU of the event
+     *
+     * @return The CPU
+     */
+    public int getCpu() {
+        return fCpu;
+    }
+
+    /**
+     * Get the names of the fields of the event
+     *
+     * @return The field names
+     */
+    public String[] getFieldNames() {
+        return fFieldNames;
+    }
+
+    /**
+     * Get the possible values of a field
+     *
+     * @param index
+     *            The index of the field in {@link #getFieldNames()}
+     * @return The values
+     */
+    public Object[] getFieldValues(int index) {
+        return fFieldValues[index];
+    }
+
+    @Override
+    public int getSizeOnDisk() {
+        int size = 4 * Long.BYTES + SafeByteBufferFactory.getStringSizeInBuffer(fName) + 2 * Integer.BYTES;
+        for (int i = 0; i < fFieldNames.length; i++) {
+            size += SafeByteBufferFactory.getStringSizeInBuffer(fFieldNames[i]) + Integer.BYTES;
+            for (Object value : fFieldValues[i]) {
+                size += Byte.BYTES;
+                if (value instanceof Integer) {
+                    size += Integer.BYTES;
+                } else if (value instanceof Long) {
+                    size += Long.BYTES;
+                } else if (value != null) {
+                    size += SafeByteBufferFactory.getStringSizeInBuffer(value.toString());
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void writeSegment(ISafeByteBufferWriter buffer) {
+        buffer.putLong(fStart);
+        buffer.putLong(fEnd);
+        buffer.putLong(fTime);
+        buffer.putLong(fLocalRank);
+        buffer.putString(fName);
+        buffer.putInt(fCpu);
+        buffer.putInt(fFieldNames.length);
+        for (int i = 0; i < fFieldNames.length; i++) {
+            buffer.putString(fFieldNames[i]);
+            buffer.putInt(fFieldValues[i].length);
+            for (Object value : fFieldValues[i]) {
+                if (value == null) {
+                    buffer.put(TYPE_NULL);
+                } else if (value instanceof Integer) {
+                    buffer.put(TYPE_INTEGER);
+                    buffer.putInt((Integer) value);
+                } else if (value instanceof Long) {
+                    buffer.put(TYPE_LONG);
+                    buffer.putLong((Long) value);
+                } else {
+                    /* Other values are only displayed, keep them as strings */
+                    buffer.put(TYPE_STRING);
+                    buffer.putString(value.toString());
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder(getClass().getSimpleName())
+                .append(", [fTime=").append(fTime) //$NON-NLS-1$
+                .append(", fStart=").append(fStart) //$NON-NLS-1$
+                .append(", fEnd=").append(fEnd) //$NON-NLS-1$
+                .append(", fName=").append(fName) //$NON-NLS-1$
+                .append(", fLocalRank=").append(fLocalRank) //$NON-NLS-1$
+                .append("]").toString(); //$NON-NLS-1$
+    }
+}
@@ -25,6 +25,7 @@ import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tracecompass.incubator.coherence.core.model.ITmfXmlModelFactory;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlEventHandler;
+import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlEventTypes;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlLocation;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfXmlMapEntry;
 import org.eclipse.tracecompass.incubator.coherence.core.module.IXmlStateSystemContainer;
@@ -60,6 +61,9 @@ public class XmlStateProvider extends AbstractTmfStateProvider implements IXmlSt
 
     private final @NonNull Map<@NonNull String, @NonNull Set<@NonNull TmfXmlMapEntry>> fMappingGroups;
 
+    /** Registry of the event types of this analysis */
+    private final @NonNull TmfXmlEventTypes fEventTypes = new TmfXmlEventTypes();
+
     // ------------------------------------------------------------------------
     // Constructor
     // ------------------------------------------------------------------------
@@ -174,8 +178,9 @@ public class XmlStateProvider extends AbstractTmfStateProvider implements IXmlSt
 
     @Override
     protected void eventHandle(ITmfEvent event) {
+        int typeId = fEventTypes.getId(event);
         for (TmfXmlEventHandler eventHandler : fEventHandlers) {
-            eventHandler.handleEvent(event);
+            eventHandler.handleEvent(event, typeId);
         }
     }
 
@@ -193,6 +198,11 @@ public class XmlStateProvider extends AbstractTmfStateProvider implements IXmlSt
         return fLocations;
     }
 
+    @Override
+    public @NonNull TmfXmlEventTypes getEventTypes() {
+        return fEventTypes;
+    }
+
     /**
      * Get the defined value associated with a constant
      *
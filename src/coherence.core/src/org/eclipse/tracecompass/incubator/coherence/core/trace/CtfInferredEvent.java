@@ -17,13 +17,13 @@ public class CtfInferredEvent extends TmfEvent {
 
 	private final int fCpu;
 	
-	public CtfInferredEvent(CtfTmfEvent event, ITmfTrace trace) {
-		super(trace, event.getRank(), event.getTimestamp(), event.getType(), event.getContent()); 
+	public CtfInferredEvent(CtfTmfEvent event, ITmfTrace trace, long rank) {
+		super(trace, rank, event.getTimestamp(), event.getType(), event.getContent()); 
 		fCpu = event.getCPU();
 	}
 	
-	public CtfInferredEvent(TmfInferredEvent event, ITmfTrace trace) {
-		super(trace, event.getRank(), event.getTimestamp(), event.getType(), event.getContent());
+	public CtfInferredEvent(TmfInferredEvent event, ITmfTrace trace, long rank) {
+		super(trace, rank, event.getTimestamp(), event.getType(), event.getContent());
 		fCpu = event.getCpu();
 	}
 	
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Ecole Polytechnique de Montreal
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.tracecompass.incubator.coherence.core.trace;
+
+import org.eclipse.tracecompass.tmf.core.trace.TmfContext;
+import org.eclipse.tracecompass.tmf.core.trace.location.ITmfLocation;
+import org.eclipse.tracecompass.tmf.ctf.core.context.CtfTmfContext;
+
+/**
+ * A position in an {@link InferenceTrace}: the position in the parent trace
+ * and the index of the next inferred event to merge. Each context has its own
+ * cursor, so several readers can go through the trace at the same time.
+ *
+ * @author mmartin
+ */
+class InferenceContext extends TmfContext {
+
+	private final CtfTmfContext fParentContext;
+	private int fNext;
+
+	/**
+	 * Constructor
+	 *
+	 * @param parentContext
+	 * 			The context in the parent trace
+	 * @param next
+	 * 			The index of the next inferred event
+	 * @param rank
+	 * 			The rank of the next event in the inference trace
+	 */
+	public InferenceContext(CtfTmfContext parentContext, int next, long rank) {
+		super(null, rank);
+		fParentContext = parentContext;
+		fNext = next;
+	}
+
+	/**
+	 * Get the context in the parent trace
+	 *
+	 * @return The context of the next event of the parent trace
+	 */
+	public CtfTmfContext getParentContext() {
+		return fParentContext;
+	}
+
+	/**
+	 * Get the index of the next inferred event
+	 *
+	 * @return The index in the inferred events of the trace
+	 */
+	public int getNext() {
+		return fNext;
+	}
+
+	/**
+	 * Move to the next inferred event
+	 */
+	public void advanceInferred() {
+		fNext++;
+	}
+
+	@Override
+	public ITmfLocation getLocation() {
+		return fParentContext.getLocation();
+	}
+
+	@Override
+	public void setLocation(ITmfLocation location) {
+		fParentContext.setLocation(location);
+	}
+
+	@Override
+	public void dispose() {
+		fParentContext.dispose();
+		super.dispose();
+	}
+}
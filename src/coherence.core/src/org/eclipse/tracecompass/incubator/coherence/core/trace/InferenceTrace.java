@@ -1,34 +1,31 @@
 package org.eclipse.tracecompass.incubator.coherence.core.trace;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
+import java.util.UUID;
 
-import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.IResource;
-import org.eclipse.core.runtime.CoreException;
-import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tracecompass.analysis.os.linux.core.trace.IKernelAnalysisEventLayout;
 import org.eclipse.tracecompass.analysis.os.linux.core.trace.IKernelTrace;
 import org.eclipse.tracecompass.incubator.coherence.core.Activator;
 import org.eclipse.tracecompass.incubator.coherence.core.model.TmfInferredEvent;
-import org.eclipse.tracecompass.tmf.core.TmfCommonConstants;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
 import org.eclipse.tracecompass.tmf.core.event.TmfEvent;
 import org.eclipse.tracecompass.tmf.core.event.aspect.ITmfEventAspect;
 import org.eclipse.tracecompass.tmf.core.event.aspect.TmfBaseAspects;
 import org.eclipse.tracecompass.tmf.core.exceptions.TmfTraceException;
-import org.eclipse.tracecompass.tmf.core.signal.TmfSelectionRangeUpdatedSignal;
-import org.eclipse.tracecompass.tmf.core.signal.TmfSignalHandler;
-import org.eclipse.tracecompass.tmf.core.signal.TmfStartAnalysisSignal;
 import org.eclipse.tracecompass.tmf.core.signal.TmfTraceRangeUpdatedSignal;
-import org.eclipse.tracecompass.tmf.core.signal.TmfWindowRangeUpdatedSignal;
+import org.eclipse.tracecompass.tmf.core.signal.TmfTraceUpdatedSignal;
+import org.eclipse.tracecompass.tmf.core.timestamp.ITmfTimestamp;
+import org.eclipse.tracecompass.tmf.core.timestamp.TmfTimestamp;
 import org.eclipse.tracecompass.tmf.core.trace.ITmfContext;
 import org.eclipse.tracecompass.tmf.core.trace.TmfTrace;
 import org.eclipse.tracecompass.tmf.core.trace.TmfTraceManager;
@@ -37,8 +34,6 @@ import org.eclipse.tracecompass.tmf.ctf.core.context.CtfLocation;
 import org.eclipse.tracecompass.tmf.ctf.core.context.CtfTmfContext;
 import org.eclipse.tracecompass.tmf.ctf.core.event.CtfTmfEvent;
 import org.eclipse.tracecompass.tmf.ctf.core.event.aspect.CtfChannelAspect;
-import org.eclipse.tracecompass.tmf.ui.project.model.TmfProjectRegistry;
-import org.eclipse.tracecompass.tmf.ui.project.model.TmfTraceFolder;
 
 import com.google.common.collect.ImmutableList;
 
@@ -53,62 +48,90 @@ import com.google.common.collect.ImmutableList;
 public class InferenceTrace extends TmfTrace implements IKernelTrace {
 
 	private List<TmfInferredEvent> fInferredEvents;
-	private Iterator<TmfInferredEvent> it;
-	private TmfInferredEvent currentInferred;
+	/* Timestamps of the inferred events in nanoseconds, to find them by binary search */
+	private long[] fTimestamps = new long[0];
+	/* Ranks of the inferred events in this trace, computed when they are first needed */
+	private long[] fInferredRanks = new long[0];
 	private TmfTrace fTrace;
-	private IResource fResource;
 	
-	private static String suffix = ".2"; // FIXME : better name
+	private static final String SUFFIX = ".inferred"; //$NON-NLS-1$
 	
 	public InferenceTrace() {
 		super();
 	}
 	
+	/**
+	 * Create an overlay of a trace with inferred events. The events of the
+	 * trace are read from its own files and found with its index, nothing is
+	 * copied, the seeks go through the index of the trace. The overlay has no
+	 * resource, so its supplementary files, the results of the analyses of the
+	 * trace with the inferred events, are kept in a temporary directory of its
+	 * own, deleted when the overlay is disposed. They are not reused by the
+	 * next overlay of the trace.
+	 * 
+	 * @param trace
+	 * 			The trace
+	 * @param inferredEvents
+	 * 			The inferred events, sorted by timestamp
+	 * @throws TmfTraceException
+	 * 			If the overlay cannot be initialized
+	 */
 	public InferenceTrace(TmfTrace trace, List<TmfInferredEvent> inferredEvents) throws TmfTraceException {
 		super();
-		IResource original = trace.getResource();
-		
-		IPath newPath = new Path(original.getFullPath().toOSString() + suffix);
-		try {
-			// TODO maybe create new resource completely? because we have to set the supp. files manually anyway...
-			IPath checkPath = new Path(original.getName() + suffix);
-			IResource old = original.getParent().findMember(checkPath);
-			if (old != null) {
-				old.delete(true, null);
-			}
-			original.copy(newPath, true, null);
-			IResource copy = original.getWorkspace().getRoot().getFolder(newPath);
-			TmfTraceFolder newFolder = new TmfTraceFolder(original.getParent().getName(), (IFolder) copy, TmfProjectRegistry.getProject(original.getProject()));
-			IFolder supplFolder = newFolder.prepareTraceSupplementaryFolder(copy.getFullPath().toOSString(), true);
-			copy.setPersistentProperty(TmfCommonConstants.TRACE_SUPPLEMENTARY_FOLDER, supplFolder.getLocation().toOSString()); // force new folder for supp. files			
-			initialize(copy, trace.getPath(), TmfEvent.class); // copy the path because the modules creation should depend on the resource
-			TmfTraceManager.deleteSupplementaryFiles(this);
-			fResource = copy;
-		} catch (CoreException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}		
-		
 		fTrace = trace;
-		fInferredEvents = inferredEvents.isEmpty() ? new ArrayList<>() : new ArrayList<>(inferredEvents); // inferredEvents is already sorted
-		it = fInferredEvents.iterator();
-		currentInferred = (it.hasNext()) ? it.next() : null;
+		fInferredEvents = new ArrayList<>(inferredEvents); // inferredEvents is already sorted
+		fTimestamps = new long[fInferredEvents.size()];
+		for (int i = 0; i < fTimestamps.length; i++) {
+			fTimestamps[i] = fInferredEvents.get(i).getTimestamp().toNanos();
+		}
+		fInferredRanks = new long[fTimestamps.length];
+		Arrays.fill(fInferredRanks, ITmfContext.UNKNOWN_RANK);
+		
+		/* The name is set first, so the supplementary files are not mixed with the ones of the trace */
+		setName(getOverlayName(trace));
+		initialize(null, trace.getPath(), TmfEvent.class);
+		/* Files left by an overlay that was not disposed may come from other inferred events */
+		TmfTraceManager.deleteSupplementaryFiles(this);
 		
         this.setStartTime(fTrace.getStartTime());
         this.setEndTime(fTrace.getEndTime());
 	}
 	
+	/**
+	 * Get the name of the overlay of a trace. The overlay has no resource, so
+	 * its supplementary files are in a temporary directory named after it: the
+	 * name is made unique by an ID derived from the supplementary directory and
+	 * the path of the trace, which are the same each time the trace is opened,
+	 * so two traces with the same name do not share the directory.
+	 */
+	private static String getOverlayName(TmfTrace trace) {
+		String parent = TmfTraceManager.getSupplementaryFileDir(trace) + File.pathSeparator + trace.getPath();
+		UUID id = UUID.nameUUIDFromBytes(parent.getBytes(StandardCharsets.UTF_8));
+		return trace.getName() + SUFFIX + '-' + Long.toHexString(id.getMostSignificantBits());
+	}
+	
 	@Override
-	public synchronized void dispose() {
-		// Delete "synthetic" eclipse resource 
-		try {
-			fResource.delete(true, null);
-		} catch (CoreException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+	public void traceRangeUpdated(TmfTraceRangeUpdatedSignal signal) {
+		if (signal.getTrace() != this) {
+			return;
 		}
-		
+		/*
+		 * The seeks go through the index of the parent trace, so the trace is
+		 * not read again to build an index of its own: only the number of
+		 * events is needed
+		 */
+		setStartTime(fTrace.getStartTime());
+		setEndTime(fTrace.getEndTime());
+		setNbEvents(fTrace.getNbEvents() + fTimestamps.length);
+		/* Let the views know the range and the number of events, as the indexer does once it is done */
+		broadcast(new TmfTraceUpdatedSignal(this, this, getTimeRange(), getNbEvents()));
+	}
+	
+	@Override
+	public synchronized void dispose() {
 		super.dispose();
+		/* The results of the analyses are not kept once the overlay is closed */
+		TmfTraceManager.deleteSupplementaryFiles(this);
 	}
 	
 	public TmfTrace getParentTrace() {
@@ -120,87 +143,148 @@ public class InferenceTrace extends TmfTrace implements IKernelTrace {
 	}
 
 	@Override
-	public void traceRangeUpdated(TmfTraceRangeUpdatedSignal signal) {
-		long start = signal.getRange().getStartTime().getValue();
-		it = fInferredEvents.iterator();
-		if (it.hasNext()) {
-			currentInferred = it.next();
+	public synchronized ITmfEvent getNext(ITmfContext context) {
+		if (!(context instanceof InferenceContext)) {
+			return null;
 		}
-		while (it.hasNext() && currentInferred != null && currentInferred.getTimestamp().getValue() < start) {
-    		currentInferred = it.next();
-    	}
-		if (!it.hasNext() && currentInferred != null && currentInferred.getTimestamp().getValue() < start) {
-			currentInferred = null;
+		InferenceContext inferenceContext = (InferenceContext) context;
+		CtfTmfContext parentContext = inferenceContext.getParentContext();
+		CtfTmfEvent event = getParentEvent(parentContext);
+		long rank = context.getRank();
+
+		CtfInferredEvent newEvent;
+		int next = inferenceContext.getNext();
+		if (isInferredNext(next, event)) {
+			newEvent = new CtfInferredEvent(fInferredEvents.get(next), this, rank);
+			if (rank != ITmfContext.UNKNOWN_RANK) {
+				fInferredRanks[next] = rank;
+			}
+			inferenceContext.advanceInferred();
 		}
-		
-		super.traceRangeUpdated(signal);
-	}
-	
-	@TmfSignalHandler
-    public void selectionRangeUpdated(final TmfSelectionRangeUpdatedSignal signal) {
-		long start = signal.getBeginTime().getValue();
-		it = fInferredEvents.iterator();
-		if (it.hasNext()) {
-			currentInferred = it.next();
+		else if (event != null) {
+			newEvent = new CtfInferredEvent(event, this, rank);
+			parentContext.advance();
+			parentContext.increaseRank();
 		}
-		while (it.hasNext() && currentInferred.getTimestamp().getValue() < start) {
-    		currentInferred = it.next();
-    	}
-		if (!it.hasNext() && currentInferred.getTimestamp().getValue() < start) {
-			currentInferred = null;
+		else {
+			return null;
 		}
+		updateAttributes(context, newEvent);
+		context.increaseRank();
+		return newEvent;
 	}
-	
-	@TmfSignalHandler
-    public void windowRangeUpdated(final TmfWindowRangeUpdatedSignal signal) {
-		long start = signal.getCurrentRange().getStartTime().getValue();
-		it = fInferredEvents.iterator();
-		if (it.hasNext()) {
-			currentInferred = it.next();
+
+	@Override
+	public synchronized ITmfContext seekEvent(ITmfTimestamp timestamp) {
+		if (timestamp == null) {
+			return seekEvent((ITmfLocation) null);
 		}
-		while (it.hasNext() && currentInferred.getTimestamp().getValue() < start) {
-    		currentInferred = it.next();
-    	}
-		if (!it.hasNext() && currentInferred.getTimestamp().getValue() < start) {
-			currentInferred = null;
+		/* The inferred events before the timestamp are all before the position in the parent trace */
+		ITmfContext parentContext = fTrace.seekEvent(timestamp);
+		int next = lowerBound(timestamp.toNanos());
+		long rank = parentContext.hasValidRank() ? parentContext.getRank() + next : ITmfContext.UNKNOWN_RANK;
+		return createContext(parentContext, next, rank);
+	}
+
+	@Override
+	public synchronized ITmfContext seekEvent(long rank) {
+		if (rank <= 0) {
+			return seekEvent((ITmfLocation) null);
 		}
+		/* Find the number of inferred events before the rank, the others are events of the parent trace */
+		int low = 0;
+		int high = fTimestamps.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getInferredRank(mid) < rank) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return createContext(fTrace.seekEvent(rank - low), low, rank);
 	}
-	
-	@TmfSignalHandler
-    public void analysisStarted(final TmfStartAnalysisSignal signal) {
-		it = fInferredEvents.iterator();
-		currentInferred = it.hasNext() ? it.next() : null;
+
+	@Override
+	public synchronized ITmfContext seekEvent(ITmfLocation location) {
+		return createContext(fTrace.seekEvent(location), location == null);
 	}
 
 	@Override
-	public synchronized ITmfEvent getNext(ITmfContext context) {
-		
-        CtfTmfEvent event = null;
-        if (context instanceof CtfTmfContext) {
-            if (context.getLocation() == null || CtfLocation.INVALID_LOCATION.equals(context.getLocation().getLocationInfo())) {
-                return null;
-            }
-            CtfTmfContext ctfContext = (CtfTmfContext) context;
-            event = ctfContext.getCurrentEvent();
+	public synchronized ITmfContext seekEvent(double ratio) {
+		return createContext(fTrace.seekEvent(ratio), false);
+	}
 
-            if (event != null) {
-            	long ts = event.getTimestamp().getValue();
-                if ((currentInferred != null) &&
-                		(currentInferred.getTimestamp().getValue() < ts)) {
-                	
-                    updateAttributes(context, currentInferred);
-                    ctfContext.increaseRank();                    
-                    CtfInferredEvent newEvent = new CtfInferredEvent(currentInferred, this);
-                    currentInferred = (it.hasNext()) ? it.next() : null;
-                    return newEvent;
-            	}
+	/**
+	 * Create the context at a location of the parent trace, after the inferred
+	 * events that are before the event at this location
+	 */
+	private InferenceContext createContext(ITmfContext parentContext, boolean fromStart) {
+		int next = 0;
+		if (!fromStart && parentContext instanceof CtfTmfContext) {
+			CtfTmfEvent event = getParentEvent((CtfTmfContext) parentContext);
+			next = (event == null) ? fTimestamps.length : lowerBound(event.getTimestamp().toNanos());
+		}
+		long rank = parentContext.hasValidRank() ? parentContext.getRank() + next : ITmfContext.UNKNOWN_RANK;
+		return createContext(parentContext, next, rank);
+	}
 
-                updateAttributes(context, event);
-                ctfContext.advance();
-                ctfContext.increaseRank();
-            }
-        }
-        return new CtfInferredEvent(event, this);
+	private static InferenceContext createContext(ITmfContext parentContext, int next, long rank) {
+		if (!(parentContext instanceof CtfTmfContext)) {
+			parentContext.dispose();
+			throw new IllegalStateException("The parent trace of an inference trace must be a CTF trace"); //$NON-NLS-1$
+		}
+		return new InferenceContext((CtfTmfContext) parentContext, next, rank);
+	}
+
+	/**
+	 * Get the rank of an inferred event in this trace: its index plus the
+	 * number of events of the parent trace before it, found with the index of
+	 * the parent trace the first time it is needed
+	 */
+	private long getInferredRank(int index) {
+		long rank = fInferredRanks[index];
+		if (rank == ITmfContext.UNKNOWN_RANK) {
+			/* The inferred event is after the events of the parent trace with the same timestamp */
+			ITmfContext parentContext = fTrace.seekEvent(TmfTimestamp.fromNanos(fTimestamps[index] + 1));
+			long parentRank = parentContext.hasValidRank() ? parentContext.getRank() : fTrace.getNbEvents();
+			parentContext.dispose();
+			rank = parentRank + index;
+			fInferredRanks[index] = rank;
+		}
+		return rank;
+	}
+
+	/**
+	 * Get the index of the first inferred event at or after a timestamp
+	 */
+	private int lowerBound(long time) {
+		int low = 0;
+		int high = fTimestamps.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (fTimestamps[mid] < time) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private boolean isInferredNext(int next, @Nullable CtfTmfEvent event) {
+		return (next < fTimestamps.length) &&
+				((event == null) || (fTimestamps[next] < event.getTimestamp().toNanos()));
+	}
+
+	private static @Nullable CtfTmfEvent getParentEvent(CtfTmfContext context) {
+		ITmfLocation location = context.getLocation();
+		if (location == null || CtfLocation.INVALID_LOCATION.equals(location.getLocationInfo())) {
+			return null;
+		}
+		return context.getCurrentEvent();
 	}
 
 	@Override
@@ -222,18 +306,17 @@ public class InferenceTrace extends TmfTrace implements IKernelTrace {
 	}
 
 	@Override
-	public ITmfContext seekEvent(ITmfLocation location) {
-		return fTrace.seekEvent(location);
-	}
-
-	@Override
-	public ITmfContext seekEvent(double ratio) {
-		return fTrace.seekEvent(ratio);
-	}
-
-	@Override
-	public ITmfEvent parseEvent(ITmfContext context) {
-		return fTrace.parseEvent(context);
+	public synchronized ITmfEvent parseEvent(ITmfContext context) {
+		if (!(context instanceof InferenceContext)) {
+			return null;
+		}
+		InferenceContext inferenceContext = (InferenceContext) context;
+		CtfTmfEvent event = getParentEvent(inferenceContext.getParentContext());
+		int next = inferenceContext.getNext();
+		if (isInferredNext(next, event)) {
+			return new CtfInferredEvent(fInferredEvents.get(next), this, context.getRank());
+		}
+		return (event == null) ? null : new CtfInferredEvent(event, this, context.getRank());
 	}
 
 	@Override
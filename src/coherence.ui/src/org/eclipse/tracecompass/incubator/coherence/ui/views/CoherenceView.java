@@ -47,6 +47,7 @@ import org.eclipse.tracecompass.incubator.coherence.core.newmodel.FsmStateIncohe
 import org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider.XmlPatternAnalysis;
 import org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider.XmlPatternStateProvider;
 import org.eclipse.tracecompass.incubator.coherence.core.pattern.stateprovider.XmlPatternStateSystemModule;
+import org.eclipse.tracecompass.incubator.coherence.core.segment.TmfXmlIncoherenceSegment;
 import org.eclipse.tracecompass.incubator.coherence.core.trace.InferenceTrace;
 import org.eclipse.tracecompass.incubator.coherence.module.TmfAnalysisModuleHelperXml;
 import org.eclipse.tracecompass.incubator.coherence.ui.Activator;
@@ -151,7 +152,7 @@ public class CoherenceView extends ControlFlowView {
 	
 	Map<ITmfTrace, InferenceDialog> dialogs;
 
-	private Map<Long, ITmfEvent> fIncoherentEvents = new HashMap<>();
+	private Map<Long, FsmStateIncoherence> fIncoherentEvents = new HashMap<>(); // the incoherent events are read from the trace only when needed
 
 	public CoherenceView() {
 	    super();
@@ -318,6 +319,8 @@ public class CoherenceView extends ControlFlowView {
 	    	fModule.dispose();
 	    }
 	    fModule = moduleParent.getStateSystemModule();
+	    // When the history was opened from its file, the incoherences are read from the supplementary files
+	    fModule.restoreIncoherences();
 
         XmlPatternStateProvider provider = fModule.getStateProvider();
         if (provider == null || monitor.isCanceled()) {
@@ -342,7 +345,9 @@ public class CoherenceView extends ControlFlowView {
             
             fIncoherences.addAll(fsm.getIncoherences());
             
-            scenarios.putAll(fsm.getActiveScenariosList());
+            for (TmfXmlScenario scenario : fsm.getActiveScenariosList().values()) {
+            	scenarios.put(scenario.getAttribute(), scenario);
+            }
         }
         
         // Sort incoherences in chronological order
@@ -350,10 +355,10 @@ public class CoherenceView extends ControlFlowView {
 
 			@Override
 			public int compare(FsmStateIncoherence inc1, FsmStateIncoherence inc2) {
-				if (inc1.getIncoherentEvent().getTimestamp().getValue() < inc2.getIncoherentEvent().getTimestamp().getValue()) {
+				if (inc1.getIncoherentTimestamp().getValue() < inc2.getIncoherentTimestamp().getValue()) {
 					return -1;
 				}
-				else if (inc1.getIncoherentEvent().getTimestamp().getValue() > inc2.getIncoherentEvent().getTimestamp().getValue()) {
+				else if (inc1.getIncoherentTimestamp().getValue() > inc2.getIncoherentTimestamp().getValue()) {
 					return 1;
 				}
 				else {
@@ -379,7 +384,7 @@ public class CoherenceView extends ControlFlowView {
 			eventSet.add(incoherence);
 			pEntries.put(tidStr, eventSet);
 			
-			fIncoherentEvents.put(incoherence.getIncoherentEvent().getTimestamp().getValue(), incoherence.getIncoherentEvent());
+			fIncoherentEvents.put(incoherence.getIncoherentTimestamp().getValue(), incoherence);
 			
         }
         
@@ -393,29 +398,40 @@ public class CoherenceView extends ControlFlowView {
 
 	}
 
+	private void addCoherenceMarkers(long eventTime, long scenarioKey, long startTime, long endTime) {
+		// Add incoherent marker
+		if (eventTime >= startTime && eventTime <= endTime) {
+			// marker by entry
+			int tid = (int) scenarioKey;
+			ControlFlowEntry entry = findEntry(getEntryQuarkFromTid(tid)); // TODO we should only look for the entry if the incoherence is related to a process (process_fsm)
+			IMarkerEvent markerByEntry = new MarkerEvent(entry, eventTime, 0, COHERENCE, COHERENCE_COLOR, COHERENCE_LABEL, true);
+			// simple marker
+			IMarkerEvent marker = new MarkerEvent(null, eventTime, 0, COHERENCE, COHERENCE_COLOR, COHERENCE_LABEL, true);
+			
+			if (!fMarkers.contains(markerByEntry)) {
+				fMarkers.add(marker);
+				fMarkers.add(markerByEntry);
+			}
+		}
+	}
+
 	@Override
 	protected List<IMarkerEvent> getViewMarkerList(long startTime, long endTime,
 	        long resolution, @NonNull IProgressMonitor monitor) {
 				
 		/* Coherence markers */
 		
-		for (FsmStateIncoherence incoherence : fIncoherences) {
-			ITmfEvent event = incoherence.getIncoherentEvent();
-			// Add incoherent marker
-            long eventTime = event.getTimestamp().getValue();
-            if (eventTime >= startTime && eventTime <= endTime) {
-            	// marker by entry
-            	int tid =  Integer.valueOf(incoherence.getScenarioAttribute());
-				ControlFlowEntry entry = findEntry(getEntryQuarkFromTid(tid)); // TODO we should only look for the entry if the incoherence is related to a process (process_fsm)
-				IMarkerEvent markerByEntry = new MarkerEvent(entry, eventTime, 0, COHERENCE, COHERENCE_COLOR, COHERENCE_LABEL, true);
-				// simple marker
-				IMarkerEvent marker = new MarkerEvent(null, eventTime, 0, COHERENCE, COHERENCE_COLOR, COHERENCE_LABEL, true);
-				
-				if (!fMarkers.contains(markerByEntry)) {
-					fMarkers.add(marker);
-					fMarkers.add(markerByEntry);
-				}            	
-            }
+		Iterable<TmfXmlIncoherenceSegment> segments = (fModule == null) ? null : fModule.getIncoherenceSegments(startTime, endTime);
+		if (segments != null) {
+			// Only the incoherences of the range are read from the supplementary file
+			for (TmfXmlIncoherenceSegment segment : segments) {
+				addCoherenceMarkers(segment.getEnd(), segment.getScenarioKey(), startTime, endTime);
+			}
+		}
+		else {
+			for (FsmStateIncoherence incoherence : fIncoherences) {
+				addCoherenceMarkers(incoherence.getIncoherentTimestamp().getValue(), incoherence.getScenarioKey(), startTime, endTime);
+			}
 		}
 		
 		/* Uncertainty process markers */
@@ -591,12 +607,12 @@ public class CoherenceView extends ControlFlowView {
 	        long incoherentEventTs = 0;
 	        if (incoherentEventsIt.hasNext()) {
 	        	incoherentEvent = incoherentEventsIt.next();
-	        	incoherentEventTs = incoherentEvent.getIncoherentEvent().getTimestamp().getValue();
+	        	incoherentEventTs = incoherentEvent.getIncoherentTimestamp().getValue();
 	        }
 	        ITimeGraphState firstInterval = values.get(0);
 	        while (incoherentEventsIt.hasNext() && incoherentEventTs < firstInterval.getStartTime()) {
 	        	incoherentEvent = incoherentEventsIt.next();
-	        	incoherentEventTs = incoherentEvent.getIncoherentEvent().getTimestamp().getValue();
+	        	incoherentEventTs = incoherentEvent.getIncoherentTimestamp().getValue();
 	        }
 		
 			// Add incoherent state intervals to the given list of intervals
@@ -626,7 +642,7 @@ public class CoherenceView extends ControlFlowView {
 					// Get the next incoherent event, if it exists
 	        		if (incoherentEventsIt.hasNext()) {
 	        			incoherentEvent = incoherentEventsIt.next();
-	        			incoherentEventTs = incoherentEvent.getIncoherentEvent().getTimestamp().getValue();
+	        			incoherentEventTs = incoherentEvent.getIncoherentTimestamp().getValue();
 	        		}
 	        		else {
 	        			incoherentEvent = null;
@@ -656,7 +672,7 @@ public class CoherenceView extends ControlFlowView {
 					// Get the next incoherent event, if it exists
 	        		if (incoherentEventsIt.hasNext()) {
 	        			incoherentEvent = incoherentEventsIt.next();
-	        			incoherentEventTs = incoherentEvent.getIncoherentEvent().getTimestamp().getValue();
+	        			incoherentEventTs = incoherentEvent.getIncoherentTimestamp().getValue();
 	        		}
 	        		else {
 	        			incoherentEvent = null;
@@ -764,7 +780,8 @@ public class CoherenceView extends ControlFlowView {
                     	   thus leading to the prevEntry not being the entry corresponding to the prev_tid, in which
                     	   case we want to fix that */
                     	int prevTid = ((ControlFlowEntry) prevEntry).getThreadId();
-						ITmfEvent event = fIncoherentEvents.get(arrow.getStartTime());
+						FsmStateIncoherence incoherence = fIncoherentEvents.get(arrow.getStartTime());
+						ITmfEvent event = (incoherence == null) ? null : incoherence.getIncoherentEvent();
 						ITmfTrace trace = getTrace();
 						if (event != null && trace instanceof IKernelTrace) {
 							ITmfEventField field = event.getContent().getField(((IKernelTrace) trace).getKernelEventLayout().fieldPrevTid());